@@ -20,7 +20,6 @@
 
 package megan.algorithms;
 
-import jloda.graph.Edge;
 import jloda.graph.Node;
 import megan.classification.ClassificationManager;
 import megan.classification.IdMapper;
@@ -42,13 +41,45 @@ public class AssignmentUsingIntervalUnionLCA implements IAssignmentAlgorithm {
 	private final float topPercent;
 	private final ClassificationFullTree fullTree;
 
-	// all these are used during computation:
-	private final HashSet<Node> allNodes = new HashSet<>();
-	private final HashMap<Integer, IntervalList> taxa2intervals = new HashMap<>();
-	private final Map<Node, Integer> node2covered = new HashMap<>();
-
-	private StartStopEvent[] events = new StartStopEvent[10000]; // not final because may get resized...
-	private final Comparator<StartStopEvent> comparator;
+	// all these are used during computation and are reused from read to read.
+	// Taxa are given dense indices, once per read, and all per-taxon data is kept in arrays indexed by them:
+	private final Map<Integer, Integer> taxon2index = new HashMap<>();
+	private int numberOfTaxa;
+	private int[] index2taxon = new int[0];
+	private int[] taxonNumberOfMatches = new int[0];
+	private int[] heapOffset = new int[0]; // each taxon has a max-heap of its active matches, ordered by score
+	private int[] heapSize = new int[0];
+	private float[] bestScore = new float[0];
+	private boolean[] hasBestScore = new boolean[0];
+	private boolean[] isOpen = new boolean[0]; // is the taxon currently above the top-percent threshold?
+	private int[] openPos = new int[0];
+	private int[] openSegment = new int[0];
+	private int[] leafCovered = new int[0]; // covered bases, as computed for a taxon that is a leaf of the induced tree
+	private long[][] taxonRuns = new long[0][];
+	private int[] taxonNumberOfRuns = new int[0];
+	private int[] touchedAt = new int[0];
+	private int[] touched = new int[0];
+
+	// per match:
+	private int[] matchTaxon = new int[0];
+	private float[] matchScore = new float[0];
+	private boolean[] matchActive = new boolean[0];
+	private int[] heap = new int[0];
+	private long[] events = new long[0];
+
+	// active taxa, keyed by best score and then index:
+	private final TreeSet<Long> activeTaxa = new TreeSet<>();
+
+	// induced tree, each node has a larger index than its parent:
+	private final Map<Node, Integer> node2index = new HashMap<>();
+	private final ArrayList<Node> nodes = new ArrayList<>();
+	private final ArrayList<Node> path = new ArrayList<>();
+	private int[] nodeTaxon = new int[0];
+	private int[] firstChild = new int[0];
+	private int[] nextSibling = new int[0];
+	private int[] nodeCovered = new int[0];
+	private long[][] nodeRuns = new long[0][];
+	private int[] nodeNumberOfRuns = new int[0];
 
 	/**
 	 * constructor
@@ -58,8 +89,6 @@ public class AssignmentUsingIntervalUnionLCA implements IAssignmentAlgorithm {
 		this.weightedPercentFactor = Math.min(1f, doc.getLcaCoveragePercent() / 100.0f);
 		this.topPercent = doc.getTopPercent();
 		this.fullTree = ClassificationManager.get(cName, true).getFullTree();
-
-		comparator = createComparator();
 	}
 
 	/**
@@ -73,171 +102,252 @@ public class AssignmentUsingIntervalUnionLCA implements IAssignmentAlgorithm {
 		if (activeMatches.cardinality() == 0)
 			return IdMapper.UNASSIGNED_ID;
 
-		taxa2intervals.clear();
-		computeTaxaToSegmentsMap(activeMatches, readBlock, taxa2intervals);
+		computeTaxaToSegments(activeMatches, readBlock);
 
-		if (taxa2intervals.size() == 0)
-			return IdMapper.UNASSIGNED_ID;
+		int numberOfTaxaWithSegments = 0;
+		int taxonWithSegments = -1;
+		for (int t = 0; t < numberOfTaxa; t++) {
+			if (taxonNumberOfRuns[t] > 0) {
+				numberOfTaxaWithSegments++;
+				taxonWithSegments = t;
+			}
+		}
 
-		if (taxa2intervals.size() == 1)
-			return taxa2intervals.keySet().iterator().next();
+		if (numberOfTaxaWithSegments == 0)
+			return IdMapper.UNASSIGNED_ID;
 
-		allNodes.clear();
-		final Node root = computeInducedTree(taxa2intervals, allNodes);
+		if (numberOfTaxaWithSegments == 1)
+			return index2taxon[taxonWithSegments];
 
-		node2covered.clear();
-		computeCoveredBasesRec(root, allNodes, taxa2intervals, node2covered);
+		computeInducedTree();
+		computeCoveredBases();
 
-		final double threshold = weightedPercentFactor * node2covered.get(root);
-		return getLCA(root, allNodes, node2covered, threshold);
+		final double threshold = weightedPercentFactor * nodeCovered[0];
+		return getLCA(threshold);
 	}
 
 	/**
-	 * computes the taxon to segments map. On each segment, we apply the top-percent filter
+	 * computes the segments of the read on which each taxon passes the top-percent filter. Start and stop events are processed
+	 * in order of position. Each taxon keeps a heap of its active matches, and the active taxa are kept sorted by their best score,
+	 * so only taxa whose best score changes, or whose best score lies between the old and new threshold, need to be updated.
+	 * Consecutive segments of a taxon are merged into runs
 	 */
-	private void computeTaxaToSegmentsMap(BitSet activeMatches, IReadBlock readBlock, HashMap<Integer, IntervalList> taxa2intervals) {
-		// determine all start and stop events:
-		int numberOfEvents = 0;
+	private void computeTaxaToSegments(BitSet activeMatches, IReadBlock readBlock) {
+		// assign dense indices to taxa and determine all start and stop events:
+		taxon2index.clear();
+		numberOfTaxa = 0;
+		int numberOfMatches = 0;
 		for (int m = activeMatches.nextSetBit(0); m != -1; m = activeMatches.nextSetBit(m + 1)) {
 			final IMatchBlock matchBlock = readBlock.getMatchBlock(m);
-			int taxonId = matchBlock.getId(cName);
+			final int taxonId = matchBlock.getId(cName);
 			if (taxonId > 0 && !TaxonomyData.isTaxonDisabled(cName, taxonId)) {
-				if (numberOfEvents + 1 >= events.length) { // need enough to add two new events
-					StartStopEvent[] tmp = new StartStopEvent[2 * events.length];
-					System.arraycopy(events, 0, tmp, 0, numberOfEvents);
-					events = tmp;
+				Integer t = taxon2index.get(taxonId);
+				if (t == null) {
+					t = addTaxon(taxonId);
+					taxon2index.put(taxonId, t);
 				}
-				if (events[numberOfEvents] == null)
-					events[numberOfEvents] = new StartStopEvent();
-				events[numberOfEvents++].set(true, Math.min(matchBlock.getAlignedQueryStart(), matchBlock.getAlignedQueryEnd()), m);
-				if (events[numberOfEvents] == null)
-					events[numberOfEvents] = new StartStopEvent();
-				events[numberOfEvents++].set(false, Math.max(matchBlock.getAlignedQueryStart(), matchBlock.getAlignedQueryEnd()), m);
+				ensureMatchCapacity(numberOfMatches + 1);
+				matchTaxon[numberOfMatches] = t;
+				matchScore[numberOfMatches] = matchBlock.getBitScore();
+				matchActive[numberOfMatches] = false;
+				taxonNumberOfMatches[t]++;
+				events[2 * numberOfMatches] = encodeEvent(Math.min(matchBlock.getAlignedQueryStart(), matchBlock.getAlignedQueryEnd()), false, numberOfMatches);
+				events[2 * numberOfMatches + 1] = encodeEvent(Math.max(matchBlock.getAlignedQueryStart(), matchBlock.getAlignedQueryEnd()), true, numberOfMatches);
+				numberOfMatches++;
 			}
 		}
-		Arrays.sort(events, 0, numberOfEvents, comparator);
-
-		final BitSet currentMatches = new BitSet(); // set of matches currently active
-		final Map<Integer, Float> taxon2BestScore = new HashMap<>();
-
-		StartStopEvent previousEvent = null;
-		for (int c = 0; c < numberOfEvents; c++) {
-			final StartStopEvent currentEvent = events[c];
-			if (previousEvent == null) {
-				if (!currentEvent.isStart())
-					throw new RuntimeException("Taxon end before begin: " + currentEvent);
-				currentMatches.set(currentEvent.getMatchId());
-			} else {
-				if (currentEvent.getPos() > previousEvent.getPos()) {
-					final int segmentLength = (currentEvent.getPos() - previousEvent.getPos() + 1); // length of segment
-
-					if (segmentLength > 0) {
-						taxon2BestScore.clear();
-						for (int m = currentMatches.nextSetBit(0); m != -1; m = currentMatches.nextSetBit(m + 1)) {
-							final IMatchBlock matchBlock = readBlock.getMatchBlock(m);
-							final int taxonId = matchBlock.getId(cName); // store the best score for each taxon
-
-							if (taxonId > 0 && !TaxonomyData.isTaxonDisabled(cName, taxonId)) {
-								Float bestScore = taxon2BestScore.get(taxonId);
-								if (bestScore == null)
-									taxon2BestScore.put(taxonId, matchBlock.getBitScore());
-								else
-									taxon2BestScore.put(taxonId, Math.max(bestScore, matchBlock.getBitScore()));
-							}
-						}
-						// determine the top-percent threshold on the current segment:
-						float topPercentThreshold = 0;
-						for (Float value : taxon2BestScore.values()) {
-							topPercentThreshold = Math.max(topPercentThreshold, value);
-						}
-						topPercentThreshold = (100.0f - topPercent) / 100.0f * topPercentThreshold;
-
-						// add the segments for all taxa whose best match exceeds the threshold:
-						for (Integer taxonId : taxon2BestScore.keySet()) {
-							if (taxon2BestScore.get(taxonId) >= topPercentThreshold) {
-								IntervalList intervals = taxa2intervals.get(taxonId);
-								if (intervals == null) {
-									intervals = new IntervalList();
-									taxa2intervals.put(taxonId, intervals);
-								}
-								intervals.add(previousEvent.getPos(), currentEvent.getPos());
-							}
-						}
-					}
+		for (int t = 0, offset = 0; t < numberOfTaxa; t++) {
+			heapOffset[t] = offset;
+			offset += taxonNumberOfMatches[t];
+		}
+
+		final int numberOfEvents = 2 * numberOfMatches;
+		Arrays.sort(events, 0, numberOfEvents); // by position, start events before end events
+
+		activeTaxa.clear();
+		boolean hasThreshold = false;
+		float threshold = 0;
+
+		for (int e = 0, segment = 0; e < numberOfEvents; segment++) {
+			// apply all events at the current position:
+			final int pos = getEventPos(events[e]);
+			int numberOfTouched = 0;
+			for (; e < numberOfEvents && getEventPos(events[e]) == pos; e++) {
+				final int k = getEventMatch(events[e]);
+				final int t = matchTaxon[k];
+				if (isEndEvent(events[e]))
+					matchActive[k] = false; // removed from heap lazily
+				else {
+					matchActive[k] = true;
+					pushHeap(t, k);
 				}
-				// update the set of current matches:
-				if (currentEvent.isStart()) {
-					currentMatches.set(currentEvent.getMatchId());
-				} else { // is end event
-					currentMatches.clear(currentEvent.getMatchId());
+				if (touchedAt[t] != segment) {
+					touchedAt[t] = segment;
+					touched[numberOfTouched++] = t;
+				}
+			}
+
+			// update the best scores of all touched taxa:
+			for (int i = 0; i < numberOfTouched; i++) {
+				final int t = touched[i];
+				if (hasBestScore[t])
+					activeTaxa.remove(encodeKey(bestScore[t], t));
+				hasBestScore[t] = updateBestScore(t);
+				if (hasBestScore[t])
+					activeTaxa.add(encodeKey(bestScore[t], t));
+			}
+
+			// determine the top-percent threshold on the segment that starts here:
+			final boolean hadThreshold = hasThreshold;
+			final float previousThreshold = threshold;
+			hasThreshold = !activeTaxa.isEmpty();
+			if (hasThreshold)
+				threshold = (100.0f - topPercent) / 100.0f * Math.max(0, bestScore[getKeyTaxon(activeTaxa.last())]);
+
+			for (int i = 0; i < numberOfTouched; i++) {
+				updateRun(touched[i], threshold, pos, segment);
+			}
+			// if the threshold has changed, then taxa whose best score lies between the old and the new threshold need to be updated, too:
+			if (hadThreshold && hasThreshold && threshold != previousThreshold) {
+				final long lowKey = encodeKey(Math.min(threshold, previousThreshold), 0);
+				final long highKey = encodeKey(Math.max(threshold, previousThreshold), 0);
+				for (long key : activeTaxa.subSet(lowKey, true, highKey, false)) {
+					updateRun(getKeyTaxon(key), threshold, pos, segment);
 				}
 			}
-			previousEvent = currentEvent;
-		}
-		for (IntervalList list : taxa2intervals.values()) {
-			list.setIsSorted(true); // initially, lists are sorted by construction
 		}
 	}
 
 	/**
-	 * computes the set of all nodes that lie between the given taxa and their LCA
+	 * opens or closes the current run of a taxon, depending on whether it passes the threshold on the segment that starts at pos.
+	 * Leaf coverage is computed as the sum of the lengths of all segments, in which consecutive segments share their end points
 	 *
-	 * @return root node
+	 * @param segment number of the segment that starts at pos
 	 */
-	private Node computeInducedTree(HashMap<Integer, IntervalList> taxa2intervals, Set<Node> allNodes) {
-		// compute the local root node:
-		final Node rootOfAllNodes;
-		{
-			final ArrayList<String> addresses = new ArrayList<>(taxa2intervals.size());
-			for (Integer taxId : taxa2intervals.keySet()) {
-				addresses.add(fullTree.getAddress(taxId));
+	private void updateRun(int t, float threshold, int pos, int segment) {
+		final boolean passes = (hasBestScore[t] && bestScore[t] >= threshold);
+		if (passes) {
+			if (!isOpen[t]) {
+				isOpen[t] = true;
+				openPos[t] = pos;
+				openSegment[t] = segment;
 			}
-			final int rootId = fullTree.getAddress2Id(LCAAddressing.getCommonPrefix(addresses, false));
-			rootOfAllNodes = fullTree.getANode(rootId);
+		} else if (isOpen[t]) {
+			isOpen[t] = false;
+			if (taxonNumberOfRuns[t] == taxonRuns[t].length)
+				taxonRuns[t] = Arrays.copyOf(taxonRuns[t], Math.max(4, 2 * taxonRuns[t].length));
+			taxonRuns[t][taxonNumberOfRuns[t]++] = encodeRun(openPos[t], pos);
+			leafCovered[t] += (pos - openPos[t] + 1) + (segment - openSegment[t] - 1);
 		}
+	}
 
-		allNodes.add(rootOfAllNodes);
-
-		// add all nodes between that taxa and the root:
-		for (Integer taxId : taxa2intervals.keySet()) {
-			Node v = fullTree.getANode(taxId);
-			if (v != null) {
-				while (!allNodes.contains(v)) {
-					allNodes.add(v);
-					if (v.getInDegree() > 0)
-						v = v.getFirstInEdge().getSource();
-					else
-						break; // must be v==fullTree.getRoot()
+	/**
+	 * computes the tree induced by all taxa that have segments, from their LCA downward
+	 */
+	private void computeInducedTree() {
+		final ArrayList<String> addresses = new ArrayList<>();
+		for (int t = 0; t < numberOfTaxa; t++) {
+			if (taxonNumberOfRuns[t] > 0)
+				addresses.add(fullTree.getAddress(index2taxon[t]));
+		}
+		final int rootId = fullTree.getAddress2Id(LCAAddressing.getCommonPrefix(addresses, false));
+
+		nodes.clear();
+		node2index.clear();
+		addNode(fullTree.getANode(rootId), -1);
+
+		// add all nodes between the taxa and the root:
+		for (int t = 0; t < numberOfTaxa; t++) {
+			if (taxonNumberOfRuns[t] > 0) {
+				Node v = fullTree.getANode(index2taxon[t]);
+				if (v != null) {
+					path.clear();
+					while (!node2index.containsKey(v)) {
+						path.add(v);
+						if (v.getInDegree() > 0)
+							v = v.getFirstInEdge().getSource();
+						else {
+							v = null; // must be v==fullTree.getRoot()
+							break;
+						}
+					}
+					int parent = (v != null ? node2index.get(v) : -1);
+					for (int i = path.size() - 1; i >= 0; i--) {
+						parent = addNode(path.get(i), parent);
+					}
 				}
 			}
 		}
-		return rootOfAllNodes;
 	}
 
-	/**
-	 * computes the number of bases that each taxon is covered by. Side effect is to change all taxa2intervals intervals.
-	 */
-	private IntervalList computeCoveredBasesRec(final Node v, final HashSet<Node> allNodes, final HashMap<Integer, IntervalList> taxa2intervals, final Map<Node, Integer> node2covered) {
-		final int taxId = (Integer) v.getInfo();
-
-		final IntervalList intervals;
-		if (taxa2intervals.get(taxId) != null)
-			intervals = taxa2intervals.get(taxId);
-		else {
-			intervals = new IntervalList();
-			taxa2intervals.put(taxId, intervals);
+	private int addNode(Node v, int parent) {
+		final int index = nodes.size();
+		nodes.add(v);
+		node2index.put(v, index);
+		if (index == nodeTaxon.length) {
+			final int size = Math.max(64, 2 * index);
+			nodeTaxon = Arrays.copyOf(nodeTaxon, size);
+			firstChild = Arrays.copyOf(firstChild, size);
+			nextSibling = Arrays.copyOf(nextSibling, size);
+			nodeCovered = Arrays.copyOf(nodeCovered, size);
+			nodeRuns = Arrays.copyOf(nodeRuns, size);
+			nodeNumberOfRuns = Arrays.copyOf(nodeNumberOfRuns, size);
+		}
+		nodeTaxon[index] = taxon2index.getOrDefault((Integer) v.getInfo(), -1);
+		firstChild[index] = -1;
+		nextSibling[index] = -1;
+		if (parent != -1) {
+			nextSibling[index] = firstChild[parent];
+			firstChild[parent] = index;
 		}
+		return index;
+	}
 
-		// get intervals of children:
-		for (Edge e = v.getFirstOutEdge(); e != null; e = v.getNextOutEdge(e)) {
-			final Node w = e.getTarget();
-			if (allNodes.contains(w)) {
-				final IntervalList intervalsW = computeCoveredBasesRec(w, allNodes, taxa2intervals, node2covered);
-				intervals.addAll(intervalsW.getAll()); // this will trigger recomputation of amount covered
+	/**
+	 * computes the number of bases that each node is covered by, bottom-up. The runs of a node are the union of its own runs and those of its children
+	 */
+	private void computeCoveredBases() {
+		for (int v = nodes.size() - 1; v >= 0; v--) {
+			final int t = nodeTaxon[v];
+			if (firstChild[v] == -1) {
+				nodeCovered[v] = (t != -1 ? leafCovered[t] : 0);
+				nodeRuns[v] = (t != -1 ? taxonRuns[t] : null);
+				nodeNumberOfRuns[v] = (t != -1 ? taxonNumberOfRuns[t] : 0);
+			} else {
+				int count = (t != -1 ? taxonNumberOfRuns[t] : 0);
+				for (int w = firstChild[v]; w != -1; w = nextSibling[w])
+					count += nodeNumberOfRuns[w];
+				final long[] runs = new long[count];
+				count = 0;
+				if (t != -1) {
+					System.arraycopy(taxonRuns[t], 0, runs, 0, taxonNumberOfRuns[t]);
+					count += taxonNumberOfRuns[t];
+				}
+				for (int w = firstChild[v]; w != -1; w = nextSibling[w]) {
+					if (nodeNumberOfRuns[w] > 0) {
+						System.arraycopy(nodeRuns[w], 0, runs, count, nodeNumberOfRuns[w]);
+						count += nodeNumberOfRuns[w];
+					}
+					nodeRuns[w] = null;
+				}
+				Arrays.sort(runs, 0, count);
+
+				// make the runs disjoint:
+				int size = 0;
+				int covered = 0;
+				for (int i = 0; i < count; i++) {
+					if (size > 0 && getRunStart(runs[i]) <= getRunEnd(runs[size - 1]))
+						runs[size - 1] = encodeRun(getRunStart(runs[size - 1]), Math.max(getRunEnd(runs[size - 1]), getRunEnd(runs[i])));
+					else
+						runs[size++] = runs[i];
+				}
+				for (int i = 0; i < size; i++)
+					covered += getRunEnd(runs[i]) - getRunStart(runs[i]) + 1;
+				nodeCovered[v] = covered;
+				nodeRuns[v] = runs;
+				nodeNumberOfRuns[v] = size;
 			}
 		}
-		node2covered.put(v, intervals.getCovered());
-		return intervals;
 	}
 
 	/**
@@ -245,26 +355,24 @@ public class AssignmentUsingIntervalUnionLCA implements IAssignmentAlgorithm {
 	 *
 	 * @return LCA of all nodes that meet the threshold
 	 */
-	private int getLCA(Node v, HashSet<Node> allNodes, Map<Node, Integer> node2covered, double threshold) {
+	private int getLCA(double threshold) {
+		int v = 0;
 		while (true) {
-			Node bestChild = null;
-
-			for (Edge e = v.getFirstOutEdge(); e != null; e = v.getNextOutEdge(e)) {
-				final Node w = e.getTarget();
-				if (allNodes.contains(w)) {
-					if (node2covered.get(w) >= threshold) {
-						if (bestChild == null)
-							bestChild = w;
-						else { // has at least two best children, return v
-							return (Integer) v.getInfo();
-						}
+			int bestChild = -1;
+
+			for (int w = firstChild[v]; w != -1; w = nextSibling[w]) {
+				if (nodeCovered[w] >= threshold) {
+					if (bestChild == -1)
+						bestChild = w;
+					else { // has at least two best children, return v
+						return (Integer) nodes.get(v).getInfo();
 					}
 				}
 			}
-			if (bestChild != null)
+			if (bestChild != -1)
 				v = bestChild; // has exactly one child that beats threshold, move down to it
 			else
-				return (Integer) v.getInfo(); //  no best child, return v
+				return (Integer) nodes.get(v).getInfo(); //  no best child, return v
 		}
 	}
 
@@ -278,46 +386,143 @@ public class AssignmentUsingIntervalUnionLCA implements IAssignmentAlgorithm {
 			return fullTree.getAddress2Id(LCAAddressing.getCommonPrefix(new String[]{fullTree.getAddress(id1), fullTree.getAddress(id2)}, 2, false));
 	}
 
-	private Comparator<StartStopEvent> createComparator() {
-		return (a, b) -> {
-			if (a.getPos() < b.getPos())
-				return -1;
-			else if (a.getPos() > b.getPos())
-				return 1;
-			else if (a.isStart() && b.isEnd())
-				return -1;
-			else if (a.isEnd() && b.isStart())
-				return 1;
-			else
-				return 0;
-		};
+	/**
+	 * adds a taxon and returns its dense index
+	 */
+	private int addTaxon(int taxonId) {
+		final int t = numberOfTaxa++;
+		if (t == index2taxon.length) {
+			final int size = Math.max(64, 2 * t);
+			index2taxon = Arrays.copyOf(index2taxon, size);
+			taxonNumberOfMatches = Arrays.copyOf(taxonNumberOfMatches, size);
+			heapOffset = Arrays.copyOf(heapOffset, size);
+			heapSize = Arrays.copyOf(heapSize, size);
+			bestScore = Arrays.copyOf(bestScore, size);
+			hasBestScore = Arrays.copyOf(hasBestScore, size);
+			isOpen = Arrays.copyOf(isOpen, size);
+			openPos = Arrays.copyOf(openPos, size);
+			openSegment = Arrays.copyOf(openSegment, size);
+			leafCovered = Arrays.copyOf(leafCovered, size);
+			taxonRuns = Arrays.copyOf(taxonRuns, size);
+			taxonNumberOfRuns = Arrays.copyOf(taxonNumberOfRuns, size);
+			touchedAt = Arrays.copyOf(touchedAt, size);
+			touched = Arrays.copyOf(touched, size);
+		}
+		index2taxon[t] = taxonId;
+		taxonNumberOfMatches[t] = 0;
+		heapSize[t] = 0;
+		hasBestScore[t] = false;
+		isOpen[t] = false;
+		leafCovered[t] = 0;
+		if (taxonRuns[t] == null)
+			taxonRuns[t] = new long[4];
+		taxonNumberOfRuns[t] = 0;
+		touchedAt[t] = -1;
+		return t;
 	}
 
-	private static class StartStopEvent {
-		private boolean start;
-		private int pos;
-		private int matchId;
-
-		void set(boolean start, int pos, int matchId) {
-			this.start = start;
-			this.pos = pos;
-			this.matchId = matchId;
+	private void ensureMatchCapacity(int numberOfMatches) {
+		if (numberOfMatches > matchTaxon.length) {
+			final int size = Math.max(1024, 2 * numberOfMatches);
+			matchTaxon = Arrays.copyOf(matchTaxon, size);
+			matchScore = Arrays.copyOf(matchScore, size);
+			matchActive = Arrays.copyOf(matchActive, size);
+			heap = Arrays.copyOf(heap, size);
+			events = Arrays.copyOf(events, 2 * size);
 		}
+	}
 
-		boolean isStart() {
-			return start;
-		}
+	/**
+	 * removes inactive matches from the top of the heap of the taxon and sets its best score
+	 *
+	 * @return true, if taxon has an active match
+	 */
+	private boolean updateBestScore(int t) {
+		while (heapSize[t] > 0 && !matchActive[heap[heapOffset[t]]])
+			popHeap(t);
+		if (heapSize[t] > 0) {
+			bestScore[t] = matchScore[heap[heapOffset[t]]];
+			return true;
+		} else
+			return false;
+	}
 
-		boolean isEnd() {
-			return !start;
+	private void pushHeap(int t, int k) {
+		final int offset = heapOffset[t];
+		int i = heapSize[t]++;
+		while (i > 0) {
+			final int parent = (i - 1) / 2;
+			if (matchScore[heap[offset + parent]] >= matchScore[k])
+				break;
+			heap[offset + i] = heap[offset + parent];
+			i = parent;
 		}
+		heap[offset + i] = k;
+	}
 
-		int getPos() {
-			return pos;
+	private void popHeap(int t) {
+		final int offset = heapOffset[t];
+		final int size = --heapSize[t];
+		final int k = heap[offset + size];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size)
+				break;
+			if (child + 1 < size && matchScore[heap[offset + child + 1]] > matchScore[heap[offset + child]])
+				child++;
+			if (matchScore[k] >= matchScore[heap[offset + child]])
+				break;
+			heap[offset + i] = heap[offset + child];
+			i = child;
 		}
+		if (size > 0)
+			heap[offset + i] = k;
+	}
 
-		int getMatchId() {
-			return matchId;
-		}
+	/**
+	 * events are sorted by position, and start events come before end events
+	 */
+	private static long encodeEvent(int pos, boolean end, int match) {
+		return ((long) pos << 32) | (end ? 0x80000000L : 0L) | match;
+	}
+
+	private static int getEventPos(long event) {
+		return (int) (event >> 32);
+	}
+
+	private static boolean isEndEvent(long event) {
+		return (event & 0x80000000L) != 0;
+	}
+
+	private static int getEventMatch(long event) {
+		return (int) (event & 0x7fffffffL);
+	}
+
+	/**
+	 * keys are sorted by score and then by taxon index
+	 */
+	private static long encodeKey(float score, int t) {
+		final int bits = Float.floatToIntBits(score);
+		return ((long) (bits >= 0 ? bits : bits ^ 0x7fffffff) << 32) | t;
+	}
+
+	private static int getKeyTaxon(long key) {
+		return (int) (key & 0xffffffffL);
+	}
+
+	/**
+	 * runs are sorted by start and then by end
+	 */
+	private static long encodeRun(int start, int end) {
+		return ((long) start << 32) | (end & 0xffffffffL);
+	}
+
+	private static int getRunStart(long run) {
+		return (int) (run >> 32);
+	}
+
+	private static int getRunEnd(long run) {
+		return (int) run;
 	}
 }
@@ -23,6 +23,7 @@ import jloda.swing.util.ProgramProperties;
 import jloda.swing.window.NotificationsInSwing;
 import jloda.util.Basic;
 import jloda.util.CanceledException;
+import jloda.util.ProgramExecutorService;
 import jloda.util.interval.Interval;
 import jloda.util.interval.IntervalTree;
 import jloda.util.progress.ProgressListener;
@@ -37,6 +38,7 @@ import megan.core.SyncArchiveAndDataTable;
 import megan.data.*;
 import megan.io.InputOutputReaderWriter;
 import megan.main.MeganProperties;
+import megan.rma6.RMA6Connector;
 import megan.rma6.RMA6File;
 import megan.rma6.ReadBlockRMA6;
 
@@ -183,7 +185,9 @@ public class DataProcessor {
 			System.err.println("Binning reads...");
 			progress.setTasks("Binning reads", "Analyzing alignments");
 
-			try (final IReadBlockIterator it = connector.getAllReadsIterator(0, 10, false, true)) {
+			// reads are decoded in parallel, but assigned in file order
+			try (final IReadBlockIterator it = (connector instanceof RMA6Connector rma6Connector ? rma6Connector.getAllReadsIterator(0, 10, false, true, ProgramExecutorService.getNumberOfCoresToUse())
+					: connector.getAllReadsIterator(0, 10, false, true))) {
 				progress.setMaximum(it.getMaximumProgress());
 				progress.setProgress(0);
 
@@ -318,12 +322,12 @@ public class DataProcessor {
 						else if (id > 0)
 							countAssigned[c]++;
 					}
-					updateList.addItem(readBlock.getUId(), readBlock.getReadWeight(), classIds);
+					updateList.addItem(readBlock.getReadName(), readBlock.getUId(), readBlock.getReadWeight(), classIds);
 
 					if (usingLongReadAlgorithm) {
 						for (int c = 0; c < numberOfClassifications; c++) {
 							for (int[] classId : moreClassIds[c]) {
-								updateList.addItem(readBlock.getUId(), multiGeneWeights[c], classId);
+								updateList.addItem(readBlock.getReadName(), readBlock.getUId(), multiGeneWeights[c], classId);
 							}
 						}
 					}
@@ -0,0 +1,257 @@
+/*
+ * IntervalDomination.java Copyright (C) 2024 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package megan.algorithms;
+
+import jloda.util.interval.IntervalTree;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * domination filtering for sets of intervals, such as the matches of a long read.
+ * Intervals are indexed by a uniform grid of buckets along the query, about as wide as the median interval, so that
+ * most intervals touch only one or two buckets and only intervals in the same part of the query are compared
+ * Daniel Huson, 10.2026
+ */
+public class IntervalDomination {
+	/**
+	 * does interval i dominate interval j?
+	 */
+	public interface Dominates {
+		boolean apply(int i, int j);
+	}
+
+	/**
+	 * determines the intervals that remain when dominated intervals are removed repeatedly, until no remaining interval
+	 * is dominated by another remaining one. The given order must list every dominator before the intervals that
+	 * it dominates. Then the result is unique: processing the intervals in this order, an interval is kept
+	 * if and only if no interval that was kept before dominates it
+	 *
+	 * @param low   first position of each interval
+	 * @param high  last position of each interval
+	 * @param order all indices, dominators first
+	 * @return the kept intervals
+	 */
+	public static BitSet computeUndominated(int[] low, int[] high, int[] order, Dominates dominates) {
+		final var kept = new BitSet();
+		if (low.length == 0)
+			return kept;
+
+		final var grid = new BucketGrid(low, high);
+		final var lastChecked = new int[low.length];
+		Arrays.fill(lastChecked, -1);
+
+		for (var j : order) {
+			if (!isDominated(j, low, high, grid, lastChecked, null, 0, dominates)) {
+				kept.set(j);
+				grid.add(j);
+			}
+		}
+		return kept;
+	}
+
+	/**
+	 * determines the intervals that are dominated by some interval of the whole set. Assumes that an interval i can only
+	 * dominate an interval j, if factor*score[i]>score[j]
+	 *
+	 * @param low    first position of each interval
+	 * @param high   last position of each interval
+	 * @param score  score of each interval
+	 * @param factor score factor
+	 * @return the dominated intervals
+	 */
+	public static BitSet computeDominated(int[] low, int[] high, float[] score, float factor, Dominates dominates) {
+		final var dominated = new BitSet();
+		if (low.length == 0)
+			return dominated;
+
+		// add by decreasing score, so that each bucket is sorted by decreasing score:
+		final var grid = new BucketGrid(low, high);
+		for (var i : sortByDecreasingScore(score))
+			grid.add(i);
+
+		final var lastChecked = new int[low.length];
+		Arrays.fill(lastChecked, -1);
+
+		for (var j = 0; j < low.length; j++) {
+			if (isDominated(j, low, high, grid, lastChecked, score, factor, dominates))
+				dominated.set(j);
+		}
+		return dominated;
+	}
+
+	/**
+	 * is interval j dominated by an interval in the grid? If scores are given, then each bucket is assumed to be sorted by decreasing score
+	 * and is only scanned while factor*score[i]>score[j]
+	 */
+	private static boolean isDominated(int j, int[] low, int[] high, BucketGrid grid, int[] lastChecked, float[] score, float factor, Dominates dominates) {
+		for (var b = grid.getBucket(low[j]); b <= grid.getBucket(high[j]); b++) {
+			final var bucket = grid.buckets[b];
+			for (var k = 0; k < grid.sizes[b]; k++) {
+				final var i = bucket[k];
+				if (score != null && factor > 0 && factor * score[i] <= score[j])
+					break;
+				if (lastChecked[i] != j) {
+					lastChecked[i] = j;
+					if (high[i] >= low[j] && low[i] <= high[j] && dominates.apply(i, j))
+						return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static int[] sortByDecreasingScore(float[] score) {
+		final var indices = new Integer[score.length];
+		for (var i = 0; i < indices.length; i++)
+			indices[i] = i;
+		Arrays.sort(indices, (a, b) -> Float.compare(score[b], score[a]));
+		final var result = new int[indices.length];
+		for (var i = 0; i < indices.length; i++)
+			result[i] = indices[i];
+		return result;
+	}
+
+	/**
+	 * uniform grid of buckets covering the positions of all intervals, each interval is added to all buckets that it touches
+	 */
+	private static class BucketGrid {
+		private final int[] low;
+		private final int[] high;
+		private final int min;
+		private final int width;
+		private final int[][] buckets;
+		private final int[] sizes;
+
+		BucketGrid(int[] low, int[] high) {
+			this.low = low;
+			this.high = high;
+			var min = Integer.MAX_VALUE;
+			var max = Integer.MIN_VALUE;
+			for (var i = 0; i < low.length; i++) {
+				min = Math.min(min, low[i]);
+				max = Math.max(max, high[i]);
+			}
+			this.min = min;
+
+			final var lengths = new int[low.length];
+			for (var i = 0; i < low.length; i++)
+				lengths[i] = high[i] - low[i] + 1;
+			Arrays.sort(lengths);
+			final var range = (long) max - min + 1;
+			final var maxBuckets = 4L * low.length + 16; // bound the size of the grid for short intervals that are far apart
+			width = (int) Math.max(Math.max(1, lengths[lengths.length / 2]), (range + maxBuckets - 1) / maxBuckets);
+			final var numberOfBuckets = (int) ((range + width - 1) / width);
+			buckets = new int[numberOfBuckets][];
+			sizes = new int[numberOfBuckets];
+		}
+
+		int getBucket(int pos) {
+			return (int) Math.max(0, Math.min(buckets.length - 1, ((long) pos - min) / width));
+		}
+
+		void add(int i) {
+			for (var b = getBucket(low[i]); b <= getBucket(high[i]); b++) {
+				if (buckets[b] == null)
+					buckets[b] = new int[4];
+				else if (sizes[b] == buckets[b].length)
+					buckets[b] = Arrays.copyOf(buckets[b], 2 * sizes[b]);
+				buckets[b][sizes[b]++] = i;
+			}
+		}
+	}
+
+	/**
+	 * compares the results with those obtained using an interval tree, on random long-read-like data
+	 */
+	public static void main(String[] args) {
+		final var random = new Random(666);
+		var treeTime = 0L;
+		var gridTime = 0L;
+		var errors = 0;
+
+		for (var round = 0; round < 200; round++) {
+			final var n = 1 + random.nextInt(round < 100 ? 100 : 5000);
+			final var readLength = 1000 + random.nextInt(100000);
+			final var low = new int[n];
+			final var high = new int[n];
+			final var score = new float[n];
+			for (var i = 0; i < n; i++) {
+				final var length = (random.nextInt(10) == 0 ? 1 + random.nextInt(readLength) : 1 + random.nextInt(Math.min(readLength, 2000)));
+				low[i] = random.nextInt(readLength - length + 1);
+				high[i] = low[i] + length - 1;
+				score[i] = random.nextInt(2 * length + 1); // ties are intended
+			}
+			final var rank = sortByDecreasingScore(score);
+			final var position = new int[n];
+			for (var r = 0; r < n; r++)
+				position[rank[r]] = r;
+
+			final Dominates strongly = (i, j) -> overlap(low, high, i, j) > 0.9f * (high[j] - low[j] + 1) && 0.9f * score[i] > score[j];
+			final Dominates byRank = (i, j) -> overlap(low, high, i, j) > 0.5f * (high[j] - low[j] + 1) && position[i] < position[j];
+
+			var start = System.nanoTime();
+			final var dominated = computeDominated(low, high, score, 0.9f, strongly);
+			final var undominated = computeUndominated(low, high, rank, byRank);
+			gridTime += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			final var all = new IntervalTree<Integer>();
+			for (var i = 0; i < n; i++)
+				all.add(low[i], high[i], i);
+			final var expectedDominated = new BitSet();
+			for (var j = 0; j < n; j++) {
+				for (var interval : all.getIntervals(low[j], high[j])) {
+					if (strongly.apply(interval.getData(), j)) {
+						expectedDominated.set(j);
+						break;
+					}
+				}
+			}
+			final var kept = new IntervalTree<Integer>();
+			final var expectedUndominated = new BitSet();
+			for (var j : rank) {
+				var isDominated = false;
+				for (var interval : kept.getIntervals(low[j], high[j])) {
+					if (byRank.apply(interval.getData(), j)) {
+						isDominated = true;
+						break;
+					}
+				}
+				if (!isDominated) {
+					kept.add(low[j], high[j], j);
+					expectedUndominated.set(j);
+				}
+			}
+			treeTime += System.nanoTime() - start;
+
+			if (!dominated.equals(expectedDominated) || !undominated.equals(expectedUndominated)) {
+				System.err.println("Error: round " + round + ", n=" + n + ": results differ from interval tree");
+				errors++;
+			}
+		}
+		System.err.printf("Errors: %d, grid: %,d ms, interval tree: %,d ms%n", errors, gridTime / 1000000, treeTime / 1000000);
+	}
+
+	private static int overlap(int[] low, int[] high, int i, int j) {
+		return Math.min(high[i], high[j]) - Math.max(low[i], low[j]) + 1;
+	}
+}
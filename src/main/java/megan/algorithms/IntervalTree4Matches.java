@@ -23,7 +23,6 @@ package megan.algorithms;
 import javafx.concurrent.Task;
 import jloda.swing.util.ProgramProperties;
 import jloda.util.CanceledException;
-import jloda.util.Pair;
 import jloda.util.interval.Interval;
 import jloda.util.interval.IntervalTree;
 import jloda.util.progress.ProgressListener;
@@ -31,8 +30,9 @@ import megan.data.IMatchBlock;
 import megan.data.IReadBlock;
 
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
 
 /**
  * computes interval tree of all matches to keep for a read block
@@ -86,71 +86,9 @@ public class IntervalTree4Matches {
 			}
 		}
 
-		final IntervalTree<IMatchBlock> allMatches = new IntervalTree<>(); // initially all forward matches, at the end, all resulting matches
-		final IntervalTree<IMatchBlock> reverseMatches = new IntervalTree<>(); // all reverse matches
-		for (IMatchBlock matchBlock : intervals.values()) {
-			if (matchBlock.getAlignedQueryStart() <= matchBlock.getAlignedQueryEnd()) {
-				allMatches.add(matchBlock.getAlignedQueryStart(), matchBlock.getAlignedQueryEnd(), matchBlock);
-			} else
-				reverseMatches.add(matchBlock.getAlignedQueryStart(), matchBlock.getAlignedQueryEnd(), matchBlock);
-		}
-
-		// these will be reused in the loop:
-		final ArrayList<Pair<Interval<IMatchBlock>, Interval<IMatchBlock>>> pairs = new ArrayList<>(); // dominator,dominated pairs
-		final Set<Interval<IMatchBlock>> dominated = new HashSet<>(); // dominated
-
-		// remove all dominated matches
-		for (int i = 0; i < 2; i++) {
-			final IntervalTree<IMatchBlock> matches = (i == 0 ? allMatches : reverseMatches);
-
-			while (matches.size() > 1) {
-				// determine list of pairs of (dominator, dominated)
-				pairs.clear();
-				dominated.clear();
-
-				for (final Interval<IMatchBlock> interval : matches) {
-					final IMatchBlock match = interval.getData();
-					for (final Interval<IMatchBlock> otherInterval : matches.getIntervals(interval)) {
-						final IMatchBlock other = otherInterval.getData();
-						if (otherInterval.overlap(interval) > dominationProportion * interval.length() &&
-							(other.getBitScore() > match.getBitScore() || other.getBitScore() == match.getBitScore() &&
-																		  (other.getLength() < match.getLength() || (other.getLength() == match.getLength() && other.getUId() < match.getUId())))) {
-							boolean ok = true; // check that other interval has all annotations that this one has, otherwise it doesn't really dominate
-							for (String cName : cNames) {
-								if (match.getId(cName) > 0 && other.getId(cName) <= 0) {
-									ok = false;
-									break;
-								}
-							}
-							if (ok) {
-								pairs.add(new Pair<>(otherInterval, interval));
-								dominated.add(interval);
-								break; // found an other that dominates match...
-							}
-						}
-					}
-				}
-
-				// remove any match that is dominated by an undominated match:
-				final Set<Interval<IMatchBlock>> toRemove = new HashSet<>();
-				for (Pair<Interval<IMatchBlock>, Interval<IMatchBlock>> pair : pairs) {
-					if (!dominated.contains(pair.getFirst())) {
-						toRemove.add(pair.getSecond()); // first is not dominated and it dominates the second, so remove second
-					}
-				}
-				if (toRemove.size() > 0) {
-					final ArrayList<Interval<IMatchBlock>> toKeep = new ArrayList<>(matches.size());
-					for (Interval<IMatchBlock> interval : matches.getAllIntervals(false)) { // get unsorted intervals
-						if (!toRemove.contains(interval))
-							toKeep.add(interval);
-					}
-					matches.setAll(toKeep);
-				} else
-					break; // no change
-			}
-		}
-		allMatches.addAll(reverseMatches.intervals());
-		return allMatches;
+		return extractUndominated(intervals, cNames, Comparator.comparingDouble((IMatchBlock m) -> -m.getBitScore()).thenComparingInt(IMatchBlock::getLength).thenComparingLong(IMatchBlock::getUId),
+				(other, match, overlap, length) -> overlap > dominationProportion * length && (other.getBitScore() > match.getBitScore() || other.getBitScore() == match.getBitScore() &&
+																									(other.getLength() < match.getLength() || (other.getLength() == match.getLength() && other.getUId() < match.getUId()))));
 	}
 
 	/**
@@ -165,7 +103,7 @@ public class IntervalTree4Matches {
 		final float minPercentCoverToDominate = (float) ProgramProperties.get("MinPercentCoverToStronglyDominate", 90f);
 		final float minProportionCoverToDominate = minPercentCoverToDominate / 100.0f;
 
-		final float topPercentScoreToDominate = (float) ProgramProperties.get("TopPercentScoreToStronglyDominate", 10f);
+		final float topPercentScoreToDominate = Math.max(0f, (float) ProgramProperties.get("TopPercentScoreToStronglyDominate", 10f)); // must not be negative, otherwise domination can be cyclic
 		final float scoreFactor = 1f - (topPercentScoreToDominate / 100.0f);
 
 		if (!classificationToReport.equalsIgnoreCase("all")) {
@@ -177,68 +115,65 @@ public class IntervalTree4Matches {
 			}
 		}
 
-		final IntervalTree<IMatchBlock> allMatches = new IntervalTree<>(); // initially all foward matches, at the end, all resulting matches
-		final IntervalTree<IMatchBlock> reverseMatches = new IntervalTree<>(); // all reverse matches
+		return extractUndominated(intervals, cNames, Comparator.comparingDouble((IMatchBlock m) -> -m.getBitScore()),
+				(other, match, overlap, length) -> overlap > minProportionCoverToDominate * length && scoreFactor * other.getBitScore() > match.getBitScore());
+	}
+
+	/**
+	 * removes dominated matches, separately for forward and reverse matches. Repeatedly removing matches that are dominated by undominated ones
+	 * results in the same set as a single pass in which matches are processed in the given order and each match is kept if it is not dominated by a match kept before,
+	 * provided that the order lists each dominator before the matches that it dominates
+	 *
+	 * @param order      order in which to process matches, dominators first
+	 * @param dominates  does the first match dominate the second one, given the overlap of their intervals and the length of the interval of the second?
+	 * @return undominated intervals
+	 */
+	private static IntervalTree<IMatchBlock> extractUndominated(IntervalTree<IMatchBlock> intervals, String[] cNames, Comparator<IMatchBlock> order, MatchDominates dominates) {
+		final ArrayList<IMatchBlock> forwardMatches = new ArrayList<>();
+		final ArrayList<IMatchBlock> reverseMatches = new ArrayList<>();
 		for (IMatchBlock matchBlock : intervals.values()) {
-			if (matchBlock.getAlignedQueryStart() <= matchBlock.getAlignedQueryEnd()) {
-				allMatches.add(matchBlock.getAlignedQueryStart(), matchBlock.getAlignedQueryEnd(), matchBlock);
-			} else
-				reverseMatches.add(matchBlock.getAlignedQueryStart(), matchBlock.getAlignedQueryEnd(), matchBlock);
+			if (matchBlock.getAlignedQueryStart() <= matchBlock.getAlignedQueryEnd())
+				forwardMatches.add(matchBlock);
+			else
+				reverseMatches.add(matchBlock);
 		}
 
-		// these will be reused in the loop:
-		final ArrayList<Pair<Interval<IMatchBlock>, Interval<IMatchBlock>>> pairs = new ArrayList<>(); // dominator,dominated pairs
-		final Set<Interval<IMatchBlock>> dominated = new HashSet<>(); // dominated
-
-		// remove all dominated matches
-		for (int i = 0; i < 2; i++) {
-			final IntervalTree<IMatchBlock> matches = (i == 0 ? allMatches : reverseMatches);
-
-			while (matches.size() > 1) {
-				// determine list of pairs of (dominator, dominated)
-				pairs.clear();
-				dominated.clear();
-
-				for (final Interval<IMatchBlock> interval : matches) {
-					final IMatchBlock match = interval.getData();
-					for (final Interval<IMatchBlock> otherInterval : matches.getIntervals(interval)) {
-						final IMatchBlock other = otherInterval.getData();
-						if (otherInterval.overlap(interval) > minProportionCoverToDominate * interval.length() && scoreFactor * other.getBitScore() > match.getBitScore()) {
-							boolean ok = true; // check that other interval has all annotations that this one has, otherwise it doesn't really dominate
-							for (String cName : cNames) {
-								if (match.getId(cName) > 0 && other.getId(cName) <= 0) {
-									ok = false;
-									break;
-								}
-							}
-							if (ok) {
-								pairs.add(new Pair<>(otherInterval, interval));
-								dominated.add(interval);
-								break; // found an other that dominates match...
-							}
-						}
-					}
-				}
+		final IntervalTree<IMatchBlock> result = new IntervalTree<>();
+		for (ArrayList<IMatchBlock> matches : List.of(forwardMatches, reverseMatches)) {
+			matches.sort(order);
+			final int n = matches.size();
+			final int[] low = new int[n];
+			final int[] high = new int[n];
+			final int[] rank = new int[n];
+			final boolean[][] hasIds = new boolean[n][cNames.length]; // check that dominator has all annotations that the dominated one has, otherwise it doesn't really dominate
+			for (int m = 0; m < n; m++) {
+				final IMatchBlock matchBlock = matches.get(m);
+				low[m] = Math.min(matchBlock.getAlignedQueryStart(), matchBlock.getAlignedQueryEnd());
+				high[m] = Math.max(matchBlock.getAlignedQueryStart(), matchBlock.getAlignedQueryEnd());
+				rank[m] = m;
+				for (int c = 0; c < cNames.length; c++)
+					hasIds[m][c] = matchBlock.getId(cNames[c]) > 0;
+			}
 
-				// remove any match that is dominated by an undominated match:
-				final Set<Interval<IMatchBlock>> toRemove = new HashSet<>();
-				for (Pair<Interval<IMatchBlock>, Interval<IMatchBlock>> pair : pairs) {
-					if (!dominated.contains(pair.getFirst())) {
-						toRemove.add(pair.getSecond()); // first is not dominated and it dominates the second, so remove second
-					}
+			final BitSet kept = IntervalDomination.computeUndominated(low, high, rank, (i, j) -> {
+				final int overlap = Math.min(high[i], high[j]) - Math.max(low[i], low[j]) + 1;
+				if (!dominates.apply(matches.get(i), matches.get(j), overlap, high[j] - low[j] + 1))
+					return false;
+				for (int c = 0; c < cNames.length; c++) {
+					if (hasIds[j][c] && !hasIds[i][c])
+						return false;
 				}
-				if (toRemove.size() > 0) {
-					final ArrayList<Interval<IMatchBlock>> toKeep = new ArrayList<>(matches.size());
-					for (Interval<IMatchBlock> interval : matches.getAllIntervals(false)) { // get unsorted intervals
-						if (!toRemove.contains(interval))
-							toKeep.add(interval);
-					}
-					matches.setAll(toKeep);
-				} else
-					break; // no change
+				return true;
+			});
+			for (int m = kept.nextSetBit(0); m != -1; m = kept.nextSetBit(m + 1)) {
+				final IMatchBlock matchBlock = matches.get(m);
+				result.add(new Interval<>(matchBlock.getAlignedQueryStart(), matchBlock.getAlignedQueryEnd(), matchBlock));
 			}
 		}
-		allMatches.addAll(reverseMatches.intervals());
-		return allMatches;
+		return result;
+	}
+
+	private interface MatchDominates {
+		boolean apply(IMatchBlock other, IMatchBlock match, int overlap, int length);
 	}
 }
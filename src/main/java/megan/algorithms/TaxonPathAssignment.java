@@ -127,8 +127,32 @@ public class TaxonPathAssignment {
 	 * report the taxonomic path and percent
 	 */
 	public static String getPathAndPercent(IReadBlock readBlock, BitSet activeMatchesForTaxa, boolean showTaxonIds, boolean showRank, boolean useOfficialRanksOnly, boolean showPercent) {
+		return toString(TaxonPathAssignment.computeTaxPath(readBlock, activeMatchesForTaxa), showTaxonIds, showRank, useOfficialRanksOnly, showPercent);
+	}
+
+	/**
+	 * report the taxonomic path to a given taxon, with 100 percent support for each taxon on the path
+	 */
+	public static String getPathAndPercent(int taxonId, boolean showTaxonIds, boolean showRank, boolean useOfficialRanksOnly, boolean showPercent) {
+		final LinkedList<Pair<Integer, Float>> path = new LinkedList<>();
+		Node v = (taxonId > 0 ? TaxonomyData.getTree().getANode(taxonId) : null);
+		if (v == null)
+			path.add(new Pair<>(taxonId, 100f));
+		while (v != null) {
+			path.addFirst(new Pair<>((Integer) v.getInfo(), 100f));
+			if (v.getInDegree() > 0)
+				v = v.getFirstInEdge().getSource();
+			else
+				v = null;
+		}
+		return toString(path, showTaxonIds, showRank, useOfficialRanksOnly, showPercent);
+	}
+
+	/**
+	 * format a taxonomic path with percent
+	 */
+	private static String toString(List<Pair<Integer, Float>> path, boolean showTaxonIds, boolean showRank, boolean useOfficialRanksOnly, boolean showPercent) {
 		final StringBuilder buf = new StringBuilder();
-		final List<Pair<Integer, Float>> path = TaxonPathAssignment.computeTaxPath(readBlock, activeMatchesForTaxa);
 
 		final String expectedPath = "dpcofgs";
 		int expectedIndex = 0;
@@ -19,6 +19,7 @@
  */
 package megan.alignment;
 
+import jloda.seq.BlastMode;
 import jloda.seq.SequenceUtils;
 import jloda.util.*;
 import jloda.util.progress.ProgressListener;
@@ -28,6 +29,7 @@ import megan.alignment.gui.Lane;
 import megan.core.Document;
 import megan.data.IMatchBlock;
 import megan.data.IReadBlock;
+import megan.data.IReadBlockGetter;
 import megan.data.IReadBlockIterator;
 import megan.main.MeganProperties;
 import megan.util.BlastParsingUtils;
@@ -48,8 +50,8 @@ public class Blast2Alignment {
 
 	private int totalNumberOfReads = 0;
 
-	private final Map<String, List<byte[][]>> reference2ReadMatchPairs = new HashMap<>();
-	// list of triplets, readName, readSequence, match as text
+	private final Map<String, ReferenceReads> reference2ReadMatchPairs = new HashMap<>();
+	// for each reference, the reads aligned to it. Reads are kept by location and are only fetched when the alignment is made
 
 	final public static String BLASTX = "BlastX";
 	final public static String BLASTP = "BlastP";
@@ -84,8 +86,8 @@ public class Blast2Alignment {
 		int totalReadsUsed = 0;
 
 		reference2ReadMatchPairs.clear();
-		setBlastType(UNKNOWN);
-		boolean blastFormatUnknown = true;
+		setBlastType(getBlastType(doc.getBlastMode()));
+		boolean blastFormatUnknown = getBlastType().equals(UNKNOWN);
 		boolean warnedUnknownBlastFormatEncountered = false;
 
 		final Set<String> matchesSeenForGivenRead = new HashSet<>();
@@ -114,58 +116,53 @@ public class Blast2Alignment {
 				ActiveMatches.compute(doc.getMinScore(), doc.getTopPercent(), doc.getMaxExpected(), doc.getMinPercentIdentity(), readBlock, classificationName, activeMatches);
 
 				if (activeMatches.cardinality() > 0) {
-					final String readHeader = StringUtils.swallowLeadingGreaterSign(readBlock.getReadHeader()).replaceAll("[\r\n]", "").trim();
-					final String readSequence;
-					{
-						final String sequence = readBlock.getReadSequence();
-						if (sequence == null)
-							throw new IOException("Can't display alignments, reads sequences appear to be missing from RMA file");
-						readSequence = sequence.replaceAll("[\t\r\n ]", "");
-					}
+					if (readBlock.getReadSequence() == null)
+						throw new IOException("Can't display alignments, reads sequences appear to be missing from RMA file");
 
 					for (int i = 0; i < readBlock.getNumberOfAvailableMatchBlocks(); i++) {
+						if (!activeMatches.get(i))
+							continue;
 						IMatchBlock matchBlock = readBlock.getMatchBlock(i);
-						if (matchBlock.getText() == null) {
+						if (doc.isUseIdentityFilter() && matchBlock.getPercentIdentity() > 0 && matchBlock.getPercentIdentity() < 97)
+							continue; // keep only high-identity alignments
+
+						// the reference is identified by the first word of the match text, which, unlike the text, is cheap to obtain for DAA and SAM:
+						final String key = matchBlock.getTextFirstWord();
+						if (key == null) {
 							System.err.println("Error: Match text: null");
 							continue;
 						}
-						if (doc.isUseIdentityFilter() && matchBlock.getPercentIdentity() > 0 && matchBlock.getPercentIdentity() < 97)
-							continue; // keep only high-identity alignments
 
-						if (activeMatches.get(i)) {
-							final String matchText = BlastParsingUtils.removeReferenceHeaderFromBlastMatch(BlastParsingUtils.truncateBeforeSecondOccurrence(matchBlock.getText(), "Score ="));
-							//  todo: not sure what the following was supposed to do, but it broke the code: .replaceAll("[\t\r\n ]+", " ");
-
-							String key = StringUtils.getFirstLine(matchBlock.getText());
-							// if this is an augmented DNA reference, remove everything from |pos| onward
-
-							//  System.err.println("key:  "+key);
-							//  System.err.println("text: "+matchText);
-
-							if (blastFormatUnknown) {
-								setBlastType(BlastParsingUtils.guessBlastType(matchText));
-								if (getBlastType().equals(UNKNOWN)) {
-									if (!warnedUnknownBlastFormatEncountered) {
-										System.err.println("Error: Unknown BLAST format encountered");
-										warnedUnknownBlastFormatEncountered = true;
-									}
-									continue;
-								} else
-									blastFormatUnknown = false;
-							}
-							Set<Long> seen = reference2seen.computeIfAbsent(key, k -> new HashSet<>(10000));
-							final long uid = readBlock.getUId();
-							if (!seen.contains(uid)) // this ensures that any given reference only contains one copy of a read
-							{
+						if (blastFormatUnknown) {
+							final String text = matchBlock.getText();
+							setBlastType(text != null ? BlastParsingUtils.guessBlastType(getMatchText(text)) : UNKNOWN);
+							if (getBlastType().equals(UNKNOWN)) {
+								if (!warnedUnknownBlastFormatEncountered) {
+									System.err.println("Error: Unknown BLAST format encountered");
+									warnedUnknownBlastFormatEncountered = true;
+								}
+								continue;
+							} else
+								blastFormatUnknown = false;
+						}
+						Set<Long> seen = reference2seen.computeIfAbsent(key, k -> new HashSet<>(10000));
+						final long uid = readBlock.getUId();
+						if (!seen.contains(uid)) // this ensures that any given reference only contains one copy of a read
+						{
+							if (uid != 0)
+								seen.add(uid);
+							if (!matchesSeenForGivenRead.contains(key)) {
+								matchesSeenForGivenRead.add(key);
+
+								final ReferenceReads reads = reference2ReadMatchPairs.computeIfAbsent(key, k -> new ReferenceReads());
 								if (uid != 0)
-									seen.add(uid);
-								if (!matchesSeenForGivenRead.contains(key)) {
-									matchesSeenForGivenRead.add(key);
-
-									List<byte[][]> pairs = reference2ReadMatchPairs.computeIfAbsent(key, k -> new LinkedList<>());
-									pairs.add(new byte[][]{readHeader.getBytes(), readSequence.getBytes(), matchText.getBytes()});
-									readUsed = true;
+									reads.add(uid, i, matchBlock.getAlignedQueryStart(), matchBlock.getAlignedQueryEnd());
+								else { // can't fetch this read again, so keep its text
+									final String text = matchBlock.getText();
+									if (text != null)
+										reads.add(getReadHeader(readBlock), getReadSequence(readBlock), getMatchText(text));
 								}
+								readUsed = true;
 							}
 						}
 					}
@@ -195,8 +192,8 @@ public class Blast2Alignment {
 		if (minReads > 1) {
 
 			boolean hasMinReads = false;
-			for (List<byte[][]> list : reference2ReadMatchPairs.values()) {
-				if (list.size() >= minReads) {
+			for (ReferenceReads reads : reference2ReadMatchPairs.values()) {
+				if (reads.size() >= minReads) {
 					hasMinReads = true;
 					break;
 				}
@@ -229,17 +226,12 @@ public class Blast2Alignment {
 		this.className = name;
 
 		reference2ReadMatchPairs.clear();
-		final List<byte[][]> newList = new ArrayList<>(readMatchPairs.size());
+		final ReferenceReads reads = new ReferenceReads();
 		for (Pair<IReadBlock, IMatchBlock> pair : readMatchPairs) {
 			final IReadBlock readBlock = pair.getFirst();
-			final IMatchBlock matchBlock = pair.getSecond();
-			final String readSequence = readBlock.getReadSequence().replaceAll("[\t\r\n ]", "");
-			final String readName = readBlock.getReadHeader();
-			final String matchText = BlastParsingUtils.removeReferenceHeaderFromBlastMatch(BlastParsingUtils.truncateBeforeSecondOccurrence(matchBlock.getText(), "Score ="));
-			newList.add(new byte[][]{readName.getBytes(), readSequence.getBytes(), matchText.getBytes()});
-
+			reads.add(readBlock.getReadHeader(), getReadSequence(readBlock), getMatchText(pair.getSecond().getText()));
 		}
-		reference2ReadMatchPairs.put(key, newList);
+		reference2ReadMatchPairs.put(key, reads);
 
 		totalNumberOfReads = readMatchPairs.size();
 	}
@@ -248,6 +240,20 @@ public class Blast2Alignment {
 		return blastType;
 	}
 
+	/**
+	 * gets the blast type for a blast mode
+	 *
+	 * @return blast type, or UNKNOWN, if it must be determined from the match text
+	 */
+	private static String getBlastType(BlastMode blastMode) {
+		return switch (blastMode) {
+			case BlastX -> BLASTX;
+			case BlastP -> BLASTP;
+			case BlastN -> BLASTN;
+			default -> UNKNOWN;
+		};
+	}
+
 	private void setBlastType(String blastType) {
 		this.blastType = blastType;
 	}
@@ -257,8 +263,8 @@ public class Blast2Alignment {
 	 *
 	 * @return number of reads
 	 */
-	public int getReference2Count(String matchRefLine) {
-		return reference2ReadMatchPairs.get(matchRefLine).size();
+	public int getReference2Count(String reference) {
+		return reference2ReadMatchPairs.get(reference).size();
 	}
 
 	/**
@@ -277,10 +283,42 @@ public class Blast2Alignment {
 		return totalNumberOfReads;
 	}
 
+	private static String getReadHeader(IReadBlock readBlock) {
+		return StringUtils.swallowLeadingGreaterSign(readBlock.getReadHeader()).replaceAll("[\r\n]", "").trim();
+	}
+
+	private static String getReadSequence(IReadBlock readBlock) {
+		return readBlock.getReadSequence().replaceAll("[\t\r\n ]", "");
+	}
+
+	private static String getMatchText(String text) {
+		return BlastParsingUtils.removeReferenceHeaderFromBlastMatch(BlastParsingUtils.truncateBeforeSecondOccurrence(text, "Score ="));
+	}
+
+	/**
+	 * find the match of a refetched read to the given reference. Usually this is the match at the recorded index. The match is identified by the
+	 * reference and the aligned query coordinates, and only its text is rendered
+	 *
+	 * @return text of the match or null
+	 */
+	private static String findMatchText(IReadBlock readBlock, int matchIndex, String reference, int queryStart, int queryEnd) {
+		if (matchIndex < readBlock.getNumberOfAvailableMatchBlocks() && isMatch(readBlock.getMatchBlock(matchIndex), reference, queryStart, queryEnd))
+			return readBlock.getMatchBlock(matchIndex).getText();
+		for (int i = 0; i < readBlock.getNumberOfAvailableMatchBlocks(); i++) {
+			if (i != matchIndex && isMatch(readBlock.getMatchBlock(i), reference, queryStart, queryEnd))
+				return readBlock.getMatchBlock(i).getText();
+		}
+		return null;
+	}
+
+	private static boolean isMatch(IMatchBlock matchBlock, String reference, int queryStart, int queryEnd) {
+		return matchBlock.getAlignedQueryStart() == queryStart && matchBlock.getAlignedQueryEnd() == queryEnd && reference.equals(matchBlock.getTextFirstWord());
+	}
+
 	/**
 	 * builds an alignment for the given reference string
 	 */
-	public void makeAlignment(String matchRefLine, Alignment alignment, boolean showInsertions, ProgressListener progressListener) throws IOException {
+	public void makeAlignment(String reference, Alignment alignment, boolean showInsertions, ProgressListener progressListener) throws IOException {
 		alignment.clear();
 		alignment.setName(className);
 
@@ -304,9 +342,9 @@ public class Blast2Alignment {
 		int totalReadsOut = 0;
 		int totalErrors = 0;
 
-		final List<byte[][]> readMatchPairs = reference2ReadMatchPairs.get(matchRefLine);
+		final ReferenceReads reads = reference2ReadMatchPairs.get(reference);
 
-		progressListener.setMaximum(readMatchPairs.size());
+		progressListener.setMaximum(reads.size());
 		progressListener.setProgress(0);
 
 		final Single<char[]> referenceSequence = new Single<>();
@@ -315,55 +353,80 @@ public class Blast2Alignment {
 		final SortedMap<Integer, Collection<Pair<Integer, String>>> pos2Insertions = new TreeMap<>();
 		Integer which = 0;
 
-		for (byte[][] readMatchPair : readMatchPairs) {
-			String readHeader = StringUtils.toString(readMatchPair[0]);
-			String readSequence = StringUtils.toString(readMatchPair[1]);
-			String matchText = StringUtils.toString(readMatchPair[2]);
-			totalReadsIn++;
-
-			if (getBlastType().equals(UNKNOWN))
-				setBlastType(BlastParsingUtils.guessBlastType(matchText));
-			// set sequence type
-			switch (getBlastType()) {
-				case BLASTX -> {
-					alignment.setReferenceType(Alignment.PROTEIN);
-					alignment.setSequenceType(Alignment.cDNA);
-				}
-				case BLASTP -> {
-					alignment.setReferenceType(Alignment.PROTEIN);
-					alignment.setSequenceType(Alignment.PROTEIN);
-				}
-				case BLASTN -> {
-					alignment.setReferenceType(Alignment.DNA);
-					alignment.setSequenceType(Alignment.DNA);
+		IReadBlockGetter readBlockGetter = null;
+		try {
+			for (int r = 0; r < reads.size(); r++) {
+				totalReadsIn++;
+				final String readHeader;
+				final String readSequence;
+				final String matchText;
+				if (reads.isStored(r)) {
+					readHeader = reads.getStoredReadHeader(r);
+					readSequence = reads.getStoredReadSequence(r);
+					matchText = reads.getStoredMatchText(r);
+				} else {
+					if (readBlockGetter == null)
+						readBlockGetter = doc.getConnector().getReadBlockGetter(doc.getMinScore(), doc.getMaxExpected(), true, true);
+					final IReadBlock readBlock = readBlockGetter.getReadBlock(reads.getUId(r));
+					final String text = (readBlock != null ? findMatchText(readBlock, reads.getMatchIndex(r), reference, reads.getQueryStart(r), reads.getQueryEnd(r)) : null);
+					if (text == null) {
+						System.err.println("Error: failed to fetch read and match for uid=" + reads.getUId(r));
+						totalErrors++;
+						progressListener.incrementProgress();
+						continue;
+					}
+					readHeader = getReadHeader(readBlock);
+					readSequence = getReadSequence(readBlock);
+					matchText = getMatchText(text);
 				}
-			}
-
-			try {
-				Collection<Pair<Integer, String>> insertions = new LinkedList<>();
 
+				if (getBlastType().equals(UNKNOWN))
+					setBlastType(BlastParsingUtils.guessBlastType(matchText));
+				// set sequence type
 				switch (getBlastType()) {
-					case BLASTX ->
-							computeGappedSequenceBlastX(readHeader, readSequence, matchText, insertions, showInsertions, referenceSequence, originalReferenceSequence, alignment);
-					case BLASTP ->
-							computeGappedSequenceBlastP(readHeader, readSequence, matchText, insertions, showInsertions, referenceSequence, alignment);
-					case BLASTN ->
-							computeGappedSequenceBlastN(readHeader, readSequence, matchText, insertions, showInsertions, referenceSequence, alignment);
+					case BLASTX -> {
+						alignment.setReferenceType(Alignment.PROTEIN);
+						alignment.setSequenceType(Alignment.cDNA);
+					}
+					case BLASTP -> {
+						alignment.setReferenceType(Alignment.PROTEIN);
+						alignment.setSequenceType(Alignment.PROTEIN);
+					}
+					case BLASTN -> {
+						alignment.setReferenceType(Alignment.DNA);
+						alignment.setSequenceType(Alignment.DNA);
+					}
 				}
 
-				totalReadsOut++;
+				try {
+					Collection<Pair<Integer, String>> insertions = new LinkedList<>();
 
-				for (Pair<Integer, String> insertion : insertions) {
-					Collection<Pair<Integer, String>> list = pos2Insertions.computeIfAbsent(insertion.getFirst(), k -> new LinkedList<>());
-					list.add(new Pair<>(which, insertion.getSecond()));
+					switch (getBlastType()) {
+						case BLASTX ->
+								computeGappedSequenceBlastX(readHeader, readSequence, matchText, insertions, showInsertions, referenceSequence, originalReferenceSequence, alignment);
+						case BLASTP ->
+								computeGappedSequenceBlastP(readHeader, readSequence, matchText, insertions, showInsertions, referenceSequence, alignment);
+						case BLASTN ->
+								computeGappedSequenceBlastN(readHeader, readSequence, matchText, insertions, showInsertions, referenceSequence, alignment);
+					}
+
+					totalReadsOut++;
+
+					for (Pair<Integer, String> insertion : insertions) {
+						Collection<Pair<Integer, String>> list = pos2Insertions.computeIfAbsent(insertion.getFirst(), k -> new LinkedList<>());
+						list.add(new Pair<>(which, insertion.getSecond()));
+					}
+					which++;
+				} catch (Exception ex) {
+					Basic.caught(ex);
+					System.err.println("Error: " + ex);
+					totalErrors++;
 				}
-				which++;
-			} catch (Exception ex) {
-				Basic.caught(ex);
-				System.err.println("Error: " + ex);
-				totalErrors++;
+				progressListener.incrementProgress();
 			}
-			progressListener.incrementProgress();
+		} finally {
+			if (readBlockGetter != null)
+				readBlockGetter.close();
 		}
 
 		if (referenceSequence.get() != null) {
@@ -383,7 +446,7 @@ public class Blast2Alignment {
 				if (referenceSequence.get()[i] == 0)
 					referenceSequence.get()[i] = ' ';
 			}
-			alignment.setReference(matchRefLine, new String(referenceSequence.get()));
+			alignment.setReference(reference, new String(referenceSequence.get()));
 			if (originalReferenceSequence.get() != null)
 				alignment.setOriginalReference(new String(originalReferenceSequence.get()));
 
@@ -840,4 +903,62 @@ public class Blast2Alignment {
 		}
 	}
 
+
+	/**
+	 * the reads aligned to one reference. Most reads are kept as uid, match index and aligned query coordinates and are fetched again when the
+	 * alignment is made. Reads that can't be fetched by uid, and reads provided by the alignment exporter, are stored as text
+	 */
+	private static class ReferenceReads {
+		private final ListOfLongs entries = new ListOfLongs(); // three entries per read, match index -1 indicates a stored read
+		private final List<String[]> stored = new ArrayList<>();
+
+		void add(long uid, int matchIndex, int queryStart, int queryEnd) {
+			entries.add(uid);
+			entries.add(matchIndex);
+			entries.add(((long) queryStart << 32) | (queryEnd & 0xffffffffL));
+		}
+
+		void add(String readHeader, String readSequence, String matchText) {
+			entries.add(stored.size());
+			entries.add(-1);
+			entries.add(0);
+			stored.add(new String[]{readHeader, readSequence, matchText});
+		}
+
+		int size() {
+			return entries.size() / 3;
+		}
+
+		boolean isStored(int r) {
+			return entries.get(3 * r + 1) == -1;
+		}
+
+		long getUId(int r) {
+			return entries.get(3 * r);
+		}
+
+		int getMatchIndex(int r) {
+			return (int) entries.get(3 * r + 1);
+		}
+
+		int getQueryStart(int r) {
+			return (int) (entries.get(3 * r + 2) >> 32);
+		}
+
+		int getQueryEnd(int r) {
+			return (int) entries.get(3 * r + 2);
+		}
+
+		String getStoredReadHeader(int r) {
+			return stored.get((int) entries.get(3 * r))[0];
+		}
+
+		String getStoredReadSequence(int r) {
+			return stored.get((int) entries.get(3 * r))[1];
+		}
+
+		String getStoredMatchText(int r) {
+			return stored.get((int) entries.get(3 * r))[2];
+		}
+	}
 }
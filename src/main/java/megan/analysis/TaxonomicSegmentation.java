@@ -25,10 +25,9 @@ import jloda.util.CanceledException;
 import jloda.util.CollectionUtils;
 import jloda.util.Pair;
 import jloda.util.StringUtils;
+import jloda.util.interval.Interval;
 import jloda.util.interval.IntervalTree;
 import jloda.util.progress.ProgressListener;
-import megan.algorithms.IntervalTree4Matches;
-import megan.data.IMatchBlock;
 import megan.data.IReadBlock;
 import megan.viewer.TaxonomicLevels;
 import megan.viewer.TaxonomyData;
@@ -65,30 +64,71 @@ public class TaxonomicSegmentation {
 		tax2taxAtRank = new HashMap<>();
 	}
 
+	/**
+	 * copy constructor, copies the parameters. Use a separate copy in each thread
+	 */
+	public TaxonomicSegmentation(TaxonomicSegmentation that) {
+		this();
+		rank = that.rank;
+		classId = that.classId;
+		switchPenalty = that.switchPenalty;
+		compatibleFactor = that.compatibleFactor;
+		incompatibleFactor = that.incompatibleFactor;
+	}
+
 	/**
 	 * computes the segmentation
 	 */
 	public ArrayList<Segment> computeTaxonomicSegmentation(ProgressListener progress, IReadBlock readBlock) throws CanceledException {
-		final var originalSequence = readBlock.getReadSequence();
-		if (originalSequence == null)
-			return null;
+		return computeTaxonomicSegmentation(progress, getAlignments(readBlock, progress));
+	}
 
-		progress.setSubtask("Computing intervals");
+	/**
+	 * gets the alignments of a read that are used by the segmentation. The result does not refer to the read block,
+	 * so it can be segmented after the read block has been reused
+	 *
+	 * @param progress can be null
+	 * @return alignments or null, if the read has no sequence
+	 */
+	public static ReadAlignments getAlignments(IReadBlock readBlock, ProgressListener progress) throws CanceledException {
+		if (readBlock.getReadSequence() == null)
+			return null;
 
-		final var intervals = IntervalTree4Matches.computeIntervalTree(readBlock, null, progress); // todo: use dominated only?
+		if (progress != null) {
+			progress.setSubtask("Computing intervals");
+			progress.setMaximum(readBlock.getNumberOfAvailableMatchBlocks());
+			progress.setProgress(0);
+		}
 
-		final var positions = new TreeSet<Integer>();
-		for (var interval : intervals) {
-			positions.add(interval.getStart() + 1);
-			positions.add(interval.getEnd() - 1);
+		final var intervals = new IntervalTree<Alignment>();
+		for (var m = 0; m < readBlock.getNumberOfAvailableMatchBlocks(); m++) {
+			final var matchBlock = readBlock.getMatchBlock(m);
+			intervals.add(new Interval<>(matchBlock.getAlignedQueryStart(), matchBlock.getAlignedQueryEnd(), new Alignment(matchBlock.getBitScore(), matchBlock.getLength(), matchBlock.getTaxonId())));
+			if (progress != null)
+				progress.incrementProgress();
 		}
+		return new ReadAlignments(intervals);
+	}
 
-		final var columns = computeDPColumns(intervals, positions);
+	/**
+	 * computes the segmentation. As the switch penalty doesn't depend on the taxa involved, the best taxon to switch from
+	 * is determined once per column, so the dynamic program takes time linear in the number of columns times the number of taxa
+	 *
+	 * @param progress   can be null
+	 * @param alignments alignments of the read, or null
+	 * @return segments, or null, if alignments is null
+	 */
+	public ArrayList<Segment> computeTaxonomicSegmentation(ProgressListener progress, ReadAlignments alignments) throws CanceledException {
+		if (alignments == null)
+			return null;
+
+		final var intervals = alignments.intervals;
 
 		final var allTaxa = new TreeSet<Integer>();
-		for (var matchBlock : intervals.values()) {
-			if (matchBlock.getTaxonId() > 0) {
-				final var tax = getTaxonAtRank(matchBlock.getTaxonId());
+		for (var interval : intervals) {
+			final var alignment = interval.getData();
+			if (alignment.taxonId > 0) {
+				final var tax = getTaxonAtRank(alignment.taxonId);
 				if (tax > 0)
 					allTaxa.add(tax);
 				else if (classId > 0 && TaxonomyData.isAncestor(tax, classId)) // if alignment lies on or above the target taxon, use it
@@ -99,20 +139,34 @@ public class TaxonomicSegmentation {
 		if (allTaxa.size() == 0)
 			return new ArrayList<>();
 
-		progress.setSubtask("Running dynamic program");
-		progress.setMaximum(columns.size());
-		progress.setProgress(0);
-
+		final var numberOfRows = allTaxa.size();
+		final var rowTaxa = new int[numberOfRows];
 		final var tax2row = new HashMap<Integer, Integer>();
 		{
 			var row = 0;
 			for (var tax : allTaxa) {
+				rowTaxa[row] = tax;
 				tax2row.put(tax, row++);
 			}
 		}
+		final int classRow = tax2row.getOrDefault(classId, -1);
+
+		final var columns = computeDPColumns(intervals, computePositions(intervals), tax2row, classRow);
+
+		if (progress != null) {
+			progress.setSubtask("Running dynamic program");
+			progress.setMaximum(columns.size());
+			progress.setProgress(0);
+		}
+
+		// only the scores of the previous column are kept, the first column has score 0 for all taxa
+		var prevScores = new float[numberOfRows];
+		var scores = new float[numberOfRows];
+		final var traceBackMatrix = new int[columns.size()][numberOfRows];
 
-		final var scoreMatrix = new float[columns.size()][allTaxa.size()];
-		final var traceBackMatrix = new int[columns.size()][allTaxa.size()];
+		final var alignmentScores = new float[numberOfRows];
+		final var stayScores = new float[numberOfRows];
+		final var switchScores = new float[numberOfRows];
 
 		var verbose = false;
 		{
@@ -120,57 +174,73 @@ public class TaxonomicSegmentation {
 				final var column = columns.get(col);
 				if (verbose)
 					System.err.println(String.format("DPColumn@ %,d", column.getPos()) + ":");
-				for (var tax : allTaxa) {
-					if (tax != classId) { // don't use current assigned class, just need to use its alignments
-						final var row = tax2row.get(tax);
+
+				column.getScores(alignmentScores);
+				final var classScore = column.getClassScore();
+
+				// score for staying with a taxon and for switching from it to some other taxon, and the best two taxa to switch from:
+				var best1 = -1;
+				var best2 = -1;
+				for (var row = 0; row < numberOfRows; row++) {
+					if (alignmentScores[row] > 0 || classScore > 0) {
+						final var gain = compatibleFactor * Math.max(alignmentScores[row], classScore);
+						stayScores[row] = prevScores[row] + gain;
+						switchScores[row] = prevScores[row] - switchPenalty + gain;
+					} else {
+						final var loss = incompatibleFactor * column.getMinAlignmentScore();
+						stayScores[row] = prevScores[row] - loss;
+						switchScores[row] = prevScores[row] - switchPenalty - loss;
+					}
+					if (best1 == -1 || switchScores[row] > switchScores[best1]) {
+						best2 = best1;
+						best1 = row;
+					} else if (best2 == -1 || switchScores[row] > switchScores[best2])
+						best2 = row;
+				}
+
+				for (var row = 0; row < numberOfRows; row++) {
+					if (row != classRow) { // don't use current assigned class, just need to use its alignments
+						// of all taxa to switch from, the first best one is the only one that can win. Ties are broken in favor of the lower row
+						final var switchRow = (best1 != row ? best1 : best2);
 
 						var maxScore = -10000000.0f;
 						var maxScoreTax = 0;
 
-						for (var otherTax : allTaxa) {
-							final var otherRow = tax2row.get(otherTax);
-
-							if (otherTax.equals(tax)) { // look at staying with tax
-								final float score;
-								if (column.getScore(tax) > 0 || column.getScore(classId) > 0) {
-									score = scoreMatrix[col - 1][row] + compatibleFactor * Math.max(column.getScore(tax), column.getScore(classId));
-								} else {
-									score = scoreMatrix[col - 1][row] - incompatibleFactor * column.getMinAlignmentScore();
-								}
-								if (score > maxScore) {
-									maxScore = score;
-									maxScoreTax = tax;
-								}
-
-							} else { // other != tax, look at switching from tax to other
-								final float score;
-								if (column.getScore(otherTax) > 0 || column.getScore(classId) > 0)
-									score = scoreMatrix[col - 1][otherRow] - switchPenalty + compatibleFactor * Math.max(column.getScore(otherTax), column.getScore(classId));
-								else
-									score = scoreMatrix[col - 1][otherRow] - switchPenalty - incompatibleFactor * column.getMinAlignmentScore();
-
-								if (score > maxScore) {
-									maxScore = score;
-									maxScoreTax = otherTax;
-								}
-							}
+						if (switchRow != -1 && switchRow < row && switchScores[switchRow] > maxScore) {
+							maxScore = switchScores[switchRow];
+							maxScoreTax = rowTaxa[switchRow];
+						}
+						if (stayScores[row] > maxScore) {
+							maxScore = stayScores[row];
+							maxScoreTax = rowTaxa[row];
+						}
+						if (switchRow != -1 && switchRow > row && switchScores[switchRow] > maxScore) {
+							maxScore = switchScores[switchRow];
+							maxScoreTax = rowTaxa[switchRow];
 						}
 
 						if (verbose)
-							System.err.printf("Traceback %d (%s) %.1f from %d (%s) %.1f%n", tax, TaxonomyData.getName2IdMap().get(tax),
-									maxScore, maxScoreTax, TaxonomyData.getName2IdMap().get(maxScoreTax), scoreMatrix[col - 1][tax2row.get(maxScoreTax)]);
+							System.err.printf("Traceback %d (%s) %.1f from %d (%s) %.1f%n", rowTaxa[row], TaxonomyData.getName2IdMap().get(rowTaxa[row]),
+									maxScore, maxScoreTax, TaxonomyData.getName2IdMap().get(maxScoreTax), prevScores[tax2row.get(maxScoreTax)]);
 
-						scoreMatrix[col][row] = maxScore;
+						scores[row] = maxScore;
 						traceBackMatrix[col][row] = maxScoreTax;
 					}
-					progress.incrementProgress();
 				}
+				column.clearScores(alignmentScores);
+
+				final var tmp = prevScores;
+				prevScores = scores;
+				scores = tmp;
+
+				if (progress != null)
+					progress.incrementProgress();
 			}
 		}
 
 		final List<Pair<Float, Integer>> bestScores;
 		if (columns.size() > 0)
-			bestScores = computeBestScores(allTaxa, tax2row, scoreMatrix, 0.1);
+			bestScores = computeBestScores(rowTaxa, prevScores, 0.1);
 		else
 			bestScores = new ArrayList<>();
 		if (verbose) {
@@ -186,7 +256,7 @@ public class TaxonomicSegmentation {
 		if (bestScores.size() > 0) {
 			var tax = bestScores.get(0).getSecond();
 			var row = tax2row.get(tax);
-			var col = scoreMatrix.length - 1;
+			var col = columns.size() - 1;
 
 			while (col > 0) {
 				final var currentColumn = columns.get(col);
@@ -211,53 +281,107 @@ public class TaxonomicSegmentation {
 		return segments;
 	}
 
+	/**
+	 * computes the sorted positions just inside the ends of all intervals
+	 *
+	 * @return sorted distinct positions
+	 */
+	private static int[] computePositions(IntervalTree<Alignment> intervals) {
+		var positions = new int[2 * intervals.size()];
+		var count = 0;
+		for (var interval : intervals) {
+			positions[count++] = interval.getStart() + 1;
+			positions[count++] = interval.getEnd() - 1;
+		}
+		Arrays.sort(positions, 0, count);
+		var distinct = 0;
+		for (var i = 0; i < count; i++) {
+			if (distinct == 0 || positions[i] != positions[distinct - 1])
+				positions[distinct++] = positions[i];
+		}
+		return Arrays.copyOf(positions, distinct);
+	}
 
 	/**
 	 * compute the columns for the DP
 	 *
 	 * @return DP data points
 	 */
-	private ArrayList<DPColumn> computeDPColumns(IntervalTree<IMatchBlock> intervals, TreeSet<Integer> positions) {
-		final ArrayList<DPColumn> columns = new ArrayList<>();
+	private ArrayList<DPColumn> computeDPColumns(IntervalTree<Alignment> intervals, int[] positions, Map<Integer, Integer> tax2row, int classRow) {
+		// determine the row that each alignment contributes to, once:
+		for (var interval : intervals) {
+			final var alignment = interval.getData();
+			final var tax = getTaxonAtRank(alignment.taxonId);
+			alignment.used = false;
+			alignment.isClass = false;
+			alignment.row = -1;
+			if (tax > 0) {
+				alignment.used = true;
+				alignment.row = tax2row.getOrDefault(tax, -1);
+				alignment.isClass = (tax == classId);
+			} else if (classId > 0 && TaxonomyData.isAncestor(tax, classId)) { // if alignment lies on or above the target taxon, use it
+				alignment.used = true;
+				alignment.row = classRow;
+				alignment.isClass = true;
+			}
+		}
+
+		final var columns = new ArrayList<DPColumn>();
 
-		DPColumn prevColumn = null;
+		final var rowScores = new float[tax2row.size()];
+		final var rows = new int[tax2row.size()];
 
+		for (var p = 1; p < positions.length; p++) {
+			final var pos = positions[p];
+			final var segmentLength = pos - positions[p - 1] + 1;
+			if (segmentLength >= 5) {
+				var numberOfRows = 0;
+				var classScore = 0f;
+				var minAlignmentScore = 0f;
+				var hasAlignments = false;
 
-		for (var pos : positions) {
-			final var column = new DPColumn(pos);
-			if (prevColumn != null) {
 				for (var interval : intervals.getIntervals(pos)) {
-					final var matchBlock = interval.getData();
-					final var segmentLength = pos - prevColumn.getPos() + 1;
-					if (segmentLength >= 5) {
-						final var score = matchBlock.getBitScore() * segmentLength / matchBlock.getLength();
-						final var tax = getTaxonAtRank(matchBlock.getTaxonId());
-						if (tax > 0)
-							column.add(tax, score);
-						else if (classId > 0 && TaxonomyData.isAncestor(tax, classId)) // if alignment lies on or above the target taxon, use it
-							column.add(classId, score);
+					final var alignment = interval.getData();
+					if (alignment.used) {
+						final var score = alignment.bitScore * segmentLength / alignment.length;
+						if (score <= 0)
+							throw new RuntimeException("Score must be positive, got: " + score); // should never happen
+						hasAlignments = true;
+						if (alignment.row != -1) {
+							if (rowScores[alignment.row] == 0)
+								rows[numberOfRows++] = alignment.row;
+							if (rowScores[alignment.row] < score)
+								rowScores[alignment.row] = score;
+						}
+						if (alignment.isClass && classScore < score)
+							classScore = score;
+						if (minAlignmentScore == 0 || score < minAlignmentScore)
+							minAlignmentScore = score;
 					}
 				}
-				if (column.getTaxa().size() > 0)
-					columns.add(column);
+				if (hasAlignments) {
+					final var scores = new float[numberOfRows];
+					for (var i = 0; i < numberOfRows; i++) {
+						scores[i] = rowScores[rows[i]];
+						rowScores[rows[i]] = 0;
+					}
+					columns.add(new DPColumn(pos, Arrays.copyOf(rows, numberOfRows), scores, classScore, minAlignmentScore));
+				}
 			}
-			prevColumn = column;
 		}
 		return columns;
 	}
 
-
 	/**
 	 * determine the best scores seen
 	 *
 	 * @return best scores and taxa seen
 	 */
-	private List<Pair<Float, Integer>> computeBestScores(Set<Integer> taxa, Map<Integer, Integer> tax2row, float[][] scoreMatrix, double topProportion) {
+	private List<Pair<Float, Integer>> computeBestScores(int[] rowTaxa, float[] scores, double topProportion) {
 		List<Pair<Float, Integer>> list = new ArrayList<>();
 
-		final var col = scoreMatrix.length - 1;
-		for (var tax : taxa) {
-			list.add(new Pair<>(scoreMatrix[col][tax2row.get(tax)], tax));
+		for (var row = 0; row < rowTaxa.length; row++) {
+			list.add(new Pair<>(scores[row], rowTaxa[row]));
 		}
 		if (list.size() > 1) {
 			list.sort((a, b) -> {
@@ -383,34 +507,73 @@ public class TaxonomicSegmentation {
 	}
 
 	/**
-	 * a column in the dynamic program: all alignments that are available at the given position
+	 * the alignments of a read, by interval on the read
+	 */
+	public static class ReadAlignments {
+		private final IntervalTree<Alignment> intervals;
+
+		private ReadAlignments(IntervalTree<Alignment> intervals) {
+			this.intervals = intervals;
+		}
+	}
+
+	/**
+	 * the values of an alignment used by the segmentation, and the row of the dynamic program that it contributes to
+	 */
+	private static class Alignment {
+		private final float bitScore;
+		private final int length;
+		private final int taxonId;
+		private boolean used;
+		private boolean isClass;
+		private int row;
+
+		Alignment(float bitScore, int length, int taxonId) {
+			this.bitScore = bitScore;
+			this.length = length;
+			this.taxonId = taxonId;
+		}
+	}
+
+	/**
+	 * a column in the dynamic program: the best scores of the alignments that are available at the given position, by row
 	 */
 	private static class DPColumn {
 		private final int pos;
-		private final Map<Integer, Float> taxon2AlignmentScore; // todo: replace by array and rows
-		private float minAlignmentScore = 0;
+		private final int[] rows;
+		private final float[] scores;
+		private final float classScore;
+		private final float minAlignmentScore;
 
-		DPColumn(int pos) {
+		DPColumn(int pos, int[] rows, float[] scores, float classScore, float minAlignmentScore) {
 			this.pos = pos;
-			taxon2AlignmentScore = new TreeMap<>();
+			this.rows = rows;
+			this.scores = scores;
+			this.classScore = classScore;
+			this.minAlignmentScore = minAlignmentScore;
 		}
 
-		void add(int tax, float score) {
-			if (score <= 0)
-				throw new RuntimeException("Score must be positive, got: " + score); // should never happen
-			final var prev = taxon2AlignmentScore.get(tax);
-			if (prev == null || prev < score)
-				taxon2AlignmentScore.put(tax, score);
-			if (minAlignmentScore == 0 || score < minAlignmentScore)
-				minAlignmentScore = score;
+		/**
+		 * writes the scores into an array indexed by row, all other entries are assumed to be 0
+		 */
+		void getScores(float[] rowScores) {
+			for (var i = 0; i < rows.length; i++)
+				rowScores[rows[i]] = scores[i];
 		}
 
-		Set<Integer> getTaxa() {
-			return taxon2AlignmentScore.keySet();
+		/**
+		 * resets the entries set by getScores
+		 */
+		void clearScores(float[] rowScores) {
+			for (var row : rows)
+				rowScores[row] = 0;
 		}
 
-		float getScore(int tax) {
-			return taxon2AlignmentScore.getOrDefault(tax, 0f);
+		/**
+		 * best score of the alignments on or below the class id
+		 */
+		float getClassScore() {
+			return classScore;
 		}
 
 		int getPos() {
@@ -422,12 +585,7 @@ public class TaxonomicSegmentation {
 		}
 
 		public String toString() {
-			final var buf = new StringBuilder(String.format("[%,d-%.1f-%d", pos, minAlignmentScore, taxon2AlignmentScore.size()));
-			for (var tax : getTaxa()) {
-				buf.append(String.format(" %d (%s)-%.1f", tax, TaxonomyData.getName2IdMap().get(tax), getScore(tax)));
-			}
-			buf.append("]");
-			return buf.toString();
+			return String.format("[%,d-%.1f-%d]", pos, minAlignmentScore, rows.length);
 		}
 	}
 }
@@ -25,17 +25,16 @@ import jloda.graph.Node;
 import jloda.phylo.PhyloTree;
 import jloda.swing.graphview.PhyloTreeView;
 import jloda.swing.util.ProgramProperties;
-import jloda.util.Correlation;
 import jloda.util.Table;
+import megan.chart.data.CorrelationMatrix;
 import megan.chart.gui.ChartSelection;
 import megan.chart.gui.SelectionGraphics;
-import megan.clusteranalysis.tree.Distances;
-import megan.clusteranalysis.tree.Taxa;
 import megan.clusteranalysis.tree.UPGMA;
 
 import java.awt.*;
 import java.awt.geom.Point2D;
 import java.util.*;
+import java.util.stream.IntStream;
 
 /**
  * do clustering of series or class names
@@ -61,6 +60,10 @@ public class ClusteringTree {
 
 	private boolean inUpdate;
 
+	private String[] cachedLabels;
+	private double[][] cachedRows;
+	private UPGMA.Merges cachedMerges;
+
 	/**
 	 * constructor
 	 */
@@ -97,48 +100,30 @@ public class ClusteringTree {
 				inUpdate = true;
 
 				labelOrder.clear();
+				treeView.getGraph().clear();
 				previousRectangle = null;
 
-				final Taxa taxa;
-				final Distances distances;
+				final String[] labels;
+				final String[] others;
 				switch (type) {
 					case SERIES -> {
-						final String[] series = seriesAndClass2Value.rowKeySet().toArray(new String[0]);
-
-						taxa = new Taxa();
-						for (String seriesName : series)
-							taxa.add(seriesName);
-						distances = new Distances(taxa.size());
-
-						for (int i = 0; i < series.length; i++) {
-							for (int j = 0; j < series.length; j++) {
-								distances.set(i + 1, j + 1, computeCorrelationDistanceBetweenSeries(series[i], series[j], seriesAndClass2Value));
-							}
-						}
+						labels = seriesAndClass2Value.rowKeySet().toArray(new String[0]);
+						others = seriesAndClass2Value.columnKeySet().toArray(new String[0]);
 					}
 					case CLASSES -> {
-						final String[] classes = seriesAndClass2Value.columnKeySet().toArray(new String[0]);
-
-						taxa = new Taxa();
-						for (String className : classes)
-							taxa.add(className);
-						distances = new Distances(taxa.size());
-
-						for (int i = 0; i < classes.length; i++) {
-							for (int j = 0; j < classes.length; j++) {
-								distances.set(i + 1, j + 1, computeCorrelationDistanceBetweenClasses(classes[i], classes[j], seriesAndClass2Value));
-							}
-						}
+						labels = seriesAndClass2Value.columnKeySet().toArray(new String[0]);
+						others = seriesAndClass2Value.rowKeySet().toArray(new String[0]);
 					}
 					default -> throw new RuntimeException("Invalid case: " + type);
 				}
-
-				treeView.getGraph().clear();
-				UPGMA.apply(taxa, distances, treeView);
-				flipCoordinates(treeView, rootSide);
-				labelOrder.addAll(getLabelOrder(treeView));
-				// if(rootSide==SIDE.RIGHT)
-				//   Basic.reverseList(labelOrder);
+				final double[][] rows = new double[labels.length][others.length];
+				for (int i = 0; i < labels.length; i++) {
+					for (int j = 0; j < others.length; j++) {
+						final Double value = (type == TYPE.SERIES ? seriesAndClass2Value.get(labels[i], others[j]) : seriesAndClass2Value.get(others[j], labels[i]));
+						rows[i][j] = (value != null ? value : 0);
+					}
+				}
+				computeClustering(labels, rows);
 			} finally {
 				inUpdate = false;
 			}
@@ -156,52 +141,60 @@ public class ClusteringTree {
 				treeView.getGraph().clear();
 				previousRectangle = null;
 
-				if (labels.length > 0) {
-					final Taxa taxa = new Taxa();
-					for (String label : labels)
-						taxa.add(label);
-
-					if (labels.length == 1) {
-						final Node root = treeView.getPhyloTree().newNode();
-						treeView.getPhyloTree().setRoot(root);
-						treeView.setLabel(root, labels[0]);
-						labelOrder.addAll(getLabelOrder(treeView));
-					} else {
-						final Distances distances = new Distances(taxa.size());
-
-						for (int i = 0; i < labels.length; i++) {
-							final float[] iValues = getValuesRow(labels[i], matrix);
-							for (int j = i + 1; j < labels.length; j++) {
-								final float[] jValues = getValuesRow(labels[j], matrix);
-								distances.set(i + 1, j + 1, computeCorrelationDistances(iValues.length, iValues, jValues));
-							}
-						}
-
-						UPGMA.apply(taxa, distances, treeView);
-						// treeView.topologicallySortTreeLexicographically();
-						// UPGMA.embedTree(treeView);
-						flipCoordinates(treeView, rootSide);
-						labelOrder.addAll(getLabelOrder(treeView));
+				final String[] columns = matrix.columnKeySet().toArray(new String[0]);
+				final double[][] rows = new double[labels.length][columns.length];
+				for (int i = 0; i < labels.length; i++) {
+					for (int j = 0; j < columns.length; j++) {
+						final Float value = matrix.get(labels[i], columns[j]);
+						rows[i][j] = (value != null ? value : 0);
 					}
-					// if(rootSide==SIDE.RIGHT)
-					//   Basic.reverseList(labelOrder);
-
 				}
+				computeClustering(labels, rows);
 			} finally {
 				inUpdate = false;
 			}
 		}
 	}
 
-	private float[] getValuesRow(String rowKey, Table<String, String, Float> matrix) {
-		final float[] array = new float[matrix.columnKeySet().size()];
-		final Map<String, Float> row = matrix.row(rowKey);
-		int i = 0;
-		for (String colKey : row.keySet()) {
-			array[i++] = matrix.get(rowKey, colKey);
+	/**
+	 * cluster the labels by the correlation distance between their rows of values. The merges computed for the most
+	 * recent input are kept, so repeating a clustering of unchanged data only rebuilds the tree
+	 */
+	private void computeClustering(String[] labels, double[][] rows) {
+		if (labels.length == 1) {
+			final Node root = treeView.getPhyloTree().newNode();
+			treeView.getPhyloTree().setRoot(root);
+			treeView.setLabel(root, labels[0]);
+			labelOrder.addAll(getLabelOrder(treeView));
+		} else if (labels.length > 1) {
+			if (!Arrays.equals(labels, cachedLabels) || !Arrays.deepEquals(rows, cachedRows)) {
+				cachedMerges = UPGMA.computeMerges(labels.length, computeCorrelationDistances(rows));
+				cachedLabels = labels;
+				cachedRows = rows;
+			}
+			UPGMA.apply(labels, cachedMerges, treeView);
+			flipCoordinates(treeView, rootSide);
+			labelOrder.addAll(getLabelOrder(treeView));
 		}
-		return array;
+	}
 
+	/**
+	 * compute the correlation distance 1-r between all pairs of rows, in parallel
+	 *
+	 * @return condensed distance matrix
+	 */
+	private static double[] computeCorrelationDistances(double[][] rows) {
+		final double[][] standardized = CorrelationMatrix.standardize(rows);
+		final int n = rows.length;
+		final double[] distances = new double[UPGMA.getCondensedSize(n)];
+		IntStream.range(0, n).parallel().forEach(i -> {
+			int index = (i + 1 < n ? UPGMA.getCondensedIndex(i, i + 1, n) : 0);
+			for (int j = i + 1; j < n; j++) {
+				final double correlation = CorrelationMatrix.dot(standardized[i], standardized[j]);
+				distances[index++] = (Double.isNaN(correlation) ? 1 : 1 - correlation);
+			}
+		});
+		return distances;
 	}
 
 	/**
@@ -229,50 +222,6 @@ public class ClusteringTree {
 		return order;
 	}
 
-	/**
-	 * compute correlation distance between two series
-	 *
-	 * @return distance
-	 */
-	private static double computeCorrelationDistanceBetweenSeries(String seriesA, String seriesB, Table<String, String, Double> seriesAndClass2Value) {
-		final Set<String> classes = seriesAndClass2Value.columnKeySet();
-		final ArrayList<Double> xValues = new ArrayList<>(classes.size());
-		final ArrayList<Double> yValues = new ArrayList<>(classes.size());
-
-		for (String className : classes) {
-			xValues.add(seriesAndClass2Value.get(seriesA, className));
-			yValues.add(seriesAndClass2Value.get(seriesB, className));
-		}
-		return 1 - Correlation.computePersonsCorrelationCoefficent(classes.size(), xValues, yValues);
-	}
-
-	/**
-	 * compute correlation distance between two series
-	 *
-	 * @return distance
-	 */
-	private static double computeCorrelationDistances(int n, float[] seriesA, float[] seriesB) {
-		return 1 - Correlation.computePersonsCorrelationCoefficent(n, seriesA, seriesB);
-	}
-
-	/**
-	 * compute correlation distance between two classes
-	 *
-	 * @return distance
-	 */
-	private static double computeCorrelationDistanceBetweenClasses(String classA, String classB, Table<String, String, Double> seriesAndClass2Value) {
-		final Set<String> series = seriesAndClass2Value.rowKeySet();
-		final ArrayList<Double> xValues = new ArrayList<>(series.size());
-		final ArrayList<Double> yValues = new ArrayList<>(series.size());
-
-		for (String seriesName : series) {
-			xValues.add(seriesAndClass2Value.get(seriesName, classA));
-			yValues.add(seriesAndClass2Value.get(seriesName, classB));
-		}
-		return 1 - Correlation.computePersonsCorrelationCoefficent(series.size(), xValues, yValues);
-	}
-
-
 	public ArrayList<String> getLabelOrder() {
 		return (ArrayList) labelOrder.clone();
 	}
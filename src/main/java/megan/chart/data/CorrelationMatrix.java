@@ -0,0 +1,190 @@
+/*
+ * CorrelationMatrix.java Copyright (C) 2024 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package megan.chart.data;
+
+import java.util.concurrent.CancellationException;
+import java.util.stream.IntStream;
+
+/**
+ * all-pairs correlation and co-occurrence scores for chart drawers. Values are first copied into dense arrays,
+ * pairs are then processed in parallel in square tiles of rows. If the calling thread is interrupted, the computation
+ * stops with a CancellationException
+ * Daniel Huson, 10.2026
+ */
+public class CorrelationMatrix {
+	private static final int TILE = 64;
+
+	/**
+	 * score for a pair of rows
+	 */
+	public interface PairScore {
+		float apply(int i, int j);
+	}
+
+	/**
+	 * get the values of the given classes, one row per class and one column per series
+	 *
+	 * @return values
+	 */
+	public static double[][] getClassValues(IChartData chartData, String[] classNames, String[] seriesNames) {
+		final var values = new double[classNames.length][seriesNames.length];
+		for (var s = 0; s < seriesNames.length; s++) {
+			for (var c = 0; c < classNames.length; c++)
+				values[c][s] = chartData.getValueAsDouble(seriesNames[s], classNames[c]);
+		}
+		return values;
+	}
+
+	/**
+	 * get the values of the given series, one row per series and one column per class
+	 *
+	 * @return values
+	 */
+	public static double[][] getSeriesValues(IChartData chartData, String[] seriesNames, String[] classNames) {
+		final var values = new double[seriesNames.length][classNames.length];
+		for (var s = 0; s < seriesNames.length; s++) {
+			for (var c = 0; c < classNames.length; c++)
+				values[s][c] = chartData.getValueAsDouble(seriesNames[s], classNames[c]);
+		}
+		return values;
+	}
+
+	/**
+	 * computes Pearson's correlation coefficient for all pairs of rows
+	 *
+	 * @return symmetric matrix with 1 on the diagonal. Entries involving a constant row are NaN
+	 */
+	public static float[][] computePearson(double[][] rows) {
+		final var standardized = standardize(rows);
+		final var result = computeAllPairs(rows.length, (i, j) -> (float) dot(standardized[i], standardized[j]));
+		for (var i = 0; i < result.length; i++)
+			result[i][i] = 1f;
+		return result;
+	}
+
+	/**
+	 * computes Pearson's correlation coefficient between each row of the first and each row of the second array
+	 *
+	 * @return matrix with one row for each row of the first array
+	 */
+	public static float[][] computePearson(double[][] rowsA, double[][] rowsB) {
+		final var standardizedA = standardize(rowsA);
+		final var standardizedB = standardize(rowsB);
+		final var result = new float[rowsA.length][rowsB.length];
+		final var caller = Thread.currentThread();
+		IntStream.range(0, rowsA.length).parallel().forEach(i -> {
+			checkCanceled(caller);
+			for (var j = 0; j < rowsB.length; j++)
+				result[i][j] = (float) dot(standardizedA[i], standardizedB[j]);
+		});
+		return result;
+	}
+
+	/**
+	 * computes Kendall's tau between two rows
+	 *
+	 * @return tau, or 0, if there are no concordant or discordant pairs
+	 */
+	public static float computeKendallsTau(double[] a, double[] b) {
+		var countConcordant = 0;
+		var countDiscordant = 0;
+		for (var i = 0; i < a.length; i++) {
+			for (var j = i + 1; j < a.length; j++) {
+				if (a[i] != a[j] && b[i] != b[j]) {
+					if ((a[i] < a[j]) == (b[i] < b[j]))
+						countConcordant++;
+					else
+						countDiscordant++;
+				}
+			}
+		}
+		if (countConcordant + countDiscordant > 0)
+			return (float) (countConcordant - countDiscordant) / (float) (countConcordant + countDiscordant);
+		else
+			return 0;
+	}
+
+	/**
+	 * computes the given score for all pairs i<j of n rows. The score is assumed to be symmetric
+	 *
+	 * @return symmetric matrix, the diagonal is not set
+	 */
+	public static float[][] computeAllPairs(int n, PairScore score) {
+		final var result = new float[n][n];
+		final var tiles = (n + TILE - 1) / TILE;
+		final var caller = Thread.currentThread();
+		IntStream.range(0, tiles * tiles).parallel().forEach(t -> {
+			final var tileI = t / tiles;
+			final var tileJ = t % tiles;
+			if (tileJ < tileI)
+				return;
+			checkCanceled(caller);
+			final var topI = Math.min(n, (tileI + 1) * TILE);
+			final var topJ = Math.min(n, (tileJ + 1) * TILE);
+			for (var i = tileI * TILE; i < topI; i++) {
+				for (var j = Math.max(i + 1, tileJ * TILE); j < topJ; j++) {
+					final var value = score.apply(i, j);
+					result[i][j] = value;
+					result[j][i] = value;
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * center each row and scale it to unit length, so that the correlation of two rows is their dot product
+	 *
+	 * @return standardized rows, constant rows become NaN
+	 */
+	public static double[][] standardize(double[][] rows) {
+		final var result = new double[rows.length][];
+		IntStream.range(0, rows.length).parallel().forEach(i -> {
+			final var row = rows[i];
+			var mean = 0.0;
+			for (var value : row)
+				mean += value;
+			mean /= row.length;
+			final var centered = new double[row.length];
+			var sumOfSquares = 0.0;
+			for (var k = 0; k < row.length; k++) {
+				centered[k] = row[k] - mean;
+				sumOfSquares += centered[k] * centered[k];
+			}
+			final var norm = Math.sqrt(sumOfSquares);
+			for (var k = 0; k < row.length; k++)
+				centered[k] /= norm;
+			result[i] = centered;
+		});
+		return result;
+	}
+
+	public static double dot(double[] a, double[] b) {
+		var sum = 0.0;
+		for (var k = 0; k < a.length; k++)
+			sum += a[k] * b[k];
+		return sum;
+	}
+
+	private static void checkCanceled(Thread caller) {
+		if (caller.isInterrupted())
+			throw new CancellationException();
+	}
+}
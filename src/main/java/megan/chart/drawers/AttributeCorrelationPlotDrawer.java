@@ -24,10 +24,10 @@ import jloda.swing.util.Geometry;
 import jloda.swing.util.ProgramProperties;
 import jloda.swing.window.IPopupMenuModifier;
 import jloda.util.Basic;
-import jloda.util.Correlation;
 import jloda.util.NumberUtils;
 import jloda.util.StringUtils;
 import megan.chart.IChartDrawer;
+import megan.chart.data.CorrelationMatrix;
 import megan.chart.cluster.ClusteringTree;
 import megan.chart.gui.ChartViewer;
 import megan.chart.gui.SelectionGraphics;
@@ -611,14 +611,24 @@ public class AttributeCorrelationPlotDrawer extends CorrelationPlotDrawer implem
 			currentAttributes = list.toArray(new String[0]);
 		}
 
-		for (String className : currentClasses) {
+		{
+			final String[] samples = getChartData().getSeriesNames().toArray(new String[0]);
+			final ArrayList<String> numericalAttributes = new ArrayList<>(currentAttributes.length);
+			final ArrayList<double[]> attributeValues = new ArrayList<>(currentAttributes.length);
 			for (String attributeName : currentAttributes) {
 				try {
-					dataMatrix.put(className, attributeName, computeCorrelationCoefficent(className, attributeName));
+					attributeValues.add(getAttributeValues(attributeName, samples));
+					numericalAttributes.add(attributeName);
 				} catch (Exception ex) {
 					Basic.caught(ex);
 				}
 			}
+			final float[][] correlations = CorrelationMatrix.computePearson(CorrelationMatrix.getClassValues(getChartData(), currentClasses, samples), attributeValues.toArray(new double[0][]));
+			for (int i = 0; i < currentClasses.length; i++) {
+				for (int j = 0; j < numericalAttributes.size(); j++) {
+					dataMatrix.put(currentClasses[i], numericalAttributes.get(j), correlations[i][j]);
+				}
+			}
 		}
 		if (viewer.getClassesList().isDoClustering()) {
 			classesClusteringTree.setRootSide(isTranspose() ? ClusteringTree.SIDE.RIGHT : ClusteringTree.SIDE.TOP);
@@ -662,32 +672,24 @@ public class AttributeCorrelationPlotDrawer extends CorrelationPlotDrawer implem
 	}
 
 	/**
-	 * return Pearson's correlation coefficient
+	 * get the values of a numerical attribute for the given samples
 	 *
-	 * @return Pearson's correlation coefficient
+	 * @return values, missing values are set to 0
 	 */
-	private float computeCorrelationCoefficent(String classNameX, String attributeNameY) {
-		ArrayList<Double> xValues = new ArrayList<>(getChartData().getSeriesNames().size());
-		ArrayList<Double> yValues = new ArrayList<>(getChartData().getSeriesNames().size());
-
-		for (String sample : getChartData().getSeriesNames()) {
-			final double x = getChartData().getValueAsDouble(sample, classNameX);
-			final double y;
-
-			final Object obj = viewer.getDir().getDocument().getSampleAttributeTable().get(sample, attributeNameY);
+	private double[] getAttributeValues(String attributeName, String[] samples) {
+		final double[] values = new double[samples.length];
+		for (int s = 0; s < samples.length; s++) {
+			final Object obj = viewer.getDir().getDocument().getSampleAttributeTable().get(samples[s], attributeName);
 			if (obj == null)
-				y = 0;
+				values[s] = 0;
 			else if (obj instanceof Number)
-				y = ((Number) obj).doubleValue();
+				values[s] = ((Number) obj).doubleValue();
 			else if (NumberUtils.isDouble(obj.toString())) {
-				y = NumberUtils.parseDouble(obj.toString());
+				values[s] = NumberUtils.parseDouble(obj.toString());
 			} else
-				throw new IllegalArgumentException("Attribute '" + attributeNameY + "': has non-numerical value: " + obj);
-
-			xValues.add(x);
-			yValues.add(y);
+				throw new IllegalArgumentException("Attribute '" + attributeName + "': has non-numerical value: " + obj);
 		}
-		return (float) Correlation.computePersonsCorrelationCoefficent(xValues.size(), xValues, yValues);
+		return values;
 	}
 
 	@Override
@@ -27,6 +27,7 @@ import jloda.util.APoint2D;
 import jloda.util.Basic;
 import jloda.util.StringUtils;
 import megan.chart.IChartDrawer;
+import megan.chart.data.CorrelationMatrix;
 import megan.chart.gui.ChartViewer;
 import megan.chart.gui.SelectionGraphics;
 import megan.util.ScalingType;
@@ -37,9 +38,7 @@ import java.awt.event.MouseEvent;
 import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
 /**
@@ -274,8 +273,6 @@ public class CoOccurrenceDrawer extends BarChartDrawer implements IChartDrawer {
 	private void updateGraph() {
 		graph.clear();
 
-		Map<String, Node> className2Node = new HashMap<>();
-
 		// setup nodes
 		for (String aClassName : getChartData().getClassNames()) {
 			int numberOfSeriesContainingClass = 0;
@@ -290,7 +287,6 @@ public class CoOccurrenceDrawer extends BarChartDrawer implements IChartDrawer {
 				final NodeData nodeData = new NodeData();
 				nodeData.setLabel(aClassName);
 				v.setData(nodeData);
-				className2Node.put(aClassName, v);
 				nodeData.setPrevalence(numberOfSeriesContainingClass);
 			}
 		}
@@ -299,103 +295,28 @@ public class CoOccurrenceDrawer extends BarChartDrawer implements IChartDrawer {
 		final int n = series.length;
 
 		if (n >= 2) { // setup edges
-			for (Node v = graph.getFirstNode(); v != null; v = v.getNext()) {
-				final String classA = ((NodeData) v.getData()).getLabel();
-				for (Node w = v.getNext(); w != null; w = w.getNext()) {
-					final String classB = ((NodeData) w.getData()).getLabel();
-
-					final float score;
-					switch (method) {
-						default /*  case Jaccard  */ -> {
-							final Set<String> intersection = new HashSet<>();
-							final Set<String> union = new HashSet<>();
-							for (String series1 : series) {
-								double total = getChartData().getTotalForSeries(series1);
-								double percentage1 = 100.0 * getChartData().getValue(series1, classA).doubleValue() / total;
-								double percentage2 = 100.0 * getChartData().getValue(series1, classB).doubleValue() / total;
-								if (percentage1 >= getMinThreshold() || percentage2 >= getMinThreshold()) {
-									union.add(series1);
-								}
-								if (percentage1 > getMinThreshold() && percentage2 >= getMinThreshold()) {
-									intersection.add(series1);
-								}
-							}
-							if (!union.isEmpty()) {
-								final boolean positive;
-								if (isShowCoOccurring() && !isShowAntiOccurring())
-									positive = true;
-								else if (!isShowCoOccurring() && isShowAntiOccurring())
-									positive = false;
-								else
-									positive = (intersection.size() >= 0.5 * union.size());
-								if (positive)
-									score = ((float) intersection.size() / (float) union.size());
-								else
-									score = -((float) (union.size() - intersection.size()) / (float) union.size());
-							} else
-								score = 0;
-						}
-						case PearsonsR -> {
-							double meanA = 0;
-							double meanB = 0;
-							for (String series1 : series) {
-								meanA += getChartData().getValue(series1, classA).doubleValue();
-								meanB += getChartData().getValue(series1, classB).doubleValue();
-							}
-							meanA /= n;
-							meanB /= n;
-
-							double valueTop = 0;
-							double valueBottomA = 0;
-							double valueBottomB = 0;
-
-							for (String series1 : series) {
-								final double a = getChartData().getValue(series1, classA).doubleValue();
-								final double b = getChartData().getValue(series1, classB).doubleValue();
-								valueTop += (a - meanA) * (b - meanB);
-								valueBottomA += (a - meanA) * (a - meanA);
-								valueBottomB += (b - meanB) * (b - meanB);
-							}
-							valueBottomA = Math.sqrt(valueBottomA);
-							valueBottomB = Math.sqrt(valueBottomB);
-							score = (float) (valueTop / (valueBottomA * valueBottomB));
-						}
-						case KendallsTau -> {
-							int countConcordant = 0;
-							int countDiscordant = 0;
-
-							for (int i = 0; i < series.length; i++) {
-								String series1 = series[i];
-								double aIn1 = getChartData().getValue(series1, classA).doubleValue();
-								double bIn1 = getChartData().getValue(series1, classB).doubleValue();
-
-								for (int j = i + 1; j < series.length; j++) {
-									String series2 = series[j];
-									double aIn2 = getChartData().getValue(series2, classA).doubleValue();
-									double bIn2 = getChartData().getValue(series2, classB).doubleValue();
-
-									if (aIn1 != aIn2 && bIn1 != bIn2) {
-										if ((aIn1 < aIn2) == (bIn1 < bIn2))
-											countConcordant++;
-										else
-											countDiscordant++;
-									}
-								}
-							}
-
-							if (countConcordant + countDiscordant > 0)
-								score = (float) (countConcordant - countDiscordant) / (float) (countConcordant + countDiscordant);
-							else
-								score = 0;
-
-							//System.err.println(classA+" vs "+classB+": conc: "+countConcordant+" disc: "+countDiscordant+" score: "+score);
-
-						}
-					}
+			final Node[] nodes = new Node[graph.getNumberOfNodes()];
+			final String[] classes = new String[nodes.length];
+			{
+				int count = 0;
+				for (Node v = graph.getFirstNode(); v != null; v = v.getNext()) {
+					nodes[count] = v;
+					classes[count++] = ((NodeData) v.getData()).getLabel();
+				}
+			}
+			final double[][] values = CorrelationMatrix.getClassValues(getChartData(), classes, series);
 
+			final float[][] scores = switch (method) {
+				default /*  case Jaccard  */ -> computeJaccardScores(values, series);
+				case PearsonsR -> CorrelationMatrix.computePearson(values);
+				case KendallsTau -> CorrelationMatrix.computeAllPairs(classes.length, (i, j) -> CorrelationMatrix.computeKendallsTau(values[i], values[j]));
+			};
 
+			for (int i = 0; i < nodes.length; i++) {
+				for (int j = i + 1; j < nodes.length; j++) {
+					final float score = scores[i][j];
 					if (showCoOccurring && 100 * score >= getMinProbability() || showAntiOccurring && -100 * score >= getMinProbability()) {
-						Edge e = graph.newEdge(className2Node.get(classA), className2Node.get(classB));
+						Edge e = graph.newEdge(nodes[i], nodes[j]);
 						graph.setInfo(e, score);
 						edgeValue.put(e, score); // negative value indicates anticorrelated
 					}
@@ -404,6 +325,54 @@ public class CoOccurrenceDrawer extends BarChartDrawer implements IChartDrawer {
 		}
 	}
 
+	/**
+	 * computes the Jaccard score for all pairs of classes. For each class, the sets of series in which the class
+	 * reaches the min threshold are held as bit sets
+	 *
+	 * @param values counts, one row per class and one column per series
+	 * @return scores, negative values indicate anti-occurrence
+	 */
+	private float[][] computeJaccardScores(double[][] values, String[] series) {
+		final int words = (series.length + 63) / 64;
+		final long[][] atLeastThreshold = new long[values.length][words];
+		final long[][] aboveThreshold = new long[values.length][words];
+		for (int s = 0; s < series.length; s++) {
+			final double total = getChartData().getTotalForSeries(series[s]);
+			for (int c = 0; c < values.length; c++) {
+				final double percentage = 100.0 * values[c][s] / total;
+				if (percentage >= getMinThreshold())
+					atLeastThreshold[c][s >>> 6] |= 1L << s;
+				if (percentage > getMinThreshold())
+					aboveThreshold[c][s >>> 6] |= 1L << s;
+			}
+		}
+		final boolean coOccurring = isShowCoOccurring();
+		final boolean antiOccurring = isShowAntiOccurring();
+
+		return CorrelationMatrix.computeAllPairs(values.length, (a, b) -> {
+			int intersection = 0;
+			int union = 0;
+			for (int w = 0; w < words; w++) {
+				union += Long.bitCount(atLeastThreshold[a][w] | atLeastThreshold[b][w]);
+				intersection += Long.bitCount(aboveThreshold[a][w] & atLeastThreshold[b][w]);
+			}
+			if (union > 0) {
+				final boolean positive;
+				if (coOccurring && !antiOccurring)
+					positive = true;
+				else if (!coOccurring && antiOccurring)
+					positive = false;
+				else
+					positive = (intersection >= 0.5 * union);
+				if (positive)
+					return ((float) intersection / (float) union);
+				else
+					return -((float) (union - intersection) / (float) union);
+			} else
+				return 0;
+		});
+	}
+
 	/**
 	 * do embedding of graph
 	 */
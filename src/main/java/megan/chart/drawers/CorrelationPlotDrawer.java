@@ -23,9 +23,9 @@ import jloda.swing.util.BasicSwing;
 import jloda.swing.util.Geometry;
 import jloda.swing.util.ProgramProperties;
 import jloda.swing.window.IPopupMenuModifier;
-import jloda.util.Correlation;
 import jloda.util.Table;
 import megan.chart.IChartDrawer;
+import megan.chart.data.CorrelationMatrix;
 import megan.chart.cluster.ClusteringTree;
 import megan.chart.gui.ChartViewer;
 import megan.chart.gui.SelectionGraphics;
@@ -43,6 +43,8 @@ import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
@@ -80,6 +82,7 @@ public class CorrelationPlotDrawer extends BarChartDrawer implements IChartDrawe
 	boolean previousClusterClasses = false;
 	boolean previousTranspose;
 	Future future; // used in recompute
+	private final Map<String, float[][]> correlationsCache = new HashMap<>(); // correlations for the most recent selections
 
 	final int topTreeSpace = ProgramProperties.get("topTreeHeight", 100);
 	final int rightTreeSpace = ProgramProperties.get("rightTreeWidth", 100);
@@ -681,6 +684,9 @@ public class CorrelationPlotDrawer extends BarChartDrawer implements IChartDrawe
 	@Override
 	public void forceUpdate() {
 		dataMatrix.clear();
+		synchronized (correlationsCache) {
+			correlationsCache.clear();
+		}
 	}
 
 	/**
@@ -742,12 +748,11 @@ public class CorrelationPlotDrawer extends BarChartDrawer implements IChartDrawe
 			currentSeries = list.toArray(new String[0]);
 		}
 		if (!isTranspose()) {
+			final String[] samples = getChartData().getSeriesNames().toArray(new String[0]);
+			final float[][] correlations = getCorrelations(false, currentClasses, samples);
 			for (int i = 0; i < currentClasses.length; i++) {
-				dataMatrix.put(currentClasses[i], currentClasses[i], 1f);
-				for (int j = i + 1; j < currentClasses.length; j++) {
-					final float value = computeCorrelationCoefficent(currentClasses[i], currentClasses[j]);
-					dataMatrix.put(currentClasses[i], currentClasses[j], value);
-					dataMatrix.put(currentClasses[j], currentClasses[i], value);
+				for (int j = 0; j < currentClasses.length; j++) {
+					dataMatrix.put(currentClasses[i], currentClasses[j], correlations[i][j]);
 				}
 			}
 			if (viewer.getClassesList().isDoClustering()) {
@@ -760,57 +765,50 @@ public class CorrelationPlotDrawer extends BarChartDrawer implements IChartDrawe
 			} else
 				classNames = currentClasses;
 		} else {
+			final String[] classes = getChartData().getClassNames().toArray(new String[0]);
+			final float[][] correlations = getCorrelations(true, currentSeries, classes);
 			for (int i = 0; i < currentSeries.length; i++) {
-				dataMatrix.put(currentSeries[i], currentSeries[i], 1f);
-				for (int j = i + 1; j < currentSeries.length; j++) {
-					final float value = computeCorrelationCoefficentTransposed(currentSeries[i], currentSeries[j]);
-					dataMatrix.put(currentSeries[i], currentSeries[j], value);
-					dataMatrix.put(currentSeries[j], currentSeries[i], value);
+				for (int j = 0; j < currentSeries.length; j++) {
+					dataMatrix.put(currentSeries[i], currentSeries[j], correlations[i][j]);
 				}
-				if (viewer.getSeriesList().isDoClustering()) {
-					topClusteringTree.setType(ClusteringTree.TYPE.SERIES);
-					topClusteringTree.updateClustering(currentSeries, dataMatrix);
-					rightClusteringTree.setType(ClusteringTree.TYPE.SERIES);
-					rightClusteringTree.updateClustering(currentSeries, dataMatrix);
-					final Collection<String> list = topClusteringTree.getLabelOrder();
-					seriesNames = list.toArray(new String[0]);
-				} else
-					seriesNames = currentSeries;
 			}
+			if (viewer.getSeriesList().isDoClustering()) {
+				topClusteringTree.setType(ClusteringTree.TYPE.SERIES);
+				topClusteringTree.updateClustering(currentSeries, dataMatrix);
+				rightClusteringTree.setType(ClusteringTree.TYPE.SERIES);
+				rightClusteringTree.updateClustering(currentSeries, dataMatrix);
+				final Collection<String> list = topClusteringTree.getLabelOrder();
+				seriesNames = list.toArray(new String[0]);
+			} else
+				seriesNames = currentSeries;
 		}
 		chartData.setClassesLabel("");
 	}
 
 	/**
-	 * return Pearson's correlation coefficient
-	 *
-	 * @return Pearson's correlation coefficient
-	 */
-	private float computeCorrelationCoefficent(String classNameX, String classNameY) {
-		final ArrayList<Double> xValues = new ArrayList<>(getChartData().getSeriesNames().size());
-		final ArrayList<Double> yValues = new ArrayList<>(getChartData().getSeriesNames().size());
-
-		for (String sample : getChartData().getSeriesNames()) {
-			xValues.add(getChartData().getValueAsDouble(sample, classNameX));
-			yValues.add(getChartData().getValueAsDouble(sample, classNameY));
-		}
-		return (float) Correlation.computePersonsCorrelationCoefficent(xValues.size(), xValues, yValues);
-	}
-
-	/**
-	 * return Pearson's correlation coefficient
+	 * get Pearson's correlation coefficients for all pairs of the given classes, or of the given series, if transposed.
+	 * The last result is kept, so that toggling clustering or transposing back does not recompute it
 	 *
-	 * @return Pearson's correlation coefficient
+	 * @param transposed if true, rows are series and values are taken over the given classes
+	 * @param rows       classes or series to correlate
+	 * @param columns    series or classes to take values over
+	 * @return correlations
 	 */
-	private float computeCorrelationCoefficentTransposed(String seriesNameX, String seriesNameY) {
-		final ArrayList<Double> xValues = new ArrayList<>(getChartData().getClassNames().size());
-		final ArrayList<Double> yValues = new ArrayList<>(getChartData().getClassNames().size());
-
-		for (String className : getChartData().getClassNames()) {
-			xValues.add(getChartData().getValueAsDouble(seriesNameX, className));
-			yValues.add(getChartData().getValueAsDouble(seriesNameY, className));
-		}
-		return (float) Correlation.computePersonsCorrelationCoefficent(xValues.size(), xValues, yValues);
+	private float[][] getCorrelations(boolean transposed, String[] rows, String[] columns) {
+		final String key = transposed + "\n" + String.join("\t", rows) + "\n" + String.join("\t", columns);
+		synchronized (correlationsCache) {
+			final float[][] cached = correlationsCache.get(key);
+			if (cached != null)
+				return cached;
+		}
+		final double[][] values = (transposed ? CorrelationMatrix.getSeriesValues(getChartData(), rows, columns) : CorrelationMatrix.getClassValues(getChartData(), rows, columns));
+		final float[][] correlations = CorrelationMatrix.computePearson(values);
+		synchronized (correlationsCache) {
+			if (correlationsCache.size() >= 2)
+				correlationsCache.clear();
+			correlationsCache.put(key, correlations);
+		}
+		return correlations;
 	}
 
 	private void updateClassesJList() {
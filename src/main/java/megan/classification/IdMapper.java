@@ -64,7 +64,7 @@ public class IdMapper {
 
 	private boolean useTextParsing;
 
-	private final Set<Integer> disabledIds = new HashSet<>();
+	private final IntBitSet disabledIds = new IntBitSet();
 
 	private IString2IntegerMap accessionMap = null;
 	private String2IntegerMap synonymsMap = null;
@@ -243,7 +243,7 @@ public class IdMapper {
 		return name2IdMap;
 	}
 
-	public Set<Integer> getDisabledIds() {
+	public IntBitSet getDisabledIds() {
 		return disabledIds;
 	}
 
@@ -259,6 +259,6 @@ public class IdMapper {
 	}
 
 	public boolean isDisabled(int id) {
-		return disabledIds.size() > 0 && disabledIds.contains(id);
+		return !disabledIds.isEmpty() && disabledIds.contains(id);
 	}
 }
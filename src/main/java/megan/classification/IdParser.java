@@ -22,6 +22,7 @@ package megan.classification;
 import jloda.swing.util.ProgramProperties;
 import jloda.util.NumberUtils;
 import jloda.util.StringUtils;
+import megan.classification.data.IntBitSet;
 import megan.classification.data.Name2IdMap;
 import megan.classification.util.MultiWords;
 import megan.classification.util.TaggedValueIterator;
@@ -45,7 +46,7 @@ public class IdParser {
 	private final IdMapper idMapper;
 	private boolean useTextParsing;
 	private Algorithm algorithm = Algorithm.First_Hit;
-	private final Set<Integer> disabledIds = new HashSet<>();
+	private final IntBitSet disabledIds = new IntBitSet();
 
 	private final Map<Integer, Integer> id2count = new HashMap<>();
 	private final Set<Integer> ids = new HashSet<>();
@@ -29,6 +29,7 @@ import jloda.swing.util.ProgramProperties;
 import jloda.swing.util.ResourceManager;
 import jloda.util.FileUtils;
 import jloda.util.NumberUtils;
+import jloda.util.ProgramExecutorService;
 import megan.algorithms.LCAAddressing;
 import megan.classification.Classification;
 import megan.classification.ClassificationManager;
@@ -37,6 +38,7 @@ import megan.viewer.TaxonomyData;
 
 import java.io.*;
 import java.util.*;
+import java.util.stream.IntStream;
 
 import static megan.main.MeganProperties.DISABLED_TAXA;
 
@@ -46,10 +48,10 @@ import static megan.main.MeganProperties.DISABLED_TAXA;
  */
 public class ClassificationFullTree extends PhyloTree {
 	private final Name2IdMap name2IdMap;
-	private final Map<Integer, Set<Node>> id2Nodes = new HashMap<>(); // maps each id to all equivalent nodes
-	private final Map<Integer, Node> id2Node = new HashMap<>(); //maps each id to a node
+	private final IntKeyedMap<Set<Node>> id2Nodes = new IntKeyedMap<>(); // maps each id to all equivalent nodes
+	private final IntKeyedMap<Node> id2Node = new IntKeyedMap<>(); //maps each id to a node
 
-	private final Map<Integer, String> id2Address = new HashMap<>();
+	private final IntKeyedMap<String> id2Address = new IntKeyedMap<>();
 	private final Map<String, Integer> address2Id = new HashMap<>();
 
 	private final NodeData emptyData = new NodeData(new float[0], new float[0]);
@@ -213,14 +215,15 @@ public class ClassificationFullTree extends PhyloTree {
 	 * extract the induced tree
 	 */
 	public void extractInducedTree(Map<Integer, NodeData> id2data, Set<Integer> collapsedIds, PhyloTree targetTree, Map<Integer, Set<Node>> targetId2Nodes) {
-		final Map<Integer, Float> id2count = new HashMap<>();
-		for (Integer id : id2data.keySet()) {
-			id2count.put(id, id2data.get(id).getCountAssigned());
-		}
-
-		final NodeSet keep = new NodeSet(this);
-		labelToKeepRec(getRoot(), id2count.keySet(), keep);
+		extractInducedTree(id2data, computeInducedNodes(id2data.keySet()), collapsedIds, targetTree, targetId2Nodes);
+	}
 
+	/**
+	 * extract the induced tree, using a set of nodes to keep that was computed by computeInducedNodes for the ids of id2data.
+	 * This allows a viewer to compute the set once for its data and then re-extract the tree cheaply whenever nodes are collapsed
+	 * or uncollapsed
+	 */
+	public void extractInducedTree(Map<Integer, NodeData> id2data, NodeSet keep, Set<Integer> collapsedIds, PhyloTree targetTree, Map<Integer, Set<Node>> targetId2Nodes) {
 		targetTree.clear();
 
 		final Node rootCpy = targetTree.newNode();
@@ -259,25 +262,38 @@ public class ClassificationFullTree extends PhyloTree {
 	}
 
 	/**
-	 * label all nodes in tree that we must keep in induced tree
+	 * determines the nodes to keep in an induced tree, namely all nodes that lie on or above a node with one of the given ids.
+	 * If no ids are given, all nodes are kept
 	 *
-	 * @return true, if node v is to be kept
+	 * @return nodes to keep
 	 */
-	private boolean labelToKeepRec(Node v, Set<Integer> ids, NodeSet keep) {
-		boolean hasBelow = false;
-
-		int id = (Integer) v.getInfo();
-		if (ids.size() == 0 || ids.contains(id))
-			hasBelow = true;
-
-		for (Edge e = v.getFirstOutEdge(); e != null; e = v.getNextOutEdge(e)) {
-			Node w = e.getTarget();
-			if (labelToKeepRec(w, ids, keep))
-				hasBelow = true;
+	public NodeSet computeInducedNodes(Collection<Integer> ids) {
+		final var keep = new NodeSet(this);
+		if (ids.isEmpty()) {
+			for (var v = getFirstNode(); v != null; v = v.getNext())
+				keep.add(v);
+		} else {
+			final var stack = new ArrayDeque<Node>();
+			for (var id : ids) {
+				for (var v : getNodesIfPresent(id)) {
+					if (!keep.contains(v)) {
+						keep.add(v);
+						stack.push(v);
+					}
+				}
+			}
+			while (!stack.isEmpty()) {
+				final var v = stack.pop();
+				for (var e = v.getFirstInEdge(); e != null; e = v.getNextInEdge(e)) {
+					final var u = e.getSource();
+					if (!keep.contains(u)) {
+						keep.add(u);
+						stack.push(u);
+					}
+				}
+			}
 		}
-		if (hasBelow)
-			keep.add(v);
-		return hasBelow;
+		return keep;
 	}
 
 	/**
@@ -334,117 +350,174 @@ public class ClassificationFullTree extends PhyloTree {
 	}
 
 	/**
-	 * computes the id2data map
+	 * computes the classification-id 2 assigned and classification-id 2 summarized maps.
+	 * Only the nodes on or above ids with non-zero counts are visited. For comparison documents, the samples
+	 * are processed in parallel
 	 */
 	public void computeId2Data(int numberOfDatasets, Map<Integer, float[]> id2counts, Map<Integer, NodeData> id2data) {
 		id2data.clear();
-		if (id2counts != null) {
-			if (ClassificationManager.isTaxonomy(getName()))
-				computeTaxonomyId2DataRec(numberOfDatasets, getRoot(), id2counts, id2data);
-			else
-				computeId2DataRec(numberOfDatasets, getRoot(), id2counts, new HashMap<>(), id2data);
+		if (id2counts != null && getRoot() != null) {
+			final var id2nonZeroCounts = new HashMap<Integer, float[]>();
+			for (var entry : id2counts.entrySet()) {
+				if (hasNonZero(entry.getValue(), numberOfDatasets))
+					id2nonZeroCounts.put(entry.getKey(), entry.getValue());
+			}
+			final var postOrder = computePostOrderOfAncestorClosure(id2nonZeroCounts.keySet());
+			if (postOrder.isEmpty())
+				return;
+
+			final var node2index = new HashMap<Node, Integer>(2 * postOrder.size());
+			for (var i = 0; i < postOrder.size(); i++)
+				node2index.put(postOrder.get(i), i);
+
+			final var assigned = new float[postOrder.size()][];
+			final var summarized = new float[postOrder.size()][numberOfDatasets];
+			for (var i = 0; i < postOrder.size(); i++) {
+				final var counts = id2nonZeroCounts.get((Integer) postOrder.get(i).getInfo());
+				assigned[i] = new float[numberOfDatasets];
+				if (counts != null)
+					System.arraycopy(counts, 0, assigned[i], 0, Math.min(numberOfDatasets, counts.length));
+			}
+
+			if (ClassificationManager.isTaxonomy(getName())) {
+				// each id occurs only once, so summarize children in post order:
+				final var children = new int[postOrder.size()][];
+				for (var i = 0; i < postOrder.size(); i++)
+					children[i] = getIndicesOfChildren(postOrder.get(i), node2index);
+				forEachSampleRange(numberOfDatasets, (from, to) -> {
+					for (var i = 0; i < children.length; i++) {
+						for (var s = from; s < to; s++) {
+							var sum = assigned[i][s];
+							for (var child : children[i])
+								sum += summarized[child][s];
+							summarized[i][s] = sum;
+						}
+					}
+				});
+			} else {
+				// ids can occur more than once, so add the counts of each id only once to each node on or above any of its occurrences:
+				final var ids = new int[id2nonZeroCounts.size()];
+				final var above = new int[id2nonZeroCounts.size()][];
+				{
+					final var stamp = new int[postOrder.size()];
+					var count = 0;
+					for (var id : id2nonZeroCounts.keySet()) {
+						final var indices = new ArrayList<Integer>();
+						for (var v : getNodesIfPresent(id)) {
+							for (var w = v; w != null; w = (w.getInDegree() > 0 ? w.getFirstInEdge().getSource() : null)) {
+								final var index = node2index.get(w);
+								if (index == null || stamp[index] == count + 1)
+									break; // not below the root, or already visited this node and its ancestors for this id
+								stamp[index] = count + 1;
+								indices.add(index);
+							}
+						}
+						ids[count] = id;
+						above[count++] = indices.stream().mapToInt(Integer::intValue).toArray();
+					}
+				}
+				forEachSampleRange(numberOfDatasets, (from, to) -> {
+					for (var k = 0; k < ids.length; k++) {
+						final var counts = id2nonZeroCounts.get(ids[k]);
+						final var top = Math.min(to, counts.length);
+						for (var index : above[k]) {
+							for (var s = from; s < top; s++)
+								summarized[index][s] += counts[s];
+						}
+					}
+				});
+			}
+
+			// if an id occurs more than once, the last occurrence in post order determines the data, as before
+			for (var i = 0; i < postOrder.size(); i++) {
+				if (hasNonZero(assigned[i], numberOfDatasets) || hasNonZero(summarized[i], numberOfDatasets))
+					id2data.put((Integer) postOrder.get(i).getInfo(), new NodeData(assigned[i], summarized[i]));
+			}
 		}
 	}
 
 	/**
-	 * recursively computes the classification-id 2 assigned and classification-id 2 summarized maps.
-	 * Use this when classification contains same leaves more than once
+	 * determines all nodes on or above the given ids and returns them in post order, without recursion
 	 *
-	 * @return set of classification-ids on or below node v
+	 * @return nodes in post order, children appear in order of their edges
 	 */
-	private Set<Integer> computeId2DataRec(int numberOfDataSets, Node v, Map<Integer, float[]> id2counts, Map<Integer, Set<Integer>> id2idsBelow, Map<Integer, NodeData> id2data) {
-		final int id = (Integer) v.getInfo();
-
-		final Set<Integer> idsBelow = new HashSet<>();
-		id2idsBelow.put(id, idsBelow);
-
-		idsBelow.add(id);
-
-		for (Edge e = v.getFirstOutEdge(); e != null; e = v.getNextOutEdge(e)) {
-			Node w = e.getTarget();
-			final Set<Integer> allBelow = computeId2DataRec(numberOfDataSets, w, id2counts, id2idsBelow, id2data);
-			idsBelow.addAll(allBelow);
-		}
-
-		float[] assigned = new float[numberOfDataSets];
-		float[] summarized = new float[numberOfDataSets];
-		long total = 0;
-
-		final float[] counts = id2counts.get(id);
-		if (counts != null) {
-			int top = Math.min(assigned.length, counts.length);
-			for (int i = 0; i < top; i++) {
-				assigned[i] = counts[i];
-				total += counts[i];
+	private ArrayList<Node> computePostOrderOfAncestorClosure(Collection<Integer> ids) {
+		final var closure = new NodeSet(this);
+		for (var id : ids) {
+			for (var v : getNodesIfPresent(id)) {
+				for (var w = v; w != null && !closure.contains(w); w = (w.getInDegree() > 0 ? w.getFirstInEdge().getSource() : null))
+					closure.add(w);
 			}
 		}
 
-		for (Integer below : id2idsBelow.get(id)) {
-			float[] countBelow = id2counts.get(below);
-			if (countBelow != null) {
-				int top = Math.min(summarized.length, countBelow.length);
-				for (int i = 0; i < top; i++) {
-					summarized[i] += countBelow[i];
-					total += countBelow[i];
+		final var postOrder = new ArrayList<Node>(closure.size());
+		if (closure.contains(getRoot())) {
+			// reverse of a pre-order that visits children from last to first
+			final var stack = new ArrayDeque<Node>();
+			stack.push(getRoot());
+			while (!stack.isEmpty()) {
+				final var v = stack.pop();
+				postOrder.add(v);
+				for (var e = v.getFirstOutEdge(); e != null; e = v.getNextOutEdge(e)) {
+					if (closure.contains(e.getTarget()))
+						stack.push(e.getTarget());
 				}
 			}
+			Collections.reverse(postOrder);
 		}
-		if (total > 0)
-			id2data.put(id, new NodeData(assigned, summarized));
-		return idsBelow;
+		return postOrder;
 	}
 
-	public Set<Integer> getIds() {
-		return id2Node.keySet();
+	private static int[] getIndicesOfChildren(Node v, Map<Node, Integer> node2index) {
+		final var indices = new ArrayList<Integer>();
+		for (var e = v.getFirstOutEdge(); e != null; e = v.getNextOutEdge(e)) {
+			final var index = node2index.get(e.getTarget());
+			if (index != null)
+				indices.add(index);
+		}
+		return indices.stream().mapToInt(Integer::intValue).toArray();
 	}
 
 	/**
-	 * recursively computes the taxon-id 2 assigned and taxon-id 2 summarized maps
+	 * get all nodes for an id, without registering unknown ids
 	 */
-	private void computeTaxonomyId2DataRec(int numberOfDataSets, Node v, Map<Integer, float[]> id2counts, Map<Integer, NodeData> id2data) {
-		int taxonomyId = (Integer) v.getInfo();
-
-		// first process all children
-		for (Edge e = v.getFirstOutEdge(); e != null; e = v.getNextOutEdge(e)) {
-			Node w = e.getTarget();
-			computeTaxonomyId2DataRec(numberOfDataSets, w, id2counts, id2data);
-		}
-
-		// set up assigned:
-		float[] assigned = new float[numberOfDataSets];
-		float[] summarized = new float[numberOfDataSets];
-		long total = 0;
+	private Collection<Node> getNodesIfPresent(int id) {
+		final var nodes = id2Nodes.get(id);
+		if (nodes != null)
+			return nodes;
+		final var v = id2Node.get(id);
+		return (v != null ? Collections.singleton(v) : Collections.emptySet());
+	}
 
-		float[] counts = id2counts.get(taxonomyId);
-		if (counts != null) {
-			int top = Math.min(assigned.length, counts.length);
-			for (int i = 0; i < top; i++) {
-				assigned[i] = counts[i];
-				summarized[i] = counts[i];
-				total += counts[i];
-			}
+	private static boolean hasNonZero(float[] counts, int numberOfDatasets) {
+		final var top = Math.min(numberOfDatasets, counts.length);
+		for (var i = 0; i < top; i++) {
+			if (counts[i] != 0)
+				return true;
 		}
+		return false;
+	}
 
-		// setup summarized:
-
-		for (Edge e = v.getFirstOutEdge(); e != null; e = v.getNextOutEdge(e)) {
-			Node w = e.getTarget();
-			int wId = (Integer) w.getInfo();
-			NodeData dataW = id2data.get(wId);
-			if (dataW != null) {
-				float[] below = dataW.getSummarized();
-				int top = Math.min(summarized.length, below.length);
-				for (int i = 0; i < top; i++) {
-					summarized[i] += below[i];
-					total += below[i];
-				}
-			}
+	/**
+	 * apply the task to ranges of samples, in parallel, if there is more than one sample
+	 */
+	private static void forEachSampleRange(int numberOfDatasets, SampleRangeTask task) {
+		final var numberOfRanges = Math.max(1, Math.min(numberOfDatasets, ProgramExecutorService.getNumberOfCoresToUse()));
+		if (numberOfRanges == 1)
+			task.apply(0, numberOfDatasets);
+		else {
+			IntStream.range(0, numberOfRanges).parallel().forEach(r ->
+					task.apply((int) ((long) r * numberOfDatasets / numberOfRanges), (int) ((long) (r + 1) * numberOfDatasets / numberOfRanges)));
 		}
+	}
 
-		if (total > 0)
-			id2data.put(taxonomyId, new NodeData(assigned, summarized));
+	private interface SampleRangeTask {
+		void apply(int from, int to);
 	}
 
+	public Set<Integer> getIds() {
+		return id2Node.keySet();
+	}
 
 	/**
 	 * get all descendants of a id (including the id itself
@@ -564,15 +637,19 @@ public class ClassificationFullTree extends PhyloTree {
 	}
 
 	public void addId2Node(int id, Node v) {
-		if (id2Node.get(id) == null) {
+		final Node u = id2Node.get(id);
+		if (u == null) {
 			id2Node.put(id, v);
-		} else if (id2Nodes.get(id) == null) {
-			final Set<Node> set = new HashSet<>();
-			set.add(id2Node.get(id));
-			set.add(v);
-			id2Nodes.put(id, set);
-		} else
-			id2Nodes.get(id).add(v);
+		} else {
+			final Set<Node> nodes = id2Nodes.get(id);
+			if (nodes == null) {
+				final Set<Node> set = new HashSet<>();
+				set.add(u);
+				set.add(v);
+				id2Nodes.put(id, set);
+			} else
+				nodes.add(v);
+		}
 	}
 
 	/**
@@ -600,7 +677,7 @@ public class ClassificationFullTree extends PhyloTree {
 		String addressAbove = id2Address.get(idAbove);
 		String addressBelow = id2Address.get(idBelow);
 		if (addressAbove != null && addressBelow != null)
-			return id2Address.get(idBelow).startsWith(id2Address.get(idAbove));
+			return addressBelow.startsWith(addressAbove);
 		else {
 			Set<Node> nodesAbove = id2Nodes.get(idAbove);
 			Set<Node> nodesBelow = id2Nodes.get(idBelow);
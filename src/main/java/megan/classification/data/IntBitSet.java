@@ -0,0 +1,139 @@
+/*
+ * IntBitSet.java Copyright (C) 2024 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package megan.classification.data;
+
+import java.util.*;
+
+/**
+ * a set of integers backed by a bit set, so that membership tests don't box.
+ * Negative values are kept in a separate hash set
+ * Daniel Huson, 10.2026
+ */
+public class IntBitSet extends AbstractSet<Integer> {
+	private final BitSet bits = new BitSet();
+	private int cardinality;
+	private final Set<Integer> negatives = new HashSet<>();
+
+	/**
+	 * does set contain the given value?
+	 *
+	 * @return true, if contained
+	 */
+	public boolean contains(int value) {
+		if (value >= 0)
+			return bits.get(value);
+		else
+			return !negatives.isEmpty() && negatives.contains(value);
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return o instanceof Integer value && contains((int) value);
+	}
+
+	public boolean add(int value) {
+		if (value >= 0) {
+			if (bits.get(value))
+				return false;
+			bits.set(value);
+			cardinality++;
+			return true;
+		} else
+			return negatives.add(value);
+	}
+
+	@Override
+	public boolean add(Integer value) {
+		return add((int) value);
+	}
+
+	public boolean remove(int value) {
+		if (value >= 0) {
+			if (!bits.get(value))
+				return false;
+			bits.clear(value);
+			cardinality--;
+			return true;
+		} else
+			return negatives.remove(value);
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		return o instanceof Integer value && remove((int) value);
+	}
+
+	@Override
+	public int size() {
+		return cardinality + negatives.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	@Override
+	public void clear() {
+		bits.clear();
+		cardinality = 0;
+		negatives.clear();
+	}
+
+	@Override
+	public Iterator<Integer> iterator() {
+		return new Iterator<>() {
+			private final Iterator<Integer> negativesIterator = negatives.iterator();
+			private boolean inNegatives = true;
+			private int next = bits.nextSetBit(0);
+			private int last = -1;
+
+			@Override
+			public boolean hasNext() {
+				return (inNegatives && negativesIterator.hasNext()) || next >= 0;
+			}
+
+			@Override
+			public Integer next() {
+				if (inNegatives) {
+					if (negativesIterator.hasNext())
+						return negativesIterator.next();
+					inNegatives = false;
+				}
+				if (next < 0)
+					throw new NoSuchElementException();
+				last = next;
+				next = (next == Integer.MAX_VALUE ? -1 : bits.nextSetBit(next + 1));
+				return last;
+			}
+
+			@Override
+			public void remove() {
+				if (inNegatives)
+					negativesIterator.remove();
+				else if (last >= 0) {
+					IntBitSet.this.remove(last);
+					last = -1;
+				} else
+					throw new IllegalStateException();
+			}
+		};
+	}
+}
@@ -0,0 +1,265 @@
+/*
+ * IntKeyedMap.java Copyright (C) 2024 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package megan.classification.data;
+
+import java.util.*;
+
+/**
+ * map from int keys to objects. Keys in a dense range starting at MIN_DENSE_KEY are kept in an array indexed
+ * by key, all other keys are kept in a hash map. Classification ids are mostly small and dense, so this uses much
+ * less memory than a HashMap and lookups by primitive key don't box
+ * Daniel Huson, 10.2026
+ */
+public class IntKeyedMap<V> extends AbstractMap<Integer, V> {
+	/**
+	 * smallest key kept in the dense array, the special classification ids are all small negative numbers
+	 */
+	private static final int MIN_DENSE_KEY = -64;
+	/**
+	 * largest dense capacity that we are willing to allocate
+	 */
+	private static final int MAX_DENSE_CAPACITY = Integer.MAX_VALUE - 16;
+
+	private Object[] dense;
+	private int denseSize;
+	private final Map<Integer, V> sparse = new HashMap<>();
+
+	private EntrySet entrySet;
+
+	/**
+	 * constructor
+	 */
+	public IntKeyedMap() {
+		this(1024);
+	}
+
+	/**
+	 * constructor
+	 *
+	 * @param expectedMaxKey expected largest key
+	 */
+	public IntKeyedMap(int expectedMaxKey) {
+		dense = new Object[Math.max(16, Math.min(MAX_DENSE_CAPACITY, expectedMaxKey - MIN_DENSE_KEY + 1))];
+	}
+
+	/**
+	 * get value for key
+	 *
+	 * @return value or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		final var index = (long) key - MIN_DENSE_KEY;
+		if (index >= 0 && index < dense.length)
+			return (V) dense[(int) index];
+		else if (sparse.isEmpty())
+			return null;
+		else
+			return sparse.get(key);
+	}
+
+	@Override
+	public V get(Object key) {
+		return key instanceof Integer id ? get((int) id) : null;
+	}
+
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return key instanceof Integer id && containsKey((int) id);
+	}
+
+	/**
+	 * put a value. Null values are not supported, putting null removes the key
+	 *
+	 * @return previous value or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if (value == null)
+			return remove(key);
+		final var index = (long) key - MIN_DENSE_KEY;
+		if (index >= 0 && index >= dense.length && shouldGrow(index))
+			grow((int) index + 1);
+		if (index >= 0 && index < dense.length) {
+			final var previous = (V) dense[(int) index];
+			dense[(int) index] = value;
+			if (previous == null)
+				denseSize++;
+			return previous;
+		} else
+			return sparse.put(key, value);
+	}
+
+	@Override
+	public V put(Integer key, V value) {
+		return put((int) key, value);
+	}
+
+	/**
+	 * remove a key
+	 *
+	 * @return previous value or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		final var index = (long) key - MIN_DENSE_KEY;
+		if (index >= 0 && index < dense.length) {
+			final var previous = (V) dense[(int) index];
+			if (previous != null) {
+				dense[(int) index] = null;
+				denseSize--;
+			}
+			return previous;
+		} else
+			return sparse.remove(key);
+	}
+
+	@Override
+	public V remove(Object key) {
+		return key instanceof Integer id ? remove((int) id) : null;
+	}
+
+	@Override
+	public int size() {
+		return denseSize + sparse.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(dense, null);
+		denseSize = 0;
+		sparse.clear();
+	}
+
+	@Override
+	public Set<Entry<Integer, V>> entrySet() {
+		if (entrySet == null)
+			entrySet = new EntrySet();
+		return entrySet;
+	}
+
+	/**
+	 * we only grow the array if it remains at least one eighth full, otherwise the key goes into the hash map
+	 */
+	private boolean shouldGrow(long index) {
+		return index < MAX_DENSE_CAPACITY && index < 8L * (size() + 1) + 65536;
+	}
+
+	/**
+	 * grow the dense array and move all hashed keys that now fall into the dense range
+	 */
+	private void grow(int minCapacity) {
+		final var newCapacity = (int) Math.min(MAX_DENSE_CAPACITY, Math.max(minCapacity, 3L * dense.length / 2));
+		dense = Arrays.copyOf(dense, newCapacity);
+		if (!sparse.isEmpty()) {
+			for (var it = sparse.entrySet().iterator(); it.hasNext(); ) {
+				final var entry = it.next();
+				final var index = (long) entry.getKey() - MIN_DENSE_KEY;
+				if (index >= 0 && index < dense.length) {
+					dense[(int) index] = entry.getValue();
+					denseSize++;
+					it.remove();
+				}
+			}
+		}
+	}
+
+	private class EntrySet extends AbstractSet<Entry<Integer, V>> {
+		@Override
+		public Iterator<Entry<Integer, V>> iterator() {
+			return new Iterator<>() {
+				private int next = advance(0);
+				private int last = -1;
+				private Iterator<Entry<Integer, V>> sparseIterator;
+
+				private int advance(int from) {
+					while (from < dense.length && dense[from] == null)
+						from++;
+					return from;
+				}
+
+				@Override
+				public boolean hasNext() {
+					if (next < dense.length)
+						return true;
+					if (sparseIterator == null)
+						sparseIterator = sparse.entrySet().iterator();
+					return sparseIterator.hasNext();
+				}
+
+				@Override
+				@SuppressWarnings("unchecked")
+				public Entry<Integer, V> next() {
+					if (next < dense.length) {
+						last = next;
+						next = advance(next + 1);
+						return new SimpleEntry<>(last + MIN_DENSE_KEY, (V) dense[last]) {
+							private final int index = last;
+
+							@Override
+							public V setValue(V value) {
+								if (value == null)
+									throw new NullPointerException();
+								dense[index] = value;
+								return super.setValue(value);
+							}
+						};
+					}
+					last = -1;
+					if (!hasNext())
+						throw new NoSuchElementException();
+					return sparseIterator.next();
+				}
+
+				@Override
+				public void remove() {
+					if (last >= 0) {
+						if (dense[last] == null)
+							throw new IllegalStateException();
+						dense[last] = null;
+						denseSize--;
+					} else if (sparseIterator != null)
+						sparseIterator.remove();
+					else
+						throw new IllegalStateException();
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return IntKeyedMap.this.size();
+		}
+
+		@Override
+		public void clear() {
+			IntKeyedMap.this.clear();
+		}
+	}
+}
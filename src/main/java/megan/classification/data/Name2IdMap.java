@@ -38,9 +38,9 @@ import java.util.Map;
  */
 public class Name2IdMap implements IName2IdMap {
 	private final Map<String, Integer> name2id;
-	private final Map<Integer, String> id2name;
-	private final Map<Integer, String> id2toolTip;
-	private final Map<Integer, Integer> id2rank;
+	private final IntKeyedMap<String> id2name;
+	private final IntKeyedMap<String> id2toolTip;
+	private final IntKeyedMap<Integer> id2rank;
 
 	private final boolean allowUnderscoresInLookups;
 
@@ -56,9 +56,9 @@ public class Name2IdMap implements IName2IdMap {
 	 */
 	public Name2IdMap(int approximateSize) {
 		name2id = new HashMap<>(approximateSize, 0.99f);
-		id2name = new HashMap<>(approximateSize, 0.99f);
-		id2toolTip = new HashMap<>(approximateSize, 0.99f);
-		id2rank = new HashMap<>(approximateSize, 0.99f);
+		id2name = new IntKeyedMap<>(approximateSize);
+		id2toolTip = new IntKeyedMap<>(approximateSize);
+		id2rank = new IntKeyedMap<>(approximateSize);
 
 		allowUnderscoresInLookups = ProgramProperties.get("allow-underscores-in-lookup", true);
 	}
@@ -205,8 +205,8 @@ public class Name2IdMap implements IName2IdMap {
 	 */
 	public void writeMapping(Writer w) throws IOException {
 		w.write("# Mapping file, generated " + (new Date()) + "\n");
-		for (Integer key : id2name.keySet()) {
-			w.write(key + "\t" + id2name.get(key).replaceAll("\\s+", " ") + "\n");
+		for (var entry : id2name.entrySet()) {
+			w.write(entry.getKey() + "\t" + entry.getValue().replaceAll("\\s+", " ") + "\n");
 		}
 	}
 
@@ -224,7 +224,7 @@ public class Name2IdMap implements IName2IdMap {
 	 * put the rank of an id
 	 */
 	public void setRank(int id, int rank) {
-		id2rank.put(id, rank);
+		id2rank.put(id, Integer.valueOf(rank));
 	}
 
 	public Map<Integer, Integer> getId2Rank() {
@@ -1207,15 +1207,22 @@ public class PCoATab extends JPanel implements ITab {
 	}
 
 	private String getTitle2D() {
-		return String.format("PCoA of %s using %s: PC %d (%.1f%%) vs PC %d (%.1f%%)",
-				clusterViewer.getDataType(), clusterViewer.getEcologicalIndex(), (firstPC + 1), pcoa.getPercentExplained(firstPC), (secondPC + 1),
-				pcoa.getPercentExplained(secondPC));
+		return String.format("PCoA of %s using %s: PC %d (%s) vs PC %d (%s)",
+				clusterViewer.getDataType(), clusterViewer.getEcologicalIndex(), (firstPC + 1), getPercentExplainedLabel(firstPC), (secondPC + 1),
+				getPercentExplainedLabel(secondPC));
 	}
 
 	public String getTitle3D() {
-		return String.format("PCoA of %s using %s: PC %d (%.1f%%) vs PC %d (%.1f%%) vs PC %d (%.1f%%)",
-				clusterViewer.getDataType(), clusterViewer.getEcologicalIndex(), (firstPC + 1), pcoa.getPercentExplained(firstPC), (secondPC + 1),
-				pcoa.getPercentExplained(secondPC), (thirdPC + 1), pcoa.getPercentExplained(thirdPC));
+		return String.format("PCoA of %s using %s: PC %d (%s) vs PC %d (%s) vs PC %d (%s)",
+				clusterViewer.getDataType(), clusterViewer.getEcologicalIndex(), (firstPC + 1), getPercentExplainedLabel(firstPC), (secondPC + 1),
+				getPercentExplainedLabel(secondPC), (thirdPC + 1), getPercentExplainedLabel(thirdPC));
+	}
+
+	/**
+	 * label for the percent explained by a PC. For large numbers of samples, this is relative to the trace, and this is stated
+	 */
+	private String getPercentExplainedLabel(int pc) {
+		return String.format("%.1f%%", pcoa.getPercentExplained(pc)) + (pcoa.isPercentOfTrace() ? " of trace" : "");
 	}
 
 	/**
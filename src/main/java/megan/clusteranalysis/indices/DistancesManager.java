@@ -20,12 +20,23 @@
 
 package megan.clusteranalysis.indices;
 
+import jloda.graph.Node;
 import jloda.util.CanceledException;
+import jloda.util.ProgramExecutorService;
+import jloda.util.Single;
+import jloda.util.progress.ProgressListener;
 import megan.clusteranalysis.tree.Distances;
 import megan.viewer.ClassificationViewer;
 import megan.viewer.MainViewer;
+import megan.viewer.ViewerBase;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DistancesManager {
 	private static String[] names;
@@ -80,4 +91,118 @@ public class DistancesManager {
 		return names;
 
 	}
+
+	/**
+	 * distance between two samples, computed from their profiles
+	 */
+	public interface PairDistance {
+		double apply(double[] p, double[] q);
+	}
+
+	/**
+	 * extract the counts of all selected nodes once. Leaves contribute their summarized counts, all other nodes their assigned counts
+	 *
+	 * @param numberOfSamples number of samples
+	 * @param uniqueIds       only use the first selected node for each class id
+	 * @param normalize       divide the profile of each sample by its total count
+	 * @return profiles. First index is sample, second is feature
+	 */
+	public static double[][] computeProfiles(ViewerBase viewer, int numberOfSamples, boolean uniqueIds, boolean normalize) {
+		final var features = new ArrayList<float[]>();
+		final var seen = new HashSet<Integer>();
+		for (Node v : viewer.getSelectedNodes()) {
+			if (!uniqueIds || seen.add((Integer) v.getInfo()))
+				features.add(v.getOutDegree() == 0 ? viewer.getNodeData(v).getSummarized() : viewer.getNodeData(v).getAssigned());
+		}
+		return computeProfiles(features, numberOfSamples, normalize);
+	}
+
+	/**
+	 * transpose a list of per-feature counts into per-sample profiles
+	 *
+	 * @param features counts for each feature, indexed by sample
+	 * @return profiles. First index is sample, second is feature
+	 */
+	public static double[][] computeProfiles(List<float[]> features, int numberOfSamples, boolean normalize) {
+		final var profiles = new double[numberOfSamples][features.size()];
+		for (var f = 0; f < features.size(); f++) {
+			final var counts = features.get(f);
+			for (var s = 0; s < Math.min(numberOfSamples, counts.length); s++)
+				profiles[s][f] = counts[s];
+		}
+		if (normalize) {
+			for (var profile : profiles) {
+				var total = 0.0;
+				for (var value : profile)
+					total += value;
+				if (total > 0) {
+					for (var f = 0; f < profile.length; f++)
+						profile[f] /= total;
+				}
+			}
+		}
+		return profiles;
+	}
+
+	/**
+	 * compute the distance between all pairs of samples in parallel. Rows of the upper triangle are handed out to the
+	 * worker threads one at a time, each worker writes both halves of the symmetric matrix for its rows
+	 *
+	 * @param profiles profiles, first index is sample
+	 * @param progress progress listener, may be null
+	 */
+	public static void computeAllPairs(double[][] profiles, Distances distances, PairDistance pairDistance, ProgressListener progress) throws CanceledException {
+		final var nSamples = profiles.length;
+		final var matrix = distances.getMatrix();
+
+		if (progress != null) {
+			progress.setProgress(0);
+			progress.setMaximum(nSamples);
+		}
+
+		final var numberOfThreads = Math.max(1, Math.min(ProgramExecutorService.getNumberOfCoresToUse(), nSamples));
+		final var service = Executors.newFixedThreadPool(numberOfThreads);
+		final var nextRow = new AtomicInteger(0);
+		final var exception = new Single<Exception>();
+
+		try {
+			for (var i = 0; i < numberOfThreads; i++) {
+				service.execute(() -> {
+					try {
+						for (var s = nextRow.getAndIncrement(); s < nSamples && exception.isNull(); s = nextRow.getAndIncrement()) {
+							matrix[s][s] = 0;
+							for (var t = s + 1; t < nSamples; t++) {
+								matrix[s][t] = matrix[t][s] = pairDistance.apply(profiles[s], profiles[t]);
+							}
+							if (progress != null) {
+								synchronized (progress) {
+									progress.incrementProgress();
+								}
+							}
+						}
+					} catch (Exception ex) {
+						exception.setIfCurrentValueIsNull(ex);
+					}
+				});
+			}
+		} finally {
+			service.shutdown();
+		}
+
+		try {
+			if (!service.awaitTermination(1000, TimeUnit.DAYS))
+				exception.setIfCurrentValueIsNull(new CanceledException());
+		} catch (InterruptedException e) {
+			exception.setIfCurrentValueIsNull(e);
+		}
+
+		if (exception.isNotNull()) {
+			if (exception.get() instanceof CanceledException canceledException)
+				throw canceledException;
+			else if (exception.get() instanceof RuntimeException runtimeException)
+				throw runtimeException;
+			else
+				throw new RuntimeException(exception.get());
+		}
+	}
 }
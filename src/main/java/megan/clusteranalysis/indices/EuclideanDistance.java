@@ -20,7 +20,7 @@
 
 package megan.clusteranalysis.indices;
 
-import jloda.graph.Node;
+import jloda.util.CanceledException;
 import megan.clusteranalysis.tree.Distances;
 import megan.viewer.ClassificationViewer;
 
@@ -37,41 +37,27 @@ public class EuclideanDistance {
 	 *
 	 * @return number of nodes used to compute value
 	 */
-	public static int apply(final ClassificationViewer viewer, final Distances distances) {
+	public static int apply(final ClassificationViewer viewer, final Distances distances) throws CanceledException {
 		System.err.println("Computing " + NAME + " distances");
 
-		final int nTax = distances.getNtax();
+		final double[][] profiles = DistancesManager.computeProfiles(viewer, distances.getNtax(), false, true);
 
-		final double[][] matrix = distances.getMatrix();
-		for (int s = 0; s < nTax; s++) {
-			for (int t = s + 1; t < nTax; t++) {
-				matrix[s][t] = 0;
-			}
-		}
-
-		final double[] total = new double[nTax];
-		for (Node v : viewer.getSelectedNodes()) {
-			final float[] count = (v.getOutDegree() == 0 ? viewer.getNodeData(v).getSummarized() : viewer.getNodeData(v).getAssigned());
-			for (int s = 0; s < nTax; s++)
-				total[s] += count[s];
-		}
+		final var progress = viewer.getDocument().getProgressListener();
+		progress.setTasks("Computing", "Euclidean distance");
+		DistancesManager.computeAllPairs(profiles, distances, EuclideanDistance::computeEuclidean, progress);
 
+		return viewer.getSelectedNodes().size();
+	}
 
-		for (Node v : viewer.getSelectedNodes()) {
-			final float[] count = (v.getOutDegree() == 0 ? viewer.getNodeData(v).getSummarized() : viewer.getNodeData(v).getAssigned());
-			for (int s = 0; s < nTax; s++) {
-				final double p = (total[s] > 0 ? count[s] / total[s] : 0);
-				for (int t = s + 1; t < nTax; t++) {
-					final double q = (total[t] > 0 ? count[t] / total[t] : 0);
-					matrix[s][t] += (p - q) * (p - q);
-				}
-			}
-		}
-		for (int s = 0; s < nTax; s++) {
-			for (int t = s + 1; t < nTax; t++) {
-				matrix[s][t] = matrix[t][s] = Math.sqrt(matrix[s][t]);
-			}
+	/**
+	 * euclidean distance of two normalized profiles
+	 */
+	private static double computeEuclidean(double[] p, double[] q) {
+		var sum = 0.0;
+		for (var i = 0; i < p.length; i++) {
+			final var d = p[i] - q[i];
+			sum += d * d;
 		}
-		return viewer.getSelectedNodes().size();
+		return Math.sqrt(sum);
 	}
 }
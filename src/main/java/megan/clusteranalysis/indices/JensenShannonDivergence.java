@@ -19,10 +19,9 @@
  */
 package megan.clusteranalysis.indices;
 
-import jloda.graph.Node;
+import jloda.util.CanceledException;
 import jloda.util.StringUtils;
 import megan.clusteranalysis.tree.Distances;
-import megan.core.Document;
 import megan.viewer.ViewerBase;
 
 /**
@@ -38,20 +37,16 @@ public class JensenShannonDivergence {
 	 *
 	 * @return number of nodes used to compute value
 	 */
-	public static int apply(final ViewerBase viewer, final Distances distances) {
+	public static int apply(final ViewerBase viewer, final Distances distances) throws CanceledException {
 		System.err.println("Computing " + StringUtils.fromCamelCase(NAME) + " distances");
 
-		final double[][] profiles = computeProfiles(viewer.getDocument(), viewer);
+		final double[][] profiles = DistancesManager.computeProfiles(viewer, distances.getNtax(), false, true);
 
 		System.err.println("Samples: " + profiles.length + " classes: " + profiles[0].length);
 
-		for (int x = 0; x < profiles.length; x++) {
-			distances.set(x + 1, x + 1, 0);
-			for (int y = x + 1; y < profiles.length; y++) {
-				distances.set(x + 1, y + 1, Math.sqrt(computeJSD(profiles[x], profiles[y])));
-				distances.set(y + 1, x + 1, distances.get(x + 1, y + 1));
-			}
-		}
+		final var progress = viewer.getDocument().getProgressListener();
+		progress.setTasks("Computing", "Jensen-Shannon divergence");
+		DistancesManager.computeAllPairs(profiles, distances, (px, py) -> Math.sqrt(computeJSD(px, py)), progress);
 
 		return profiles[0].length;
 	}
@@ -60,75 +55,19 @@ public class JensenShannonDivergence {
 	 * compute the Jensen-Shannon divergence
 	 */
 	private static double computeJSD(double[] px, double[] py) {
-		double[] m = computeMean(px, py);
-
-		return 0.5 * (computeKLD(px, m) + computeKLD(py, m));
+		return 0.5 * (computeKLDToMean(px, py) + computeKLDToMean(py, px));
 	}
 
 	/**
-	 * compute the  Kullback-Leibler divergence
+	 * compute the  Kullback-Leibler divergence of px from the mean of px and py, without allocating the mean
 	 */
-	private static double computeKLD(double[] px, double[] py) {
+	private static double computeKLDToMean(double[] px, double[] py) {
 		double result = 0;
 		for (int i = 0; i < px.length; i++) {
 			double xi = Math.max(px[i], 0.0000000001);
-			double yi = Math.max(py[i], 0.0000000001);
-			result += xi * Math.log(xi / yi);
+			double mi = Math.max(0.5 * (px[i] + py[i]), 0.0000000001);
+			result += xi * Math.log(xi / mi);
 		}
 		return result;
 	}
-
-	/**
-	 * return mean of two profiles
-	 *
-	 * @return mean
-	 */
-	private static double[] computeMean(double[] px, double[] py) {
-		double[] m = new double[px.length];
-		for (int i = 0; i < px.length; i++)
-			m[i] = 0.5 * (px[i] + py[i]);
-		return m;
-	}
-
-	/**
-	 * compute profiles for  analysis
-	 *
-	 * @return profiles. First index is sample, second is class
-	 */
-	private static double[][] computeProfiles(Document doc, ViewerBase graphView) {
-		final int totalSamples = doc.getNumberOfSamples();
-		int totalClasses = 0;
-
-		for (Node v = graphView.getGraph().getFirstNode(); v != null; v = v.getNext()) {
-			if (graphView.getSelected(v)) {
-				totalClasses++;
-			}
-		}
-
-		double[][] profiles = new double[totalSamples][totalClasses];
-
-		int classCount = 0;
-
-		for (Node v : graphView.getSelectedNodes()) {
-			float[] counts = (v.getOutDegree() == 0 ? graphView.getNodeData(v).getSummarized() : graphView.getNodeData(v).getAssigned());
-			for (int sampleCount = 0; sampleCount < totalSamples; sampleCount++) {
-				profiles[sampleCount][classCount] = counts[sampleCount];
-			}
-			classCount++;
-		}
-
-		for (double[] profile : profiles) {
-			double sum = 0;
-			for (double value : profile)
-				sum += value;
-			//System.err.println("Sum: "+sum);
-			if (sum > 0) {
-				for (int i = 0; i < profile.length; i++) {
-					profile[i] /= sum;
-				}
-			}
-		}
-
-		return profiles;
-	}
 }
@@ -20,7 +20,7 @@
 
 package megan.clusteranalysis.indices;
 
-import jloda.graph.Node;
+import jloda.util.CanceledException;
 import megan.clusteranalysis.tree.Distances;
 import megan.viewer.ClassificationViewer;
 
@@ -37,42 +37,30 @@ public class KulczynskiDistance {
 	 *
 	 * @return number of nodes used to compute value
 	 */
-	public static int apply(final ClassificationViewer viewer, final Distances distances) {
+	public static int apply(final ClassificationViewer viewer, final Distances distances) throws CanceledException {
 		System.err.println("Computing " + NAME + " distances");
 
-		final int nSamples = distances.getNtax();
+		final double[][] profiles = DistancesManager.computeProfiles(viewer, distances.getNtax(), false, true);
 
-		final double[] total = new double[nSamples];
-		for (Node v : viewer.getSelectedNodes()) {
-			final float[] count = (v.getOutDegree() == 0 ? viewer.getNodeData(v).getSummarized() : viewer.getNodeData(v).getAssigned());
-			for (int s = 0; s < nSamples; s++)
-				total[s] += count[s];
-		}
-
-		final float[][] lesser = new float[nSamples][nSamples];
-		final float[] sum = new float[nSamples]; // normalized sum, not the same as total!
-
-		for (Node v : viewer.getSelectedNodes()) {
-			final float[] count = (v.getOutDegree() == 0 ? viewer.getNodeData(v).getSummarized() : viewer.getNodeData(v).getAssigned());
-			for (int s = 0; s < nSamples; s++) {
-				final double p = (total[s] > 0 ? count[s] / total[s] : 0);
-				sum[s] += p;
+		final var progress = viewer.getDocument().getProgressListener();
+		progress.setTasks("Computing", "Kulczynski distance");
+		DistancesManager.computeAllPairs(profiles, distances, KulczynskiDistance::computeKulczynski, progress);
 
-				for (int t = s + 1; t < nSamples; t++) {
-					final double q = (total[t] > 0 ? count[t] / total[t] : 0);
-					lesser[s][t] += Math.min(p, q);
-				}
-			}
-		}
-		for (int s = 0; s < nSamples; s++) {
-			for (int t = s + 1; t < nSamples; t++) {
-				if (total[s] > 0 && total[t] > 0)
-					distances.set(s + 1, t + 1, 1 - 0.5 * (lesser[s][t] / sum[s] + lesser[s][t] / sum[t]));
-				else
-					distances.set(s + 1, t + 1, 0);
+		return viewer.getSelectedNodes().size();
+	}
 
-			}
+	/**
+	 * Kulczynski metric of two normalized profiles
+	 */
+	private static double computeKulczynski(double[] p, double[] q) {
+		var lesser = 0.0;
+		var sumP = 0.0;
+		var sumQ = 0.0;
+		for (var i = 0; i < p.length; i++) {
+			lesser += Math.min(p[i], q[i]);
+			sumP += p[i];
+			sumQ += q[i];
 		}
-		return viewer.getSelectedNodes().size();
+		return (sumP > 0 && sumQ > 0 ? 1 - 0.5 * (lesser / sumP + lesser / sumQ) : 0);
 	}
 }
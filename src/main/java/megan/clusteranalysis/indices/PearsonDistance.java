@@ -19,13 +19,10 @@
  */
 package megan.clusteranalysis.indices;
 
-import jloda.graph.Node;
+import jloda.util.CanceledException;
 import megan.clusteranalysis.tree.Distances;
 import megan.viewer.ClassificationViewer;
 
-import java.util.HashSet;
-import java.util.LinkedList;
-
 /**
  * Pearson's correlation distance
  * Daniel Huson, 9.2012
@@ -38,95 +35,47 @@ public class PearsonDistance {
 	 *
 	 * @return number of nodes used to compute value
 	 */
-	public static int apply(final ClassificationViewer viewer, final Distances distances) {
+	public static int apply(final ClassificationViewer viewer, final Distances distances) throws CanceledException {
 		System.err.println("Computing " + NAME + " distances");
 
-		double[][] vectors = computeVectors(viewer, distances.getNtax());
-		int rank = distances.getNtax();
-		computeCorrelationMatrix(rank, vectors, distances);
-		convertCorrelationsToDistances(distances);
+		final double[][] profiles = DistancesManager.computeProfiles(viewer, distances.getNtax(), true, true);
+		standardize(profiles);
 
-		return vectors.length;
-	}
+		final var progress = viewer.getDocument().getProgressListener();
+		progress.setTasks("Computing", "Pearson's correlation");
+		DistancesManager.computeAllPairs(profiles, distances, PearsonDistance::computeDistance, progress);
 
-	/**
-	 * compute vectors for  analysis
-	 *
-	 * @return vectors. First index is class, second is sample
-	 */
-	private static double[][] computeVectors(ClassificationViewer graphView, int numberOfSamples) {
-		double[] total = new double[numberOfSamples];
-
-		HashSet<Integer> seen = new HashSet<>();
-		LinkedList<double[]> rows = new LinkedList<>();
-		for (Node v = graphView.getGraph().getFirstNode(); v != null; v = v.getNext()) {
-			if (graphView.getSelected(v)) {
-				if (!seen.contains(v.getInfo())) {
-					seen.add((Integer) v.getInfo());
-					double[] row = new double[numberOfSamples];
-					final float[] values = (v.getOutDegree() == 0 ? graphView.getNodeData(v).getSummarized() : graphView.getNodeData(v).getAssigned());
-					for (int i = 0; i < values.length; i++) {
-						row[i] = values[i];
-						total[i] += row[i];
-					}
-					rows.add(row);
-				}
-			}
-		}
-		for (double[] row : rows) {
-			for (int i = 0; i < row.length; i++) {
-				if (total[i] > 0)
-					row[i] /= total[i];
-			}
-		}
-		return rows.toArray(new double[rows.size()][]);
+		return (profiles.length > 0 ? profiles[0].length : 0);
 	}
 
 	/**
-	 * computes the pearson distances
+	 * replace the profile of each sample by its z-scores, using the population standard deviation,
+	 * so that the correlation of two samples is the mean of the products of their values
 	 */
-	private static void computeCorrelationMatrix(int rank, double[][] vectors, Distances distances) {
-		// compute mean for each row
-		double[] mean = new double[rank];
-		for (double[] row : vectors) {
-			for (int col = 0; col < rank; col++) {
-				mean[col] += row[col];
-			}
-		}
-		for (int col = 0; col < rank; col++) {
-			mean[col] /= vectors.length;
-		}
-		double[] stddev = new double[rank];
-		for (double[] row : vectors) {
-			for (int col = 0; col < rank; col++) {
-				stddev[col] += (row[col] - mean[col]) * (row[col] - mean[col]);
-			}
-		}
-		for (int col = 0; col < rank; col++) {
-			stddev[col] = Math.sqrt(stddev[col] / vectors.length);
-		}
-
-		for (int di = 0; di < rank; di++) {
-			distances.set(di + 1, di + 1, 0);
-			for (int dj = di + 1; dj < rank; dj++) {
-				double cor = 0;
-				for (double[] row : vectors) {
-					cor += (row[di] - mean[di]) * (row[dj] - mean[dj]) / (stddev[di] * stddev[dj]);
-				}
-				cor /= vectors.length;
-				distances.set(di + 1, dj + 1, cor);
-			}
+	private static void standardize(double[][] profiles) {
+		for (double[] profile : profiles) {
+			final int n = profile.length;
+			double mean = 0;
+			for (double value : profile)
+				mean += value;
+			mean /= n;
+			double stddev = 0;
+			for (double value : profile)
+				stddev += (value - mean) * (value - mean);
+			stddev = Math.sqrt(stddev / n);
+			for (int i = 0; i < n; i++)
+				profile[i] = (profile[i] - mean) / stddev;
 		}
 	}
 
 	/**
-	 * convert correlations into distances by subtracting from 1 and dividing by 2
+	 * converts the correlation of two standardized profiles into a distance by subtracting its square from 1
 	 */
-	private static void convertCorrelationsToDistances(Distances distances) {
-		for (int i = 1; i <= distances.getNtax(); i++) {
-			for (int j = i + 1; j <= distances.getNtax(); j++) {
-				distances.set(i, j, (1.0 - distances.get(i, j) * distances.get(i, j)));
-			}
-		}
+	private static double computeDistance(double[] p, double[] q) {
+		double cor = 0;
+		for (int i = 0; i < p.length; i++)
+			cor += p[i] * q[i];
+		cor /= p.length;
+		return 1.0 - cor * cor;
 	}
 }
@@ -30,6 +30,9 @@ import megan.viewer.MainViewer;
 import megan.viewer.TaxonomicLevels;
 import megan.viewer.TaxonomyData;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * unweighted and weighted distance
  * Daniel Huson, 9.2012, 11.2017, 6.2018
@@ -63,35 +66,36 @@ public class UniFrac {
 
 		removeRootNodeAndNodesOnPathLeadingToIt(tree.getRoot(), inducedNodes);
 
-		int[][] diff = new int[nTax][nTax];
-
 		final ProgressListener progress = viewer.getDocument().getProgressListener();
 		progress.setTasks("Computing", "Unweighted uniform UniFrac");
-		progress.setProgress(0);
-		progress.setMaximum(inducedNodes.size());
 
+		final List<float[]> features = new ArrayList<>();
 		for (Node v : inducedNodes) {
 			final int taxonId = (Integer) v.getInfo();
 			if (taxonId > 0 && TaxonomicLevels.isMajorRank(TaxonomyData.getTaxonomicRank(taxonId)))  // only use proper nodes
 			{
 				countNodesUsed++;
-				final float[] counts = summarized.get(v);
-
-				for (int s = 0; s < nTax; s++) {
-					for (int t = s + 1; t < nTax; t++) {
-						if ((counts[s] >= threshold) != (counts[t] >= threshold))
-							diff[s][t]++;
-					}
-				}
+				features.add(summarized.get(v));
 			}
-			progress.incrementProgress();
 		}
-		for (int s = 0; s < nTax; s++) {
-			for (int t = s + 1; t < nTax; t++) {
-				distances.set(s + 1, t + 1, (countNodesUsed > 0 ? (double) diff[s][t] / (double) countNodesUsed : 0));
-			}
+
+		// for each sample and node, record whether the count reaches the threshold
+		final double[][] profiles = DistancesManager.computeProfiles(features, nTax, false);
+		for (double[] profile : profiles) {
+			for (int i = 0; i < profile.length; i++)
+				profile[i] = (profile[i] >= threshold ? 1 : 0);
 		}
 
+		final int nodesUsed = countNodesUsed;
+		DistancesManager.computeAllPairs(profiles, distances, (p, q) -> {
+			int diff = 0;
+			for (int i = 0; i < p.length; i++) {
+				if (p[i] != q[i])
+					diff++;
+			}
+			return (nodesUsed > 0 ? (double) diff / (double) nodesUsed : 0);
+		}, progress);
+
 		System.err.println("Nodes used: " + countNodesUsed);
 		return countNodesUsed;
 	}
@@ -122,8 +126,6 @@ public class UniFrac {
 
 		final ProgressListener progress = viewer.getDocument().getProgressListener();
 		progress.setTasks("Computing", "Weighted uniform UniFrac");
-		progress.setProgress(0);
-		progress.setMaximum(2L * inducedNodes.size());
 
 		final Node root = removeRootNodeAndNodesOnPathLeadingToIt(tree.getRoot(), inducedNodes);
 
@@ -139,33 +141,32 @@ public class UniFrac {
 			}
 		}
 
-		final double[][] diff = new double[nTax][nTax]; // difference between two samples
-		final double[][] sum = new double[nTax][nTax]; // largest possible difference between two samples
-
+		final List<float[]> features = new ArrayList<>();
 		for (Node v : inducedNodes) {
 			final int taxonId = (Integer) v.getInfo();
 			if (taxonId > 0 && TaxonomicLevels.isMajorRank(TaxonomyData.getTaxonomicRank(taxonId)))  // only use proper nodes
 			{
 				countNodesUsed++;
-				final float[] count = summarized.get(v); // total number of reads that "descend" from node v
-				for (int s = 0; s < nTax; s++) {
-					final double p = (total[s] > 0 ? count[s] / total[s] : 0);
-					for (int t = s + 1; t < nTax; t++) {
-						final double q = (total[t] > 0 ? count[t] / total[t] : 0);
-
-						diff[s][t] += Math.abs(p - q); // normalized differences between datasets
-						sum[s][t] += (p + q);
-					}
-				}
+				features.add(summarized.get(v)); // total number of reads that "descend" from node v
 			}
-			progress.incrementProgress();
 		}
 
+		final double[][] profiles = DistancesManager.computeProfiles(features, nTax, false);
 		for (int s = 0; s < nTax; s++) {
-			for (int t = s + 1; t < nTax; t++) {
-				distances.set(s + 1, t + 1, (sum[s][t] > 0 ? diff[s][t] / sum[s][t] : 0));
-			}
+			for (int i = 0; i < profiles[s].length; i++)
+				profiles[s][i] = (total[s] > 0 ? profiles[s][i] / total[s] : 0);
 		}
+
+		DistancesManager.computeAllPairs(profiles, distances, (p, q) -> {
+			double diff = 0; // difference between two samples
+			double sum = 0; // largest possible difference between two samples
+			for (int i = 0; i < p.length; i++) {
+				diff += Math.abs(p[i] - q[i]); // normalized differences between datasets
+				sum += p[i] + q[i];
+			}
+			return (sum > 0 ? diff / sum : 0);
+		}, progress);
+
 		return countNodesUsed;
 	}
 
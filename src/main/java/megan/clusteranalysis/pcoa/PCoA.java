@@ -35,12 +35,26 @@ import java.util.*;
  * Daniel Huson, 9.2012
  */
 public class PCoA {
+	/**
+	 * up to this number of samples, we compute a full eigenvalue decomposition
+	 */
+	public static final int MAX_SAMPLES_FULL_DECOMPOSITION = 500;
+	/**
+	 * number of leading axes computed for larger numbers of samples
+	 */
+	public static final int NUMBER_OF_AXES_LARGE = 10;
+	/**
+	 * above this number of samples, the centered matrix is held in float storage
+	 */
+	public static final int MIN_SAMPLES_FLOAT_STORAGE = 5000;
+
 	private final Taxa samples;
-	private final Matrix matrixD; // distances between samples
+	private final double[][] matrixD; // distances between samples
 	private final int rank;
 	private int numberOfPositiveEigenValues;
 	private double[] eigenValues;
 	private double[] percentExplained;
+	private boolean percentOfTrace; // percent explained is relative to the trace, rather than to the sum of positive eigenvalues
 	private final Map<String, double[]> sampleName2Point = new HashMap<>();
 	private final double[][] points;
 	private boolean done = false;
@@ -54,15 +68,11 @@ public class PCoA {
 	public PCoA(Taxa samples, Distances distances) {
 		this.samples = samples;
 		rank = samples.size();
-		matrixD = new Matrix(rank, rank);
+		matrixD = new double[rank][rank];
 		for (int i = 0; i < rank; i++) {
 			for (int j = 0; j < rank; j++) {
-				if (i == j)
-					matrixD.set(i, j, 0);
-				else {
-					double d = distances.get(i + 1, j + 1);
-					matrixD.set(i, j, d);
-				}
+				if (i != j)
+					matrixD[i][j] = distances.get(i + 1, j + 1);
 			}
 		}
 		points = new double[rank][];
@@ -72,7 +82,12 @@ public class PCoA {
 	 * calculate the MDS analysis
 	 */
 	public void calculateClassicMDS(ProgressListener progress) throws CanceledException {
+		if (rank > MAX_SAMPLES_FULL_DECOMPOSITION) {
+			calculateClassicMDSLeadingAxes(progress);
+			return;
+		}
 		progress.setSubtask("Eigenvalue decomposition");
+		percentOfTrace = false;
 
 		progress.setProgress(-1);
 		progress.setMaximum(-1);
@@ -85,7 +100,7 @@ public class PCoA {
 		//distanceMatrix.print(pw, rank, rank);
 		//pw.flush();
 
-		final Matrix centered = Utilities.computeDoubleCenteringOfSquaredMatrix(matrixD);
+		final Matrix centered = new Matrix(Utilities.computeDoubleCenteringOfSquaredMatrix(matrixD));
 
 		//System.err.println("centered:");
 		//centered.print(pw, rank, rank);
@@ -170,6 +185,70 @@ public class PCoA {
 		done = true;
 	}
 
+	/**
+	 * calculate the MDS analysis for a large number of samples. Only the leading axes are computed by subspace iteration.
+	 * Percent explained is relative to the trace of the centered matrix, which equals the total of all positive
+	 * eigenvalues only when the distances are Euclidean. For other distances, such as Bray-Curtis, the trace also includes
+	 * the negative eigenvalues, which are not computed, so percent explained is reported as percent of trace
+	 */
+	private void calculateClassicMDSLeadingAxes(ProgressListener progress) throws CanceledException {
+		progress.setSubtask("Double centering");
+		progress.setProgress(-1);
+		progress.setMaximum(-1);
+
+		loadingVectorsBiPlot.clear();
+		loadingVectorsTriPlot.clear();
+
+		final TopEigenSolver solver;
+		if (rank >= MIN_SAMPLES_FLOAT_STORAGE)
+			solver = new TopEigenSolver(Utilities.computeDoubleCenteringOfSquaredMatrixAsFloats(matrixD));
+		else
+			solver = new TopEigenSolver(Utilities.computeDoubleCenteringOfSquaredMatrix(matrixD));
+
+		progress.setSubtask("Eigenvalue decomposition (leading axes)");
+		solver.compute(NUMBER_OF_AXES_LARGE, progress);
+
+		final double[] values = solver.getEigenValues();
+		final double[][] vectors = solver.getEigenVectors();
+
+		numberOfPositiveEigenValues = 0;
+		while (numberOfPositiveEigenValues < values.length && values[numberOfPositiveEigenValues] > 0.000000001)
+			numberOfPositiveEigenValues++;
+
+		System.err.println("numberOfPositiveEigenValues (leading axes): " + numberOfPositiveEigenValues);
+
+		eigenValues = Arrays.copyOf(values, numberOfPositiveEigenValues);
+		percentExplained = new double[numberOfPositiveEigenValues];
+
+		System.err.println("Positive eigenvalues:");
+		System.err.println(StringUtils.toString("%.8f", eigenValues, ", "));
+
+		percentOfTrace = true;
+		final double total = solver.getTrace();
+		if (total > 0) {
+			for (int j = 0; j < eigenValues.length; j++) {
+				percentExplained[j] = 100.0 * eigenValues[j] / total;
+			}
+			System.err.println("Percent explained (of trace):");
+			System.err.println(StringUtils.toString("%.1f%%", percentExplained, ", "));
+		}
+
+		progress.setSubtask("Calculating PCoA");
+		progress.setProgress(0);
+		progress.setMaximum(rank);
+		for (int i = 0; i < rank; i++) {
+			final String name = samples.getLabel(i + 1);
+			final double[] vector = new double[numberOfPositiveEigenValues];
+			for (int j = 0; j < numberOfPositiveEigenValues; j++) {
+				vector[j] = vectors[j][i] * Math.sqrt(eigenValues[j]);
+			}
+			sampleName2Point.put(name, vector);
+			points[i] = vector;
+			progress.incrementProgress();
+		}
+		done = true;
+	}
+
 	public int getNumberOfPositiveEigenValues() {
 		return numberOfPositiveEigenValues;
 	}
@@ -357,6 +436,14 @@ public class PCoA {
 		return percentExplained[pc];
 	}
 
+	/**
+	 * is percent explained relative to the trace of the centered matrix, rather than to the sum of positive eigenvalues?
+	 * This is the case when only the leading axes are computed
+	 */
+	public boolean isPercentOfTrace() {
+		return percentOfTrace;
+	}
+
 	public Taxa getSamples() {
 		return samples;
 	}
@@ -0,0 +1,249 @@
+/*
+ * TopEigenSolver.java Copyright (C) 2024 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package megan.clusteranalysis.pcoa;
+
+import Jama.EigenvalueDecomposition;
+import Jama.Matrix;
+import jloda.util.CanceledException;
+import jloda.util.progress.ProgressListener;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * computes the largest eigenvalues and their eigenvectors of a symmetric matrix using randomized subspace iteration
+ * with Rayleigh-Ritz projection. Only matrix-times-block products are needed, so this runs in O(n^2 k) per iteration
+ * rather than the O(n^3) of a full decomposition. The matrix is held either as doubles or as floats
+ * Daniel Huson, 10.2026
+ */
+public class TopEigenSolver {
+	private static final int OVERSAMPLING = 10;
+	private static final int MAX_ITERATIONS = 300;
+	private static final double TOLERANCE = 1.0E-10;
+
+	private final int size;
+	private final double[][] doubleMatrix;
+	private final float[][] floatMatrix;
+
+	private double[] eigenValues;
+	private double[][] eigenVectors;
+
+	/**
+	 * constructor
+	 *
+	 * @param matrix symmetric matrix
+	 */
+	public TopEigenSolver(double[][] matrix) {
+		this.size = matrix.length;
+		this.doubleMatrix = matrix;
+		this.floatMatrix = null;
+	}
+
+	/**
+	 * constructor
+	 *
+	 * @param matrix symmetric matrix, in float storage
+	 */
+	public TopEigenSolver(float[][] matrix) {
+		this.size = matrix.length;
+		this.doubleMatrix = null;
+		this.floatMatrix = matrix;
+	}
+
+	/**
+	 * compute the k largest eigenvalues and their eigenvectors
+	 *
+	 * @param k number of eigenpairs to compute
+	 */
+	public void compute(int k, ProgressListener progress) throws CanceledException {
+		k = Math.min(k, size);
+		final var blockSize = Math.min(size, k + Math.max(k, OVERSAMPLING));
+
+		progress.setMaximum(MAX_ITERATIONS);
+		progress.setProgress(0);
+
+		// start with a random block, fixed seed so that repeated runs give the same axes
+		final var random = new Random(666);
+		var block = new double[blockSize][size];
+		for (var vector : block) {
+			for (var i = 0; i < size; i++)
+				vector[i] = random.nextGaussian();
+		}
+		orthonormalize(block);
+
+		double[] ritzValues = null;
+		double[][] ritzVectors = null;
+
+		for (var iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+			final var product = multiply(block);
+
+			// Rayleigh-Ritz: project onto current subspace and solve the small eigenproblem
+			final var projected = new Matrix(blockSize, blockSize);
+			for (var a = 0; a < blockSize; a++) {
+				for (var b = a; b < blockSize; b++) {
+					final var value = dot(block[a], product[b]);
+					projected.set(a, b, value);
+					projected.set(b, a, value);
+				}
+			}
+			final EigenvalueDecomposition decomposition = projected.eig();
+			final var values = decomposition.getRealEigenvalues();
+			final var order = sortDecreasing(values);
+
+			final var newRitzValues = new double[k];
+			for (var j = 0; j < k; j++)
+				newRitzValues[j] = values[order[j]];
+
+			final var converged = (ritzValues != null && hasConverged(ritzValues, newRitzValues));
+			ritzValues = newRitzValues;
+
+			if (converged || iteration == MAX_ITERATIONS - 1) {
+				ritzVectors = combine(block, decomposition.getV(), order, k);
+				break;
+			}
+
+			orthonormalize(product);
+			block = product;
+			progress.setProgress(iteration + 1);
+		}
+		eigenValues = ritzValues;
+		eigenVectors = ritzVectors;
+	}
+
+	/**
+	 * largest eigenvalues, in decreasing order
+	 */
+	public double[] getEigenValues() {
+		return eigenValues;
+	}
+
+	/**
+	 * eigenvectors, first index is the eigenvalue, second the coordinate
+	 */
+	public double[][] getEigenVectors() {
+		return eigenVectors;
+	}
+
+	/**
+	 * sum of the diagonal, which equals the sum of all eigenvalues
+	 */
+	public double getTrace() {
+		var trace = 0.0;
+		for (var i = 0; i < size; i++)
+			trace += (doubleMatrix != null ? doubleMatrix[i][i] : floatMatrix[i][i]);
+		return trace;
+	}
+
+	/**
+	 * compute matrix times each vector of the block, rows are processed in parallel
+	 */
+	private double[][] multiply(double[][] block) {
+		final var result = new double[block.length][size];
+		IntStream.range(0, size).parallel().forEach(i -> {
+			if (doubleMatrix != null) {
+				final var row = doubleMatrix[i];
+				for (var c = 0; c < block.length; c++)
+					result[c][i] = dot(row, block[c]);
+			} else {
+				final var row = floatMatrix[i];
+				for (var c = 0; c < block.length; c++) {
+					final var vector = block[c];
+					var sum = 0.0;
+					for (var j = 0; j < size; j++)
+						sum += row[j] * vector[j];
+					result[c][i] = sum;
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Ritz vectors for the k largest Ritz values
+	 */
+	private double[][] combine(double[][] block, Matrix smallVectors, int[] order, int k) {
+		final var result = new double[k][size];
+		for (var j = 0; j < k; j++) {
+			final var vector = result[j];
+			for (var a = 0; a < block.length; a++) {
+				final var coefficient = smallVectors.get(a, order[j]);
+				final var basis = block[a];
+				for (var i = 0; i < size; i++)
+					vector[i] += coefficient * basis[i];
+			}
+			final var norm = Math.sqrt(dot(vector, vector));
+			if (norm > 0) {
+				for (var i = 0; i < size; i++)
+					vector[i] /= norm;
+			}
+		}
+		return result;
+	}
+
+	private static boolean hasConverged(double[] previous, double[] current) {
+		var scale = 1.0;
+		for (var value : current)
+			scale = Math.max(scale, Math.abs(value));
+		for (var j = 0; j < current.length; j++) {
+			if (Math.abs(current[j] - previous[j]) > TOLERANCE * scale)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * modified Gram-Schmidt, vectors that become numerically zero are replaced by random ones
+	 */
+	private static void orthonormalize(double[][] vectors) {
+		final var random = new Random(42);
+		for (var a = 0; a < vectors.length; a++) {
+			final var vector = vectors[a];
+			for (var round = 0; round < 2; round++) { // second round for numerical stability
+				for (var b = 0; b < a; b++) {
+					final var projection = dot(vector, vectors[b]);
+					final var other = vectors[b];
+					for (var i = 0; i < vector.length; i++)
+						vector[i] -= projection * other[i];
+				}
+			}
+			final var norm = Math.sqrt(dot(vector, vector));
+			if (norm > 1.0E-12) {
+				for (var i = 0; i < vector.length; i++)
+					vector[i] /= norm;
+			} else {
+				for (var i = 0; i < vector.length; i++)
+					vector[i] = random.nextGaussian();
+				a--; // redo this vector
+			}
+		}
+	}
+
+	private static double dot(double[] a, double[] b) {
+		var sum = 0.0;
+		for (var i = 0; i < a.length; i++)
+			sum += a[i] * b[i];
+		return sum;
+	}
+
+	private static int[] sortDecreasing(double[] values) {
+		return IntStream.range(0, values.length).boxed().sorted((a, b) -> Double.compare(values[b], values[a]))
+				.mapToInt(Integer::intValue).toArray();
+	}
+}
@@ -22,6 +22,9 @@ package megan.clusteranalysis.pcoa;
 import Jama.Matrix;
 import jloda.util.StringUtils;
 
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
 /**
  * Math utilities for computing PCoA and biplot.
  * Daniel Huson, 7.2014
@@ -29,39 +32,55 @@ import jloda.util.StringUtils;
 public class Utilities {
 
 	/**
-	 * compute centered inner product matrix
+	 * compute the double centered matrix of squared distances, rows are processed in parallel
 	 *
-	 * @return new matrix
+	 * @return centered matrix
 	 */
-	public static Matrix computeDoubleCenteringOfSquaredMatrix(Matrix matrix) {
-		final int size = matrix.getColumnDimension();
-		Matrix result = new Matrix(size, size);
-
-		final double[] rowAverage = new double[size];
-		final double[] colAverage = new double[size];
-		double overallAverage = 0;
-
-		for (int i = 0; i < size; i++) {
-			for (int j = 0; j < size; j++) {
-				rowAverage[j] += matrix.get(i, j) * matrix.get(i, j);
-				colAverage[i] += matrix.get(i, j) * matrix.get(i, j);
-				overallAverage += matrix.get(i, j) * matrix.get(i, j);
-			}
-		}
-		for (int i = 0; i < size; i++) {
-			rowAverage[i] /= size;
-			colAverage[i] /= size;
-		}
-		overallAverage /= (size * size);
+	public static double[][] computeDoubleCenteringOfSquaredMatrix(double[][] distances) {
+		final var size = distances.length;
+		final var rowAverage = computeRowAveragesOfSquares(distances);
+		final var overallAverage = Arrays.stream(rowAverage).sum() / size;
 
-		for (int i = 0; i < size; i++) {
-			for (int j = 0; j < size; j++) {
-				result.set(i, j, -0.5 * (Math.pow(matrix.get(i, j), 2) - rowAverage[j] - colAverage[i] + overallAverage));
-			}
-		}
+		final var result = new double[size][size];
+		IntStream.range(0, size).parallel().forEach(i -> {
+			final var row = distances[i];
+			for (var j = 0; j < size; j++)
+				result[i][j] = -0.5 * (row[j] * row[j] - rowAverage[j] - rowAverage[i] + overallAverage);
+		});
+		return result;
+	}
+
+	/**
+	 * compute the double centered matrix of squared distances in float storage, rows are processed in parallel
+	 *
+	 * @return centered matrix
+	 */
+	public static float[][] computeDoubleCenteringOfSquaredMatrixAsFloats(double[][] distances) {
+		final var size = distances.length;
+		final var rowAverage = computeRowAveragesOfSquares(distances);
+		final var overallAverage = Arrays.stream(rowAverage).sum() / size;
+
+		final var result = new float[size][size];
+		IntStream.range(0, size).parallel().forEach(i -> {
+			final var row = distances[i];
+			for (var j = 0; j < size; j++)
+				result[i][j] = (float) (-0.5 * (row[j] * row[j] - rowAverage[j] - rowAverage[i] + overallAverage));
+		});
 		return result;
 	}
 
+	private static double[] computeRowAveragesOfSquares(double[][] distances) {
+		final var size = distances.length;
+		final var rowAverage = new double[size];
+		IntStream.range(0, size).parallel().forEach(i -> {
+			var sum = 0.0;
+			for (var value : distances[i])
+				sum += value * value;
+			rowAverage[i] = sum / size;
+		});
+		return rowAverage;
+	}
+
 	/**
 	 * center and scale a given matrix.
 	 * Center means: subtract row-average from each col
@@ -26,131 +26,214 @@ import jloda.swing.graphview.NodeView;
 import jloda.swing.graphview.PhyloTreeView;
 
 import java.awt.geom.Point2D;
+import java.util.Arrays;
 import java.util.LinkedList;
 
 /**
  * run the UPGMA algorithm and compute an embedding
  * Daniel Huson, 3.2011 (enroute Frankfurt - Washington D.C.)
+ * Uses the nearest-neighbor chain algorithm on a condensed distance matrix, O(n^2) time and memory, Daniel Huson, 10.2026
  */
 public class UPGMA {
-	private static UPGMA instance;
-
 	/**
 	 * apply the UPGMA algorithm
 	 */
 	public static void apply(Taxa taxa, Distances distances, PhyloTreeView treeView) {
-		if (instance == null)
-			instance = new UPGMA();
-		instance.computeUPMATree(taxa, distances, treeView.getPhyloTree());
-		embedTree(treeView);
+		final int ntax = distances.getNtax();
+		final String[] labels = new String[ntax];
+		for (int i = 1; i <= ntax; i++)
+			labels[i - 1] = taxa.getLabel(i);
+
+		final double[] condensed = new double[getCondensedSize(ntax)];
+		for (int i = 1; i <= ntax; i++) {
+			for (int j = i + 1; j <= ntax; j++) {
+				condensed[getCondensedIndex(i - 1, j - 1, ntax)] = (distances.get(i, j) + distances.get(j, i)) / 2.0;
+			}
+		}
+		apply(labels, computeMerges(ntax, condensed), treeView);
 	}
 
 	/**
-	 * run the UPGMA algorithm
+	 * build and embed the UPGMA tree for the given merges
 	 */
-	private void computeUPMATree(Taxa taxa, Distances dist, PhyloTree tree) {
-		tree.clear();
-
-		int ntax = dist.getNtax();
+	public static void apply(String[] labels, Merges merges, PhyloTreeView treeView) {
+		computeTree(labels, merges, treeView.getPhyloTree());
+		embedTree(treeView);
+	}
 
-		Node[] subtrees = new Node[ntax + 1];
-		int[] sizes = new int[ntax + 1];
-		double[] heights = new double[ntax + 1];
+	/**
+	 * the sequence of merges computed by UPGMA. Leaves are numbered 0 to n-1, the cluster created by the k-th merge is numbered n+k
+	 */
+	public static class Merges {
+		private final int[] first;
+		private final int[] second;
+		private final double[] distance;
+
+		private Merges(int n) {
+			first = new int[Math.max(0, n - 1)];
+			second = new int[Math.max(0, n - 1)];
+			distance = new double[Math.max(0, n - 1)];
+		}
 
-		for (int i = 1; i <= ntax; i++) {
-			subtrees[i] = tree.newNode();
-			tree.setLabel(subtrees[i], taxa.getLabel(i));
-			sizes[i] = 1;
+		public int size() {
+			return first.length;
 		}
+	}
 
-		double[][] d = new double[ntax + 1][ntax + 1];// distance matix
+	/**
+	 * number of entries in a condensed distance matrix
+	 */
+	public static int getCondensedSize(int ntax) {
+		final long size = (long) ntax * (ntax - 1) / 2;
+		if (size > Integer.MAX_VALUE - 16)
+			throw new IllegalArgumentException("Too many taxa: " + ntax);
+		return (int) size;
+	}
 
-		//Initialise d
-		//Compute the closest values for each taxa.
-		for (int i = 1; i <= ntax; i++) {
-			for (int j = i + 1; j <= ntax; j++) {
-				double dij = (dist.get(i, j) + dist.get(j, i)) / 2.0;// distance matix h
-				d[i][j] = d[j][i] = dij;
+	/**
+	 * index of the distance between i and j, i!=j, in a condensed distance matrix, which lists the upper triangle row by row
+	 */
+	public static int getCondensedIndex(int i, int j, int ntax) {
+		if (i > j) {
+			final int tmp = i;
+			i = j;
+			j = tmp;
+		}
+		return (int) ((long) i * (2L * ntax - i - 1) / 2 + (j - i - 1));
+	}
 
-			}
+	/**
+	 * run the UPGMA algorithm using nearest-neighbor chains. UPGMA is reducible, so merging reciprocal nearest
+	 * neighbors as they are found gives the same tree as always merging the globally closest pair
+	 *
+	 * @param ntax      number of taxa
+	 * @param distances condensed distance matrix, is overwritten
+	 * @return merges
+	 */
+	public static Merges computeMerges(int ntax, double[] distances) {
+		final Merges merges = new Merges(ntax);
+		for (int k = 0; k < distances.length; k++) {
+			if (Double.isNaN(distances[k]))
+				distances[k] = Double.POSITIVE_INFINITY;
 		}
 
-		for (int actual = ntax; actual > 2; actual--) {
-
-			int i_min = 0, j_min = 0;
-			//Find closest pair.
-			double d_min = Double.MAX_VALUE;
-			for (int i = 1; i <= actual; i++) {
-				for (int j = i + 1; j <= actual; j++) {
-					double dij = d[i][j];
-					if (i_min == 0 || dij < d_min) {
-						i_min = i;
-						j_min = j;
-						d_min = dij;
+		final boolean[] active = new boolean[ntax];
+		Arrays.fill(active, true);
+		final int[] sizes = new int[ntax];
+		Arrays.fill(sizes, 1);
+		final int[] clusters = new int[ntax];
+		for (int i = 0; i < ntax; i++)
+			clusters[i] = i;
+
+		final int[] chain = new int[ntax];
+		int top = 0;
+		int firstActive = 0;
+
+		for (int step = 0; step < ntax - 1; step++) {
+			if (top == 0) {
+				while (!active[firstActive])
+					firstActive++;
+				chain[top++] = firstActive;
+			}
+			double best;
+			while (true) {
+				final int a = chain[top - 1];
+				// prefer the previous element of the chain on ties, this guarantees that the chain ends
+				int b = (top >= 2 ? chain[top - 2] : -1);
+				best = (b != -1 ? distances[getCondensedIndex(a, b, ntax)] : Double.POSITIVE_INFINITY);
+				for (int k = 0; k < ntax; k++) {
+					if (active[k] && k != a) {
+						final double value = distances[getCondensedIndex(a, k, ntax)];
+						if (value < best || b == -1) {
+							best = value;
+							b = k;
+						}
 					}
 				}
-
-			}
-
-
-			double height = d_min / 2.0;
-
-			Node v = tree.newNode();
-			Edge e = tree.newEdge(v, subtrees[i_min]);
-			tree.setWeight(e, Math.max(height - heights[i_min], 0.0));
-			Edge f = tree.newEdge(v, subtrees[j_min]);
-			tree.setWeight(f, Math.max(height - heights[j_min], 0.0));
-
-			subtrees[i_min] = v;
-			subtrees[j_min] = null;
-			heights[i_min] = height;
-
-
-			int size_i = sizes[i_min];
-			int size_j = sizes[j_min];
-			sizes[i_min] = size_i + size_j;
-
-			for (int k = 1; k <= ntax; k++) {
-				if ((k == i_min) || k == j_min) continue;
-				double dki = (d[k][i_min] * size_i + d[k][j_min] * size_j) / ((double) (size_i + size_j));
-				d[k][i_min] = d[i_min][k] = dki;
+				if (top >= 2 && b == chain[top - 2])
+					break;
+				chain[top++] = b;
 			}
-
-			//Copy the top row of the matrix and arrays into the empty j_min row/column.
-			if (j_min < actual) {
-				for (int k = 1; k <= actual; k++) {
-					d[j_min][k] = d[k][j_min] = d[actual][k];
+			final int a = chain[--top];
+			final int b = chain[--top];
+			final int low = Math.min(a, b);
+			final int high = Math.max(a, b);
+
+			merges.first[step] = clusters[low];
+			merges.second[step] = clusters[high];
+			merges.distance[step] = best;
+
+			final int sizeLow = sizes[low];
+			final int sizeHigh = sizes[high];
+			for (int k = 0; k < ntax; k++) {
+				if (active[k] && k != low && k != high) {
+					final int indexLow = getCondensedIndex(k, low, ntax);
+					distances[indexLow] = (distances[indexLow] * sizeLow + distances[getCondensedIndex(k, high, ntax)] * sizeHigh) / ((double) (sizeLow + sizeHigh));
 				}
-				d[j_min][j_min] = 0.0;
-				subtrees[j_min] = subtrees[actual];
-				sizes[j_min] = sizes[actual];
-				heights[j_min] = heights[actual];
 			}
+			sizes[low] = sizeLow + sizeHigh;
+			active[high] = false;
+			clusters[low] = ntax + step;
 		}
+		return merges;
+	}
 
-		int sister = 2;
-		while (subtrees[sister] == null)
-			sister++;
+	/**
+	 * build the tree for the given merges. The two subtrees below the root are attached so that the tree is ultrametric
+	 */
+	private static void computeTree(String[] labels, Merges merges, PhyloTree tree) {
+		tree.clear();
 
-		Node root = tree.newNode();
-		tree.setRoot(root);
+		final int ntax = labels.length;
+		if (ntax == 0)
+			return;
 
-		double w1, w2;
-		double delta = Math.abs(heights[1] - heights[sister]);
-		double distance = d[1][sister] - delta;
+		final Node[] subtrees = new Node[2 * ntax - 1];
+		final double[] heights = new double[2 * ntax - 1];
 
-		if (heights[1] <= heights[sister]) {
-			w1 = 0.5 * distance + delta;
-			w2 = 0.5 * distance;
-		} else {
-			w1 = 0.5 * distance;
-			w2 = 0.5 * distance + delta;
+		for (int i = 0; i < ntax; i++) {
+			subtrees[i] = tree.newNode();
+			tree.setLabel(subtrees[i], labels[i]);
+		}
+		if (ntax == 1) {
+			tree.setRoot(subtrees[0]);
+			return;
 		}
 
-		Edge e1 = tree.newEdge(root, subtrees[1]);
-		tree.setWeight(e1, w1);
-		Edge e2 = tree.newEdge(root, subtrees[sister]);
-		tree.setWeight(e2, w2);
+		for (int k = 0; k < merges.size(); k++) {
+			final int i = merges.first[k];
+			final int j = merges.second[k];
+			final Node v = tree.newNode();
+			subtrees[ntax + k] = v;
+
+			if (k < merges.size() - 1) {
+				final double height = merges.distance[k] / 2.0;
+				Edge e = tree.newEdge(v, subtrees[i]);
+				tree.setWeight(e, Math.max(height - heights[i], 0.0));
+				Edge f = tree.newEdge(v, subtrees[j]);
+				tree.setWeight(f, Math.max(height - heights[j], 0.0));
+				heights[ntax + k] = height;
+			} else {
+				tree.setRoot(v);
+
+				double w1, w2;
+				double delta = Math.abs(heights[i] - heights[j]);
+				double distance = merges.distance[k] - delta;
+
+				if (heights[i] <= heights[j]) {
+					w1 = 0.5 * distance + delta;
+					w2 = 0.5 * distance;
+				} else {
+					w1 = 0.5 * distance;
+					w2 = 0.5 * distance + delta;
+				}
+
+				Edge e1 = tree.newEdge(v, subtrees[i]);
+				tree.setWeight(e1, w1);
+				Edge e2 = tree.newEdge(v, subtrees[j]);
+				tree.setWeight(e2, w2);
+			}
+		}
 	}
 
 	/**
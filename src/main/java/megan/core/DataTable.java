@@ -97,6 +97,8 @@ public class DataTable {
 	private String contaminants;
 
 	private final Map<String, Map<Integer, float[]>> classification2class2counts = new HashMap<>();
+	// classifications that have been read, but not yet requested, are kept in sparse format:
+	private final Map<String, SparseClassCounts> classification2sparseCounts = new HashMap<>();
 
 	/**
 	 * constructor
@@ -125,6 +127,7 @@ public class DataTable {
 		classification2EdgeFormats.clear();
 		parameters = null;
 		classification2class2counts.clear();
+		classification2sparseCounts.clear();
 		// don't clear contaminants
 	}
 
@@ -134,6 +137,8 @@ public class DataTable {
 	public void read(BufferedReader r, boolean headerOnly) throws IOException {
 		try {
 			Set<String> disabledSamples = new HashSet<>();
+			final Map<String, SparseClassCounts.Builder> classification2builder = new HashMap<>();
+			final Map<String, String> shortName2FullName = new HashMap<>();
 
 			clear();
 			int lineNumber = 0;
@@ -143,7 +148,6 @@ public class DataTable {
 				aLine = aLine.trim();
 				if (aLine.isEmpty() || aLine.startsWith("#"))
 					continue;
-				final String[] tokens = aLine.split("\t");
 
 				if (lineNumber == 1 && (aLine.equals(MEGAN4_SUMMARY_TAG) || aLine.equals("!MEGAN4")))
 					continue;
@@ -152,6 +156,7 @@ public class DataTable {
 					break; // BEGIN_METADATA_TABLE is for legacy purposes only and is no longer used or supported
 
 				if (aLine.startsWith("@")) {
+					final String[] tokens = aLine.split("\t");
 					switch (tokens[0]) {
 						case CONTENT_TYPE -> {
 							var buf = new StringBuilder();
@@ -277,23 +282,20 @@ public class DataTable {
 				} else {
 					if (headerOnly)
 						break;
-					if (tokens.length > 2) {
-						String classification = ClassificationType.getFullName(tokens[0]);
-						Integer classId = Integer.parseInt(tokens[1]);
-
-						Map<Integer, float[]> class2counts = classification2class2counts.computeIfAbsent(classification, k -> new HashMap<>());
-						float[] counts = class2counts.get(classId);
-						if (counts == null) {
-							counts = new float[Math.min(getNumberOfSamples(), tokens.length - 2)];
-							class2counts.put(classId, counts);
-						}
-						for (int i = 2; i < Math.min(tokens.length, counts.length + 2); i++) {
-							counts[i - 2] = Float.parseFloat(tokens[i]);
-						}
+					// data lines are parsed directly into sparse format, without splitting into tokens:
+					final int tab1 = aLine.indexOf('\t');
+					final int tab2 = (tab1 == -1 ? -1 : aLine.indexOf('\t', tab1 + 1));
+					if (tab2 != -1) {
+						final String classification = shortName2FullName.computeIfAbsent(aLine.substring(0, tab1), ClassificationType::getFullName);
+						final int classId = Integer.parseInt(aLine.substring(tab1 + 1, tab2));
+						classification2builder.computeIfAbsent(classification, k -> new SparseClassCounts.Builder()).addRow(classId, aLine, tab2 + 1, getNumberOfSamples());
 					} else
 						System.err.println("Line " + lineNumber + ": Too few tokens in classification: " + aLine);
 				}
 			}
+			for (var entry : classification2builder.entrySet()) {
+				classification2sparseCounts.put(entry.getKey(), entry.getValue().build());
+			}
 			if (disabledSamples.size() > 0) {
 				disableSamples(disabledSamples);
 			}
@@ -361,6 +363,9 @@ public class DataTable {
 					}
 				}
 			}
+			for (var entry : classification2sparseCounts.entrySet()) {
+				entry.getValue().write(w, ClassificationType.getShortName(entry.getKey()), getNumberOfSamples());
+			}
 			w.write("END_OF_DATA_TABLE\n");
 		}
 	}
@@ -477,10 +482,8 @@ public class DataTable {
 			w.write(String.format("<b>%s:</b> %d<br>\n", ADDITIONAL_READS.substring(1), additionalReads));
 
 		w.write("<b>Classifications:</b> ");
-		for (String classification : classification2class2counts.keySet()) {
-			Map<Integer, float[]> class2counts = classification2class2counts.get(classification);
-			int size = class2counts != null ? class2counts.size() : 0;
-			w.write(String.format("%s (%d classes)", classification, size));
+		for (String classification : getClassificationNames()) {
+			w.write(String.format("%s (%d classes)", classification, getNumberOfClasses(classification)));
 		}
 		w.write("<br>\n");
 
@@ -535,10 +538,8 @@ public class DataTable {
 			w.write(String.format("%s\t%d\n", ADDITIONAL_READS, additionalReads));
 
 		w.write("Classifications:\n");
-		for (String classification : classification2class2counts.keySet()) {
-			Map<Integer, float[]> class2counts = classification2class2counts.get(classification);
-			int size = class2counts != null ? class2counts.size() : 0;
-			w.write(" " + classification + " (" + size + " classes)");
+		for (String classification : getClassificationNames()) {
+			w.write(" " + classification + " (" + getNumberOfClasses(classification) + " classes)");
 		}
 		w.write("\n");
 
@@ -646,7 +647,7 @@ public class DataTable {
 	 */
 	private void determineSizesFromTaxonomyClassification() {
 		// determine sizes:
-		Map<Integer, float[]> class2count = classification2class2counts.get(ClassificationType.Taxonomy.toString());
+		Map<Integer, float[]> class2count = getClass2Counts(ClassificationType.Taxonomy.toString());
 		if (class2count != null) {
 			float[] sizes = new float[getNumberOfSamples()];
 			for (Integer classId : class2count.keySet()) {
@@ -686,14 +687,60 @@ public class DataTable {
 	 * @return mapping
 	 */
 	public Map<String, Map<Integer, float[]>> getClassification2Class2Counts() {
+		ensureAllExpanded();
 		return classification2class2counts;
 	}
 
+	/**
+	 * gets the names of all classifications present in the table, without expanding their counts
+	 *
+	 * @return classification names
+	 */
+	public synchronized Set<String> getClassificationNames() {
+		final var names = new LinkedHashSet<>(classification2class2counts.keySet());
+		names.addAll(classification2sparseCounts.keySet());
+		return names;
+	}
+
+	/**
+	 * gets the number of classes for a classification, without expanding its counts
+	 *
+	 * @return number of classes
+	 */
+	public synchronized int getNumberOfClasses(String classification) {
+		final var sparseCounts = classification2sparseCounts.get(classification);
+		if (sparseCounts != null)
+			return sparseCounts.size();
+		final var class2counts = classification2class2counts.get(classification);
+		return class2counts != null ? class2counts.size() : 0;
+	}
+
+	/**
+	 * expand the sparse counts of a classification into the class-to-counts map, if not already done
+	 */
+	private synchronized void ensureExpanded(String classification) {
+		if (!classification2sparseCounts.isEmpty()) {
+			final var sparseCounts = classification2sparseCounts.remove(classification);
+			if (sparseCounts != null)
+				classification2class2counts.put(classification, sparseCounts.toMap());
+		}
+	}
+
+	/**
+	 * expand the sparse counts of all classifications
+	 */
+	private synchronized void ensureAllExpanded() {
+		if (!classification2sparseCounts.isEmpty()) {
+			for (var classification : new ArrayList<>(classification2sparseCounts.keySet()))
+				ensureExpanded(classification);
+		}
+	}
+
 	/**
 	 * set the classification2class2count value for a given classification, classId, datasetid and count
 	 */
 	public void setClassification2Class2Count(String classification, int classId, int sampleId, float count) {
-		Map<Integer, float[]> class2count = classification2class2counts.get(classification);
+		Map<Integer, float[]> class2count = getClass2Counts(classification);
 		if (class2count == null)
 			class2count = new HashMap<>();
 		classification2class2counts.put(classification, class2count);
@@ -959,14 +1006,16 @@ public class DataTable {
 	}
 
 	public Map<Integer, float[]> getClass2Counts(ClassificationType classification) {
-		return classification2class2counts.get(classification.toString());
+		return getClass2Counts(classification.toString());
 	}
 
 	public Map<Integer, float[]> getClass2Counts(String classification) {
+		ensureExpanded(classification);
 		return classification2class2counts.get(classification);
 	}
 
 	public void setClass2Counts(String classification, Map<Integer, float[]> classId2count) {
+		classification2sparseCounts.remove(classification);
 		classification2class2counts.put(classification, classId2count);
 	}
 
@@ -1060,6 +1109,7 @@ public class DataTable {
 			var alive = sampleNames.size();
 			// System.err.println("Remaining sample name: "+Basic.toString(sampleNames,","));
 
+			ensureAllExpanded();
 			for (var class2counts : classification2class2counts.values()) {
 				for (var classId : class2counts.keySet()) {
 					var counts = class2counts.get(classId);
@@ -1128,6 +1178,8 @@ public class DataTable {
 
 			int tarId = StringUtils.getIndex(sample, target.sampleNames);
 
+			source.ensureAllExpanded();
+			target.ensureAllExpanded();
 			for (String classification : source.classification2class2counts.keySet()) {
 				Map<Integer, float[]> sourceClass2counts = source.classification2class2counts.get(classification);
 				Map<Integer, float[]> targetClass2counts = target.classification2class2counts.computeIfAbsent(classification, k -> new HashMap<>());
@@ -1160,6 +1212,7 @@ public class DataTable {
 
 			int tarId = StringUtils.getIndex(sample, this.sampleNames);
 
+			ensureAllExpanded();
 			for (String classification : sourceClassification2class2counts.keySet()) {
 				Map<Integer, float[]> sourceClass2counts = sourceClassification2class2counts.get(classification);
 				Map<Integer, float[]> targetClass2counts = this.classification2class2counts.computeIfAbsent(classification, k -> new HashMap<>());
@@ -1223,6 +1276,7 @@ public class DataTable {
 		blastModes.add(mode);
 
 		var tarId = StringUtils.getIndex(newName, sampleNames);
+		ensureAllExpanded();
 		for (var class2counts : classification2class2counts.values()) {
 			for (var classId : class2counts.keySet()) {
 				var counts = class2counts.get(classId);
@@ -1433,6 +1487,7 @@ public class DataTable {
 		setTotalReads(totalReads);
 
 		// write the data:
+		originalData.ensureAllExpanded();
 		for (var classification : originalData.classification2class2counts.keySet()) {
 			var origClass2counts = originalData.classification2class2counts.get(classification);
 			var class2counts = classification2class2counts.computeIfAbsent(classification, k -> new HashMap<>());
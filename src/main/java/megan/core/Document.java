@@ -459,7 +459,7 @@ public class Document {
 			parseParameterString(parameters);
 		}
 		getActiveViewers().clear();
-		getActiveViewers().addAll(getDataTable().getClassification2Class2Counts().keySet());
+		getActiveViewers().addAll(getDataTable().getClassificationNames());
 		loadColorTableFromDataTable();
 	}
 
@@ -609,7 +609,7 @@ public class Document {
 	}
 
 	public List<String> getClassificationNames() {
-		return new ArrayList<>(getDataTable().getClassification2Class2Counts().keySet());
+		return new ArrayList<>(getDataTable().getClassificationNames());
 	}
 
 	/**
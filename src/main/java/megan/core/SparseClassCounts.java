@@ -0,0 +1,161 @@
+/*
+ * SparseClassCounts.java Copyright (C) 2024 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package megan.core;
+
+import jloda.util.StringUtils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * immutable class-to-counts table for one classification, stored in compressed sparse row format.
+ * Only non-zero counts are kept. Used by the data table to hold classifications that have been read, but not used yet
+ * Daniel Huson, 10.2026
+ */
+public class SparseClassCounts {
+	private final int numberOfRows;
+	private final int[] classIds;
+	private final int[] rowLengths; // length of the dense counts array of each row
+	private final int[] rowStarts; // start of each row in sampleIndices and values
+	private final int[] sampleIndices;
+	private final float[] values;
+
+	private SparseClassCounts(Builder builder) {
+		numberOfRows = builder.numberOfRows;
+		classIds = Arrays.copyOf(builder.classIds, numberOfRows);
+		rowLengths = Arrays.copyOf(builder.rowLengths, numberOfRows);
+		rowStarts = Arrays.copyOf(builder.rowStarts, numberOfRows + 1);
+		sampleIndices = Arrays.copyOf(builder.sampleIndices, builder.numberOfValues);
+		values = Arrays.copyOf(builder.values, builder.numberOfValues);
+	}
+
+	/**
+	 * number of classes
+	 */
+	public int size() {
+		return numberOfRows;
+	}
+
+	/**
+	 * creates the class-to-counts map used by the data table
+	 *
+	 * @return class to counts
+	 */
+	public Map<Integer, float[]> toMap() {
+		final var class2counts = new HashMap<Integer, float[]>(2 * numberOfRows);
+		for (var row = 0; row < numberOfRows; row++) {
+			var counts = class2counts.get(classIds[row]);
+			if (counts == null) {
+				counts = new float[rowLengths[row]];
+				class2counts.put(classIds[row], counts);
+			}
+			for (var k = rowStarts[row]; k < rowStarts[row + 1]; k++) {
+				if (sampleIndices[k] < counts.length)
+					counts[sampleIndices[k]] = values[k];
+			}
+		}
+		return class2counts;
+	}
+
+	/**
+	 * write all rows in the format used by the data table
+	 */
+	public void write(Writer w, String classificationShortName, int numberOfSamples) throws IOException {
+		final var buf = new StringBuilder();
+		for (var row = 0; row < numberOfRows; row++) {
+			buf.setLength(0);
+			buf.append(classificationShortName).append('\t').append(classIds[row]);
+			var k = rowStarts[row];
+			for (var i = 0; i < numberOfSamples; i++) {
+				if (k < rowStarts[row + 1] && sampleIndices[k] == i)
+					buf.append('\t').append(StringUtils.removeTrailingZerosAfterDot("" + values[k++]));
+				else
+					buf.append("\t0");
+			}
+			buf.append('\n');
+			w.write(buf.toString());
+		}
+	}
+
+	/**
+	 * builds a sparse table row by row
+	 */
+	public static class Builder {
+		private int numberOfRows;
+		private int[] classIds = new int[1024];
+		private int[] rowLengths = new int[1024];
+		private int[] rowStarts = new int[1025];
+		private int numberOfValues;
+		private int[] sampleIndices = new int[4096];
+		private float[] values = new float[4096];
+
+		/**
+		 * parse the tab-separated counts of one row from a line of text
+		 *
+		 * @param line      the line
+		 * @param from      position of the first count in the line
+		 * @param maxLength max number of counts to parse
+		 */
+		public void addRow(int classId, String line, int from, int maxLength) {
+			var sample = 0;
+			var pos = from;
+			while (pos <= line.length() && sample < maxLength) {
+				var end = line.indexOf('\t', pos);
+				if (end == -1)
+					end = line.length();
+				if (!(end == pos + 1 && line.charAt(pos) == '0')) {
+					final var value = Float.parseFloat(line.substring(pos, end));
+					if (value != 0)
+						addValue(sample, value);
+				}
+				sample++;
+				pos = end + 1;
+			}
+			endRow(classId, sample);
+		}
+
+		private void addValue(int sample, float value) {
+			if (numberOfValues == values.length) {
+				sampleIndices = Arrays.copyOf(sampleIndices, 2 * numberOfValues);
+				values = Arrays.copyOf(values, 2 * numberOfValues);
+			}
+			sampleIndices[numberOfValues] = sample;
+			values[numberOfValues++] = value;
+		}
+
+		private void endRow(int classId, int rowLength) {
+			if (numberOfRows == classIds.length) {
+				classIds = Arrays.copyOf(classIds, 2 * numberOfRows);
+				rowLengths = Arrays.copyOf(rowLengths, 2 * numberOfRows);
+				rowStarts = Arrays.copyOf(rowStarts, 2 * numberOfRows + 1);
+			}
+			classIds[numberOfRows] = classId;
+			rowLengths[numberOfRows++] = rowLength;
+			rowStarts[numberOfRows] = numberOfValues;
+		}
+
+		public SparseClassCounts build() {
+			return new SparseClassCounts(this);
+		}
+	}
+}
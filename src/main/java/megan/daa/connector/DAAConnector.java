@@ -30,6 +30,7 @@ import megan.io.InputStreamAdapter;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
@@ -174,7 +175,23 @@ public class DAAConnector implements IConnector {
 				progressListener.incrementProgress();
 			}
 		}
-		ModifyClassificationsDAA.saveClassifications(daaHeader, cNames, fName2ClassId2Location, fName2ClassId2Weight);
+		ModifyClassificationsDAA.saveClassifications(daaHeader, cNames, fName2ClassId2Location, fName2ClassId2Weight, updateItems.encodeReadAssignments(cNames));
+	}
+
+	@Override
+	public ReadAssignmentColumn.Reader getReadAssignmentsReader() throws IOException {
+		final var index = daaHeader.getIndexForBlockType(BlockType.megan_read_assignments);
+		if (index == -1 || daaHeader.getBlockSize(index) < ModifyClassificationsDAA.STAMP_LENGTH)
+			return null;
+		final var location = daaHeader.getLocationOfBlockInFile(index);
+		try (var raf = new RandomAccessFile(fileName, "r")) {
+			if (location + ModifyClassificationsDAA.STAMP_LENGTH > raf.length())
+				return null;
+			raf.seek(location);
+			if (raf.readLong() != ModifyClassificationsDAA.computeClassificationStamp(daaHeader))
+				return null; // written with other classification blocks, e.g. kept by an older version of MEGAN that replaced them
+		}
+		return ReadAssignmentColumn.openReader(fileName, location + ModifyClassificationsDAA.STAMP_LENGTH);
 	}
 
 	@Override
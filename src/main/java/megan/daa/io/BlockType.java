@@ -25,7 +25,7 @@ package megan.daa.io;
  * Daniel Huson, 8.2015
  */
 public enum BlockType {
-	empty, alignments, ref_names, ref_lengths, megan_ref_annotations, megan_classification_key_block, megan_classification_dump_block, megan_aux_data, megan_mate_pair;
+	empty, alignments, ref_names, ref_lengths, megan_ref_annotations, megan_classification_key_block, megan_classification_dump_block, megan_aux_data, megan_mate_pair, megan_read_assignments;
 
 	public static byte rank(BlockType type) {
 		for (byte i = 0; i < values().length; i++)
@@ -26,6 +26,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * modifies a DAA file
@@ -136,6 +137,23 @@ public class DAAModifier {
 		header.save(); // overwrite header
 	}
 
+	/**
+	 * append a single block that is given as a list of consecutive parts
+	 */
+	public static void appendBlock(DAAHeader header, BlockType type, List<byte[]> parts) throws IOException {
+		try (var outs = new BufferedOutputStream(new FileOutputStream(header.getFileName(), true))) { // append to file...
+			var size = 0L;
+			for (var bytes : parts) {
+				outs.write(bytes);
+				size += bytes.length;
+			}
+			final var index = header.getFirstAvailableBlockIndex();
+			header.setBlockTypeRank(index, BlockType.rank(type));
+			header.setBlockSize(index, size);
+		}
+		header.save(); // overwrite header
+	}
+
 	/**
 	 * append new blocks
 	 */
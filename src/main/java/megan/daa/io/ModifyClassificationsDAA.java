@@ -23,6 +23,9 @@ package megan.daa.io;
 import jloda.util.ListOfLongs;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -30,11 +33,22 @@ import java.util.Map;
  * Daniel Huson, 8.2015
  */
 public class ModifyClassificationsDAA {
+	/**
+	 * length of the stamp at the start of the read assignments block
+	 */
+	public static final int STAMP_LENGTH = 8;
 
 	/**
 	 * update the classifications
 	 */
 	public static void saveClassifications(DAAHeader header, String[] cNames, Map<Integer, ListOfLongs>[] fName2ClassId2Location, Map<Integer, Float>[] fName2ClassId2Weight) throws IOException {
+		saveClassifications(header, cNames, fName2ClassId2Location, fName2ClassId2Weight, null);
+	}
+
+	/**
+	 * update the classifications and append the per-read assignments, if given
+	 */
+	public static void saveClassifications(DAAHeader header, String[] cNames, Map<Integer, ListOfLongs>[] fName2ClassId2Location, Map<Integer, Float>[] fName2ClassId2Weight, List<byte[]> readAssignments) throws IOException {
 		DAAModifier.removeMEGANClassificationData(header);
 
 		for (int c = 0; c < cNames.length; c++) {
@@ -70,5 +84,30 @@ public class ModifyClassificationsDAA {
 					new byte[][]{outputStreamClassKeys.getBytes(), outputStreamClassReadLocationsDump.getBytes()},
 					new int[]{outputStreamClassKeys.size(), outputStreamClassReadLocationsDump.size()});
 		}
+		if (readAssignments != null) {
+			final var parts = new ArrayList<byte[]>(readAssignments.size() + 1);
+			parts.add(ByteBuffer.allocate(STAMP_LENGTH).putLong(computeClassificationStamp(header)).array());
+			parts.addAll(readAssignments);
+			DAAModifier.appendBlock(header, BlockType.megan_read_assignments, parts);
+		}
+	}
+
+	/**
+	 * computes a stamp from the locations and sizes of the classification blocks. The read assignments block starts with the stamp of the
+	 * classification blocks that it was written with. Older versions of MEGAN don't know the block and keep it when they replace the
+	 * classification blocks, so a block whose stamp doesn't match is stale
+	 *
+	 * @return stamp
+	 */
+	public static long computeClassificationStamp(DAAHeader header) {
+		var stamp = 17L;
+		for (var i = 0; i < header.getBlockTypeRankArrayLength(); i++) {
+			final var type = header.getBlockType(i);
+			if (type == BlockType.megan_classification_key_block || type == BlockType.megan_classification_dump_block) {
+				stamp = 31 * stamp + header.getLocationOfBlockInFile(i);
+				stamp = 31 * stamp + header.getBlockSize(i);
+			}
+		}
+		return stamp;
 	}
 }
@@ -124,6 +124,16 @@ public interface IConnector {
 	 */
 	void updateClassifications(final String[] classificationNames, final List<UpdateItem> updateItems, ProgressListener progressListener) throws IOException;
 
+	/**
+	 * opens a reader on the per-read assignments written during meganization. Rows are read sequentially in file order,
+	 * which is much faster than iterating over the reads of each class
+	 *
+	 * @return reader or null, if the file does not contain per-read assignments
+	 */
+	default ReadAssignmentColumn.Reader getReadAssignmentsReader() throws IOException {
+		return null;
+	}
+
 	/**
 	 * get all reads that match the given expression
 	 *
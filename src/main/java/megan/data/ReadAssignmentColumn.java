@@ -0,0 +1,336 @@
+/*
+ * ReadAssignmentColumn.java Copyright (C) 2024 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package megan.data;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * per-read assignments, written during meganization next to the classification blocks.
+ * Rows appear in file order, each row consists of the read name and one class id per classification.
+ * The column is stored as a sequence of self-contained segments, each starting with its length as a 4-byte big-endian int,
+ * terminated by a segment of length 0. Within a segment, read names are front-coded and the class ids of each
+ * classification are stored as zig-zag encoded var-int differences to the previous row
+ * Daniel Huson, 10.2026
+ */
+public class ReadAssignmentColumn {
+	/**
+	 * label used to register the location of the column in files that index sections by name
+	 */
+	public static final String LABEL = "@ReadAssignments";
+
+	private static final int ROWS_PER_SEGMENT = 1 << 20;
+
+	/**
+	 * collects the names of reads, in the order in which the update items are added
+	 */
+	public static class Builder {
+		private final List<byte[]> nameSegments = new ArrayList<>();
+		private ByteBuffer names = new ByteBuffer();
+		private byte[] previousName = new byte[0];
+		private int rowsInSegment;
+		private long numberOfRows;
+
+		public void addReadName(String readName) {
+			if (rowsInSegment == ROWS_PER_SEGMENT) {
+				nameSegments.add(names.toByteArray());
+				names = new ByteBuffer();
+				previousName = new byte[0];
+				rowsInSegment = 0;
+			}
+			final var name = (readName != null ? readName : "").getBytes(StandardCharsets.UTF_8);
+			var prefix = 0;
+			final var top = Math.min(name.length, previousName.length);
+			while (prefix < top && name[prefix] == previousName[prefix])
+				prefix++;
+			names.writeVarInt(prefix);
+			names.writeVarInt(name.length - prefix);
+			names.write(name, prefix, name.length - prefix);
+			previousName = name;
+			rowsInSegment++;
+			numberOfRows++;
+		}
+
+		public long getNumberOfRows() {
+			return numberOfRows;
+		}
+
+		/**
+		 * encode the column
+		 *
+		 * @param classificationNames names of the classifications
+		 * @param items               update items, one per read name, in the same order
+		 * @return encoded segments, including the terminating empty segment
+		 */
+		public List<byte[]> encode(String[] classificationNames, List<UpdateItem> items) throws IOException {
+			if (items.size() != numberOfRows)
+				throw new IOException("Number of read names (" + numberOfRows + ") does not match number of items (" + items.size() + ")");
+
+			final var allNameSegments = new ArrayList<>(nameSegments);
+			if (rowsInSegment > 0)
+				allNameSegments.add(names.toByteArray());
+
+			final var segments = new ArrayList<byte[]>();
+			final var it = items.iterator();
+			for (var s = 0; s < allNameSegments.size(); s++) {
+				final var rows = (int) Math.min(ROWS_PER_SEGMENT, numberOfRows - (long) s * ROWS_PER_SEGMENT);
+				final var ids = new ByteBuffer[classificationNames.length];
+				final var previous = new int[classificationNames.length];
+				for (var c = 0; c < ids.length; c++)
+					ids[c] = new ByteBuffer();
+				for (var r = 0; r < rows; r++) {
+					final var item = it.next();
+					for (var c = 0; c < ids.length; c++) {
+						final var classId = item.getClassId(c);
+						ids[c].writeVarInt(zigZag(classId - previous[c]));
+						previous[c] = classId;
+					}
+				}
+
+				final var segment = new ByteBuffer();
+				segment.writeVarInt(rows);
+				segment.writeVarInt(classificationNames.length);
+				for (var name : classificationNames)
+					segment.writeBytes(name.getBytes(StandardCharsets.UTF_8));
+				segment.writeBytes(allNameSegments.get(s));
+				for (var buffer : ids)
+					segment.writeBytes(buffer.toByteArray());
+
+				final var bytes = segment.toByteArray();
+				final var withLength = new byte[bytes.length + 4];
+				writeIntBigEndian(bytes.length, withLength);
+				System.arraycopy(bytes, 0, withLength, 4, bytes.length);
+				segments.add(withLength);
+			}
+			segments.add(new byte[4]);
+			return segments;
+		}
+	}
+
+	/**
+	 * opens a reader on the column stored in the given file at the given position
+	 *
+	 * @return reader
+	 */
+	public static Reader openReader(String fileName, long position) throws IOException {
+		final var ins = new FileInputStream(fileName);
+		try {
+			ins.getChannel().position(position);
+			return new Reader(new DataInputStream(new BufferedInputStream(ins, 1 << 20)));
+		} catch (IOException ex) {
+			ins.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * streams the rows of the column, in file order
+	 */
+	public static class Reader implements Closeable {
+		private final DataInputStream ins;
+		private String[] classificationNames = new String[0];
+		private int rowsInSegment;
+		private int row;
+		private Cursor names;
+		private Cursor[] ids = new Cursor[0];
+		private byte[] name = new byte[256];
+		private int nameLength;
+		private int[] classIds = new int[0];
+		private boolean done;
+
+		private Reader(DataInputStream ins) throws IOException {
+			this.ins = ins;
+			readSegment();
+		}
+
+		/**
+		 * names of the classifications, in the order of the class ids of each row
+		 */
+		public String[] getClassificationNames() {
+			return classificationNames;
+		}
+
+		/**
+		 * get the index of a classification
+		 *
+		 * @return index or -1
+		 */
+		public int getClassificationIndex(String classificationName) {
+			for (var c = 0; c < classificationNames.length; c++) {
+				if (classificationNames[c].equals(classificationName))
+					return c;
+			}
+			return -1;
+		}
+
+		/**
+		 * advance to the next row
+		 *
+		 * @return false, if there are no more rows
+		 */
+		public boolean next() throws IOException {
+			while (row == rowsInSegment) {
+				if (done)
+					return false;
+				readSegment();
+			}
+			final var prefix = names.readVarInt();
+			final var suffix = names.readVarInt();
+			if (prefix + suffix > name.length)
+				name = Arrays.copyOf(name, 2 * (prefix + suffix));
+			names.read(name, prefix, suffix);
+			nameLength = prefix + suffix;
+			for (var c = 0; c < classIds.length; c++)
+				classIds[c] += unZigZag(ids[c].readVarInt());
+			row++;
+			return true;
+		}
+
+		public String getReadName() {
+			return new String(name, 0, nameLength, StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * get the class id of the current row for the given classification
+		 */
+		public int getClassId(int classificationIndex) {
+			return classIds[classificationIndex];
+		}
+
+		@Override
+		public void close() throws IOException {
+			ins.close();
+		}
+
+		private void readSegment() throws IOException {
+			row = 0;
+			rowsInSegment = 0;
+			final var length = ins.readInt();
+			if (length == 0) {
+				done = true;
+				return;
+			}
+			final var bytes = new byte[length];
+			ins.readFully(bytes);
+			final var segment = new Cursor(bytes);
+			rowsInSegment = segment.readVarInt();
+			final var numberOfClassifications = segment.readVarInt();
+			classificationNames = new String[numberOfClassifications];
+			for (var c = 0; c < numberOfClassifications; c++)
+				classificationNames[c] = new String(segment.readBytes(), StandardCharsets.UTF_8);
+			names = new Cursor(segment.readBytes());
+			ids = new Cursor[numberOfClassifications];
+			for (var c = 0; c < numberOfClassifications; c++)
+				ids[c] = new Cursor(segment.readBytes());
+			classIds = new int[numberOfClassifications];
+		}
+	}
+
+	/**
+	 * reads var-ints and byte strings from a byte array
+	 */
+	private static class Cursor {
+		private final byte[] bytes;
+		private int pos;
+
+		Cursor(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		int readVarInt() {
+			var result = 0;
+			var shift = 0;
+			while (true) {
+				final var b = bytes[pos++];
+				result |= (b & 0x7f) << shift;
+				if ((b & 0x80) == 0)
+					return result;
+				shift += 7;
+			}
+		}
+
+		void read(byte[] target, int offset, int length) {
+			System.arraycopy(bytes, pos, target, offset, length);
+			pos += length;
+		}
+
+		byte[] readBytes() {
+			final var length = readVarInt();
+			final var result = Arrays.copyOfRange(bytes, pos, pos + length);
+			pos += length;
+			return result;
+		}
+	}
+
+	private static int zigZag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int unZigZag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static void writeIntBigEndian(int value, byte[] bytes) {
+		bytes[0] = (byte) (value >>> 24);
+		bytes[1] = (byte) (value >>> 16);
+		bytes[2] = (byte) (value >>> 8);
+		bytes[3] = (byte) value;
+	}
+
+	/**
+	 * growable byte array with var-int support
+	 */
+	private static class ByteBuffer {
+		private byte[] bytes = new byte[1024];
+		private int size;
+
+		void write(byte[] src, int offset, int length) {
+			ensureCapacity(size + length);
+			System.arraycopy(src, offset, bytes, size, length);
+			size += length;
+		}
+
+		void writeBytes(byte[] src) {
+			writeVarInt(src.length);
+			write(src, 0, src.length);
+		}
+
+		void writeVarInt(int value) {
+			ensureCapacity(size + 5);
+			while ((value & ~0x7f) != 0) {
+				bytes[size++] = (byte) ((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			bytes[size++] = (byte) value;
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(bytes, size);
+		}
+
+		private void ensureCapacity(int capacity) {
+			if (capacity > bytes.length)
+				bytes = Arrays.copyOf(bytes, Math.max(capacity, 2 * bytes.length));
+		}
+	}
+}
@@ -31,6 +31,7 @@ public class UpdateItemList extends LinkedList<UpdateItem> {
 	private final Map<Integer, UpdateItem>[] first;
 	private final Map<Integer, UpdateItem>[] last;
 	private final Map<Integer, Float>[] weights;
+	private final ReadAssignmentColumn.Builder readAssignments = new ReadAssignmentColumn.Builder();
 
 	/**
 	 * constructor
@@ -49,6 +50,14 @@ public class UpdateItemList extends LinkedList<UpdateItem> {
 		}
 	}
 
+	/**
+	 * add an item and record the name of its read for the read assignment column
+	 */
+	public void addItem(final String readName, final long readUid, float readWeight, final int[] classIds) throws IOException {
+		addItem(readUid, readWeight, classIds);
+		readAssignments.addReadName(readName);
+	}
+
 	/**
 	 * add an item
 	 */
@@ -83,6 +92,18 @@ public class UpdateItemList extends LinkedList<UpdateItem> {
 		}
 	}
 
+	/**
+	 * encodes the per-read assignments, if the names of all reads have been recorded
+	 *
+	 * @return encoded segments or null
+	 */
+	public List<byte[]> encodeReadAssignments(String[] classificationNames) throws IOException {
+		if (size() > 0 && readAssignments.getNumberOfRows() == size())
+			return readAssignments.encode(classificationNames, this);
+		else
+			return null;
+	}
+
 	/**
 	 * get the weighted size of a class for a given classification
 	 *
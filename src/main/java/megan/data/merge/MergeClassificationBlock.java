@@ -17,7 +17,6 @@
  *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  *
  */
-
 package megan.data.merge;
 
 import megan.core.MeganFile;
@@ -26,10 +25,14 @@ import megan.data.IClassificationBlock;
 import java.io.IOException;
 import java.util.*;
 
+/**
+ * classification block of a bundle. The sums and weighted sums of all files are merged into primitive tables in one pass,
+ * reading the files in parallel
+ * Daniel Huson, 5.2022
+ */
 public class MergeClassificationBlock implements IClassificationBlock {
 	private final ArrayList<MeganFile> files = new ArrayList<>();
-	private Map<Integer, Integer> id2sum;
-	private Map<Integer, Float> id2weight;
+	private Table table;
 	private String classificationName;
 
 	public MergeClassificationBlock(String classificationName, Collection<MeganFile> files0) {
@@ -39,19 +42,9 @@ public class MergeClassificationBlock implements IClassificationBlock {
 
 	@Override
 	public int getSum(Integer key) {
-		if (id2sum == null) {
-			id2sum = new HashMap<>();
-			for (var file : files) {
-				try {
-					var classificationBlock = file.getConnector().getClassificationBlock(classificationName);
-					for (var a : classificationBlock.getKeySet()) {
-						id2sum.put(a, id2sum.getOrDefault(a, 0) + classificationBlock.getSum(a));
-					}
-				} catch (IOException ignored) {
-				}
-			}
-		}
-		return id2sum.getOrDefault(key, 0);
+		final var table = getTable();
+		final var index = Arrays.binarySearch(table.keys, key);
+		return index >= 0 ? (int) Math.min(Integer.MAX_VALUE, table.sums[index]) : 0;
 	}
 
 	@Override
@@ -61,19 +54,9 @@ public class MergeClassificationBlock implements IClassificationBlock {
 
 	@Override
 	public float getWeightedSum(Integer key) {
-		if (id2weight == null) {
-			id2weight = new HashMap<>();
-			for (var file : files) {
-				try {
-					var classificationBlock = file.getConnector().getClassificationBlock(classificationName);
-					for (var a : classificationBlock.getKeySet()) {
-						id2weight.put(a, id2weight.getOrDefault(a, 0f) + classificationBlock.getWeightedSum(a));
-					}
-				} catch (IOException ignored) {
-				}
-			}
-		}
-		return id2weight.getOrDefault(key, 0f);
+		final var table = getTable();
+		final var index = Arrays.binarySearch(table.keys, key);
+		return index >= 0 ? (float) table.weights[index] : 0f;
 	}
 
 	@Override
@@ -94,19 +77,123 @@ public class MergeClassificationBlock implements IClassificationBlock {
 
 	@Override
 	public Set<Integer> getKeySet() {
+		return getTable().keySet;
+	}
+
+	/**
+	 * gets the merged table, computing it on first use
+	 */
+	private Table getTable() {
+		if (table == null)
+			table = computeTable();
+		return table;
+	}
 
-		if (id2sum == null) {
-			id2sum = new HashMap<>();
-			for (var file : files) {
+	/**
+	 * reads the classification blocks of all files in parallel and merges their sums and weighted sums
+	 */
+	private Table computeTable() {
+		List<FileTable> fileTables;
+		try {
+			fileTables = MergeConnector.applyInParallel(files, file -> {
 				try {
-					var classificationBlock = file.getConnector().getClassificationBlock(classificationName);
-					for (var a : classificationBlock.getKeySet()) {
-						id2sum.put(a, id2sum.getOrDefault(a, 0) + classificationBlock.getSum(a));
-					}
+					final var classificationBlock = file.getConnector().getClassificationBlock(classificationName);
+					return (classificationBlock != null ? new FileTable(classificationBlock) : null);
 				} catch (IOException ignored) {
+					return null;
 				}
+			});
+		} catch (IOException ignored) {
+			fileTables = Collections.emptyList();
+		}
+
+		var count = 0;
+		for (var fileTable : fileTables) {
+			if (fileTable != null)
+				count += fileTable.keys.length;
+		}
+		var keys = new int[count];
+		count = 0;
+		for (var fileTable : fileTables) {
+			if (fileTable != null) {
+				System.arraycopy(fileTable.keys, 0, keys, count, fileTable.keys.length);
+				count += fileTable.keys.length;
 			}
 		}
-		return id2sum.keySet();
+		Arrays.sort(keys);
+		var distinct = 0;
+		for (var i = 0; i < keys.length; i++) {
+			if (distinct == 0 || keys[i] != keys[distinct - 1])
+				keys[distinct++] = keys[i];
+		}
+		keys = Arrays.copyOf(keys, distinct);
+
+		final var sums = new long[keys.length];
+		final var weights = new double[keys.length];
+		for (var fileTable : fileTables) {
+			if (fileTable != null) {
+				for (var i = 0; i < fileTable.keys.length; i++) {
+					final var index = Arrays.binarySearch(keys, fileTable.keys[i]);
+					sums[index] += fileTable.sums[i];
+					weights[index] += fileTable.weights[i];
+				}
+			}
+		}
+		return new Table(keys, sums, weights);
+	}
+
+	/**
+	 * the sums and weighted sums of one file
+	 */
+	private static class FileTable {
+		private final int[] keys;
+		private final int[] sums;
+		private final float[] weights;
+
+		FileTable(IClassificationBlock classificationBlock) {
+			final var keySet = classificationBlock.getKeySet();
+			keys = new int[keySet.size()];
+			sums = new int[keys.length];
+			weights = new float[keys.length];
+			var i = 0;
+			for (var key : keySet) {
+				keys[i] = key;
+				sums[i] = classificationBlock.getSum(key);
+				weights[i] = classificationBlock.getWeightedSum(key);
+				i++;
+			}
+		}
+	}
+
+	/**
+	 * merged sums and weighted sums, by sorted key
+	 */
+	private static class Table {
+		private final int[] keys;
+		private final long[] sums;
+		private final double[] weights;
+		private final Set<Integer> keySet;
+
+		Table(int[] keys, long[] sums, double[] weights) {
+			this.keys = keys;
+			this.sums = sums;
+			this.weights = weights;
+			keySet = Collections.unmodifiableSet(new AbstractSet<>() {
+				@Override
+				public Iterator<Integer> iterator() {
+					return Arrays.stream(keys).iterator();
+				}
+
+				@Override
+				public int size() {
+					return keys.length;
+				}
+
+				@Override
+				public boolean contains(Object o) {
+					return o instanceof Integer key && Arrays.binarySearch(keys, key) >= 0;
+				}
+			});
+		}
 	}
 }
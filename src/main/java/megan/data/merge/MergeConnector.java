@@ -22,6 +22,7 @@ package megan.data.merge;
 
 import jloda.util.FunctionWithIOException;
 import jloda.util.NumberUtils;
+import jloda.util.ProgramExecutorService;
 import jloda.util.Single;
 import jloda.util.progress.ProgressListener;
 import megan.core.DataTable;
@@ -35,9 +36,12 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
- * opens a set of DAA or RMA files as a merged summary file
+ * opens a set of DAA or RMA files as a merged summary file. Files are opened in parallel
  * Daniel Huson, 5.2022
  */
 public class MergeConnector implements IConnector {
@@ -47,8 +51,8 @@ public class MergeConnector implements IConnector {
 	private final Map<String, IClassificationBlock> classificationNameBlockMap = new HashMap<>();
 	private final Map<String, Integer> classificationSizeMap = new HashMap<>();
 	private String[] allClassificationNames;
-	private int numberOfReads = 0;
-	private int numberOfMatches = 0;
+	private long numberOfReads = 0;
+	private long numberOfMatches = 0;
 	private final Map<String, byte[]> auxiliaryData = new HashMap<>();
 
 	public static FunctionWithIOException<Collection<String>, Boolean> checkConnectors;
@@ -84,6 +88,7 @@ public class MergeConnector implements IConnector {
 	public void setFile(String filename) throws IOException {
 		this.fileName = filename;
 		files.clear();
+		classificationNameBlockMap.clear();
 		classificationSizeMap.clear();
 		numberOfReads = 0;
 		numberOfMatches = 0;
@@ -91,27 +96,33 @@ public class MergeConnector implements IConnector {
 
 	public void setInputFiles(Collection<String> inputFiles) throws IOException {
 		files.clear();
+		classificationNameBlockMap.clear();
 		classificationSizeMap.clear();
 		numberOfReads = 0;
 		numberOfMatches = 0;
 
-		var classificationNames = new ArrayList<String>();
-		for (var name : inputFiles) {
+		final var names = new ArrayList<>(inputFiles);
+		final var members = applyInParallel(names, name -> {
 			var meganFile = new MeganFile();
 			meganFile.setFileFromExistingFile(name, true);
-			if (meganFile.hasDataConnector()) {
-				files.add(meganFile);
-				var connector = meganFile.getConnector();
-				numberOfReads += connector.getNumberOfReads();
-				numberOfMatches += connector.getNumberOfMatches();
-				for (var cName : connector.getAllClassificationNames()) {
-					var size = connector.getClassificationSize(cName);
-					classificationSizeMap.put(cName, classificationSizeMap.getOrDefault(cName, 0) + size);
+			return meganFile.hasDataConnector() ? new Member(meganFile) : null;
+		});
+
+		var classificationNames = new ArrayList<String>();
+		for (var i = 0; i < names.size(); i++) {
+			var member = members.get(i);
+			if (member != null) {
+				files.add(member.file());
+				numberOfReads += member.numberOfReads();
+				numberOfMatches += member.numberOfMatches();
+				for (var c = 0; c < member.classificationNames().length; c++) {
+					var cName = member.classificationNames()[c];
+					classificationSizeMap.put(cName, classificationSizeMap.getOrDefault(cName, 0) + member.classificationSizes()[c]);
 					if (!classificationNames.contains(cName))
 						classificationNames.add(cName);
 				}
 			} else {
-				System.err.println("Not a DAA or RMA file, skipped: " + name);
+				System.err.println("Not a DAA or RMA file, skipped: " + names.get(i));
 			}
 		}
 		allClassificationNames = classificationNames.toArray(new String[0]);
@@ -131,7 +142,7 @@ public class MergeConnector implements IConnector {
 
 	@Override
 	public IReadBlockIterator getAllReadsIterator(float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
-		return new MergeReadIterator(files, f -> f.getConnector().getAllReadsIterator(minScore, maxExpected, wantReadSequence, wantMatches));
+		return new MergeReadIterator(files, f -> f.getConnector().getAllReadsIterator(minScore, maxExpected, wantReadSequence, wantMatches), true);
 	}
 
 	@Override
@@ -161,11 +172,7 @@ public class MergeConnector implements IConnector {
 
 	@Override
 	public int getClassSize(String classificationName, int classId) throws IOException {
-		var size = 0;
-		for (var file : files) {
-			size += file.getConnector().getClassSize(classificationName, classId);
-		}
-		return size;
+		return getClassificationBlock(classificationName).getSum(classId);
 	}
 
 	@Override
@@ -185,16 +192,30 @@ public class MergeConnector implements IConnector {
 
 	@Override
 	public IReadBlockIterator getFindAllReadsIterator(String regEx, FindSelection findSelection, Single<Boolean> canceled) throws IOException {
-		return new MergeReadIterator(files, f -> f.getConnector().getFindAllReadsIterator(regEx, findSelection, canceled));
+		return new MergeReadIterator(files, f -> f.getConnector().getFindAllReadsIterator(regEx, findSelection, canceled), true);
 	}
 
 	@Override
 	public int getNumberOfReads() throws IOException {
-		return numberOfReads;
+		return (int) Math.min(Integer.MAX_VALUE, numberOfReads);
 	}
 
 	@Override
 	public int getNumberOfMatches() throws IOException {
+		return (int) Math.min(Integer.MAX_VALUE, numberOfMatches);
+	}
+
+	/**
+	 * get the total number of reads, which may exceed the range of int
+	 */
+	public long getTotalNumberOfReads() {
+		return numberOfReads;
+	}
+
+	/**
+	 * get the total number of matches, which may exceed the range of int
+	 */
+	public long getTotalNumberOfMatches() {
 		return numberOfMatches;
 	}
 
@@ -254,4 +275,52 @@ public class MergeConnector implements IConnector {
 		auxiliaryData.put(SampleAttributeTable.USER_STATE, table.getUserStateAsBytes());
 		return auxiliaryData;
 	}
+
+	/**
+	 * applies the function to all items in parallel
+	 *
+	 * @return results, in the order of the items
+	 */
+	static <S, T> ArrayList<T> applyInParallel(List<S> items, FunctionWithIOException<S, T> function) throws IOException {
+		final var service = Executors.newFixedThreadPool(Math.max(1, Math.min(items.size(), ProgramExecutorService.getNumberOfCoresToUse())));
+		try {
+			final var futures = new ArrayList<Future<T>>(items.size());
+			for (var item : items) {
+				futures.add(service.submit(() -> function.apply(item)));
+			}
+			final var results = new ArrayList<T>(items.size());
+			for (var future : futures) {
+				results.add(future.get());
+			}
+			return results;
+		} catch (InterruptedException | ExecutionException ex) {
+			if (ex.getCause() instanceof IOException ioException)
+				throw ioException;
+			throw new IOException(ex.getCause() != null ? ex.getCause() : ex);
+		} finally {
+			service.shutdownNow();
+		}
+	}
+
+	/**
+	 * an opened file of the bundle and its statistics
+	 */
+	private record Member(MeganFile file, long numberOfReads, long numberOfMatches, String[] classificationNames, int[] classificationSizes) {
+		Member(MeganFile file) throws IOException {
+			this(file, file.getConnector());
+		}
+
+		private Member(MeganFile file, IConnector connector) throws IOException {
+			this(file, connector.getNumberOfReads(), connector.getNumberOfMatches(), connector.getAllClassificationNames(),
+					getClassificationSizes(connector));
+		}
+
+		private static int[] getClassificationSizes(IConnector connector) throws IOException {
+			final var cNames = connector.getAllClassificationNames();
+			final var sizes = new int[cNames.length];
+			for (var c = 0; c < cNames.length; c++)
+				sizes[c] = connector.getClassificationSize(cNames[c]);
+			return sizes;
+		}
+	}
 }
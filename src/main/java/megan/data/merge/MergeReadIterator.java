@@ -20,67 +20,87 @@
 
 package megan.data.merge;
 
+import jloda.util.Basic;
 import jloda.util.FunctionWithIOException;
+import jloda.util.ProgramExecutorService;
 import megan.core.MeganFile;
 import megan.data.IReadBlock;
 import megan.data.IReadBlockIterator;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.concurrent.*;
 
 /**
- * iterates over all reads in a bundle
+ * iterates over all reads in a bundle, file by file. The iterators of the next few files are opened in the background and,
+ * if requested, their reads are read ahead concurrently
  */
 public class MergeReadIterator implements IReadBlockIterator {
+	private static final int MAX_PREFETCHED_READS_PER_FILE = 256;
+	private static final IReadBlock END_OF_FILE = new MergeReadBlock(-1, null);
+
+	private final ArrayList<MeganFile> files;
+	private final FunctionWithIOException<MeganFile, IReadBlockIterator> fileIteratorFunction;
+	private final boolean prefetchReads;
+	private final int maxFilesAhead;
+	private final ExecutorService service;
+	private final ArrayDeque<Source> sources = new ArrayDeque<>();
+	private volatile boolean closed = false;
+
+	private int nextFileToOpen = 0;
 	private int whichFile = -1;
-	private final long numberOfFiles;
-	private IReadBlockIterator current;
-	private final Iterator<IReadBlockIterator> metaIterator;
+	private Source current;
 
 	private long countReads = 0;
 
 	public MergeReadIterator(ArrayList<MeganFile> files, FunctionWithIOException<MeganFile, IReadBlockIterator> fileIteratorFunction) {
-		numberOfFiles = files.size();
-
-		metaIterator = new Iterator<>() {
-			@Override
-			public boolean hasNext() {
-				return whichFile < files.size();
-			}
+		this(files, fileIteratorFunction, false);
+	}
 
-			@Override
-			public IReadBlockIterator next() {
-				try {
-					return fileIteratorFunction.apply(files.get(++whichFile));
-				} catch (Exception e) {
-					return null;
-				}
-			}
-		};
-		current = metaIterator.next();
-		while (current != null && !current.hasNext()) {
-			try {
-				current.close();
-			} catch (IOException ignored) {
-			}
-			if (metaIterator.hasNext())
-				current = metaIterator.next();
-			else
-				current = null;
-		}
+	/**
+	 * constructor
+	 *
+	 * @param prefetchReads read ahead in the next files. Only use this if the file iterators return a new read block object for each read
+	 */
+	public MergeReadIterator(ArrayList<MeganFile> files, FunctionWithIOException<MeganFile, IReadBlockIterator> fileIteratorFunction, boolean prefetchReads) {
+		this.files = files;
+		this.fileIteratorFunction = fileIteratorFunction;
+		this.prefetchReads = prefetchReads;
+		maxFilesAhead = Math.max(1, Math.min(files.size(), ProgramExecutorService.getNumberOfCoresToUse()));
+		service = Executors.newFixedThreadPool(maxFilesAhead, runnable -> {
+			final var thread = new Thread(runnable, "MergeReadIterator");
+			thread.setDaemon(true);
+			return thread;
+		});
+		openFiles();
 	}
 
 	@Override
 	public void close() throws IOException {
-		if (current != null)
-			current.close();
+		closed = true;
+		if (current != null && current.iterator != null)
+			current.iterator.close();
+		for (var source : sources) {
+			if (source.queue == null && source.future.isDone()) {
+				try {
+					final var iterator = source.future.get();
+					if (iterator != null)
+						iterator.close();
+				} catch (InterruptedException | ExecutionException ignored) {
+				}
+			} else
+				source.future.cancel(true);
+		}
+		sources.clear();
+		current = null;
+		service.shutdownNow();
 	}
 
 	@Override
 	public long getMaximumProgress() {
-		return numberOfFiles;
+		return files.size();
 	}
 
 	@Override
@@ -95,26 +115,105 @@ public class MergeReadIterator implements IReadBlockIterator {
 
 	@Override
 	public boolean hasNext() {
-		return current != null && current.hasNext();
+		while (true) {
+			if (current == null) {
+				if (sources.isEmpty())
+					return false;
+				current = sources.poll();
+				whichFile++;
+				openFiles();
+			}
+			try {
+				if (current.queue != null) {
+					if (current.head == null)
+						current.head = current.queue.take();
+					if (current.head != END_OF_FILE)
+						return true;
+					current.future.get(); // reports any error
+				} else {
+					if (current.iterator == null)
+						current.iterator = current.future.get();
+					if (current.iterator.hasNext())
+						return true;
+					current.iterator.close();
+				}
+			} catch (InterruptedException e) {
+				Basic.caught(e);
+				try {
+					close();
+				} catch (IOException ignored) {
+				}
+				return false;
+			} catch (ExecutionException | IOException e) {
+				Basic.caught(e);
+			}
+			current = null;
+		}
 	}
 
 	@Override
 	public IReadBlock next() {
-		if (current == null)
+		if (!hasNext())
 			throw new NoSuchElementException();
-		var next = current.next();
-		while (current != null && !current.hasNext()) {
-			try {
-				current.close();
-			} catch (IOException ignored) {
+		countReads++;
+		if (current.queue != null) {
+			final var readBlock = current.head;
+			current.head = null;
+			return readBlock;
+		} else
+			return current.iterator.next();
+	}
+
+	/**
+	 * start opening files until the given number of files are open
+	 */
+	private void openFiles() {
+		while (nextFileToOpen < files.size() && sources.size() + (current != null ? 1 : 0) < maxFilesAhead) {
+			sources.add(new Source(files.get(nextFileToOpen++)));
+		}
+	}
+
+	/**
+	 * runs in the background: opens the iterator for a file and, if prefetching, puts all its reads into the queue
+	 *
+	 * @return the iterator, or null, if prefetching
+	 */
+	private IReadBlockIterator open(MeganFile file, BlockingQueue<IReadBlock> queue) throws IOException, InterruptedException {
+		IReadBlockIterator iterator = null;
+		try {
+			iterator = fileIteratorFunction.apply(file);
+			if (queue == null) {
+				if (closed) {
+					iterator.close();
+					return null;
+				}
+				return iterator;
+			}
+			while (!closed && iterator.hasNext()) {
+				queue.put(iterator.next());
+			}
+			return null;
+		} finally {
+			if (queue != null) {
+				if (iterator != null)
+					iterator.close();
+				queue.put(END_OF_FILE);
 			}
-			if (metaIterator.hasNext())
-				current = metaIterator.next();
-			else
-				current = null;
 		}
-		countReads++;
-		return next;
 	}
 
+	/**
+	 * a file whose iterator is being opened or whose reads are being prefetched
+	 */
+	private class Source {
+		private final BlockingQueue<IReadBlock> queue;
+		private final Future<IReadBlockIterator> future;
+		private IReadBlockIterator iterator;
+		private IReadBlock head;
+
+		Source(MeganFile file) {
+			queue = (prefetchReads ? new ArrayBlockingQueue<>(MAX_PREFETCHED_READS_PER_FILE) : null);
+			future = service.submit(() -> open(file, queue));
+		}
+	}
 }
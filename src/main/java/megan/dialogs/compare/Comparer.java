@@ -24,7 +24,6 @@ import jloda.util.*;
 import jloda.util.parse.NexusStreamParser;
 import jloda.util.progress.ProgressListener;
 import megan.classification.Classification;
-import megan.core.ClassificationType;
 import megan.core.DataTable;
 import megan.core.Director;
 import megan.core.SampleAttributeTable;
@@ -33,9 +32,9 @@ import megan.viewer.gui.NodeDrawer;
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.DoubleAdder;
 
 /**
  * comparison of multiple datasets
@@ -169,7 +168,9 @@ public class Comparer {
 			progressListener.setProgress(0);
 			progressListener.setMaximum(dirs.size());
 
-			final var totalAssigned = new DoubleAdder();
+			final var classification2columns = new ConcurrentHashMap<String, SparseCounts[]>();
+			final var factors = new double[dirs.size()];
+			Arrays.fill(factors, 1.0);
 
 			try {
 				for (var dir : dirs) {
@@ -187,58 +188,14 @@ public class Comparer {
 										numberOfReads = dir.getMainViewer().getNodeData(dir.getMainViewer().getTree().getRoot()).getCountSummarized();
 									}
 								}
-
-								var readsWithTaxonomyAssignment = 0f;
-
-								for (var classificationName : table.getClassification2Class2Counts().keySet()) {
-									var isTaxonomy = classificationName.equals(ClassificationType.Taxonomy.toString());
-
-									var class2countsSrc = table.getClass2Counts(classificationName);
-									var class2countsTarget = result.getClass2Counts(classificationName);
-									if (class2countsTarget == null) {
-										synchronized (result) {
-											class2countsTarget = result.getClass2Counts(classificationName);
-											if (class2countsTarget == null) {
-												class2countsTarget = new HashMap<>();
-												result.getClassification2Class2Counts().put(classificationName, class2countsTarget);
-											}
-										}
-									}
-
-									final var factor = numberOfReads > 0 ? newSampleSize / numberOfReads : 1.0;
-
-									for (var classId : class2countsSrc.keySet()) {
-										// todo: here we assume that the nohits id is the same for all classifications...
-										if (!isIgnoreUnassigned() || classId > 0) {
-											var countsTarget = class2countsTarget.get(classId);
-											if (countsTarget == null) {
-												synchronized (result) {
-													countsTarget = class2countsTarget.get(classId);
-													if (countsTarget == null) {
-														countsTarget = new float[dirs.size()];
-														Arrays.fill(countsTarget, 0);
-														class2countsTarget.put(classId, countsTarget);
-													}
-												}
-											}
-											final var count = CollectionUtils.getSum(class2countsSrc.get(classId));
-											if (count == 0)
-												countsTarget[pos] = 0;
-											else if (useRelative) {
-												countsTarget[pos] = (float) (count * factor);
-												if (countsTarget[pos] == 0 && isKeep1())
-													countsTarget[pos] = 1;
-											} else
-												countsTarget[pos] = count;
-											if (isTaxonomy) {
-												readsWithTaxonomyAssignment += countsTarget[pos];
-											}
-										}
-									}
-									if (isTaxonomy) {
-										sizes[pos] = readsWithTaxonomyAssignment;
-										totalAssigned.add(readsWithTaxonomyAssignment);
-									}
+								if (useRelative)
+									factors[pos] = (numberOfReads > 0 ? newSampleSize / numberOfReads : 1.0);
+
+								// summarize each classification of this sample without touching shared tables
+								// todo: here we assume that the nohits id is the same for all classifications...
+								for (var classificationName : table.getClassificationNames()) {
+									final var columns = classification2columns.computeIfAbsent(classificationName, k -> new SparseCounts[dirs.size()]);
+									columns[pos] = SparseCounts.extract(table.getClass2Counts(classificationName), -1, isIgnoreUnassigned());
 								}
 								synchronized (progressListener) {
 									progressListener.incrementProgress();
@@ -264,7 +221,13 @@ public class Comparer {
 			if (exception.isNotNull())
 				throw new IOException("Comparison computation failed: " + exception.get().getMessage(), exception.get());
 
+			// merge all sample summaries into the result table, one classification at a time:
+			for (var entry : classification2columns.entrySet()) {
+				result.getClassification2Class2Counts().put(entry.getKey(), SparseCounts.merge(Arrays.asList(entry.getValue()), factors, isKeep1()));
+			}
+
 			// if we have a taxonomy classification, then use it to get exact values:
+			var totalAssigned = 0.0;
 			if (result.getClassification2Class2Counts().containsKey(Classification.Taxonomy)) {
 				var class2counts = result.getClass2Counts(Classification.Taxonomy);
 				Arrays.fill(sizes, 0);
@@ -272,6 +235,8 @@ public class Comparer {
 					for (var i = 0; i < counts.length; i++)
 						sizes[i] += counts[i];
 				}
+				for (var size : sizes)
+					totalAssigned += size;
 			}
 
 			result.setSamples(names, uids, sizes, blastModes);
@@ -282,9 +247,9 @@ public class Comparer {
 			}
 
 			if (useRelative) {
-				System.err.printf("Total assigned: %,12d normalized%n", totalAssigned.longValue());
+				System.err.printf("Total assigned: %,12d normalized%n", (long) totalAssigned);
 			} else {
-				System.err.printf("Total assigned: %,12d%n", totalAssigned.longValue());
+				System.err.printf("Total assigned: %,12d%n", (long) totalAssigned);
 			}
 
 			result.setTotalReads((long) CollectionUtils.getSum(originalNumberOfReads));
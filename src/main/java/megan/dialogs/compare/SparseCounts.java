@@ -0,0 +1,133 @@
+/*
+ * SparseCounts.java Copyright (C) 2024 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package megan.dialogs.compare;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * the counts of one sample in one classification, stored as parallel arrays of class ids and values.
+ * Used to summarize input samples before they are merged into a comparison
+ * Daniel Huson, 10.2026
+ */
+public class SparseCounts {
+	private final int[] ids;
+	private final float[] values;
+
+	/**
+	 * constructor
+	 */
+	public SparseCounts(int[] ids, float[] values) {
+		this.ids = ids;
+		this.values = values;
+	}
+
+	/**
+	 * extract the counts of one sample from a class-to-counts table
+	 *
+	 * @param which        the sample to extract, or -1 to sum over all samples in the table
+	 * @param assignedOnly only keep ids that are positive
+	 * @return sparse counts
+	 */
+	public static SparseCounts extract(Map<Integer, float[]> class2counts, int which, boolean assignedOnly) {
+		final var ids = new int[class2counts.size()];
+		final var values = new float[class2counts.size()];
+		var size = 0;
+		for (var entry : class2counts.entrySet()) {
+			final int id = entry.getKey();
+			if (!assignedOnly || id > 0) {
+				final var counts = entry.getValue();
+				if (which < 0) {
+					var sum = 0f;
+					for (var count : counts)
+						sum += count;
+					ids[size] = id;
+					values[size++] = sum;
+				} else if (which < counts.length) {
+					ids[size] = id;
+					values[size++] = counts[which];
+				}
+			}
+		}
+		if (size < ids.length)
+			return new SparseCounts(Arrays.copyOf(ids, size), Arrays.copyOf(values, size));
+		else
+			return new SparseCounts(ids, values);
+	}
+
+	public int size() {
+		return ids.length;
+	}
+
+	public int getId(int i) {
+		return ids[i];
+	}
+
+	public float getValue(int i) {
+		return values[i];
+	}
+
+	/**
+	 * sum of all values
+	 */
+	public double getTotal() {
+		var total = 0.0;
+		for (var value : values)
+			total += value;
+		return total;
+	}
+
+	/**
+	 * merges the counts of a list of samples into a single class-to-counts table. Samples are processed in parallel,
+	 * each one writing only its own column
+	 *
+	 * @param columns counts for each sample, entries may be null
+	 * @param factors scaling factor for each sample, or null
+	 * @param keepOne if set, non-zero counts that are scaled to zero are set to 1
+	 * @return class to counts
+	 */
+	public static Map<Integer, float[]> merge(List<SparseCounts> columns, double[] factors, boolean keepOne) {
+		final var numberOfSamples = columns.size();
+		final var class2counts = new ConcurrentHashMap<Integer, float[]>();
+
+		IntStream.range(0, numberOfSamples).parallel().forEach(s -> {
+			final var column = columns.get(s);
+			if (column != null) {
+				final var factor = (factors != null ? factors[s] : 1.0);
+				for (var i = 0; i < column.ids.length; i++) {
+					final var value = column.values[i];
+					final var counts = class2counts.computeIfAbsent(column.ids[i], k -> new float[numberOfSamples]);
+					if (factor == 1.0)
+						counts[s] = value;
+					else {
+						counts[s] = (float) (factor * value);
+						if (keepOne && value > 0 && counts[s] == 0)
+							counts[s] = 1;
+					}
+				}
+			}
+		});
+		return new HashMap<>(class2counts);
+	}
+}
@@ -27,7 +27,6 @@ import megan.analysis.TaxonomicSegmentation;
 import megan.classification.Classification;
 import megan.classification.ClassificationManager;
 import megan.data.IConnector;
-import megan.data.IReadBlock;
 import megan.data.IReadBlockIterator;
 import megan.viewer.TaxonomicLevels;
 import megan.viewer.TaxonomyData;
@@ -38,11 +37,15 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
- * export taxonomic segmentation
+ * export taxonomic segmentation. Reads are segmented in parallel and written in the order in which they are read
  * Daniel Huson, 8.2018
  */
 public class SegmentationOfReadsExporter {
@@ -81,6 +84,11 @@ public class SegmentationOfReadsExporter {
 				System.err.println("Using rank: " + TaxonomicLevels.getName(taxonomicSegmentation.getRank()));
 			}
 
+			final var numberOfThreads = ProgramExecutorService.getNumberOfCoresToUse();
+			final var service = Executors.newFixedThreadPool(numberOfThreads);
+			final var pending = new ArrayDeque<Future<String>>(); // lines in output order
+			final var maxPending = 8 * numberOfThreads;
+
 			int countClassIds = 0;
 			try {
 				for (Integer classId : classIds) {
@@ -93,6 +101,10 @@ public class SegmentationOfReadsExporter {
 					}
 					taxonomicSegmentation.setClassId(classId);
 
+					// each thread uses its own copy of the parameters for this class id:
+					final var parameters = new TaxonomicSegmentation(taxonomicSegmentation);
+					final var segmentations = ThreadLocal.withInitial(() -> new TaxonomicSegmentation(parameters));
+
 					boolean first = true;
 
 					try (IReadBlockIterator it = connector.getReadsIterator(classificationName, classId, 0, 10000, true, true)) {
@@ -100,8 +112,10 @@ public class SegmentationOfReadsExporter {
 							// open file here so that we only create a file if there is actually something to iterate over...
 							if (first) {
 								if (!useOneOutputFile) {
-									if (w != null)
+									if (w != null) {
+										writeLines(pending, 0, w);
 										w.close();
+									}
 									final String cName = classification.getName2IdMap().get(classId);
 
 									var fName = fileName.replaceAll("%t", StringUtils.toCleanName(cName)).replaceAll("%i", "" + classId);
@@ -129,12 +143,21 @@ public class SegmentationOfReadsExporter {
 							}
 							total++;
 
-							segmentAndWrite(progress, it.next(), taxonomicSegmentation, w);
+							// the iterator may reuse the read block, so extract what is needed before segmenting in the background:
+							final var readBlock = it.next();
+							final var header = readBlock.getReadHeader();
+							final var alignments = TaxonomicSegmentation.getAlignments(readBlock, null);
+							pending.add(service.submit(() -> segment(header, alignments, segmentations.get())));
+							writeLines(pending, maxPending, w);
+
 							progress.setProgress((long) (100000.0 * (countClassIds + (double) it.getProgress() / it.getMaximumProgress())));
 						}
 					}
 				}
+				if (w != null)
+					writeLines(pending, 0, w);
 			} finally {
+				service.shutdownNow();
 				if (w != null)
 					w.close();
 			}
@@ -165,16 +188,28 @@ public class SegmentationOfReadsExporter {
 	}
 
 	/**
-	 * segment and write a read
+	 * segment a read
+	 *
+	 * @return output line
 	 */
-	private static void segmentAndWrite(ProgressListener progress, IReadBlock readBlock, TaxonomicSegmentation taxonomicSegmentation, Writer w) throws IOException, CanceledException {
-		final ArrayList<TaxonomicSegmentation.Segment> segmentation = taxonomicSegmentation.computeTaxonomicSegmentation(progress, readBlock);
+	private static String segment(String header, TaxonomicSegmentation.ReadAlignments alignments, TaxonomicSegmentation taxonomicSegmentation) throws CanceledException {
+		final ArrayList<TaxonomicSegmentation.Segment> segmentation = taxonomicSegmentation.computeTaxonomicSegmentation(null, alignments);
 
-		String header = readBlock.getReadHeader();
 		if (header == null)
 			header = "untitled";
-		w.write(StringUtils.swallowLeadingGreaterSign(header) + "\t" + StringUtils.toString(segmentation, "\t") + "\n");
+		return StringUtils.swallowLeadingGreaterSign(header) + "\t" + StringUtils.toString(segmentation, "\t") + "\n";
 	}
 
+	/**
+	 * write the lines of segmented reads, in order, until at most the given number remain pending
+	 */
+	private static void writeLines(ArrayDeque<Future<String>> pending, int maxPending, Writer w) throws IOException {
+		try {
+			while (pending.size() > maxPending) {
+				w.write(pending.poll().get());
+			}
+		} catch (InterruptedException | ExecutionException ex) {
+			throw new IOException(ex.getCause() != null ? ex.getCause() : ex);
+		}
+	}
 }
-
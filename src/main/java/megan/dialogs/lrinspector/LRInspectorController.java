@@ -34,7 +34,6 @@ import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.Pane;
 import javafx.scene.text.Font;
-import jloda.swing.find.CompositeObjectSearcher;
 import jloda.swing.find.IObjectSearcher;
 import jloda.swing.util.ProgramProperties;
 import jloda.swing.util.ToolBar;
@@ -44,7 +43,6 @@ import megan.chart.ChartColorManager;
 import javax.swing.*;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.List;
 
 import static megan.dialogs.lrinspector.ReadLayoutPane.DEFAULT_LABELED_HEIGHT;
 
@@ -59,6 +57,7 @@ public class LRInspectorController {
 	private LRInspectorViewer viewer;
 	private String[] cNames;
 	private ChartColorManager colorManager;
+	private ReadLayoutPaneCache paneCache;
 	private boolean usingHeatmap;
 
 	@FXML
@@ -123,6 +122,7 @@ public class LRInspectorController {
 		colorManager = viewer.getDir().getDocument().getChartColorManager();
 
 		cNames = viewer.getDir().getDocument().getConnector().getAllClassificationNames();
+		paneCache = new ReadLayoutPaneCache(tableView, ProgramProperties.get("LongReadInspectorMaxPanes", 500), this::setupPane, null); // the searcher loads panes as needed
 
 		closeButton.setOnAction(event -> SwingUtilities.invokeLater(() -> viewer.getDir().executeImmediately("close;", viewer.getCommandManager())));
 
@@ -171,7 +171,8 @@ public class LRInspectorController {
 		coverageCol.setSortType(TableColumn.SortType.DESCENDING);
 		hitsCol.setCellValueFactory(new PropertyValueFactory<>("hits"));
 		hitsCol.setSortType(TableColumn.SortType.DESCENDING);
-		layoutCol.setCellValueFactory(new PropertyValueFactory<>("pane"));
+		layoutCol.setCellValueFactory(new PropertyValueFactory<>("pane")); // panes are only created for rows that are shown
+		layoutCol.setSortable(false);
 
 		// setup buttons that control column visibility
 		for (final TableColumn col : tableView.getColumns()) {
@@ -231,7 +232,7 @@ public class LRInspectorController {
 						String cName = cNames[cid];
 						boolean allVisible = true;
 						for (TableItem tableItem : tableView.getSelectionModel().getSelectedItems()) {
-							if (tableItem != null && tableItem.getPane() != null && !tableItem.getPane().isLabelsShowing(cName)) {
+							if (tableItem != null && tableItem.getPaneIfLoaded() != null && !tableItem.getPaneIfLoaded().isLabelsShowing(cName)) {
 								allVisible = false;
 								break;
 							}
@@ -265,16 +266,8 @@ public class LRInspectorController {
 		panelHeightSlider.setTooltip(new Tooltip("Change layout height"));
 		panelHeightSlider.setValue(DEFAULT_LABELED_HEIGHT); // default value
 		panelHeightSlider.valueProperty().addListener((observable, oldValue, newValue) -> {
-			if (tableView.getSelectionModel().getSelectedItems().size() > 0) {
-				for (TableItem tableItem : tableView.getSelectionModel().getSelectedItems()) {
-					ReadLayoutPane pane = tableItem.getPane();
-					pane.setPreferredHeightLabeled(newValue.intValue());
-				}
-			} else {
-				for (TableItem tableItem : tableView.getItems()) {
-					ReadLayoutPane pane = tableItem.getPane();
-					pane.setPreferredHeightLabeled(newValue.intValue());
-				}
+			for (ReadLayoutPane pane : getSelectedOrAllLoadedPanes()) {
+				pane.setPreferredHeightLabeled(newValue.intValue());
 			}
 		});
 		panelHeightSlider.disableProperty().bind(overviewMenuItem.selectedProperty());
@@ -289,8 +282,7 @@ public class LRInspectorController {
 		fontSize.disableProperty().bind(overviewMenuItem.selectedProperty());
 		fontSize.setOnAction(event -> {
 			ReadLayoutPane.setFontSize(fontSize.getSelectionModel().getSelectedItem());
-			for (TableItem tableItem : tableView.getItems()) {
-				final ReadLayoutPane pane = tableItem.getPane();
+			for (ReadLayoutPane pane : paneCache.getLoadedPanes()) {
 				pane.layoutLabels();
 			}
 		});
@@ -322,7 +314,8 @@ public class LRInspectorController {
 	public void updateScene(LRInspectorViewer viewer) {
 		tableView.getItems().clear();
 
-		tableItemService.configure(viewer.getDir().getDocument(), cNames, viewer.getClassificationName(), viewer.getClassificationIds(), viewer.maxReadLengthProperty(), tableView, layoutCol.widthProperty());
+		paneCache.configure(viewer.getDir().getDocument(), cNames, viewer.maxReadLengthProperty(), layoutCol.widthProperty());
+		tableItemService.configure(viewer.getDir().getDocument(), viewer.getClassificationName(), viewer.getClassificationIds(), viewer.maxReadLengthProperty(), tableView, paneCache);
 		tableItemService.restart();
 	}
 
@@ -372,41 +365,70 @@ public class LRInspectorController {
 		return tableItemService;
 	}
 
+	public ReadLayoutPaneCache getPaneCache() {
+		return paneCache;
+	}
+
 	/**
-	 * recolor genes based on current layout selection
+	 * recolor genes based on current layout selection. Only loaded panes are recolored, new panes are colored when they are created
 	 */
 	public void recolor() {
 		if (overviewMenuItem.isSelected()) {
 			usingHeatmap = true;
-			for (final TableItem item : getSelectedOrAllTableItems()) {
-				javafx.application.Platform.runLater(() -> item.getPane().colorByNormalizedBitScore(colorManager, getService().maxNormalizedBitScoreProperty().get()));
+			for (final ReadLayoutPane pane : getSelectedOrAllLoadedPanes()) {
+				javafx.application.Platform.runLater(() -> pane.colorByNormalizedBitScore(colorManager, getService().maxNormalizedBitScoreProperty().get()));
 			}
 			javafx.application.Platform.runLater(this::updateSearcher);
 		} else {
 			usingHeatmap = false;
-			final ArrayList<String> selectedCNames = new ArrayList<>();
-			for (Toggle item : classificationLayoutGroup.getSelectedItems()) {
-				if (item instanceof RadioMenuItem) {
-					selectedCNames.add(((RadioMenuItem) item).getText());
-				}
-			}
-			for (final TableItem item : getSelectedOrAllTableItems()) {
-				javafx.application.Platform.runLater(() -> item.getPane().colorByClassification(colorManager, selectedCNames, viewer.getClassificationName(), viewer.getClassId(), viewer.getDir().getDocument().getChartColorManager().isColorByPosition()));
+			final ArrayList<String> selectedCNames = getSelectedCNames();
+			for (final ReadLayoutPane pane : getSelectedOrAllLoadedPanes()) {
+				javafx.application.Platform.runLater(() -> pane.colorByClassification(colorManager, selectedCNames, viewer.getClassificationName(), viewer.getClassId(), viewer.getDir().getDocument().getChartColorManager().isColorByPosition()));
 			}
 			javafx.application.Platform.runLater(this::updateSearcher);
 		}
 	}
 
 	/**
-	 * get selected table items, if any, otherwise, get all
+	 * setup a newly created pane using the current layout settings
+	 */
+	private void setupPane(TableItem tableItem, ReadLayoutPane pane) {
+		pane.setPreferredHeightLabeled((int) Math.round(panelHeightSlider.getValue()));
+		if (overviewMenuItem.isSelected())
+			pane.colorByNormalizedBitScore(colorManager, getService().maxNormalizedBitScoreProperty().get());
+		else
+			pane.colorByClassification(colorManager, getSelectedCNames(), viewer.getClassificationName(), viewer.getClassId(), viewer.getDir().getDocument().getChartColorManager().isColorByPosition());
+		pane.getSearcher().updateLists();
+	}
+
+	private ArrayList<String> getSelectedCNames() {
+		final ArrayList<String> selectedCNames = new ArrayList<>();
+		for (Toggle item : classificationLayoutGroup.getSelectedItems()) {
+			if (item instanceof RadioMenuItem) {
+				selectedCNames.add(((RadioMenuItem) item).getText());
+			}
+		}
+		return selectedCNames;
+	}
+
+	/**
+	 * get the loaded panes of the selected table items, if any, otherwise, get all loaded panes
 	 *
-	 * @return table items
+	 * @return panes
 	 */
-	private ObservableList<TableItem> getSelectedOrAllTableItems() {
-		ObservableList<TableItem> items = tableView.getSelectionModel().getSelectedItems();
+	private ArrayList<ReadLayoutPane> getSelectedOrAllLoadedPanes() {
+		if (paneCache == null)
+			return new ArrayList<>();
+		final ObservableList<TableItem> items = tableView.getSelectionModel().getSelectedItems();
 		if (items.size() == 0)
-			items = tableView.getItems();
-		return items;
+			return paneCache.getLoadedPanes();
+		final ArrayList<ReadLayoutPane> panes = new ArrayList<>();
+		for (TableItem item : items) {
+			final ReadLayoutPane pane = item.getPaneIfLoaded();
+			if (pane != null)
+				panes.add(pane);
+		}
+		return panes;
 	}
 
 	private ContextMenu createTableContextMenu() {
@@ -414,28 +436,19 @@ public class LRInspectorController {
 	}
 
 	/**
-	 * setup the searcher
+	 * setup the searcher, for all reads. Panes that are not loaded are loaded when the search reaches them
 	 */
 	private void setupSearcher() {
-		final List<IObjectSearcher> list = new ArrayList<>();
-		for (final TableItem item : tableView.getItems()) {
-			list.add(item.getPane().getSearcher().updateLists());
-		}
-		viewer.getSearcher().setSearchers(list.toArray(new IObjectSearcher[0]));
+		viewer.getSearcher().setSearchers(new IObjectSearcher[]{new TableItemsSearcher(viewer.getFrame(), tableView)});
 	}
 
 	/**
-	 * update the searcher, e.g. after change of label
+	 * update the searchers of the loaded panes, e.g. after change of label. New panes are set up when they are created
 	 */
 	private void updateSearcher() {
-		if (viewer != null) {
-			final CompositeObjectSearcher tableSearcher = viewer.getSearcher();
-			if (tableSearcher != null) {
-				for (IObjectSearcher searcher : tableSearcher.getSearchers()) {
-					if (searcher instanceof ReadLayoutPaneSearcher)
-						((ReadLayoutPaneSearcher) searcher).updateLists();
-				}
-			}
+		if (paneCache != null) {
+			for (ReadLayoutPane pane : paneCache.getLoadedPanes())
+				pane.getSearcher().updateLists();
 		}
 	}
 
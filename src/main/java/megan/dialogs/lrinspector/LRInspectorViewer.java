@@ -259,6 +259,10 @@ public class LRInspectorViewer extends JFrame implements IDirectableViewer, Prin
 		// todo: destroy breaks JavaFX
 		if (true) {
 			getFrame().setVisible(false);
+			Platform.runLater(() -> {
+				if (getController() != null && getController().getPaneCache() != null)
+					getController().getPaneCache().clear(); // panes are reloaded when needed
+			});
 		} else {
 			Platform.runLater(() -> {
 				if (swingPanel4FX != null)
@@ -508,10 +512,11 @@ public class LRInspectorViewer extends JFrame implements IDirectableViewer, Prin
 			getController().getTableView().getSelectionModel().selectAll();
 		} else {
 			boolean changed = false; // if some rows selected, select all their matches
-			for (TableItem tableItem : tableItems) {
-				final int numberPreviouslySelected = tableItem.getPane().getMatchSelection().getSelectedItems().size();
-				tableItem.getPane().getMatchSelection().selectAll();
-				if (!changed && tableItem.getPane().getMatchSelection().getSelectedItems().size() > numberPreviouslySelected)
+			for (TableItem tableItem : tableItems) { // each pane is changed right after it is loaded, as loading others may evict it
+				final ReadLayoutPane pane = tableItem.getPane();
+				final int numberPreviouslySelected = pane.getMatchSelection().getSelectedItems().size();
+				pane.getMatchSelection().selectAll();
+				if (!changed && pane.getMatchSelection().getSelectedItems().size() > numberPreviouslySelected)
 					changed = true;
 			}
 			if (!changed)  // if some rows selected and all their matches are already selected, select all rows
@@ -525,9 +530,9 @@ public class LRInspectorViewer extends JFrame implements IDirectableViewer, Prin
 		boolean hasCleared = false;
 
 		for (TableItem tableItem : tableItems) {
-			if (tableItem.getPane().getMatchSelection().getSelectedItems().size() > 0)
+			if (tableItem.hasSelectedAlignments())
 				hasCleared = true;
-			tableItem.getPane().getMatchSelection().clearSelection();
+			tableItem.clearSelectedAlignments();
 		}
 
 		if (!hasCleared) {
@@ -538,7 +543,7 @@ public class LRInspectorViewer extends JFrame implements IDirectableViewer, Prin
 		}
 		if (!hasCleared) {
 			for (TableItem tableItem : getController().getTableView().getItems()) {
-				tableItem.getPane().getMatchSelection().clearSelection();
+				tableItem.clearSelectedAlignments();
 			}
 		}
 		updateEnableState();
@@ -559,7 +564,8 @@ public class LRInspectorViewer extends JFrame implements IDirectableViewer, Prin
 		if (tableItems.size() == 0)
 			tableItems = getController().getTableView().getItems();
 		for (TableItem tableItem : tableItems) {
-			tableItem.getPane().hideSelected();
+			if (tableItem.hasSelectedAlignments())
+				tableItem.getPane().hideSelected();
 		}
 		updateEnableState();
 	}
@@ -569,16 +575,15 @@ public class LRInspectorViewer extends JFrame implements IDirectableViewer, Prin
 		if (tableItems.size() == 0)
 			tableItems = getController().getTableView().getItems();
 		for (TableItem tableItem : tableItems) {
-			tableItem.getPane().showAll();
+			tableItem.showAllAlignments();
 		}
 		updateEnableState();
 	}
 
 	public boolean hasSelectedAlignments() {
 		if (getController() != null) {
-			final Collection<TableItem> tableItems = getController().getTableView().getItems();
-			for (TableItem tableItem : tableItems) {
-				if (tableItem.getPane().getMatchSelection().getSelectedItems().size() > 0)
+			for (TableItem tableItem : getController().getTableView().getItems()) {
+				if (tableItem.hasSelectedAlignments())
 					return true;
 			}
 		}
@@ -591,13 +596,24 @@ public class LRInspectorViewer extends JFrame implements IDirectableViewer, Prin
 			if (tableItems.size() == 0)
 				tableItems = getController().getTableView().getItems();
 			for (TableItem tableItem : tableItems) {
-				if (tableItem != null && tableItem.getPane() != null && tableItem.getPane().hasHiddenAlignments())
+				if (tableItem.hasHiddenAlignments())
 					return true;
 			}
 		}
 		return false;
 	}
 
+	/**
+	 * get all loaded panes
+	 *
+	 * @return panes
+	 */
+	private ArrayList<ReadLayoutPane> getAllLoadedPanes() {
+		if (getController() == null || getController().getPaneCache() == null)
+			return new ArrayList<>();
+		return getController().getPaneCache().getLoadedPanes();
+	}
+
 	public void updateEnableState() {
 		Runnable runnable = commandManager::updateEnableState;
 		if (SwingUtilities.isEventDispatchThread())
@@ -626,8 +642,8 @@ public class LRInspectorViewer extends JFrame implements IDirectableViewer, Prin
 			if (tableItems.size() == 0)
 				tableItems = getController().getTableView().getItems();
 			for (TableItem tableItem : tableItems) {
-				final ReadLayoutPane pane = tableItem.getPane();
-				if (!pane.getMatchSelection().isEmpty()) {
+				if (tableItem.hasSelectedAlignments()) {
+					final ReadLayoutPane pane = tableItem.getPane();
 					buf.append("Query=").append(tableItem).append("\n");
 					buf.append("# Selected alignments: ").append(pane.getMatchSelection().getSelectedItems().size()).append("\n\n");
 					for (IMatchBlock matchBlock : pane.getMatchSelection().getSelectedItems()) {
@@ -649,8 +665,8 @@ public class LRInspectorViewer extends JFrame implements IDirectableViewer, Prin
 
 	public boolean someSelectedItemHasTaxonLabelsShowing() {
 		if (getController() != null) {
-			for (TableItem item : getController().getTableView().getItems()) {
-				if (item.getPane().getClassificationLabelsShowing().contains(Classification.Taxonomy))
+			for (ReadLayoutPane pane : getAllLoadedPanes()) {
+				if (pane.getClassificationLabelsShowing().contains(Classification.Taxonomy))
 					return true;
 			}
 		}
@@ -659,8 +675,8 @@ public class LRInspectorViewer extends JFrame implements IDirectableViewer, Prin
 
 	public boolean someSelectedItemHasAnyLabelsShowing() {
 		if (getController() != null) {
-			for (TableItem item : getController().getTableView().getItems()) {
-				if (item.getPane().getClassificationLabelsShowing().size() > 0)
+			for (ReadLayoutPane pane : getAllLoadedPanes()) {
+				if (pane.getClassificationLabelsShowing().size() > 0)
 					return true;
 			}
 		}
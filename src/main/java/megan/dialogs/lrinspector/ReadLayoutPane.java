@@ -738,16 +738,31 @@ public class ReadLayoutPane extends Pane {
 	 */
 	public void hideSelected() {
 		for (IMatchBlock matchBlock : matchSelection.getSelectedItems()) {
-			final GeneArrow geneArrow = match2GeneArrow.get(matchBlock);
-			if (geneArrow != null) {
-				geneArrow.setVisible(false);
-				for (Label label : geneArrow.getLabels())
-					label.setVisible(false);
-				hasHidden = true;
-			}
+			hide(matchBlock);
 		}
 	}
 
+	/**
+	 * hide the given item
+	 */
+	public void hide(IMatchBlock matchBlock) {
+		final GeneArrow geneArrow = match2GeneArrow.get(matchBlock);
+		if (geneArrow != null) {
+			geneArrow.setVisible(false);
+			for (Label label : geneArrow.getLabels())
+				label.setVisible(false);
+			hasHidden = true;
+		}
+	}
+
+	/**
+	 * is the given item hidden?
+	 */
+	public boolean isHidden(IMatchBlock matchBlock) {
+		final GeneArrow geneArrow = match2GeneArrow.get(matchBlock);
+		return geneArrow != null && !geneArrow.isVisible();
+	}
+
 	/**
 	 * show all items
 	 */
@@ -0,0 +1,276 @@
+/*
+ * ReadLayoutPaneCache.java Copyright (C) 2024 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package megan.dialogs.lrinspector;
+
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.collections.ListChangeListener;
+import javafx.geometry.Orientation;
+import javafx.scene.control.ScrollBar;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import jloda.util.Basic;
+import jloda.util.CanceledException;
+import jloda.util.interval.IntervalTree;
+import megan.algorithms.IntervalTree4Matches;
+import megan.core.Document;
+import megan.data.IMatchBlock;
+import megan.data.IReadBlock;
+import megan.data.IReadBlockGetter;
+import megan.fx.FXUtilities;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/**
+ * bounded cache of read layout panes. A pane is created when its table item is first displayed or used, by reloading the read
+ * by its uid, and the least recently used panes are evicted. On eviction, the table item keeps the indices of the selected and hidden
+ * alignments, and these are applied again when the pane is recreated
+ * Daniel Huson, 10.2026
+ */
+public class ReadLayoutPaneCache {
+	private final TableView<TableItem> tableView;
+	private final BiConsumer<TableItem, ReadLayoutPane> paneSetup;
+	private final Runnable onChange;
+	private final LinkedHashMap<TableItem, LoadedPane> item2pane;
+
+	private Document doc;
+	private String[] cNames;
+	private ReadOnlyIntegerProperty maxReadLength;
+	private ReadOnlyDoubleProperty layoutWidth;
+	private IReadBlockGetter readBlockGetter;
+
+	/**
+	 * constructor
+	 *
+	 * @param capacity  maximum number of panes kept
+	 * @param paneSetup applied to each new pane, e.g. to color it
+	 * @param onChange  run whenever panes are loaded or evicted
+	 */
+	public ReadLayoutPaneCache(TableView<TableItem> tableView, int capacity, BiConsumer<TableItem, ReadLayoutPane> paneSetup, Runnable onChange) {
+		this.tableView = tableView;
+		this.paneSetup = paneSetup;
+		this.onChange = onChange;
+		item2pane = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<TableItem, LoadedPane> eldest) {
+				if (size() > capacity) {
+					saveMatchState(eldest.getKey(), eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * configure for a new set of reads, clears the cache
+	 */
+	public synchronized void configure(Document doc, String[] cNames, ReadOnlyIntegerProperty maxReadLength, ReadOnlyDoubleProperty layoutWidth) {
+		clear();
+		this.doc = doc;
+		this.cNames = cNames;
+		this.maxReadLength = maxReadLength;
+		this.layoutWidth = layoutWidth;
+	}
+
+	/**
+	 * gets the pane for an item, creating it, if necessary
+	 */
+	public synchronized ReadLayoutPane getPane(TableItem item) {
+		var entry = item2pane.get(item);
+		if (entry == null) {
+			entry = loadPane(item);
+			item2pane.put(item, entry);
+			if (onChange != null)
+				onChange.run();
+		}
+		return entry.pane;
+	}
+
+	/**
+	 * gets the pane for an item, if it is loaded
+	 *
+	 * @return pane or null
+	 */
+	public synchronized ReadLayoutPane getPaneIfLoaded(TableItem item) {
+		final LoadedPane entry = item2pane.get(item);
+		return entry != null ? entry.pane : null;
+	}
+
+	/**
+	 * gets all loaded panes
+	 */
+	public synchronized ArrayList<ReadLayoutPane> getLoadedPanes() {
+		final ArrayList<ReadLayoutPane> panes = new ArrayList<>(item2pane.size());
+		for (LoadedPane entry : item2pane.values())
+			panes.add(entry.pane);
+		return panes;
+	}
+
+	/**
+	 * gets the sequence of a read, reloading the read
+	 *
+	 * @return sequence or null
+	 */
+	public synchronized String getReadSequence(TableItem item) {
+		final IReadBlock readBlock = getReadBlock(item);
+		return readBlock != null ? readBlock.getReadSequence() : null;
+	}
+
+	/**
+	 * remove all panes and close the file. As the reads may change, the state of the panes is not kept
+	 */
+	public synchronized void clear() {
+		item2pane.clear();
+		if (readBlockGetter != null) {
+			readBlockGetter.close();
+			readBlockGetter = null;
+		}
+	}
+
+	private IReadBlock getReadBlock(TableItem item) {
+		if (doc == null)
+			return null;
+		try {
+			if (readBlockGetter == null)
+				readBlockGetter = doc.getConnector().getReadBlockGetter(doc.getMinScore(), doc.getMaxExpected(), true, true);
+			return readBlockGetter.getReadBlock(item.getUId());
+		} catch (IOException ex) {
+			Basic.caught(ex);
+			return null;
+		}
+	}
+
+	private LoadedPane loadPane(TableItem item) {
+		final IReadBlock readBlock = getReadBlock(item);
+		IntervalTree<IMatchBlock> intervalTree;
+		try {
+			intervalTree = (readBlock != null ? IntervalTree4Matches.computeIntervalTree(readBlock, null, null) : new IntervalTree<>());
+		} catch (CanceledException ex) {
+			intervalTree = new IntervalTree<>();
+		}
+		final IMatchBlock[] matches = (readBlock != null ? new IMatchBlock[readBlock.getNumberOfAvailableMatchBlocks()] : new IMatchBlock[0]);
+		for (int m = 0; m < matches.length; m++)
+			matches[m] = readBlock.getMatchBlock(m);
+
+		final ReadLayoutPane pane = new ReadLayoutPane(cNames, item.getReadLength(), intervalTree, maxReadLength, layoutWidth);
+		if (paneSetup != null)
+			paneSetup.accept(item, pane);
+		restoreMatchState(item, pane, matches); // before adding the listener, so that the table selection isn't changed
+		pane.getMatchSelection().getSelectedItems().addListener(createChangeListener(item, pane));
+		return new LoadedPane(pane, matches);
+	}
+
+	/**
+	 * keep the indices of the selected and hidden alignments of an evicted pane in its table item
+	 */
+	private static void saveMatchState(TableItem item, LoadedPane entry) {
+		final Set<IMatchBlock> selected = new HashSet<>(entry.pane.getMatchSelection().getSelectedItems());
+		final BitSet selectedMatches = new BitSet();
+		final BitSet hiddenMatches = new BitSet();
+		for (int m = 0; m < entry.matches.length; m++) {
+			if (selected.contains(entry.matches[m]))
+				selectedMatches.set(m);
+			if (entry.pane.isHidden(entry.matches[m]))
+				hiddenMatches.set(m);
+		}
+		item.setMatchState(selectedMatches, hiddenMatches);
+	}
+
+	/**
+	 * apply the selected and hidden alignments kept by a table item to its new pane
+	 */
+	private static void restoreMatchState(TableItem item, ReadLayoutPane pane, IMatchBlock[] matches) {
+		if (item.getHiddenMatches() != null) {
+			for (int m = item.getHiddenMatches().nextSetBit(0); m != -1 && m < matches.length; m = item.getHiddenMatches().nextSetBit(m + 1))
+				pane.hide(matches[m]);
+		}
+		if (item.getSelectedMatches() != null) {
+			for (int m = item.getSelectedMatches().nextSetBit(0); m != -1 && m < matches.length; m = item.getSelectedMatches().nextSetBit(m + 1))
+				pane.getMatchSelection().select(matches[m]);
+		}
+		item.setMatchState(null, null);
+	}
+
+	private static class LoadedPane {
+		private final ReadLayoutPane pane;
+		private final IMatchBlock[] matches; // the matches of the read, by index
+
+		LoadedPane(ReadLayoutPane pane, IMatchBlock[] matches) {
+			this.pane = pane;
+			this.matches = matches;
+		}
+	}
+
+	private ListChangeListener<IMatchBlock> createChangeListener(final TableItem tableItem, final ReadLayoutPane pane) {
+		return c -> {
+			if (c.next()) {
+
+				if (!pane.getMatchSelection().isEmpty())
+					tableView.getSelectionModel().select(tableItem);
+			}
+			if (System.currentTimeMillis() - 200 > pane.previousSelectionTimeProperty().get()) { // only if sufficient time has passed since last scroll...
+				try {
+					final double focusCoordinate;
+					int focusIndex = pane.getMatchSelection().getFocusIndex();
+					if (focusIndex >= 0 && pane.getMatchSelection().getItems()[focusIndex] != null) {
+						final IMatchBlock focusMatch = pane.getMatchSelection().getItems()[focusIndex];
+						focusCoordinate = 0.5 * (focusMatch.getAlignedQueryStart() + focusMatch.getAlignedQueryEnd());
+						double leadingWidth = 0;
+						double lastWidth = 0;
+						double totalWidth = 0;
+						{
+							int numberOfColumns = tableView.getColumns().size();
+							int columns = 0;
+							for (TableColumn col : tableView.getColumns()) {
+								if (col.isVisible()) {
+									if (columns < numberOfColumns - 1)
+										leadingWidth += col.getWidth();
+									else
+										lastWidth = col.getWidth();
+									totalWidth += col.getWidth();
+								}
+								columns++;
+							}
+						}
+
+						final double coordinateToShow = leadingWidth + lastWidth * (focusCoordinate / maxReadLength.get());
+						final ScrollBar hScrollBar = FXUtilities.findScrollBar(tableView, Orientation.HORIZONTAL);
+
+						if (hScrollBar != null) { // should never be null, but best to check...
+							final double newPos = (hScrollBar.getMax() - hScrollBar.getMin()) * ((coordinateToShow) / totalWidth);
+
+							Platform.runLater(() -> {
+								tableView.scrollTo(tableItem);
+								hScrollBar.setValue(newPos);
+							});
+						}
+					}
+				} catch (Exception ignored) {
+				}
+			}
+			pane.previousSelectionTimeProperty().set(System.currentTimeMillis());
+		};
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * ReadSummaries.java Copyright (C) 2024 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package megan.dialogs.lrinspector;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * compact summaries of the reads shown in the long-read inspector, kept in primitive arrays.
+ * Read sequences and alignments are not kept, they are reloaded by uid when needed
+ * Daniel Huson, 10.2026
+ */
+class ReadSummaries {
+	private final HashMap<Integer, String> classId2Name = new HashMap<>();
+
+	private String[] names = new String[1024];
+	private long[] uids = new long[1024];
+	private int[] lengths = new int[1024];
+	private int[] hits = new int[1024];
+	private int[] covered = new int[1024];
+	private float[] minBitScores = new float[1024];
+	private float[] maxBitScores = new float[1024];
+	private int[] classIds = new int[1024];
+	private int size;
+
+	/**
+	 * add the summary of a read
+	 *
+	 * @return index of the read
+	 */
+	synchronized int add(String name, long uid, int length, int hits, int covered, float minBitScore, float maxBitScore, int classId, String className) {
+		if (size == names.length) {
+			final var capacity = 2 * size;
+			names = Arrays.copyOf(names, capacity);
+			uids = Arrays.copyOf(uids, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			this.hits = Arrays.copyOf(this.hits, capacity);
+			this.covered = Arrays.copyOf(this.covered, capacity);
+			minBitScores = Arrays.copyOf(minBitScores, capacity);
+			maxBitScores = Arrays.copyOf(maxBitScores, capacity);
+			classIds = Arrays.copyOf(classIds, capacity);
+		}
+		names[size] = name;
+		uids[size] = uid;
+		lengths[size] = length;
+		this.hits[size] = hits;
+		this.covered[size] = covered;
+		minBitScores[size] = minBitScore;
+		maxBitScores[size] = maxBitScore;
+		classIds[size] = classId;
+		classId2Name.putIfAbsent(classId, className);
+		return size++;
+	}
+
+	synchronized int size() {
+		return size;
+	}
+
+	synchronized String getName(int index) {
+		return names[index];
+	}
+
+	synchronized long getUId(int index) {
+		return uids[index];
+	}
+
+	synchronized int getLength(int index) {
+		return lengths[index];
+	}
+
+	synchronized int getHits(int index) {
+		return hits[index];
+	}
+
+	/**
+	 * get the number of read positions covered by alignments
+	 */
+	synchronized int getCovered(int index) {
+		return covered[index];
+	}
+
+	synchronized float getMinBitScore(int index) {
+		return minBitScores[index];
+	}
+
+	synchronized float getMaxBitScore(int index) {
+		return maxBitScores[index];
+	}
+
+	synchronized int getClassId(int index) {
+		return classIds[index];
+	}
+
+	synchronized String getClassName(int index) {
+		return classId2Name.get(classIds[index]);
+	}
+}
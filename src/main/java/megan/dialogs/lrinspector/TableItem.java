@@ -20,141 +20,142 @@
 
 package megan.dialogs.lrinspector;
 
-import javafx.beans.property.*;
+import java.util.BitSet;
 
 /**
- * table item
+ * table item, a view of the summary of a read. The layout pane and the read sequence are loaded on demand.
+ * While the pane is not loaded, the item keeps the indices of the selected and hidden alignments
  * Daniel Huson, 2/2017
  */
 public class TableItem {
-	private StringProperty readName;
-	private StringProperty readSequence;
-	private IntegerProperty readLength;
-	private IntegerProperty classId;
-	private StringProperty className;
-	private IntegerProperty hits;
-	private IntegerProperty percentCoverage;
-	private ObjectProperty<ReadLayoutPane> pane;
+	private final ReadSummaries summaries;
+	private final int index;
+	private final ReadLayoutPaneCache paneCache;
+
+	private BitSet selectedMatches; // only used while the pane is not loaded
+	private BitSet hiddenMatches; // only used while the pane is not loaded
 
 	/**
 	 * constructor
 	 */
-	public TableItem(String readName, int readLength, String readSequence, String className, int classId, int hits, int percentCoverage, ReadLayoutPane pane) {
-		setReadName(readName);
-		setReadSequence(readSequence);
-		setReadLength(readLength);
-		setClassId(classId);
-		if (className == null)
-			className = "Unknown";
-		setClassName(className);
-		setHits(hits);
-		setPane(pane);
-		setPercentCoverage(percentCoverage);
-	}
-
-	public void setReadName(String value) {
-		readNameProperty().set(value);
+	TableItem(ReadSummaries summaries, int index, ReadLayoutPaneCache paneCache) {
+		this.summaries = summaries;
+		this.index = index;
+		this.paneCache = paneCache;
 	}
 
 	public String getReadName() {
-		return readNameProperty().get();
-	}
-
-	public StringProperty readNameProperty() {
-		if (readName == null) readName = new SimpleStringProperty(this, "readName");
-		return readName;
-	}
-
-	public void setReadSequence(String value) {
-		readSequenceProperty().set(value);
+		return summaries.getName(index);
 	}
 
+	/**
+	 * gets the read sequence, reloading the read
+	 *
+	 * @return sequence or null
+	 */
 	public String getReadSequence() {
-		return readSequenceProperty().get();
-	}
-
-	public StringProperty readSequenceProperty() {
-		if (readSequence == null) readSequence = new SimpleStringProperty(this, "readSequence");
-		return readSequence;
-	}
-
-	public void setReadLength(Integer value) {
-		readLengthProperty().set(value);
+		return paneCache.getReadSequence(this);
 	}
 
 	public Integer getReadLength() {
-		return readLengthProperty().get();
+		return summaries.getLength(index);
 	}
 
-	public IntegerProperty readLengthProperty() {
-		if (readLength == null) readLength = new SimpleIntegerProperty(this, "readLength");
-		return readLength;
+	public Integer getClassId() {
+		return summaries.getClassId(index);
 	}
 
-
-	public void setClassId(Integer value) {
-		classIdProperty().set(value);
+	public String getClassName() {
+		final String className = summaries.getClassName(index);
+		return className != null ? className : "Unknown";
 	}
 
-	public Integer getClassId() {
-		return classIdProperty().get();
+	public Integer getHits() {
+		return summaries.getHits(index);
 	}
 
-	public IntegerProperty classIdProperty() {
-		if (classId == null) classId = new SimpleIntegerProperty(this, "classId");
-		return classId;
+	public Integer getPercentCoverage() {
+		return Math.min(100, (int) Math.round((100.0 * summaries.getCovered(index)) / summaries.getLength(index)));
 	}
 
-	public void setClassName(String value) {
-		classNameProperty().set(value);
+	public long getUId() {
+		return summaries.getUId(index);
 	}
 
-	public String getClassName() {
-		return classNameProperty().get();
+	public float getMinBitScore() {
+		return summaries.getMinBitScore(index);
 	}
 
-	public StringProperty classNameProperty() {
-		if (className == null) className = new SimpleStringProperty(this, "className");
-		return className;
+	public float getMaxBitScore() {
+		return summaries.getMaxBitScore(index);
 	}
 
-	public void setHits(Integer value) {
-		hitsProperty().set(value);
+	/**
+	 * gets the layout pane, creating it, if it is not loaded
+	 */
+	public ReadLayoutPane getPane() {
+		return paneCache.getPane(this);
 	}
 
-	public Integer getHits() {
-		return hitsProperty().get();
+	/**
+	 * gets the layout pane, if it is loaded
+	 *
+	 * @return pane or null
+	 */
+	public ReadLayoutPane getPaneIfLoaded() {
+		return paneCache.getPaneIfLoaded(this);
 	}
 
-	public IntegerProperty hitsProperty() {
-		if (hits == null) hits = new SimpleIntegerProperty(this, "hits");
-		return hits;
+	/**
+	 * does this read have selected alignments?
+	 */
+	public boolean hasSelectedAlignments() {
+		final ReadLayoutPane pane = getPaneIfLoaded();
+		return pane != null ? !pane.getMatchSelection().isEmpty() : selectedMatches != null;
 	}
 
-	public void setPercentCoverage(Integer value) {
-		percentCoverageProperty().set(value);
+	/**
+	 * does this read have hidden alignments?
+	 */
+	public boolean hasHiddenAlignments() {
+		final ReadLayoutPane pane = getPaneIfLoaded();
+		return pane != null ? pane.hasHiddenAlignments() : hiddenMatches != null;
 	}
 
-	private Integer getPercentCoverage() {
-		return percentCoverageProperty().get();
+	/**
+	 * deselect all alignments, without loading the pane
+	 */
+	public void clearSelectedAlignments() {
+		final ReadLayoutPane pane = getPaneIfLoaded();
+		if (pane != null)
+			pane.getMatchSelection().clearSelection();
+		selectedMatches = null;
 	}
 
-	public IntegerProperty percentCoverageProperty() {
-		if (percentCoverage == null) percentCoverage = new SimpleIntegerProperty(this, "percentCoverage");
-		return percentCoverage;
+	/**
+	 * show all alignments, without loading the pane
+	 */
+	public void showAllAlignments() {
+		final ReadLayoutPane pane = getPaneIfLoaded();
+		if (pane != null)
+			pane.showAll();
+		hiddenMatches = null;
 	}
 
-	public ReadLayoutPane getPane() {
-		return paneProperty().get();
+	BitSet getSelectedMatches() {
+		return selectedMatches;
 	}
 
-	public ObjectProperty<ReadLayoutPane> paneProperty() {
-		if (pane == null) pane = new SimpleObjectProperty<>(this, "pane");
-		return pane;
+	BitSet getHiddenMatches() {
+		return hiddenMatches;
 	}
 
-	public void setPane(ReadLayoutPane pane) {
-		paneProperty().set(pane);
+	/**
+	 * keep the indices of the selected and hidden alignments, when the pane is evicted
+	 */
+	void setMatchState(BitSet selectedMatches, BitSet hiddenMatches) {
+		this.selectedMatches = (selectedMatches != null && selectedMatches.cardinality() > 0 ? selectedMatches : null);
+		this.hiddenMatches = (hiddenMatches != null && hiddenMatches.cardinality() > 0 ? hiddenMatches : null);
 	}
 
 	public String toString() {
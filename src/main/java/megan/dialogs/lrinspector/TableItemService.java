@@ -35,28 +35,26 @@ import java.util.Set;
  */
 public class TableItemService extends Service<Integer> {
 	private Document doc;
-	private String[] cNames;
 	private String classificationName;
 	private final Set<Integer> classIds = new HashSet<>();
 	private TableView<TableItem> tableView;
+	private ReadLayoutPaneCache paneCache;
 
 	private final FloatProperty maxBitScore = new SimpleFloatProperty();
 	private final FloatProperty maxNormalizedBitScore = new SimpleFloatProperty();
 	private IntegerProperty maxReadLength;
-	private ReadOnlyDoubleProperty layoutWidth;
 
 	/**
 	 * configure the task
 	 */
-	public void configure(Document doc, String[] cNames, String classificationName, Set<Integer> classIds, IntegerProperty maxReadLength, TableView<TableItem> tableView, ReadOnlyDoubleProperty panelWidth) {
-		this.cNames = cNames;
+	public void configure(Document doc, String classificationName, Set<Integer> classIds, IntegerProperty maxReadLength, TableView<TableItem> tableView, ReadLayoutPaneCache paneCache) {
 		this.doc = doc;
 		this.classificationName = classificationName;
 		this.classIds.clear();
 		this.classIds.addAll(classIds);
 		this.tableView = tableView;
 		this.maxReadLength = maxReadLength;
-		this.layoutWidth = panelWidth;
+		this.paneCache = paneCache;
 	}
 
 	/**
@@ -66,7 +64,7 @@ public class TableItemService extends Service<Integer> {
 	 */
 	@Override
 	protected Task<Integer> createTask() {
-		return new TableItemTask(doc, cNames, classificationName, classIds, tableView, maxBitScoreProperty(), maxNormalizedBitScoreProperty(), maxReadLengthProperty(), layoutWidth);
+		return new TableItemTask(doc, classificationName, classIds, tableView, paneCache, maxBitScoreProperty(), maxNormalizedBitScoreProperty(), maxReadLengthProperty());
 	}
 
 	public float getMaxBitScore() {
@@ -23,13 +23,7 @@ package megan.dialogs.lrinspector;
 import javafx.application.Platform;
 import javafx.beans.property.FloatProperty;
 import javafx.beans.property.IntegerProperty;
-import javafx.beans.property.LongProperty;
-import javafx.beans.property.ReadOnlyDoubleProperty;
-import javafx.collections.ListChangeListener;
 import javafx.concurrent.Task;
-import javafx.geometry.Orientation;
-import javafx.scene.control.ScrollBar;
-import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
 import jloda.swing.window.NotificationsInSwing;
 import jloda.util.Pair;
@@ -43,7 +37,6 @@ import megan.data.IClassificationBlock;
 import megan.data.IMatchBlock;
 import megan.data.IReadBlock;
 import megan.data.IReadBlockIterator;
-import megan.fx.FXUtilities;
 
 import java.util.*;
 
@@ -54,39 +47,39 @@ import java.util.*;
  */
 public class TableItemTask extends Task<Integer> {
 	private final Document doc;
-	private final String[] cNames;
 	private final String classificationName;
 	private final Set<Integer> classIds;
 	private final TableView<TableItem> tableView;
+	private final ReadLayoutPaneCache paneCache;
 
 	private final FloatProperty maxBitScore;
 	private final FloatProperty maxNormalizedBitScore;
 	private final IntegerProperty maxReadLength;
-	private final ReadOnlyDoubleProperty layoutWidth;
 
 
 	/**
 	 * constructor
 	 */
-	public TableItemTask(Document doc, String[] cNames, String classificationName, Set<Integer> classIds, TableView<TableItem> tableView, FloatProperty maxBitScore, FloatProperty maxNormalizedBitScore, IntegerProperty maxReadLength, ReadOnlyDoubleProperty layoutWidth) {
+	public TableItemTask(Document doc, String classificationName, Set<Integer> classIds, TableView<TableItem> tableView, ReadLayoutPaneCache paneCache, FloatProperty maxBitScore, FloatProperty maxNormalizedBitScore, IntegerProperty maxReadLength) {
 		this.doc = doc;
-		this.cNames = cNames;
 		this.classificationName = classificationName;
 		this.classIds = classIds;
 		this.tableView = tableView;
+		this.paneCache = paneCache;
 		this.maxBitScore = maxBitScore;
 		this.maxNormalizedBitScore = maxNormalizedBitScore;
 		this.maxReadLength = maxReadLength;
-		this.layoutWidth = layoutWidth;
 	}
 
 	/**
-	 * compute all table items for configured classification name and class ids
+	 * compute all table items for configured classification name and class ids. Only a summary of each read is kept,
+	 * layout panes are created by the pane cache for the rows that are shown
 	 */
 	@Override
 	protected Integer call() throws Exception {
 		final Set<Long> seen = new HashSet<>();
 		final ArrayList<TableItem> buffer = new ArrayList<>(100);
+		final ReadSummaries summaries = new ReadSummaries();
 
 		final Classification classification = ClassificationManager.get(classificationName, true);
 		final IClassificationBlock classificationBlock = doc.getConnector().getClassificationBlock(classificationName);
@@ -149,18 +142,18 @@ public class TableItemTask extends Task<Integer> {
 						if (isCancelled())
 							break loop;
 
+						float minBitScoreOfRead = (intervalTree.size() > 0 ? Float.MAX_VALUE : 0);
+						float maxBitScoreOfRead = 0;
 						for (Interval<IMatchBlock> interval : intervalTree) {
-							final IMatchBlock matchBlock = interval.getData();
-							maxBitScore.set(Math.max(maxBitScore.get(), matchBlock.getBitScore()));
-							maxNormalizedBitScore.set(Math.max(maxNormalizedBitScore.get(), matchBlock.getBitScore() / (float) readLength));
+							final float bitScore = interval.getData().getBitScore();
+							minBitScoreOfRead = Math.min(minBitScoreOfRead, bitScore);
+							maxBitScoreOfRead = Math.max(maxBitScoreOfRead, bitScore);
 						}
-						final ReadLayoutPane pane = new ReadLayoutPane(cNames, readLength, intervalTree, maxReadLength, layoutWidth);
-						final int percentCover = Math.min(100, (int) Math.round((100.0 * intervalTree.getCovered()) / readLength));
-						final TableItem tableItem = new TableItem(readName, readLength, readBlock.getReadSequence(), className, classId, readBlock.getNumberOfAvailableMatchBlocks(), percentCover, pane);
+						maxBitScore.set(Math.max(maxBitScore.get(), maxBitScoreOfRead));
+						maxNormalizedBitScore.set(Math.max(maxNormalizedBitScore.get(), maxBitScoreOfRead / (float) readLength));
 
-						tableItem.getPane().getMatchSelection().getSelectedItems().addListener(createChangeListener(tableItem, pane.previousSelectionTimeProperty()));
-
-						buffer.add(tableItem);
+						final int index = summaries.add(readName, uid, readLength, readBlock.getNumberOfAvailableMatchBlocks(), intervalTree.getCovered(), minBitScoreOfRead, maxBitScoreOfRead, classId, className);
+						buffer.add(new TableItem(summaries, index, paneCache));
 						if (count < 100 || buffer.size() == 100)
 							flushBuffer(buffer);
 
@@ -187,58 +180,6 @@ public class TableItemTask extends Task<Integer> {
 		Platform.runLater(() -> tableView.getItems().addAll(items));
 	}
 
-	private ListChangeListener<IMatchBlock> createChangeListener(final TableItem tableItem, final LongProperty previousSelectionTime) {
-		final ReadLayoutPane pane = tableItem.getPane();
-		return c -> {
-			if (c.next()) {
-
-				if (!pane.getMatchSelection().isEmpty())
-					tableView.getSelectionModel().select(tableItem);
-			}
-			if (System.currentTimeMillis() - 200 > previousSelectionTime.get()) { // only if sufficient time has passed since last scroll...
-				try {
-					final double focusCoordinate;
-					int focusIndex = pane.getMatchSelection().getFocusIndex();
-					if (focusIndex >= 0 && pane.getMatchSelection().getItems()[focusIndex] != null) {
-						final IMatchBlock focusMatch = pane.getMatchSelection().getItems()[focusIndex];
-						focusCoordinate = 0.5 * (focusMatch.getAlignedQueryStart() + focusMatch.getAlignedQueryEnd());
-						double leadingWidth = 0;
-						double lastWidth = 0;
-						double totalWidth = 0;
-						{
-							int numberOfColumns = tableView.getColumns().size();
-							int columns = 0;
-							for (TableColumn col : tableView.getColumns()) {
-								if (col.isVisible()) {
-									if (columns < numberOfColumns - 1)
-										leadingWidth += col.getWidth();
-									else
-										lastWidth = col.getWidth();
-									totalWidth += col.getWidth();
-								}
-								columns++;
-							}
-						}
-
-						final double coordinateToShow = leadingWidth + lastWidth * (focusCoordinate / maxReadLength.get());
-						final ScrollBar hScrollBar = FXUtilities.findScrollBar(tableView, Orientation.HORIZONTAL);
-
-						if (hScrollBar != null) { // should never be null, but best to check...
-							final double newPos = (hScrollBar.getMax() - hScrollBar.getMin()) * ((coordinateToShow) / totalWidth);
-
-							Platform.runLater(() -> {
-								tableView.scrollTo(tableItem);
-								hScrollBar.setValue(newPos);
-							});
-						}
-					}
-				} catch (Exception ignored) {
-				}
-			}
-			previousSelectionTime.set(System.currentTimeMillis());
-		};
-	}
-
 	static class LongestReadsFilter {
 		private final TreeSet<Pair<String, Integer>> set;
 		private final int capacity;
@@ -0,0 +1,198 @@
+/*
+ * TableItemsSearcher.java Copyright (C) 2024 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package megan.dialogs.lrinspector;
+
+import javafx.application.Platform;
+import javafx.scene.control.TableView;
+import jloda.swing.find.IObjectSearcher;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.Collection;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * searches the alignments of all reads in the table, in table order. The layout pane of a read is loaded when the search reaches it,
+ * so that reads whose panes are not loaded are also found
+ * Daniel Huson, 10.2026
+ */
+public class TableItemsSearcher implements IObjectSearcher {
+	private final Component parent;
+	private final TableView<TableItem> tableView;
+
+	private int itemIndex = -1;
+	private ReadLayoutPaneSearcher current;
+
+	/**
+	 * constructor
+	 */
+	public TableItemsSearcher(Component parent, TableView<TableItem> tableView) {
+		this.parent = parent;
+		this.tableView = tableView;
+	}
+
+	@Override
+	public String getName() {
+		return "Alignments";
+	}
+
+	@Override
+	public boolean gotoFirst() {
+		for (int i = 0; i < tableView.getItems().size(); i++) {
+			if (setCurrent(i) && current.gotoFirst())
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean gotoNext() {
+		if (current != null && current.gotoNext())
+			return true;
+		for (int i = itemIndex + 1; i < tableView.getItems().size(); i++) {
+			if (setCurrent(i) && current.gotoFirst())
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean gotoLast() {
+		for (int i = tableView.getItems().size() - 1; i >= 0; i--) {
+			if (setCurrent(i) && current.gotoLast())
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean gotoPrevious() {
+		if (current != null && current.gotoPrevious())
+			return true;
+		for (int i = Math.min(itemIndex, tableView.getItems().size()) - 1; i >= 0; i--) {
+			if (setCurrent(i) && current.gotoLast())
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * makes the searcher of the given item current, loading its pane, if necessary
+	 *
+	 * @return true, if the item exists
+	 */
+	private boolean setCurrent(int index) {
+		itemIndex = index;
+		final TableItem tableItem = (index < tableView.getItems().size() ? tableView.getItems().get(index) : null);
+		current = (tableItem != null ? tableItem.getPane().getSearcher() : null);
+		return current != null;
+	}
+
+	@Override
+	public boolean isGlobalFindable() {
+		return true;
+	}
+
+	@Override
+	public boolean isSelectionFindable() {
+		return false;
+	}
+
+	@Override
+	public void updateView() {
+	}
+
+	@Override
+	public boolean isCurrentSet() {
+		return current != null && current.isCurrentSet();
+	}
+
+	@Override
+	public boolean canFindAll() {
+		return true;
+	}
+
+	@Override
+	public boolean isCurrentSelected() {
+		return current != null && current.isCurrentSelected();
+	}
+
+	@Override
+	public void selectAll(boolean select) {
+		final ReadLayoutPaneSearcher searcher = current;
+		if (searcher != null)
+			runAndWait(() -> searcher.selectAll(select));
+	}
+
+	@Override
+	public void setCurrentSelected(boolean select) {
+		final ReadLayoutPaneSearcher searcher = current;
+		if (searcher != null)
+			runAndWait(() -> searcher.setCurrentSelected(select));
+	}
+
+	@Override
+	public Component getParent() {
+		return parent;
+	}
+
+	@Override
+	public String getCurrentLabel() {
+		return current != null ? current.getCurrentLabel() : "";
+	}
+
+	@Override
+	public Collection<AbstractButton> getAdditionalButtons() {
+		return null;
+	}
+
+	@Override
+	public void setCurrentLabel(String newLabel) {
+	}
+
+	/**
+	 * runs in the FX thread and waits, so that the pane is changed before the search moves on and loading further panes can evict it
+	 */
+	private static void runAndWait(Runnable runnable) {
+		if (Platform.isFxApplicationThread())
+			runnable.run();
+		else {
+			final FutureTask<Void> task = new FutureTask<>(runnable, null);
+			Platform.runLater(task);
+			try {
+				task.get();
+			} catch (InterruptedException | ExecutionException ignored) {
+			}
+		}
+	}
+
+	/**
+	 * the number of alignments of all reads, as given by the read summaries
+	 */
+	@Override
+	public int numberOfObjects() {
+		int count = 0;
+		for (TableItem tableItem : tableView.getItems())
+			count += tableItem.getHits();
+		return count;
+	}
+}
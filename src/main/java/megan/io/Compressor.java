@@ -21,41 +21,58 @@ package megan.io;
 
 //import jloda.util.Basic;
 
+import jloda.util.Single;
 import jloda.util.StringUtils;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
 
 /**
  * compress and decompress strings
- * Daniel Huson, 8.2008
+ * Deflaters, inflaters and work buffers are pooled per thread, so creating a compressor is cheap and
+ * each instance can be used by any thread
+ * Daniel Huson, 8.2008, 10.2026
  */
 public class Compressor {
-	private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
-	private final Inflater inflater = new Inflater(true);
-	private byte[] buffer;
 	public static final int MIN_SIZE_FOR_DEFLATION = 90;
+
+	private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+	private static final ThreadLocal<Deflater[]> level2deflater = ThreadLocal.withInitial(() -> new Deflater[Deflater.BEST_COMPRESSION + 1]);
+	private static final ThreadLocal<Single<byte[]>> buffers = ThreadLocal.withInitial(() -> new Single<>(new byte[8192]));
+
+	private final int compressionLevel;
 	private boolean enabled = true;
 
 	/**
 	 * default constructor
 	 */
 	public Compressor() {
-		this(1000000);
+		this(0);
 	}
 
 	/**
 	 * constructor
 	 *
-	 * @param maxStringLength - size of buffer
+	 * @param maxStringLength - no longer used, buffers grow as needed
 	 */
 	public Compressor(int maxStringLength) {
-		buffer = new byte[maxStringLength];
+		this(maxStringLength, Deflater.BEST_COMPRESSION);
+	}
+
+	/**
+	 * constructor
+	 *
+	 * @param maxStringLength  - no longer used, buffers grow as needed
+	 * @param compressionLevel - deflate level, from 1 (fastest) to 9 (best compression)
+	 */
+	public Compressor(int maxStringLength, int compressionLevel) {
+		this.compressionLevel = Math.max(Deflater.BEST_SPEED, Math.min(Deflater.BEST_COMPRESSION, compressionLevel));
 	}
 
 	/**
@@ -64,13 +81,14 @@ public class Compressor {
 	 * @return deflated string
 	 */
 	public byte[] deflateString2ByteArray(String inputString) {
-		int length = deflateString2ByteArray(inputString, buffer);
-		byte[] result = new byte[Math.abs(length)];
-		System.arraycopy(buffer, 0, result, 0, Math.abs(length));
-		return result;
+		final byte[] input = inputString.getBytes(StandardCharsets.UTF_8);
+		if (input.length < MIN_SIZE_FOR_DEFLATION)
+			return input;
+		final Single<byte[]> buffer = buffers.get();
+		final int length = deflate(input, 0, input.length, buffer);
+		return Arrays.copyOf(buffer.get(), length);
 	}
 
-
 	/**
 	 * compresses a string to an array of bytes
 	 *
@@ -92,11 +110,14 @@ public class Compressor {
 	public int deflateString2ByteArray(byte[] input, int inputOffset, int inputLength, byte[] bytes) {
 		if (inputLength >= MIN_SIZE_FOR_DEFLATION) {
 			// Compress the bytes
-			deflater.setInput(input, inputOffset, inputLength);
-			deflater.finish();
-			int compressedDataLength = deflater.deflate(bytes);
-			deflater.reset();
-			return -compressedDataLength;
+			final Deflater deflater = getDeflater();
+			try {
+				deflater.setInput(input, inputOffset, inputLength);
+				deflater.finish();
+				return -deflater.deflate(bytes);
+			} finally {
+				deflater.reset();
+			}
 		} else {
 			System.arraycopy(input, inputOffset, bytes, 0, inputLength);
 			return inputLength;
@@ -109,11 +130,6 @@ public class Compressor {
 	 * @return decoded string
 	 */
 	public String inflateByteArray2String(int numberOfBytes, byte[] bytes) throws DataFormatException {
-        /*
-        StringBuilder buf = new StringBuilder();
-        for (byte aByte : input) buf.append((char) aByte);
-        return buf.toString();
-        */
 		if (numberOfBytes == 0)
 			return "";
 
@@ -121,15 +137,9 @@ public class Compressor {
 		{
 			return new String(bytes, 0, -numberOfBytes, StandardCharsets.UTF_8);
 		}
-		inflater.setInput(bytes, 0, numberOfBytes);
-		if (buffer.length < 100 * bytes.length)  // try to make sure the result buffer is long enough
-			buffer = new byte[100 * bytes.length];
-		int resultLength = inflater.inflate(buffer);
-
-		String outputString;
-		outputString = new String(buffer, 0, resultLength, StandardCharsets.UTF_8);
-		inflater.reset();
-		return outputString;
+		final Single<byte[]> buffer = buffers.get();
+		final int resultLength = inflate(bytes, numberOfBytes, buffer);
+		return new String(buffer.get(), 0, resultLength, StandardCharsets.UTF_8);
 	}
 
 	/**
@@ -141,11 +151,6 @@ public class Compressor {
 	 * @return number of bytes
 	 */
 	public int inflateByteArray(int numberOfBytes, byte[] source, byte[] target) throws DataFormatException {
-        /*
-        StringBuilder buf = new StringBuilder();
-        for (byte aByte : input) buf.append((char) aByte);
-        return buf.toString();
-        */
 		if (numberOfBytes == 0)
 			return 0;
 
@@ -154,10 +159,97 @@ public class Compressor {
 			System.arraycopy(source, 0, target, 0, source.length);
 			return Math.abs(numberOfBytes);
 		}
-		inflater.setInput(source, 0, numberOfBytes);
-		int resultLength = inflater.inflate(target);
-		inflater.reset();
-		return resultLength;
+		final Inflater inflater = inflaters.get();
+		try {
+			inflater.setInput(source, 0, numberOfBytes);
+			return inflater.inflate(target);
+		} finally {
+			inflater.reset();
+		}
+	}
+
+	/**
+	 * decompresses an array of bytes into a reusable array, which is replaced by a larger one, if necessary
+	 *
+	 * @param numberOfBytes negative, if uncompressed, otherwise positive
+	 * @param source        input
+	 * @param target        holds the output array
+	 * @return number of bytes
+	 */
+	public int inflateByteArray(int numberOfBytes, byte[] source, Single<byte[]> target) throws DataFormatException {
+		if (numberOfBytes == 0)
+			return 0;
+
+		if (numberOfBytes < 0) // negative number means uncompressed!
+		{
+			if (target.get().length < -numberOfBytes)
+				target.set(new byte[-numberOfBytes]);
+			System.arraycopy(source, 0, target.get(), 0, -numberOfBytes);
+			return -numberOfBytes;
+		}
+		return inflate(source, numberOfBytes, target);
+	}
+
+	/**
+	 * inflates the input completely, growing the target array as needed
+	 *
+	 * @return number of bytes
+	 */
+	private static int inflate(byte[] source, int numberOfBytes, Single<byte[]> target) throws DataFormatException {
+		final Inflater inflater = inflaters.get();
+		try {
+			inflater.setInput(source, 0, numberOfBytes);
+			byte[] bytes = target.get();
+			if (bytes.length < 4 * numberOfBytes) { // typical ratio for read and match texts
+				bytes = new byte[4 * numberOfBytes];
+				target.set(bytes);
+			}
+			int size = 0;
+			while (true) {
+				size += inflater.inflate(bytes, size, bytes.length - size);
+				if (inflater.finished() || inflater.needsDictionary() || size < bytes.length) // stopped with space left means input is used up
+					return size;
+				bytes = Arrays.copyOf(bytes, 2 * bytes.length);
+				target.set(bytes);
+			}
+		} finally {
+			inflater.reset();
+		}
+	}
+
+	/**
+	 * deflates the input completely, growing the target array as needed
+	 *
+	 * @return number of bytes
+	 */
+	private int deflate(byte[] input, int offset, int length, Single<byte[]> target) {
+		final Deflater deflater = getDeflater();
+		try {
+			deflater.setInput(input, offset, length);
+			deflater.finish();
+			byte[] bytes = target.get();
+			int size = 0;
+			while (!deflater.finished()) {
+				if (size == bytes.length) {
+					bytes = Arrays.copyOf(bytes, 2 * bytes.length);
+					target.set(bytes);
+				}
+				size += deflater.deflate(bytes, size, bytes.length - size);
+			}
+			return size;
+		} finally {
+			deflater.reset();
+		}
+	}
+
+	/**
+	 * get the deflater for the compression level of this compressor and the current thread
+	 */
+	private Deflater getDeflater() {
+		final Deflater[] deflaters = level2deflater.get();
+		if (deflaters[compressionLevel] == null)
+			deflaters[compressionLevel] = new Deflater(compressionLevel, true);
+		return deflaters[compressionLevel];
 	}
 
 	/**
@@ -19,8 +19,11 @@
  */
 package megan.io;
 
+import jloda.util.Single;
+
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.zip.DataFormatException;
 
 /**
  * common interface for both InputReader and InputOutputReaderWriter
@@ -44,6 +47,36 @@ public interface IInputReader extends Closeable {
 
 	String readString() throws IOException;
 
+	/**
+	 * reads a string as bytes, without creating a string. The bytes are placed in the given array, which is replaced by
+	 * a larger one, if necessary
+	 *
+	 * @return number of bytes
+	 */
+	default int readString(Single<byte[]> target) throws IOException {
+		final int size = readInt();
+		if (Math.abs(size) > 100000000)
+			throw new IOException("Unreasonable string length: " + Math.abs(size));
+		if (size >= 0) {
+			if (target.get().length < size)
+				target.set(new byte[size]);
+			final int got = read(target.get(), 0, size);
+			if (got != size)
+				throw new IOException("Bytes read: " + got + ", expected: " + size);
+			return size;
+		} else { // is zip compressed
+			final byte[] bytes = new byte[-size];
+			final int got = read(bytes, 0, -size);
+			if (got != -size)
+				throw new IOException("Bytes read: " + got + ", expected: " + (-size));
+			try {
+				return new Compressor().inflateByteArray(-size, bytes, target);
+			} catch (DataFormatException e) {
+				throw new IOException(e.getMessage());
+			}
+		}
+	}
+
 	int skipBytes(int bytes) throws IOException;
 
 	long length() throws IOException;
@@ -32,18 +32,23 @@ import megan.classification.IdParser;
 import megan.core.ClassificationType;
 import megan.core.DataTable;
 import megan.core.Document;
+import megan.parsers.blast.QueryGrouper;
 import megan.viewer.MainViewer;
 import megan.viewer.TaxonomyData;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * parses a CVS file containing a list of reads and hits
  * Daniel Huson, 9.2010
  */
 public class CSVReadsHitsParser {
+	private static final int MAX_LINES_PER_BATCH = 10000;
 
 	/**
 	 * apply the importer parser to the named file.
@@ -68,128 +73,53 @@ public class CSVReadsHitsParser {
 		doc.getActiveViewers().clear();
 		doc.getActiveViewers().addAll(Arrays.asList(cNames));
 
-		final IdParser[] parsers = new IdParser[cNames.length];
 		int taxonomyIndex = -1;
 		for (int i = 0; i < cNames.length; i++) {
 			final String cName = cNames[i];
-			parsers[i] = ClassificationManager.get(cName, true).getIdMapper().createIdParser();
 			ClassificationManager.ensureTreeIsLoaded(cName);
 			if (!cName.equals(Classification.Taxonomy)) {
 				doc.getActiveViewers().add(cName);
 			} else {
 				taxonomyIndex = i;
 			}
-			parsers[i].setUseTextParsing(true);
 		}
 
-		final Map<String, List<Pair<Integer, Float>>>[] readName2IdAndScore = new HashMap[cNames.length];
-		Arrays.fill(readName2IdAndScore, new HashMap<>());
-
-		final int[] count = new int[parsers.length];
-		int numberOfErrors = 0;
-		int numberOfLines = 0;
-
 		final ProgressListener progress = doc.getProgressListener();
 		progress.setTasks("Importing CSV file", "Reading " + fileName);
 
-		int countInputReadNames = 0;
-		int countOutputReadNames = 0;
-		int countClassNames = 0;
-		int countUnrecognizedClassNames = 0;
-
-		try (FileLineIterator it = new FileLineIterator(fileName)) {
-			progress.setMaximum(it.getMaximumProgress());
-			progress.setProgress(0);
-
-			boolean warnedNoScoreGiven = false;
-
-			String prevName = "";
-
-			while (it.hasNext()) {
-				numberOfLines++;
-				final String aLine = it.next().trim();
-				if (aLine.length() == 0 || aLine.startsWith("#"))
-					continue;
-				try {
-					final String[] tokens = StringUtils.split(aLine, separator);
-
-					if (tokens.length < 2 || tokens.length > 3)
-						throw new IOException("Line " + numberOfLines + ": incorrect number of columns, expected 2 or 3, got: " + tokens.length);
-
-					final String readName = tokens[0].trim();
-					boolean found = false;
-					for (int i = 0; !found && i < parsers.length; i++) {
-						final int id = (parsers.length == 1 && NumberUtils.isInteger(tokens[1]) ? NumberUtils.parseInt(tokens[1]) : parsers[i].getIdFromHeaderLine(tokens[1]));
-
-						if (id != 0) {
-							float score;
-							if (tokens.length < 3) {
-								score = 50;
-								if (!warnedNoScoreGiven) {
-									System.err.println("Setting score=50 for lines that only contained two tokens, such as line " + numberOfLines + ": '" + aLine + "'");
-									warnedNoScoreGiven = true;
-								}
-							} else
-								score = Float.parseFloat(tokens[2].trim());
-							final List<Pair<Integer, Float>> taxonIdAndScore = readName2IdAndScore[i].computeIfAbsent(readName, k -> new LinkedList<>());
-							taxonIdAndScore.add(new Pair<>(id, score));
-							if (!readName.equals(prevName))
-								count[i]++;
-							found = true;
-						}
-					}
-
-					countClassNames++;
-					if (!found) {
-						System.err.println("Unrecognized name: " + tokens[1]);
-						countUnrecognizedClassNames++;
-					}
-
-					if (!readName.equals(prevName)) {
-						countInputReadNames++;
-						if (found)
-							countOutputReadNames++;
-					}
-
-					prevName = readName;
-				} catch (Exception ex) {
-					System.err.println("Error: " + ex + ", skipping");
-					numberOfErrors++;
-				}
-				progress.setProgress(it.getProgress());
+		// lines are parsed and reads are assigned by worker threads, each using its own id parsers:
+		final ThreadLocal<IdParser[]> parsers = ThreadLocal.withInitial(() -> createIdParsers(cNames));
+		final var assigner = new Assigner(cNames.length, taxonomyIndex, separator, doc.getMinScore(), doc.getTopPercent());
+
+		// all lines for a read must be consecutive. This is checked while reading, and, if necessary, the reads are imported again from a grouped copy:
+		final var checker = QueryGrouper.createGroupingChecker(fileName, separator);
+		var totals = importReads(fileName, progress, assigner, parsers, checker, true);
+		if (!checker.isGrouped()) {
+			final var groupedFileName = QueryGrouper.group(fileName, separator);
+			try {
+				progress.setTasks("Importing CSV file", "Reading " + groupedFileName);
+				totals = importReads(groupedFileName, progress, assigner, parsers, null, false);
+			} finally {
+				if (!new File(groupedFileName).delete())
+					System.err.println("Failed to delete temporary file: " + groupedFileName);
 			}
 		}
 		if (progress instanceof ProgressPercentage)
 			progress.reportTaskCompleted();
 
+		final int numberOfErrors = totals.numberOfErrors;
+		final int countInputReadNames = totals.inputReads;
+		final int countOutputReadNames = totals.outputReads;
+		final int countClassNames = totals.classNames;
+		final int countUnrecognizedClassNames = totals.unrecognizedClassNames;
+		final int[] count = totals.readsWithHits;
+
 		final int totalReads = NumberUtils.max(count);
 
 		if (taxonomyIndex >= 0) {
-			progress.setSubtask("Running LCA");
-			progress.setProgress(0);
-			progress.setMaximum(readName2IdAndScore[taxonomyIndex].size());
-
-			// run LCA algorithm to get assignment of reads
-			Map<Integer, float[]> class2counts = new HashMap<>();
-			Map<Integer, Float> class2count = new HashMap<>();
-
-			for (String readName : readName2IdAndScore[taxonomyIndex].keySet()) {
-				List<Pair<Integer, Float>> taxonIdAndScore = readName2IdAndScore[taxonomyIndex].get(readName);
-
-				final int taxId = computeTaxonId(doc, taxonIdAndScore);
-
-				if (taxId != 0) {
-					float[] counts = class2counts.computeIfAbsent(taxId, k -> new float[]{0});
-					counts[0]++;
-					if (class2count.get(taxId) == null)
-						class2count.put(taxId, 1f);
-					else
-						class2count.put(taxId, class2count.get(taxId) + 1);
-				}
-				progress.incrementProgress();
-			}
-			if (progress instanceof ProgressPercentage)
-				progress.reportTaskCompleted();
+			// reads have already been assigned using the LCA algorithm:
+			final Map<Integer, float[]> class2counts = totals.class2count[taxonomyIndex].toClass2Counts();
+			final Map<Integer, Float> class2count = totals.class2count[taxonomyIndex].toClass2Count();
 
 			// run the minsupport filter
 			if (doc.getMinSupportPercent() > 0 || doc.getMinSupport() > 1) {
@@ -245,32 +175,8 @@ public class CSVReadsHitsParser {
 		}
 
 		for (int i = 0; i < cNames.length; i++) {
-			if (i != taxonomyIndex) {
-				progress.setSubtask("Classifying " + cNames[i]);
-				progress.setProgress(0);
-				progress.setMaximum(readName2IdAndScore[i].size());
-
-				Map<Integer, float[]> class2counts = new HashMap<>();
-				Map<Integer, Float> class2count = new HashMap<>();
-
-				for (String readName : readName2IdAndScore[i].keySet()) {
-					final List<Pair<Integer, Float>> classIdAndScore = readName2IdAndScore[i].get(readName);
-					final int classId = getBestId(classIdAndScore);
-
-					if (classId != 0) {
-						float[] counts = class2counts.computeIfAbsent(classId, k -> new float[]{0});
-						counts[0]++;
-						if (class2count.get(classId) == null)
-							class2count.put(classId, 1f);
-						else
-							class2count.put(classId, class2count.get(classId) + 1);
-					}
-					progress.incrementProgress();
-				}
-				table.getClassification2Class2Counts().put(cNames[i], class2counts);
-				if (progress instanceof ProgressPercentage)
-					progress.reportTaskCompleted();
-			}
+			if (i != taxonomyIndex)
+				table.getClassification2Class2Counts().put(cNames[i], totals.class2count[i].toClass2Counts());
 		}
 
 		table.setSamples(new String[]{FileUtils.getFileBaseName(new File(fileName).getName())}, null, new float[]{totalReads}, new BlastMode[]{BlastMode.Unknown});
@@ -281,18 +187,101 @@ public class CSVReadsHitsParser {
 				doc.getActiveViewers().remove(cNames[i]);
 		}
 		if (numberOfErrors > 0)
-			NotificationsInSwing.showWarning(MainViewer.getLastActiveFrame(), "Lines skipped during import: " + numberOfErrors + " (of " + numberOfLines + ")");
+			NotificationsInSwing.showWarning(MainViewer.getLastActiveFrame(), "Lines skipped during import: " + numberOfErrors + " (of " + totals.numberOfLines + ")");
 		System.err.println("done (" + totalReads + " reads)");
 	}
 
-	private static int getBestId(List<Pair<Integer, Float>> idAndScore) {
+	/**
+	 * reads all lines of the file, in batches that are processed in parallel
+	 *
+	 * @param checker        if non-null, is given all lines to check whether the file is grouped by read
+	 * @param reportMessages report unrecognized names and errors?
+	 * @return counts for all reads
+	 */
+	private static ReadCounts importReads(String fileName, ProgressListener progress, Assigner assigner, ThreadLocal<IdParser[]> parsers,
+										  QueryGrouper.GroupingChecker checker, boolean reportMessages) throws IOException, CanceledException {
+		final var numberOfThreads = ProgramExecutorService.getNumberOfCoresToUse();
+		final var service = Executors.newFixedThreadPool(numberOfThreads);
+		final var totals = new ReadCounts(assigner.numberOfClassifications, reportMessages);
+		int numberOfLines = 0;
+
+		try (FileLineIterator it = new FileLineIterator(fileName)) {
+			progress.setMaximum(it.getMaximumProgress());
+			progress.setProgress(0);
+
+			final var pending = new ArrayDeque<Future<ReadCounts>>();
+			var batch = new Batch();
+			String prevName = null;
+
+			while (it.hasNext()) {
+				numberOfLines++;
+				final String line = it.next();
+				if (checker != null)
+					checker.add(line);
+				final String aLine = line.trim();
+				if (aLine.length() == 0 || aLine.startsWith("#")) {
+					batch.skip();
+					continue;
+				}
+				final var readName = getReadName(aLine, assigner.separator);
+				if (batch.size() >= MAX_LINES_PER_BATCH && !readName.equals(prevName)) {
+					final var toAssign = batch;
+					pending.add(service.submit(() -> assigner.apply(toAssign, parsers.get())));
+					batch = new Batch();
+					while (pending.size() > 2 * numberOfThreads)
+						totals.add(pending.poll().get());
+				}
+				batch.add(aLine, numberOfLines);
+				prevName = readName;
+				progress.setProgress(it.getProgress());
+			}
+			if (batch.numberOfLines > 0) { // also counts trailing skipped lines
+				final var toAssign = batch;
+				pending.add(service.submit(() -> assigner.apply(toAssign, parsers.get())));
+			}
+			while (pending.size() > 0)
+				totals.add(pending.poll().get());
+		} catch (InterruptedException | ExecutionException ex) {
+			throw new IOException(ex.getCause() != null ? ex.getCause() : ex);
+		} finally {
+			service.shutdownNow();
+		}
+		return totals;
+	}
+
+	/**
+	 * creates an id parser for each classification
+	 */
+	private static IdParser[] createIdParsers(String[] cNames) {
+		final IdParser[] parsers = new IdParser[cNames.length];
+		for (int i = 0; i < cNames.length; i++) {
+			parsers[i] = ClassificationManager.get(cNames[i], true).getIdMapper().createIdParser();
+			parsers[i].setUseTextParsing(true);
+		}
+		return parsers;
+	}
+
+	/**
+	 * gets the read name, the first column of a line
+	 */
+	private static String getReadName(String aLine, char separator) {
+		final int end = aLine.indexOf(separator);
+		return (end == -1 ? aLine : aLine.substring(0, end)).trim();
+	}
+
+	/**
+	 * the id with the highest score, the first one, if there are several
+	 *
+	 * @return id or 0
+	 */
+	private static int getBestId(Hits hits) {
 		int bestId = 0;
 		float bestScore = 0;
 
-		for (Pair<Integer, Float> pair : idAndScore) {
-			if (pair.getSecond() > bestScore) {
-				bestScore = pair.getSecond();
-				bestId = pair.getFirst();
+		for (int k = 0; k < hits.size; k++) {
+			if (hits.scores[k] > bestScore) {
+				bestScore = hits.scores[k];
+				bestId = hits.ids[k];
 			}
 		}
 		return bestId;
@@ -303,33 +292,285 @@ public class CSVReadsHitsParser {
 	 *
 	 * @return taxonId
 	 */
-	private static int computeTaxonId(Document doc, List<Pair<Integer, Float>> taxonIdAndScore) {
-		final Pair<Integer, Float>[] pairs = taxonIdAndScore.toArray((Pair<Integer, Float>[]) new Pair[taxonIdAndScore.size()]);
+	private static int computeTaxonId(float minScore, float topPercent, Hits hits) {
+		float bestScore = -Float.MAX_VALUE;
+		for (int k = 0; k < hits.size; k++) {
+			bestScore = Math.max(bestScore, hits.scores[k]);
+		}
 
-		// sort by decreasing bit-score:
-		Arrays.sort(pairs, (pair1, pair2) -> pair2.getSecond().compareTo(pair1.getSecond()));
+		double threshold = minScore;
+		if (bestScore >= threshold && topPercent != 0)
+			threshold = Math.max((1.0 - topPercent / 100.0) * bestScore, threshold);
 
-		Set<Integer> taxonIds = new HashSet<>();
+		final Set<Integer> set = new HashSet<>();
+		for (int k = 0; k < hits.size; k++) {
+			if (hits.scores[k] >= threshold)
+				set.add(hits.ids[k]);
+		}
+		return TaxonomyData.getLCA(set, true);
+	}
 
-		Float bestScore = null;
+	/**
+	 * consecutive lines of the input, consisting of all lines for each of the contained reads
+	 */
+	private static class Batch {
+		private final ArrayList<String> lines = new ArrayList<>(MAX_LINES_PER_BATCH + 100);
+		private int[] lineNumbers = new int[MAX_LINES_PER_BATCH + 100];
+
+		private int numberOfLines; // including skipped lines
+
+		void add(String line, int lineNumber) {
+			numberOfLines++;
+			if (lines.size() == lineNumbers.length)
+				lineNumbers = Arrays.copyOf(lineNumbers, 2 * lineNumbers.length);
+			lineNumbers[lines.size()] = lineNumber;
+			lines.add(line);
+		}
+
+		/**
+		 * count a blank or comment line
+		 */
+		void skip() {
+			numberOfLines++;
+		}
 
-		double threshold = doc.getMinScore();
+		int size() {
+			return lines.size();
+		}
+	}
 
-		for (Pair<Integer, Float> pair : pairs) {
-			Integer taxonId = pair.getFirst();
-			Float score = pair.getSecond();
-			if (score >= threshold) {
-				if (bestScore == null) {
-					bestScore = score;
-					taxonIds.add(taxonId);
-					if (doc.getTopPercent() != 0) {
-						threshold = Math.max((1.0 - doc.getTopPercent() / 100.0) * bestScore, threshold);
+	/**
+	 * parses the lines of a batch and assigns the reads
+	 */
+	private static class Assigner {
+		private final int numberOfClassifications;
+		private final int taxonomyIndex;
+		private final char separator;
+		private final float minScore;
+		private final float topPercent;
+
+		Assigner(int numberOfClassifications, int taxonomyIndex, char separator, float minScore, float topPercent) {
+			this.numberOfClassifications = numberOfClassifications;
+			this.taxonomyIndex = taxonomyIndex;
+			this.separator = separator;
+			this.minScore = minScore;
+			this.topPercent = topPercent;
+		}
+
+		/**
+		 * parse all lines and assign all reads
+		 *
+		 * @return counts for this batch
+		 */
+		ReadCounts apply(Batch batch, IdParser[] parsers) {
+			final var counts = new ReadCounts(numberOfClassifications, false);
+			counts.numberOfLines = batch.numberOfLines;
+			final var hits = new Hits[numberOfClassifications];
+			for (var i = 0; i < numberOfClassifications; i++)
+				hits[i] = new Hits();
+
+			String prevName = null;
+			var found = false;
+			for (var k = 0; k < batch.size(); k++) {
+				final var aLine = batch.lines.get(k);
+				final var lineNumber = batch.lineNumbers[k];
+				try {
+					final String[] tokens = StringUtils.split(aLine, separator);
+
+					if (tokens.length < 2 || tokens.length > 3)
+						throw new IOException("Line " + lineNumber + ": incorrect number of columns, expected 2 or 3, got: " + tokens.length);
+
+					final String readName = tokens[0].trim();
+					if (!readName.equals(prevName)) {
+						if (prevName != null)
+							assignRead(hits, found, counts);
+						counts.inputReads++;
+						found = false;
+						prevName = readName;
+					}
+
+					var recognized = false;
+					for (int i = 0; !recognized && i < parsers.length; i++) {
+						final int id = (parsers.length == 1 && NumberUtils.isInteger(tokens[1]) ? NumberUtils.parseInt(tokens[1]) : parsers[i].getIdFromHeaderLine(tokens[1]));
+
+						if (id != 0) {
+							float score;
+							if (tokens.length < 3) {
+								score = 50;
+								if (counts.lineWithoutScore == null)
+									counts.lineWithoutScore = "line " + lineNumber + ": '" + aLine + "'";
+							} else
+								score = Float.parseFloat(tokens[2].trim());
+							hits[i].add(id, score);
+							recognized = true;
+						}
 					}
+
+					counts.classNames++;
+					if (!recognized) {
+						counts.messages.append("Unrecognized name: ").append(tokens[1]).append("\n");
+						counts.unrecognizedClassNames++;
+					} else
+						found = true;
+				} catch (Exception ex) {
+					counts.messages.append("Error: ").append(ex).append(", skipping\n");
+					counts.numberOfErrors++;
+				}
+			}
+			if (prevName != null)
+				assignRead(hits, found, counts);
+			return counts;
+		}
+
+		/**
+		 * assign a read in each classification in which it has hits, and clear the hits
+		 */
+		private void assignRead(Hits[] hits, boolean found, ReadCounts counts) {
+			if (found)
+				counts.outputReads++;
+			for (var i = 0; i < numberOfClassifications; i++) {
+				if (hits[i].size > 0) {
+					counts.readsWithHits[i]++;
+					final var id = (i == taxonomyIndex ? computeTaxonId(minScore, topPercent, hits[i]) : getBestId(hits[i]));
+					if (id != 0)
+						counts.class2count[i].add(id, 1);
+					hits[i].size = 0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * ids and scores of the hits of a read in one classification
+	 */
+	private static class Hits {
+		private int[] ids = new int[16];
+		private float[] scores = new float[16];
+		private int size;
+
+		void add(int id, float score) {
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, 2 * size);
+				scores = Arrays.copyOf(scores, 2 * size);
+			}
+			ids[size] = id;
+			scores[size++] = score;
+		}
+	}
+
+	/**
+	 * read counts, for a batch of reads or for all reads
+	 */
+	private static class ReadCounts {
+		private final ClassCounts[] class2count;
+		private final int[] readsWithHits;
+		private int numberOfLines;
+		private int numberOfErrors;
+		private int inputReads;
+		private int outputReads;
+		private int classNames;
+		private int unrecognizedClassNames;
+		private String lineWithoutScore;
+		private final StringBuilder messages = new StringBuilder();
+		private final boolean reportMessages;
+
+		ReadCounts(int numberOfClassifications, boolean reportMessages) {
+			this.reportMessages = reportMessages;
+			class2count = new ClassCounts[numberOfClassifications];
+			for (var i = 0; i < numberOfClassifications; i++)
+				class2count[i] = new ClassCounts();
+			readsWithHits = new int[numberOfClassifications];
+		}
+
+		/**
+		 * adds the counts of a batch, and reports its messages, if requested
+		 */
+		void add(ReadCounts that) {
+			for (var i = 0; i < class2count.length; i++) {
+				class2count[i].addAll(that.class2count[i]);
+				readsWithHits[i] += that.readsWithHits[i];
+			}
+			numberOfLines += that.numberOfLines;
+			numberOfErrors += that.numberOfErrors;
+			inputReads += that.inputReads;
+			outputReads += that.outputReads;
+			classNames += that.classNames;
+			unrecognizedClassNames += that.unrecognizedClassNames;
+			if (lineWithoutScore == null && that.lineWithoutScore != null) {
+				lineWithoutScore = that.lineWithoutScore;
+				if (reportMessages)
+					System.err.println("Setting score=50 for lines that only contained two tokens, such as " + lineWithoutScore);
+			}
+			if (reportMessages && that.messages.length() > 0)
+				System.err.print(that.messages);
+		}
+	}
+
+	/**
+	 * number of reads per class id, in an open-addressing hash table of ints. Id 0 is not allowed
+	 */
+	private static class ClassCounts {
+		private int[] keys = new int[16];
+		private int[] values = new int[16];
+		private int size;
+
+		void add(int key, int value) {
+			if (2 * (size + 1) > keys.length)
+				resize(2 * keys.length);
+			final var slot = getSlot(keys, key);
+			if (keys[slot] == 0) {
+				keys[slot] = key;
+				size++;
+			}
+			values[slot] += value;
+		}
+
+		void addAll(ClassCounts that) {
+			for (var slot = 0; slot < that.keys.length; slot++) {
+				if (that.keys[slot] != 0)
+					add(that.keys[slot], that.values[slot]);
+			}
+		}
+
+		Map<Integer, float[]> toClass2Counts() {
+			final Map<Integer, float[]> class2counts = new HashMap<>();
+			for (var slot = 0; slot < keys.length; slot++) {
+				if (keys[slot] != 0)
+					class2counts.put(keys[slot], new float[]{values[slot]});
+			}
+			return class2counts;
+		}
+
+		Map<Integer, Float> toClass2Count() {
+			final Map<Integer, Float> class2count = new HashMap<>();
+			for (var slot = 0; slot < keys.length; slot++) {
+				if (keys[slot] != 0)
+					class2count.put(keys[slot], (float) values[slot]);
+			}
+			return class2count;
+		}
+
+		private void resize(int capacity) {
+			final var oldKeys = keys;
+			final var oldValues = values;
+			keys = new int[capacity];
+			values = new int[capacity];
+			for (var slot = 0; slot < oldKeys.length; slot++) {
+				if (oldKeys[slot] != 0) {
+					final var newSlot = getSlot(keys, oldKeys[slot]);
+					keys[newSlot] = oldKeys[slot];
+					values[newSlot] = oldValues[slot];
 				}
-				taxonIds.add(taxonId);
 			}
 		}
 
-		return TaxonomyData.getLCA(taxonIds, true);
+		private static int getSlot(int[] keys, int key) {
+			final var mask = keys.length - 1;
+			final var hash = key * 0x9E3779B9;
+			var slot = (hash ^ (hash >>> 16)) & mask;
+			while (keys[slot] != 0 && keys[slot] != key)
+				slot = (slot + 1) & mask;
+			return slot;
+		}
 	}
 }
@@ -29,6 +29,7 @@ import jloda.util.interval.IntervalTree;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 import java.util.TreeSet;
 
 
@@ -146,14 +147,14 @@ public class BlastTab2SAMIterator extends SAMIteratorBase implements ISAMIterato
 					Match match = new Match();
 					match.bitScore = bitScore;
 					match.id = matchId++;
-					match.samLine = makeSAM(queryName, refName, bitScore, expect, identity, queryStart, queryEnd, subjStart, subjEnd, line);
+					match.record = makeRecord(queryName, refName, bitScore, expect, identity, queryStart, queryEnd, subjStart, subjEnd, line);
 					matchesIntervalTree.add(new Interval<>(queryStart, queryEnd, match));
 				} else {
 					if (matches.size() < getMaxNumberOfMatchesPerRead() || bitScore > matches.last().bitScore) {
 						Match match = new Match();
 						match.bitScore = bitScore;
 						match.id = matchId++;
-						match.samLine = makeSAM(queryName, refName, bitScore, expect, identity, queryStart, queryEnd, subjStart, subjEnd, line);
+						match.record = makeRecord(queryName, refName, bitScore, expect, identity, queryStart, queryEnd, subjStart, subjEnd, line);
 						matches.add(match);
 						if (matches.size() > getMaxNumberOfMatchesPerRead())
 							matches.remove(matches.last());
@@ -189,40 +190,27 @@ public class BlastTab2SAMIterator extends SAMIteratorBase implements ISAMIterato
 		return matchesTextAndLength.getSecond();
 	}
 
+	@Override
+	public void setUseMatchRecords(boolean use) {
+		getPostProcessMatches().setUseMatchRecords(use);
+	}
+
+	@Override
+	public List<MatchRecord> getMatchRecords() {
+		return getPostProcessMatches().getMatchRecords();
+	}
+
 	/**
-	 * make a SAM line
+	 * make a match record, its SAM line is only computed when needed
 	 */
-	private String makeSAM(String queryName, String refName, float bitScore, float expect, float percentIdentity, int queryStart, int queryEnd, int referenceStart, int referenceEnd, String line) {
-		final StringBuilder buffer = new StringBuilder();
-
-		buffer.append(queryName).append("\t");
-		boolean reverseComplemented = (referenceStart > referenceEnd);
-		if (reverseComplemented) {
-			buffer.append(0x10); // SEQ is reverse complemented
-		} else
-			buffer.append(0);
-		buffer.append("\t");
-		buffer.append(refName).append("\t");
-		if (reverseComplemented)
-			buffer.append(referenceEnd).append("\t");
-		else
-			buffer.append(referenceStart).append("\t");
-		buffer.append("255\t");
-
-		buffer.append("*\t");
-		buffer.append("*\t");
-		buffer.append("0\t");
-		buffer.append("0\t");
-		buffer.append("*\t");
-		buffer.append("*\t");
-
-		buffer.append(String.format("AS:i:%d\t", Math.round(bitScore)));
-		buffer.append(String.format("ZE:f:%g\t", expect));
-		buffer.append(String.format("ZI:i:%d\t", Math.round(percentIdentity)));
-		buffer.append(String.format("ZS:i:%s\t", queryStart));
-		buffer.append(String.format("ZQ:i:%s\t", queryEnd));
-		buffer.append(String.format("AL:Z:%s\t", StringUtils.replaceSpaces(line, ' ')));
-
-		return buffer.toString();
+	private MatchRecord makeRecord(String queryName, String refName, float bitScore, float expect, float percentIdentity, int queryStart, int queryEnd, int referenceStart, int referenceEnd, String line) {
+		final boolean reverseComplemented = (referenceStart > referenceEnd);
+		return new MatchRecord(queryName, reverseComplemented ? 0x10 : 0, refName, reverseComplemented ? referenceEnd : referenceStart, 255, "*", "*", 0, 0, "*", "*")
+				.add("AS", Math.round(bitScore))
+				.add("ZE", expect)
+				.add("ZI", Math.round(percentIdentity))
+				.add("ZS", queryStart)
+				.add("ZQ", queryEnd)
+				.add("AL", StringUtils.replaceSpaces(line, ' '));
 	}
 }
@@ -0,0 +1,126 @@
+/*
+ * GroupingCheckSAMIterator.java Copyright (C) 2024 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package megan.parsers.blast;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * iterator that passes the query name of each read to a grouping checker, so that the parser can report an alignment file whose alignments are not
+ * grouped by query, without an extra pass over the file. Delegates to the iterator for the file
+ * Daniel Huson, 10.2026
+ */
+public class GroupingCheckSAMIterator implements ISAMIterator {
+	private final ISAMIterator iterator;
+	private final String fileName;
+	private final QueryGrouper.GroupingChecker checker;
+	private boolean done;
+
+	/**
+	 * constructor
+	 *
+	 * @param iterator iterator over the file
+	 * @param fileName the file
+	 * @param checker  checker for the file
+	 */
+	public GroupingCheckSAMIterator(ISAMIterator iterator, String fileName, QueryGrouper.GroupingChecker checker) {
+		this.iterator = iterator;
+		this.fileName = fileName;
+		this.checker = checker;
+	}
+
+	@Override
+	public int next() {
+		final var count = iterator.next();
+		final var text = iterator.getMatchesText();
+		final var length = iterator.getMatchesTextLength();
+		var end = 0;
+		while (end < length && !Character.isWhitespace(text[end]))
+			end++;
+		if (end > 0)
+			checker.addKey(new String(text, 0, end));
+		return count;
+	}
+
+	@Override
+	public boolean hasNext() {
+		final var hasNext = iterator.hasNext();
+		if (!hasNext)
+			done = true;
+		return hasNext;
+	}
+
+	@Override
+	public byte[] getMatchesText() {
+		return iterator.getMatchesText();
+	}
+
+	@Override
+	public byte[] getQueryText() {
+		return iterator.getQueryText();
+	}
+
+	@Override
+	public int getMatchesTextLength() {
+		return iterator.getMatchesTextLength();
+	}
+
+	@Override
+	public long getMaximumProgress() {
+		return iterator.getMaximumProgress();
+	}
+
+	@Override
+	public long getProgress() {
+		return iterator.getProgress();
+	}
+
+	/**
+	 * closes the iterator and, if the whole file was read, reports whether the alignments were not grouped by query
+	 */
+	@Override
+	public void close() throws IOException {
+		iterator.close();
+		if (done && !checker.isGrouped()) {
+			System.err.println("Warning: alignments are not grouped by query, alignments of the same read were processed as separate reads: " + fileName);
+			System.err.println("To group them before parsing, set the program property GroupAlignmentsByQuery=true");
+		}
+	}
+
+	@Override
+	public void setParseLongReads(boolean longReads) {
+		iterator.setParseLongReads(longReads);
+	}
+
+	@Override
+	public boolean isParseLongReads() {
+		return iterator.isParseLongReads();
+	}
+
+	@Override
+	public void setUseMatchRecords(boolean use) {
+		iterator.setUseMatchRecords(use);
+	}
+
+	@Override
+	public List<MatchRecord> getMatchRecords() {
+		return iterator.getMatchRecords();
+	}
+}
@@ -20,6 +20,7 @@
 package megan.parsers.blast;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * iterator for SAM format
@@ -68,4 +69,20 @@ public interface ISAMIterator {
 	void setParseLongReads(boolean longReads);
 
 	boolean isParseLongReads();
+
+	/**
+	 * request that matches are reported as typed records. The matches text then only contains the query name.
+	 * Not supported by all iterators, so check getMatchRecords() after calling this
+	 */
+	default void setUseMatchRecords(boolean use) {
+	}
+
+	/**
+	 * gets the typed records of the current matches
+	 *
+	 * @return records or null, if not in use
+	 */
+	default List<MatchRecord> getMatchRecords() {
+		return null;
+	}
 }
@@ -20,6 +20,7 @@
 package megan.parsers.blast;
 
 import jloda.seq.BlastMode;
+import jloda.swing.util.ProgramProperties;
 import megan.daa.io.DAA2SAMIterator;
 
 import java.io.IOException;
@@ -35,6 +36,24 @@ public class IteratorManager {
 	 * @return iterator
 	 */
 	public static ISAMIterator getIterator(String blastFile, BlastFileFormat format, BlastMode blastMode, int maxMatchesPerRead, boolean longReads) throws IOException {
+		final var groupedFile = QueryGrouper.groupIfNecessary(blastFile, format); // parsers require all alignments of a query to be consecutive, only done when requested
+		if (groupedFile.equals(blastFile)) {
+			final var iterator = createIterator(blastFile, format, blastMode, maxMatchesPerRead, longReads);
+			iterator.setParseLongReads(longReads);
+			final var checker = (ProgramProperties.get("GroupAlignmentsByQuery", false) ? null : QueryGrouper.createGroupingChecker(blastFile, format));
+			return (checker != null ? new GroupingCheckSAMIterator(iterator, blastFile, checker) : iterator); // reports alignments not grouped by query
+		}
+		try {
+			final var iterator = createIterator(groupedFile, format, blastMode, maxMatchesPerRead, longReads);
+			iterator.setParseLongReads(longReads);
+			return new TemporaryFileSAMIterator(iterator, groupedFile); // deletes the grouped copy on close
+		} catch (IOException ex) {
+			TemporaryFileSAMIterator.delete(groupedFile);
+			throw ex;
+		}
+	}
+
+	private static ISAMIterator createIterator(String blastFile, BlastFileFormat format, BlastMode blastMode, int maxMatchesPerRead, boolean longReads) throws IOException {
 		final ISAMIterator iterator;
 		if (format == BlastFileFormat.SAM)
 			iterator = new SAM2SAMIterator(blastFile, maxMatchesPerRead, blastMode);
@@ -66,7 +85,6 @@ public class IteratorManager {
 			iterator = new Mothur2SAMIterator(blastFile, maxMatchesPerRead);
 		else
 			throw new IOException("Unsupported combination of file format: " + format + " and alignment mode: " + blastMode);
-		iterator.setParseLongReads(longReads);
 		return iterator;
 	}
 }
@@ -30,6 +30,7 @@ public class Match implements Comparator<Match> {
 	float bitScore;
 	int id;
 	String samLine;
+	MatchRecord record;
 
 	@Override
 	public int compare(Match a, Match b) {
@@ -56,11 +57,24 @@ public class Match implements Comparator<Match> {
 		this.id = id;
 	}
 
+	/**
+	 * gets the SAM line, computing it from the match record, if necessary
+	 */
 	public String getSamLine() {
+		if (samLine == null && record != null)
+			samLine = record.toSAMLine();
 		return samLine;
 	}
 
 	public void setSamLine(String samLine) {
 		this.samLine = samLine;
 	}
+
+	public MatchRecord getRecord() {
+		return record;
+	}
+
+	public void setRecord(MatchRecord record) {
+		this.record = record;
+	}
 }
@@ -0,0 +1,193 @@
+/*
+ * MatchRecord.java Copyright (C) 2024 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package megan.parsers.blast;
+
+import java.util.ArrayList;
+
+/**
+ * a typed alignment record, holding the fields of a SAM line. Parsers hand these to consumers that don't store
+ * the SAM text, so that matches needn't be formatted as text and then parsed again
+ * Daniel Huson, 10.2026
+ */
+public class MatchRecord {
+	private final String queryName;
+	private final int flag;
+	private final String refName;
+	private final int pos;
+	private final int mapQuality;
+	private final String cigar;
+	private final String rNext;
+	private final int pNext;
+	private final int tLength;
+	private final String sequence;
+	private final String quality;
+	private final ArrayList<String> tags = new ArrayList<>();
+	private final ArrayList<Object> values = new ArrayList<>();
+
+	/**
+	 * constructor
+	 */
+	public MatchRecord(String queryName, int flag, String refName, int pos, int mapQuality, String cigar, String rNext, int pNext, int tLength, String sequence, String quality) {
+		this.queryName = queryName;
+		this.flag = flag;
+		this.refName = refName;
+		this.pos = pos;
+		this.mapQuality = mapQuality;
+		this.cigar = cigar;
+		this.rNext = rNext;
+		this.pNext = pNext;
+		this.tLength = tLength;
+		this.sequence = sequence;
+		this.quality = quality;
+	}
+
+	/**
+	 * add an optional field
+	 *
+	 * @param value must be an Integer, Float, Character or String
+	 * @return this
+	 */
+	public MatchRecord add(String tag, Object value) {
+		tags.add(tag);
+		values.add(value);
+		return this;
+	}
+
+	public String getQueryName() {
+		return queryName;
+	}
+
+	public int getFlag() {
+		return flag;
+	}
+
+	public String getRefName() {
+		return refName;
+	}
+
+	public int getPos() {
+		return pos;
+	}
+
+	public int getMapQuality() {
+		return mapQuality;
+	}
+
+	public String getCigar() {
+		return cigar;
+	}
+
+	public String getRNext() {
+		return rNext;
+	}
+
+	public int getPNext() {
+		return pNext;
+	}
+
+	public int getTLength() {
+		return tLength;
+	}
+
+	public String getSequence() {
+		return sequence;
+	}
+
+	public String getQuality() {
+		return quality;
+	}
+
+	public int getNumberOfOptionalFields() {
+		return tags.size();
+	}
+
+	public String getTag(int i) {
+		return tags.get(i);
+	}
+
+	public Object getValue(int i) {
+		return values.get(i);
+	}
+
+	/**
+	 * get the value of an optional field
+	 *
+	 * @return value or null
+	 */
+	public Object getValue(String tag) {
+		final int i = tags.indexOf(tag);
+		return i != -1 ? values.get(i) : null;
+	}
+
+	/**
+	 * get the value of an optional numerical field
+	 *
+	 * @return value or 0
+	 */
+	public float getNumber(String tag) {
+		return getValue(tag) instanceof Number number ? number.floatValue() : 0;
+	}
+
+	/**
+	 * get as a line of SAM text, formatted in the same way as the SAM lines made by the parsers. Every field, including the last one, is followed by a tab
+	 *
+	 * @return SAM line
+	 */
+	public String toSAMLine() {
+		final StringBuilder buffer = new StringBuilder();
+		buffer.append(queryName).append("\t");
+		buffer.append(flag).append("\t");
+		buffer.append(refName).append("\t");
+		buffer.append(pos).append("\t");
+		buffer.append(mapQuality).append("\t");
+		buffer.append(cigar).append("\t");
+		buffer.append(rNext).append("\t");
+		buffer.append(pNext).append("\t");
+		buffer.append(tLength).append("\t");
+		buffer.append(sequence).append("\t");
+		buffer.append(quality).append("\t");
+
+		for (int i = 0; i < tags.size(); i++) {
+			final Object value = values.get(i);
+			buffer.append(tags.get(i)).append(":").append(getType(value)).append(":");
+			if (value instanceof Float)
+				buffer.append(String.format("%g", value));
+			else
+				buffer.append(value);
+			buffer.append("\t");
+		}
+		return buffer.toString();
+	}
+
+	/**
+	 * gets the SAM type code for a value
+	 */
+	private static char getType(Object value) {
+		if (value instanceof Integer)
+			return 'i';
+		else if (value instanceof Float)
+			return 'f';
+		else if (value instanceof Character)
+			return 'A';
+		else
+			return 'Z';
+	}
+}
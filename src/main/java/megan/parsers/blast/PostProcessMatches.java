@@ -25,7 +25,10 @@ import jloda.util.Basic;
 import jloda.util.Pair;
 import jloda.util.interval.Interval;
 import jloda.util.interval.IntervalTree;
+import megan.algorithms.IntervalDomination;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Set;
 
@@ -42,6 +45,8 @@ public class PostProcessMatches {
 
 	private boolean parseLongReads = false;
 
+	private ArrayList<MatchRecord> matchRecords = null;
+
 	/**
 	 * constructor
 	 */
@@ -59,7 +64,7 @@ public class PostProcessMatches {
 			byte[] matchesText = matchesTextAndLength.getFirst();
 			int matchesTextLength = 0;
 			for (Match match : listOfMatches) {
-				byte[] bytes = match.samLine.getBytes();
+				byte[] bytes = match.getSamLine().getBytes();
 				if (matchesTextLength + bytes.length + 1 >= matchesText.length) {
 					byte[] tmp = new byte[2 * (matchesTextLength + bytes.length + 1)];
 					System.arraycopy(matchesText, 0, tmp, 0, matchesTextLength);
@@ -76,22 +81,42 @@ public class PostProcessMatches {
 
 		if (parseLongReads && matchesIntervalTree != null) {
 			matches.clear();
-			for (Interval<Match> interval : matchesIntervalTree) {
-				final Match match = interval.getData();
-				boolean covered = false;
-				for (Interval<Match> other : matchesIntervalTree.getIntervals(interval)) {
-					final Match otherMatch = other.getData();
-
-					if (other.overlap(interval) > minProportionCoverToStronglyDominate * interval.length() && topProportionScoreToStronglyDominate * otherMatch.bitScore > match.bitScore) {
-						covered = true;
-						break;
-					}
-				}
-				if (!covered)
-					matches.add(interval.getData());
+			final ArrayList<Interval<Match>> intervals = new ArrayList<>(matchesIntervalTree.size());
+			for (Interval<Match> interval : matchesIntervalTree)
+				intervals.add(interval);
+			final int n = intervals.size();
+			final int[] low = new int[n];
+			final int[] high = new int[n];
+			final float[] score = new float[n];
+			for (int i = 0; i < n; i++) {
+				low[i] = Math.min(intervals.get(i).getStart(), intervals.get(i).getEnd());
+				high[i] = Math.max(intervals.get(i).getStart(), intervals.get(i).getEnd());
+				score[i] = intervals.get(i).getData().bitScore;
+			}
+			// only compares matches that lie in the same part of the read, starting with the best scoring ones:
+			final BitSet covered = IntervalDomination.computeDominated(low, high, score, topProportionScoreToStronglyDominate,
+					(i, j) -> intervals.get(i).overlap(intervals.get(j)) > minProportionCoverToStronglyDominate * intervals.get(j).length() && topProportionScoreToStronglyDominate * score[i] > score[j]);
+			for (int i = 0; i < n; i++) {
+				if (!covered.get(i))
+					matches.add(intervals.get(i).getData());
 			}
 		}
 
+		if (matchRecords != null) { // matches are reported as typed records, the text only contains the query name
+			matchRecords.clear();
+			for (Match match : matches)
+				matchRecords.add(match.getRecord());
+			byte[] matchesText = matchesTextAndLength.getFirst();
+			if (queryName.length() + 1 > matchesText.length)
+				matchesText = new byte[2 * (queryName.length() + 1)];
+			int matchesTextLength = 0;
+			for (int i = 0; i < queryName.length(); i++)
+				matchesText[matchesTextLength++] = (byte) queryName.charAt(i);
+			matchesText[matchesTextLength++] = '\n';
+			matchesTextAndLength.set(matchesText, matchesTextLength);
+			return matches.size();
+		}
+
 		byte[] matchesText = matchesTextAndLength.getFirst();
 		int matchesTextLength = 0;
 
@@ -108,7 +133,7 @@ public class PostProcessMatches {
 			return 0;
 		} else { // short reads
 			for (Match match : matches) {
-				final byte[] bytes = match.samLine.getBytes();
+				final byte[] bytes = match.getSamLine().getBytes();
 				final long newLength = matchesTextLength + bytes.length + 1L;
 				if (newLength >= matchesText.length) {
 					if (newLength > Basic.MAX_ARRAY_SIZE)
@@ -127,6 +152,22 @@ public class PostProcessMatches {
 		}
 	}
 
+	/**
+	 * report matches as typed records, rather than as SAM text. Only use this, if the parser sets the record of each match
+	 */
+	public void setUseMatchRecords(boolean use) {
+		matchRecords = (use ? new ArrayList<>() : null);
+	}
+
+	/**
+	 * typed records of the matches reported by the last call of apply
+	 *
+	 * @return records or null, if not in use
+	 */
+	public List<MatchRecord> getMatchRecords() {
+		return matchRecords;
+	}
+
 	public float getMinProportionCoverToStronglyDominate() {
 		return minProportionCoverToStronglyDominate;
 	}
@@ -0,0 +1,568 @@
+/*
+ * QueryGrouper.java Copyright (C) 2024 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package megan.parsers.blast;
+
+import jloda.swing.util.ProgramProperties;
+import jloda.util.FileLineIterator;
+import jloda.util.FileUtils;
+import jloda.util.ProgramExecutorService;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * groups the alignments of a line-based alignment file by query, so that all alignments for a given query appear consecutively,
+ * as the parsers require. This is necessary, for example, when the output of a number of jobs is concatenated.
+ * Also used for CSV files of read hits, in which the first column contains the read name.
+ * Queries keep the order of their first appearance, as the reads file is searched forward only, and lines with the same query keep their
+ * original order. Each line is tagged with its line number and sorted by query. The tag of each line is then replaced by the tag of the first
+ * line of its query, and the lines are sorted by tag. Both sorts write sorted runs to temporary files in parallel, using a bounded amount of memory,
+ * and then merge them
+ * Daniel Huson, 10.2026
+ */
+public class QueryGrouper {
+	private static final int MAX_FAN_IN = 128;
+	private static final int BLOOM_FILTER_HASHES = 7;
+	private static final int TAG_LENGTH = 17; // 16 hex digits and a tab
+
+	private final BlastFileFormat format;
+	private final char separator; // for CSV files, 0 otherwise
+
+	private QueryGrouper(BlastFileFormat format, char separator) {
+		this.format = format;
+		this.separator = separator;
+	}
+
+	/**
+	 * if requested, and the given file is a BLAST tab or SAM file whose alignments are not grouped by query, writes a grouped copy to a temporary file.
+	 * This requires an extra pass over the file and is only done when the program property GroupAlignmentsByQuery is set
+	 *
+	 * @return the given file, or the grouped copy, which the caller must delete
+	 */
+	public static String groupIfNecessary(String fileName, BlastFileFormat format) throws IOException {
+		if (!isGroupable(format) || !ProgramProperties.get("GroupAlignmentsByQuery", false))
+			return fileName;
+		final var grouper = new QueryGrouper(format, (char) 0);
+		final var checker = new GroupingChecker(fileName, grouper);
+		try (var it = new FileLineIterator(fileName)) {
+			while (it.hasNext())
+				checker.add(it.next());
+		}
+		return (checker.isGrouped() ? fileName : group(fileName, grouper));
+	}
+
+	/**
+	 * creates a checker for a BLAST tab or SAM file that the parser is reading without grouping. The caller passes the query name of each read to the
+	 * checker, so that no separate pass is needed when the file is grouped
+	 *
+	 * @return checker, or null, if the format is not line-based
+	 */
+	public static GroupingChecker createGroupingChecker(String fileName, BlastFileFormat format) {
+		return (isGroupable(format) ? new GroupingChecker(fileName, new QueryGrouper(format, (char) 0)) : null);
+	}
+
+	/**
+	 * creates a checker for a CSV file, whose first column contains the read name. The caller passes all lines to the checker while
+	 * reading the file, so that no separate pass is needed when the file is grouped
+	 *
+	 * @return checker
+	 */
+	public static GroupingChecker createGroupingChecker(String fileName, char separator) {
+		return new GroupingChecker(fileName, new QueryGrouper(null, separator));
+	}
+
+	/**
+	 * writes a copy of a CSV file, whose first column contains the read name, in which all lines for a read are consecutive
+	 *
+	 * @return the grouped copy, which the caller must delete
+	 */
+	public static String group(String fileName, char separator) throws IOException {
+		return group(fileName, new QueryGrouper(null, separator));
+	}
+
+	private static boolean isGroupable(BlastFileFormat format) {
+		return format == BlastFileFormat.BlastTab || format == BlastFileFormat.SAM;
+	}
+
+	private static String group(String fileName, QueryGrouper grouper) throws IOException {
+		System.err.println("Alignments are not grouped by query, grouping: " + fileName);
+		final var file = grouper.group(fileName, getMemoryBudget(), ProgramExecutorService.getNumberOfCoresToUse());
+		System.err.println("Grouped alignments: " + file);
+		return file.getPath();
+	}
+
+	private static long getMemoryBudget() {
+		return 1024L * 1024L * ProgramProperties.get("QueryGroupingMemoryMB", 512);
+	}
+
+	/**
+	 * writes a copy of the file in which the alignments are grouped by query. Header and comment lines are written first
+	 *
+	 * @return temporary file
+	 */
+	private File group(String fileName, long memoryBudget, int numberOfThreads) throws IOException {
+		final var service = Executors.newFixedThreadPool(numberOfThreads);
+		final var maxChunkBytes = Math.max(1024 * 1024, memoryBudget / (numberOfThreads + 1));
+		final var byQuery = new RunWriter(service, numberOfThreads, maxChunkBytes, (a, b) -> compareQueries(a, b, TAG_LENGTH));
+		final var byFirstLine = new RunWriter(service, numberOfThreads, maxChunkBytes, QueryGrouper::compareTags);
+		try {
+			final var headerLines = new ArrayList<String>();
+
+			// tag lines with their line number and sort them by query:
+			try (var it = new FileLineIterator(fileName)) {
+				var lineNumber = 0L;
+				while (it.hasNext()) {
+					final var line = it.next();
+					if (isHeaderOrComment(line))
+						headerLines.add(line);
+					else if (getQueryKey(line) != null)
+						byQuery.add(tag(lineNumber++, line));
+				}
+			}
+			byQuery.finish();
+			reduce(byQuery.runs, byQuery.comparator, service);
+
+			// tag lines with the line number of the first line of their query and sort them by that:
+			final var groupTag = new String[1];
+			final var previous = new String[1];
+			merge(byQuery.runs, byQuery.comparator, line -> {
+				if (previous[0] == null || compareQueries(previous[0], line, TAG_LENGTH) != 0)
+					groupTag[0] = line.substring(0, TAG_LENGTH);
+				previous[0] = line;
+				byFirstLine.add(groupTag[0] + line.substring(TAG_LENGTH));
+			});
+			deleteAll(byQuery.runs);
+			byFirstLine.finish();
+			reduce(byFirstLine.runs, byFirstLine.comparator, service);
+
+			final var file = createTempFile(format == BlastFileFormat.SAM ? ".sam" : (format == BlastFileFormat.BlastTab ? ".tab" : ".csv"));
+			try (var w = new BufferedWriter(new FileWriter(file), 1 << 20)) {
+				for (var line : headerLines) {
+					w.write(line);
+					w.write('\n');
+				}
+				merge(byFirstLine.runs, byFirstLine.comparator, line -> {
+					w.write(line, TAG_LENGTH, line.length() - TAG_LENGTH);
+					w.write('\n');
+				});
+			} catch (IOException ex) {
+				if (!file.delete())
+					System.err.println("Failed to delete temporary file: " + file);
+				throw ex;
+			}
+			return file;
+		} finally {
+			service.shutdownNow();
+			deleteAll(byQuery.runs);
+			deleteAll(byFirstLine.runs);
+		}
+	}
+
+	/**
+	 * merges runs, in parallel, until few enough remain for a final merge
+	 */
+	private static void reduce(List<File> runs, Comparator<String> comparator, ExecutorService service) throws IOException {
+		while (runs.size() > MAX_FAN_IN) {
+			final var merges = new ArrayList<Future<File>>();
+			for (var start = 0; start < runs.size(); start += MAX_FAN_IN) {
+				final var group = new ArrayList<>(runs.subList(start, Math.min(runs.size(), start + MAX_FAN_IN)));
+				merges.add(service.submit(() -> {
+					final var file = createTempFile();
+					try (var w = new BufferedWriter(new FileWriter(file), 1 << 20)) {
+						merge(group, comparator, line -> {
+							w.write(line);
+							w.write('\n');
+						});
+					}
+					return file;
+				}));
+			}
+			final var merged = new ArrayList<File>();
+			try {
+				for (var future : merges)
+					merged.add(getResult(future));
+			} finally {
+				deleteAll(runs);
+				runs.addAll(merged);
+			}
+		}
+	}
+
+	/**
+	 * k-way merge of sorted runs. Of equal lines, those in earlier runs come first
+	 */
+	private static void merge(List<File> runs, Comparator<String> comparator, LineConsumer consumer) throws IOException {
+		final var readers = new ArrayList<BufferedReader>(runs.size());
+		try {
+			final var queue = new PriorityQueue<RunHead>((a, b) -> {
+				final var compare = comparator.compare(a.line, b.line);
+				return (compare != 0 ? compare : Integer.compare(a.run, b.run));
+			});
+			for (var run : runs) {
+				final var reader = new BufferedReader(new FileReader(run), 1 << 20);
+				readers.add(reader);
+				final var line = reader.readLine();
+				if (line != null)
+					queue.add(new RunHead(line, readers.size() - 1));
+			}
+			while (queue.size() > 0) {
+				final var head = queue.poll();
+				consumer.accept(head.line);
+				head.line = readers.get(head.run).readLine();
+				if (head.line != null)
+					queue.add(head);
+			}
+		} finally {
+			for (var reader : readers)
+				reader.close();
+		}
+	}
+
+	/**
+	 * prefixes a line with a tag of fixed length, so that tags compare as numbers
+	 */
+	private static String tag(long number, String line) {
+		final var hex = Long.toHexString(number);
+		return "0".repeat(16 - hex.length()) + hex + "\t" + line;
+	}
+
+	private static int compareTags(String a, String b) {
+		for (var i = 0; i < TAG_LENGTH - 1; i++) {
+			if (a.charAt(i) != b.charAt(i))
+				return Character.compare(a.charAt(i), b.charAt(i));
+		}
+		return 0;
+	}
+
+	private static File getResult(Future<File> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException | ExecutionException ex) {
+			throw new IOException(ex.getCause() != null ? ex.getCause() : ex);
+		}
+	}
+
+	private boolean isHeaderOrComment(String line) {
+		if (format == BlastFileFormat.SAM)
+			return line.startsWith("@");
+		final var start = (separator != 0 ? skipSpaces(line, 0) : 0); // the CSV importer trims lines
+		return line.startsWith("#", start);
+	}
+
+	/**
+	 * gets the name of the query of an alignment line, as determined by the parser
+	 *
+	 * @return query name or null, if line is not an alignment line
+	 */
+	private String getQueryKey(String line) {
+		if (isHeaderOrComment(line))
+			return null;
+		if (separator != 0) {
+			final var end = line.indexOf(separator);
+			final var key = (end == -1 ? line : line.substring(0, end)).trim();
+			return (key.length() > 0 ? key : null);
+		}
+		final var start = getQueryStart(line, 0);
+		var end = start;
+		while (end < line.length() && !Character.isWhitespace(line.charAt(end)))
+			end++;
+		return (end > start ? line.substring(start, end) : null);
+	}
+
+	private int getQueryStart(String line, int offset) {
+		return (format == BlastFileFormat.BlastTab && line.length() > offset && (line.charAt(offset) == '@' || line.charAt(offset) == '>') ? offset + 1 : offset);
+	}
+
+	/**
+	 * compares the query names of two alignment lines that start at the given offset, without creating any strings
+	 */
+	private int compareQueries(String a, String b, int offset) {
+		if (separator != 0)
+			return compareFirstColumns(a, b, offset);
+		var i = getQueryStart(a, offset);
+		var j = getQueryStart(b, offset);
+		while (true) {
+			final var endA = (i == a.length() || Character.isWhitespace(a.charAt(i)));
+			final var endB = (j == b.length() || Character.isWhitespace(b.charAt(j)));
+			if (endA || endB)
+				return (endA && endB ? 0 : (endA ? -1 : 1));
+			if (a.charAt(i) != b.charAt(j))
+				return Character.compare(a.charAt(i), b.charAt(j));
+			i++;
+			j++;
+		}
+	}
+
+	/**
+	 * compares the trimmed first columns of two CSV lines that start at the given offset, in the same way as the strings returned by getQueryKey
+	 */
+	private int compareFirstColumns(String a, String b, int offset) {
+		final var startA = skipSpaces(a, offset);
+		final var startB = skipSpaces(b, offset);
+		final var lengthA = getColumnEnd(a, startA) - startA;
+		final var lengthB = getColumnEnd(b, startB) - startB;
+		for (var k = 0; k < Math.min(lengthA, lengthB); k++) {
+			if (a.charAt(startA + k) != b.charAt(startB + k))
+				return Character.compare(a.charAt(startA + k), b.charAt(startB + k));
+		}
+		return Integer.compare(lengthA, lengthB);
+	}
+
+	/**
+	 * gets the end of the column that starts at the given position, excluding trailing spaces, as removed by String.trim()
+	 */
+	private int getColumnEnd(String line, int start) {
+		var end = line.indexOf(separator, start);
+		if (end == -1)
+			end = line.length();
+		while (end > start && line.charAt(end - 1) <= ' ')
+			end--;
+		return end;
+	}
+
+	/**
+	 * skips spaces, as removed by String.trim()
+	 */
+	private static int skipSpaces(String line, int pos) {
+		while (pos < line.length() && line.charAt(pos) <= ' ')
+			pos++;
+		return pos;
+	}
+
+	private static File createTempFile() throws IOException {
+		return createTempFile(".tmp");
+	}
+
+	/**
+	 * creates a temporary file in the directory given by the program property TempDirectory, or else in the default temporary-file directory
+	 */
+	private static File createTempFile(String suffix) throws IOException {
+		final var directory = ProgramProperties.get("TempDirectory", "");
+		final var file = File.createTempFile("megan-alignments-", suffix, directory.isBlank() ? null : new File(directory));
+		file.deleteOnExit();
+		return file;
+	}
+
+	private static void deleteAll(List<File> files) {
+		for (var file : files) {
+			if (!file.delete())
+				System.err.println("Failed to delete temporary file: " + file);
+		}
+		files.clear();
+	}
+
+	/**
+	 * determines whether all lines of each query appear consecutively. The first line of each query is recorded in a Bloom filter, sized from the
+	 * length of the file, and queries that the filter reports as seen before are verified exactly, in a further pass. If there are more such
+	 * queries than fit into the memory budget, they are verified in rounds
+	 */
+	public static class GroupingChecker {
+		private final String fileName;
+		private final QueryGrouper grouper;
+		private final long[] bloomFilter;
+		private final long bloomFilterMask;
+		private final int maxSuspects;
+		private final HashMap<String, Integer> suspects = new HashMap<>(); // number of times that the query starts a new group
+
+		private long numberOfSuspects;
+		private long firstSuspect; // only suspects from this one on are recorded in the current round
+		private String previous;
+
+		private GroupingChecker(String fileName, QueryGrouper grouper) {
+			this.fileName = fileName;
+			this.grouper = grouper;
+			final var memoryBudget = getMemoryBudget();
+			// about one bit per byte of input, using at most half of the memory budget:
+			final var inputBytes = (FileUtils.isZIPorGZIPFile(fileName) ? 8 : 1) * (new File(fileName)).length();
+			final var bits = Long.highestOneBit(Math.max(1L << 16, Math.min(inputBytes, 4 * memoryBudget)));
+			bloomFilter = new long[(int) (bits >>> 6)];
+			bloomFilterMask = bits - 1;
+			maxSuspects = (int) Math.max(1024, Math.min(Integer.MAX_VALUE, memoryBudget / 256));
+		}
+
+		/**
+		 * add the next line of the file
+		 */
+		public void add(String line) {
+			addKey(grouper.getQueryKey(line));
+		}
+
+		/**
+		 * add the query name of the next read, when the lines of the file are not available
+		 */
+		public void addKey(String key) {
+			if (key != null && !key.equals(previous)) {
+				if (!addToBloomFilter(key)) {
+					if (numberOfSuspects >= firstSuspect && numberOfSuspects < firstSuspect + maxSuspects)
+						suspects.put(key, 0);
+					numberOfSuspects++;
+				}
+				previous = key;
+			}
+		}
+
+		/**
+		 * determines whether the file is grouped by query, after all lines have been added
+		 */
+		public boolean isGrouped() throws IOException {
+			while (true) {
+				if (!verifySuspects())
+					return false;
+				if (numberOfSuspects <= firstSuspect + maxSuspects)
+					return true;
+				// record the next round of suspects:
+				Arrays.fill(bloomFilter, 0);
+				suspects.clear();
+				firstSuspect += maxSuspects;
+				numberOfSuspects = 0;
+				previous = null;
+				try (var it = new FileLineIterator(fileName)) {
+					while (it.hasNext())
+						add(it.next());
+				}
+			}
+		}
+
+		/**
+		 * determines whether any of the suspects starts more than one group of lines
+		 */
+		private boolean verifySuspects() throws IOException {
+			if (suspects.size() == 0)
+				return true;
+			String previousKey = null;
+			try (var it = new FileLineIterator(fileName)) {
+				while (it.hasNext()) {
+					final var key = grouper.getQueryKey(it.next());
+					if (key != null && !key.equals(previousKey)) {
+						final var count = suspects.get(key);
+						if (count != null) {
+							if (count > 0)
+								return false;
+							suspects.put(key, 1);
+						}
+						previousKey = key;
+					}
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * adds a key to the Bloom filter
+		 *
+		 * @return true, if the key was definitely not contained before
+		 */
+		private boolean addToBloomFilter(String key) {
+			var hash = 0xcbf29ce484222325L; // 64-bit FNV-1a
+			for (var i = 0; i < key.length(); i++) {
+				hash ^= key.charAt(i);
+				hash *= 0x100000001b3L;
+			}
+			final var h2 = Long.rotateLeft(hash, 32) | 1;
+			var added = false;
+			for (var i = 0; i < BLOOM_FILTER_HASHES; i++) {
+				final var bit = (hash + i * h2) & bloomFilterMask;
+				final var mask = 1L << (bit & 63);
+				if ((bloomFilter[(int) (bit >>> 6)] & mask) == 0) {
+					bloomFilter[(int) (bit >>> 6)] |= mask;
+					added = true;
+				}
+			}
+			return added;
+		}
+	}
+
+	/**
+	 * collects lines in chunks and writes each chunk, sorted, to a run file, in parallel. The sort is stable
+	 */
+	private static class RunWriter {
+		private final ExecutorService service;
+		private final int numberOfThreads;
+		private final long maxChunkBytes;
+		private final Comparator<String> comparator;
+		private final ArrayList<File> runs = new ArrayList<>();
+		private final ArrayDeque<Future<File>> pending = new ArrayDeque<>();
+
+		private ArrayList<String> chunk = new ArrayList<>();
+		private long chunkBytes;
+
+		RunWriter(ExecutorService service, int numberOfThreads, long maxChunkBytes, Comparator<String> comparator) {
+			this.service = service;
+			this.numberOfThreads = numberOfThreads;
+			this.maxChunkBytes = maxChunkBytes;
+			this.comparator = comparator;
+		}
+
+		void add(String line) throws IOException {
+			chunk.add(line);
+			chunkBytes += 2L * line.length() + 48;
+			if (chunkBytes >= maxChunkBytes)
+				submitChunk();
+		}
+
+		/**
+		 * writes the remaining lines. Afterward, runs contains the run files, in order
+		 */
+		void finish() throws IOException {
+			if (chunk.size() > 0)
+				submitChunk();
+			while (pending.size() > 0)
+				runs.add(getResult(pending.poll()));
+		}
+
+		private void submitChunk() throws IOException {
+			if (pending.size() == numberOfThreads)
+				runs.add(getResult(pending.poll()));
+			final var lines = chunk;
+			pending.add(service.submit(() -> {
+				lines.sort(comparator);
+				final var file = createTempFile();
+				try (var w = new BufferedWriter(new FileWriter(file), 1 << 20)) {
+					for (var line : lines) {
+						w.write(line);
+						w.write('\n');
+					}
+				}
+				return file;
+			}));
+			chunk = new ArrayList<>();
+			chunkBytes = 0;
+		}
+	}
+
+	private interface LineConsumer {
+		void accept(String line) throws IOException;
+	}
+
+	private static class RunHead {
+		private String line;
+		private final int run;
+
+		RunHead(String line, int run) {
+			this.line = line;
+			this.run = run;
+		}
+	}
+}
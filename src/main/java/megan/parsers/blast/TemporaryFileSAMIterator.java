@@ -0,0 +1,118 @@
+/*
+ * TemporaryFileSAMIterator.java Copyright (C) 2024 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package megan.parsers.blast;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * iterator over a temporary file, such as a copy of an alignment file grouped by query. Delegates to the iterator for the file,
+ * and deletes the file on close
+ * Daniel Huson, 10.2026
+ */
+public class TemporaryFileSAMIterator implements ISAMIterator {
+	private final ISAMIterator iterator;
+	private final String fileName;
+
+	/**
+	 * constructor
+	 *
+	 * @param iterator iterator over the temporary file
+	 * @param fileName the temporary file
+	 */
+	public TemporaryFileSAMIterator(ISAMIterator iterator, String fileName) {
+		this.iterator = iterator;
+		this.fileName = fileName;
+	}
+
+	@Override
+	public int next() {
+		return iterator.next();
+	}
+
+	@Override
+	public boolean hasNext() {
+		return iterator.hasNext();
+	}
+
+	@Override
+	public byte[] getMatchesText() {
+		return iterator.getMatchesText();
+	}
+
+	@Override
+	public byte[] getQueryText() {
+		return iterator.getQueryText();
+	}
+
+	@Override
+	public int getMatchesTextLength() {
+		return iterator.getMatchesTextLength();
+	}
+
+	@Override
+	public long getMaximumProgress() {
+		return iterator.getMaximumProgress();
+	}
+
+	@Override
+	public long getProgress() {
+		return iterator.getProgress();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			iterator.close();
+		} finally {
+			delete(fileName);
+		}
+	}
+
+	@Override
+	public void setParseLongReads(boolean longReads) {
+		iterator.setParseLongReads(longReads);
+	}
+
+	@Override
+	public boolean isParseLongReads() {
+		return iterator.isParseLongReads();
+	}
+
+	@Override
+	public void setUseMatchRecords(boolean use) {
+		iterator.setUseMatchRecords(use);
+	}
+
+	@Override
+	public List<MatchRecord> getMatchRecords() {
+		return iterator.getMatchRecords();
+	}
+
+	/**
+	 * deletes a temporary file
+	 */
+	public static void delete(String fileName) {
+		final var file = new File(fileName);
+		if (file.exists() && !file.delete())
+			System.err.println("Failed to delete temporary file: " + fileName);
+	}
+}
@@ -24,6 +24,7 @@ import jloda.seq.SequenceUtils;
 import jloda.util.NumberUtils;
 import jloda.util.Single;
 import jloda.util.StringUtils;
+import megan.parsers.blast.MatchRecord;
 import megan.util.BlosumMatrix;
 
 import java.io.IOException;
@@ -212,6 +213,34 @@ public class SAMMatch implements megan.rma3.IMatch {
 			optionalFields.put(three[0], object);
 		}
 
+		completeParse();
+	}
+
+	/**
+	 * set from a typed match record, equivalent to parsing the SAM line of the record, except that float values are not rounded
+	 */
+	public void set(MatchRecord record) {
+		setQueryName(record.getQueryName());
+		setFlag(record.getFlag());
+		setRefName(record.getRefName());
+		setPos(record.getPos());
+		setMapQuality(record.getMapQuality());
+		setCigarString(record.getCigar());
+		setRNext(record.getRNext());
+		setPNext(record.getPNext());
+		setTLength(Math.abs(record.getTLength()));
+		setSequence(record.getSequence().toUpperCase());
+		setQuality(record.getQuality());
+		for (int i = 0; i < record.getNumberOfOptionalFields(); i++) {
+			optionalFields.put(record.getTag(i), record.getValue(i));
+		}
+		completeParse();
+	}
+
+	/**
+	 * apply paired read suffixes and determine the aligned query coordinates
+	 */
+	private void completeParse() {
 		Flag theFlag = new Flag(flag);
 		if (pairedReadSuffix1 != null && !theFlag.isFirstFragment() && !getQueryName().endsWith(pairedReadSuffix1))
 			setQueryName(getQueryName() + pairedReadSuffix1);
@@ -327,6 +356,20 @@ public class SAMMatch implements megan.rma3.IMatch {
 		return getBlastAlignmentText(null);
 	}
 
+	/**
+	 * gets the first word of the blast alignment text, without computing the alignment
+	 *
+	 * @return first word, or null, if it can only be determined from the text
+	 */
+	public String getBlastAlignmentTextFirstWord() {
+		if (refName == null || refName.length() == 0)
+			return null;
+		return switch (mode) {
+			case BlastX, BlastP, BlastN -> StringUtils.getFirstWord(">" + StringUtils.fold(refName, ALIGNMENT_FOLD));
+			default -> null;
+		};
+	}
+
 	/**
 	 * gets match as blast alignment text
 	 *
@@ -0,0 +1,291 @@
+/*
+ * AsyncQueryWriter.java Copyright (C) 2024 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package megan.rma6;
+
+import jloda.util.Single;
+import megan.io.Compressor;
+import megan.io.OutputWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+/**
+ * writes the reads section of an RMA6 file in the background. Queries are collected into blocks, each block is serialized
+ * and compressed by a pool of threads, and a single writer thread appends the blocks in the order in which they were added.
+ * Thus, every query ends up at the same location as it would if the queries were written one by one
+ * Daniel Huson, 10.2026
+ */
+class AsyncQueryWriter {
+	private static final int MAX_QUERIES_PER_BLOCK = 256;
+	private static final int MAX_BYTES_PER_BLOCK = 1 << 20;
+	private static final Future<EncodedBlock> END_MARKER = CompletableFuture.completedFuture(null);
+
+	private final OutputWriter writer;
+	private final boolean isPairedReads;
+	private final RMA6FileCreator.MateLocations mateLocations;
+	private final ReadOffsetIndexRMA6.Builder readOffsetIndexBuilder;
+
+	private final ExecutorService compressionService;
+	private final ThreadLocal<Compressor> compressors;
+	private final BlockingQueue<Future<EncodedBlock>> queue;
+	private final Thread writerThread;
+	private final Single<Exception> exception = new Single<>();
+
+	private Block block;
+
+	/**
+	 * constructor, starts the writer thread
+	 *
+	 * @param writer           the output, positioned at the start of the reads section
+	 * @param firstQueryNumber number of the first query that will be added
+	 * @param numberOfThreads  number of compression threads
+	 * @param compressionLevel deflate level
+	 */
+	AsyncQueryWriter(OutputWriter writer, boolean isPairedReads, RMA6FileCreator.MateLocations mateLocations, ReadOffsetIndexRMA6.Builder readOffsetIndexBuilder, long firstQueryNumber, int numberOfThreads, int compressionLevel) {
+		this.writer = writer;
+		this.isPairedReads = isPairedReads;
+		this.mateLocations = mateLocations;
+		this.readOffsetIndexBuilder = readOffsetIndexBuilder;
+		this.block = new Block(firstQueryNumber);
+
+		compressionService = Executors.newFixedThreadPool(numberOfThreads, runnable -> {
+			final var thread = new Thread(runnable, "RMA6Compression");
+			thread.setDaemon(true);
+			return thread;
+		});
+		compressors = ThreadLocal.withInitial(() -> new Compressor(1024, compressionLevel));
+		queue = new ArrayBlockingQueue<>(2 * numberOfThreads + 2);
+
+		writerThread = new Thread(this::writeBlocks, "RMA6Writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * add a query. The arrays are copied, so the caller can reuse them
+	 *
+	 * @param mate for paired reads, number of the previously added mate, -1, if the mate will be added later, or MateLocations.NO_MATE
+	 */
+	void add(byte[] queryText, int queryTextLength, int numberOfMatches, byte[] matchesText, int matchesTextLength, int[][] match2Classification2Id, int numberOfClassificationNames, long mate) throws IOException {
+		checkException();
+		final var classIds = new int[numberOfMatches * numberOfClassificationNames];
+		for (var i = 0; i < numberOfMatches; i++)
+			System.arraycopy(match2Classification2Id[i], 0, classIds, i * numberOfClassificationNames, numberOfClassificationNames);
+		block.add(queryText != null ? Arrays.copyOf(queryText, queryTextLength) : null, numberOfMatches, classIds,
+				matchesText != null ? Arrays.copyOf(matchesText, matchesTextLength) : null, mate);
+		if (block.size() == MAX_QUERIES_PER_BLOCK || block.numberOfBytes >= MAX_BYTES_PER_BLOCK)
+			submitBlock();
+	}
+
+	/**
+	 * write all remaining queries and wait for the writer thread to finish
+	 */
+	void finish() throws IOException {
+		try {
+			if (block.size() > 0)
+				submitBlock();
+			queue.put(END_MARKER);
+			writerThread.join();
+		} catch (InterruptedException ex) {
+			abort();
+			throw new IOException(ex);
+		} finally {
+			compressionService.shutdown();
+		}
+		checkException();
+	}
+
+	/**
+	 * stop all threads, without writing any remaining queries
+	 */
+	void abort() {
+		compressionService.shutdownNow();
+		writerThread.interrupt();
+	}
+
+	private void submitBlock() throws IOException {
+		final var toEncode = block;
+		block = new Block(toEncode.firstQueryNumber + toEncode.size());
+		try {
+			queue.put(compressionService.submit(() -> toEncode.encode(compressors.get())));
+		} catch (InterruptedException | RejectedExecutionException ex) {
+			throw new IOException(ex);
+		}
+	}
+
+	private void checkException() throws IOException {
+		final var ex = exception.get();
+		if (ex instanceof IOException ioException)
+			throw ioException;
+		else if (ex != null)
+			throw new IOException(ex);
+	}
+
+	/**
+	 * runs in the writer thread. After an error, blocks are still taken from the queue, so that producers don't block
+	 */
+	private void writeBlocks() {
+		try {
+			while (true) {
+				final var future = queue.take();
+				if (future == END_MARKER)
+					break;
+				try {
+					final var encoded = future.get();
+					if (exception.get() == null)
+						encoded.write(writer, isPairedReads, mateLocations, readOffsetIndexBuilder);
+				} catch (ExecutionException ex) {
+					if (exception.get() == null)
+						exception.set(ex.getCause() instanceof Exception cause ? cause : ex);
+				} catch (IOException ex) {
+					if (exception.get() == null)
+						exception.set(ex);
+				}
+			}
+		} catch (InterruptedException ignored) {
+		}
+	}
+
+	/**
+	 * queries added, but not yet serialized
+	 */
+	private static class Block {
+		private final long firstQueryNumber;
+		private final ArrayList<byte[]> queryTexts = new ArrayList<>(MAX_QUERIES_PER_BLOCK);
+		private final ArrayList<byte[]> matchesTexts = new ArrayList<>(MAX_QUERIES_PER_BLOCK);
+		private final ArrayList<int[]> classIds = new ArrayList<>(MAX_QUERIES_PER_BLOCK);
+		private final int[] numberOfMatches = new int[MAX_QUERIES_PER_BLOCK];
+		private final long[] mates = new long[MAX_QUERIES_PER_BLOCK];
+		private int numberOfBytes;
+
+		Block(long firstQueryNumber) {
+			this.firstQueryNumber = firstQueryNumber;
+		}
+
+		int size() {
+			return queryTexts.size();
+		}
+
+		void add(byte[] queryText, int numberOfMatches, int[] classIds, byte[] matchesText, long mate) {
+			final var i = size();
+			this.numberOfMatches[i] = numberOfMatches;
+			this.mates[i] = mate;
+			queryTexts.add(queryText);
+			matchesTexts.add(matchesText);
+			this.classIds.add(classIds);
+			numberOfBytes += (queryText != null ? queryText.length : 0) + (matchesText != null ? matchesText.length : 0) + 4 * classIds.length;
+		}
+
+		/**
+		 * serialize all queries in the same format as RMA6FileCreator.addQuery, except for the mate location,
+		 * which is only known when the block is written
+		 */
+		EncodedBlock encode(Compressor compressor) {
+			final var out = new ByteArrayBuilder(numberOfBytes + 16 * size());
+			final var ends = new int[size()];
+			for (var i = 0; i < size(); i++) {
+				out.writeString(queryTexts.get(i), compressor);
+				out.writeInt(numberOfMatches[i]);
+				for (var id : classIds.get(i))
+					out.writeInt(id);
+				out.writeString(matchesTexts.get(i), compressor);
+				ends[i] = out.size;
+			}
+			return new EncodedBlock(firstQueryNumber, out.bytes, ends, Arrays.copyOf(mates, size()));
+		}
+	}
+
+	/**
+	 * serialized queries of a block
+	 */
+	private static class EncodedBlock {
+		private final long firstQueryNumber;
+		private final byte[] bytes;
+		private final int[] ends;
+		private final long[] mates;
+
+		EncodedBlock(long firstQueryNumber, byte[] bytes, int[] ends, long[] mates) {
+			this.firstQueryNumber = firstQueryNumber;
+			this.bytes = bytes;
+			this.ends = ends;
+			this.mates = mates;
+		}
+
+		void write(OutputWriter writer, boolean isPairedReads, RMA6FileCreator.MateLocations mateLocations, ReadOffsetIndexRMA6.Builder readOffsetIndexBuilder) throws IOException {
+			var start = 0;
+			for (var i = 0; i < ends.length; i++) {
+				readOffsetIndexBuilder.addRead(writer.getPosition());
+				if (isPairedReads)
+					writer.writeLong(mateLocations.apply(firstQueryNumber + i, mates[i], writer.getPosition()));
+				writer.write(bytes, start, ends[i] - start);
+				start = ends[i];
+			}
+		}
+	}
+
+	/**
+	 * growable byte array that writes ints and strings in the same way as OutputWriter with compression turned on
+	 */
+	private static class ByteArrayBuilder {
+		private byte[] bytes;
+		private int size;
+		private byte[] deflated = new byte[1024];
+
+		ByteArrayBuilder(int capacity) {
+			bytes = new byte[Math.max(16, capacity)];
+		}
+
+		void writeInt(int a) {
+			ensureCapacity(size + 4);
+			bytes[size++] = (byte) (a >> 24);
+			bytes[size++] = (byte) (a >> 16);
+			bytes[size++] = (byte) (a >> 8);
+			bytes[size++] = (byte) (a);
+		}
+
+		void writeString(byte[] str, Compressor compressor) {
+			if (str == null)
+				writeInt(0);
+			else if (str.length >= Compressor.MIN_SIZE_FOR_DEFLATION) {
+				if (deflated.length < 2 * str.length)
+					deflated = new byte[2 * str.length]; // as in OutputWriter, compressed will never be longer than 2*uncompressed
+				final var numberOfBytes = compressor.deflateString2ByteArray(str, 0, str.length, deflated);
+				writeInt(numberOfBytes);
+				write(deflated, Math.abs(numberOfBytes));
+			} else {
+				writeInt(str.length);
+				write(str, str.length);
+			}
+		}
+
+		private void write(byte[] src, int length) {
+			ensureCapacity(size + length);
+			System.arraycopy(src, 0, bytes, size, length);
+			size += length;
+		}
+
+		private void ensureCapacity(int capacity) {
+			if (capacity > bytes.length)
+				bytes = Arrays.copyOf(bytes, Math.max(capacity, 2 * bytes.length));
+		}
+	}
+}
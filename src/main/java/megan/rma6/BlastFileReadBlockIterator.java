@@ -27,10 +27,12 @@ import megan.parsers.blast.BlastFileFormat;
 import megan.parsers.blast.BlastModeUtils;
 import megan.parsers.blast.ISAMIterator;
 import megan.parsers.blast.IteratorManager;
+import megan.parsers.blast.MatchRecord;
 import megan.parsers.sam.SAMMatch;
 
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -71,6 +73,7 @@ public class BlastFileReadBlockIterator implements Iterator<ReadBlockRMA6>, IClo
 		this.blastMode = blastMode;
 
 		iterator = IteratorManager.getIterator(blastFile, format, blastMode, maxMatchesPerRead, longReads);
+		iterator.setUseMatchRecords(true); // matches text isn't stored, so use typed records, if supported
 		if (readsFile != null) {
 			fastaIterator = new FileLineBytesIterator(readsFile);
 			isFasta = (fastaIterator.peekNextByte() == '>');
@@ -163,19 +166,24 @@ public class BlastFileReadBlockIterator implements Iterator<ReadBlockRMA6>, IClo
 		if (!foundRead) {
 			readBlock.setReadHeader(String.format(">%s\n", StringUtils.toString(queryName, 0, queryNameLength)));
 		}
+		final List<MatchRecord> matchRecords = iterator.getMatchRecords();
 		int start = 0;
 		MatchBlockRMA6[] matchBlocks = new MatchBlockRMA6[numberOfMatches];
 		for (int matchCount = 0; matchCount < numberOfMatches; matchCount++) {
-			int end = Utilities.nextNewLine(matchesText, start);
-			final String aLine = StringUtils.toString(matchesText, start, end - start + 1);
-			start = end + 1;
 			MatchBlockRMA6 matchBlock = new MatchBlockRMA6();
 			SAMMatch samMatch = new SAMMatch(blastMode);
-			try {
-				samMatch.parse(aLine);
-			} catch (IOException e) {
-				Basic.caught(e);
-				return null;
+			if (matchRecords != null)
+				samMatch.set(matchRecords.get(matchCount));
+			else {
+				int end = Utilities.nextNewLine(matchesText, start);
+				final String aLine = StringUtils.toString(matchesText, start, end - start + 1);
+				start = end + 1;
+				try {
+					samMatch.parse(aLine);
+				} catch (IOException e) {
+					Basic.caught(e);
+					return null;
+				}
 			}
 			matchBlock.setFromSAM(samMatch);
 			for (IdParser parser : parsers) {
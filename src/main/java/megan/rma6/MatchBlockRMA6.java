@@ -211,6 +211,11 @@ public class MatchBlockRMA6 implements IMatchBlock {
 
 	@Override
 	public String getTextFirstWord() {
+		if (text == null && samMatch != null) {
+			final String firstWord = samMatch.getBlastAlignmentTextFirstWord(); // avoids computing the alignment
+			if (firstWord != null)
+				return firstWord;
+		}
 		return getText() != null ? StringUtils.getFirstWord(getText()) : null;
 	}
 
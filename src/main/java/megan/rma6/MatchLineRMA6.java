@@ -19,6 +19,8 @@
  */
 package megan.rma6;
 
+import megan.parsers.blast.MatchRecord;
+
 /**
  * stores data required to perform LCA and functional analysis
  * Daniel Huson, 4.2015
@@ -63,6 +65,15 @@ public class MatchLineRMA6 {
 		}
 	}
 
+	/**
+	 * set from a typed match record
+	 */
+	public void set(MatchRecord matchRecord) {
+		bitScore = matchRecord.getNumber("AS");
+		expected = matchRecord.getNumber("ZE");
+		percentIdentity = matchRecord.getNumber("ZI");
+	}
+
 	/**
 	 * skip a given count of tabs
 	 *
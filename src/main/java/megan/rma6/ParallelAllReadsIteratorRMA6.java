@@ -0,0 +1,129 @@
+/*
+ * ParallelAllReadsIteratorRMA6.java Copyright (C) 2024 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package megan.rma6;
+
+import jloda.util.Basic;
+import megan.data.IReadBlock;
+import megan.data.IReadBlockIterator;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Iterates over all reads in an RMA6 file, in file order, while partitions of the reads section are decoded ahead
+ * of time by a pool of threads
+ * Daniel Huson, 10.2026
+ */
+public class ParallelAllReadsIteratorRMA6 implements IReadBlockIterator {
+	private final ReadPartitionsRMA6 partitions;
+	private final ExecutorService service;
+	private final int maxPending;
+	private final ArrayDeque<Future<List<IReadBlock>>> pending = new ArrayDeque<>();
+
+	private int nextPartitionToSubmit = 0;
+	private int currentPartition = -1;
+	private Iterator<IReadBlock> current = Collections.emptyIterator();
+	private int countReads = 0;
+
+	/**
+	 * constructor
+	 */
+	public ParallelAllReadsIteratorRMA6(String fileName, boolean wantReadSequence, boolean wantMatches, float minScore, float maxExpected, int numberOfThreads) throws IOException {
+		partitions = new ReadPartitionsRMA6(fileName, wantReadSequence, wantMatches, minScore, maxExpected);
+		service = Executors.newFixedThreadPool(numberOfThreads, runnable -> {
+			final var thread = new Thread(runnable, "RMA6Reader");
+			thread.setDaemon(true);
+			return thread;
+		});
+		maxPending = 2 * numberOfThreads;
+		submitPartitions();
+	}
+
+	@Override
+	public String getStats() {
+		return "Reads: " + countReads;
+	}
+
+	@Override
+	public void close() {
+		for (var future : pending)
+			future.cancel(true);
+		pending.clear();
+		service.shutdownNow();
+		partitions.close();
+	}
+
+	@Override
+	public long getMaximumProgress() {
+		return partitions.getIndex().getEndReadsSection() - partitions.getIndex().getStartReadsSection();
+	}
+
+	@Override
+	public long getProgress() {
+		if (currentPartition == -1)
+			return 0;
+		return partitions.getIndex().getStart(currentPartition) - partitions.getIndex().getStartReadsSection();
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (!current.hasNext()) {
+			if (pending.isEmpty())
+				return false;
+			try {
+				current = pending.poll().get().iterator();
+				currentPartition++;
+			} catch (InterruptedException | ExecutionException e) {
+				Basic.caught(e);
+				close();
+				return false;
+			}
+			submitPartitions();
+		}
+		return true;
+	}
+
+	@Override
+	public IReadBlock next() {
+		if (!hasNext())
+			return null;
+		countReads++;
+		return current.next();
+	}
+
+	@Override
+	public void remove() {
+
+	}
+
+	private void submitPartitions() {
+		while (pending.size() < maxPending && nextPartitionToSubmit < partitions.size()) {
+			final var partition = nextPartitionToSubmit++;
+			pending.add(service.submit(() -> partitions.decode(partition)));
+		}
+	}
+}
@@ -28,6 +28,7 @@ import megan.data.*;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.stream.Stream;
 
 /**
  * RMA6 connector
@@ -72,6 +73,27 @@ public class RMA6Connector implements IConnector {
 		return new AllReadsIteratorRMA6(wantReadSequence, wantMatches, rma6File, minScore, maxExpected);
 	}
 
+	/**
+	 * get an iterator over all reads, in file order, that decodes reads using the given number of threads
+	 *
+	 * @return iterator
+	 */
+	public IReadBlockIterator getAllReadsIterator(float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches, int numberOfThreads) throws IOException {
+		if (numberOfThreads <= 1)
+			return getAllReadsIterator(minScore, maxExpected, wantReadSequence, wantMatches);
+		else
+			return new ParallelAllReadsIteratorRMA6(fileName, wantReadSequence, wantMatches, minScore, maxExpected, numberOfThreads);
+	}
+
+	/**
+	 * get a parallel stream over all reads, not in file order. The stream must be closed after use
+	 *
+	 * @return stream
+	 */
+	public Stream<IReadBlock> getAllReadsStream(float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
+		return new ReadPartitionsRMA6(fileName, wantReadSequence, wantMatches, minScore, maxExpected).stream();
+	}
+
 	@Override
 	public IReadBlockIterator getReadsIterator(String classification, int classId, float minScore, float maxExpected, boolean wantReadSequence, boolean wantMatches) throws IOException {
 		return getReadsIteratorForListOfClassIds(classification, Collections.singletonList(classId), minScore, maxExpected, wantReadSequence, wantMatches);
@@ -171,8 +193,17 @@ public class RMA6Connector implements IConnector {
 			}
 		}
 		try (RMA6FileModifier rma6Modifier = new RMA6FileModifier(fileName)) {
-			rma6Modifier.updateClassifications(cNames, fName2ClassId2Location, fName2ClassId2Weight);
+			rma6Modifier.updateClassifications(cNames, fName2ClassId2Location, fName2ClassId2Weight, updateItems.encodeReadAssignments(cNames));
+		}
+	}
+
+	@Override
+	public ReadAssignmentColumn.Reader getReadAssignmentsReader() throws IOException {
+		final Long location;
+		try (RMA6File rma6File = new RMA6File(fileName, RMA6File.READ_ONLY)) {
+			location = rma6File.getFooterSectionRMA6().getStartClassification(ReadAssignmentColumn.LABEL);
 		}
+		return location != null ? ReadAssignmentColumn.openReader(fileName, location) : null;
 	}
 
 	@Override
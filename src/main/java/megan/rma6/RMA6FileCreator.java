@@ -22,19 +22,28 @@ package megan.rma6;
 
 import jloda.seq.BlastMode;
 import jloda.util.ListOfLongs;
+import jloda.util.ProgramExecutorService;
 import megan.io.OutputWriter;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.Deflater;
 
 /**
  * class used to create a new RMA6 file
  * Daniel Huson, 6.2015
  */
 public class RMA6FileCreator extends RMA6File {
+	private static int defaultCompressionLevel = Deflater.BEST_COMPRESSION;
+
 	private boolean isPairedReads;
 	private final boolean useCompression;
+	private final int numberOfThreads;
+	private final MateLocations mateLocations = new MateLocations();
+	private final ReadOffsetIndexRMA6.Builder readOffsetIndexBuilder = new ReadOffsetIndexRMA6.Builder();
+	private AsyncQueryWriter asyncQueryWriter;
 
 	private int numberOfClassificationNames;
 
@@ -45,8 +54,19 @@ public class RMA6FileCreator extends RMA6File {
 	 * constructor
 	 */
 	public RMA6FileCreator(String fileName, boolean useCompression) {
+		this(fileName, useCompression, ProgramExecutorService.getNumberOfCoresToUse());
+	}
+
+	/**
+	 * constructor
+	 *
+	 * @param numberOfThreads if compression is used and this is larger than 1, then queries are compressed by this many threads
+	 *                        and written in the background
+	 */
+	public RMA6FileCreator(String fileName, boolean useCompression, int numberOfThreads) {
 		super();
 		this.useCompression = useCompression;
+		this.numberOfThreads = numberOfThreads;
 		this.fileName = fileName;
 	}
 
@@ -85,17 +105,54 @@ public class RMA6FileCreator extends RMA6File {
 		totalNumberOfMatches = 0;
 
 		getFooterSectionRMA6().setStartReadsSection(readerWriter.getPosition());
+
+		if (useCompression && numberOfThreads > 1) {
+			asyncQueryWriter = new AsyncQueryWriter((OutputWriter) readerWriter, isPairedReads, mateLocations, readOffsetIndexBuilder, totalNumberOfReads, numberOfThreads, defaultCompressionLevel);
+		}
 	}
 
 	/**
 	 * add a query and its matches to the file
+	 *
+	 * @param mateLocation location of the mate, only written for paired reads. Only use this when writing queries synchronously,
+	 *                     otherwise use addPairedQuery
 	 */
 	public void addQuery(byte[] queryText, int queryTextLength, int numberOfMatches, byte[] matchesText, int matchesTextLength, int[][] match2Classification2Id, long mateLocation) throws IOException {
-		final long location = readerWriter.getPosition();
+		if (asyncQueryWriter != null) {
+			if (isPairedReads && mateLocation != 0)
+				throw new IOException("addQuery(): mate location not supported when writing in background, use addPairedQuery()");
+			asyncQueryWriter.add(queryText, queryTextLength, numberOfMatches, matchesText, matchesTextLength, match2Classification2Id, numberOfClassificationNames, MateLocations.NO_MATE);
+		} else {
+			readOffsetIndexBuilder.addRead(readerWriter.getPosition());
+			if (isPairedReads)
+				readerWriter.writeLong(mateLocation);
+			writeQuery(queryText, queryTextLength, numberOfMatches, matchesText, matchesTextLength, match2Classification2Id);
+		}
+		this.totalNumberOfReads++;
+		this.totalNumberOfMatches += numberOfMatches;
+	}
 
-		if (isPairedReads)
-			readerWriter.writeLong(mateLocation);
+	/**
+	 * add a paired query and its matches to the file. The location of the mate is determined when the query is written
+	 *
+	 * @param mateNumber the number returned when the mate was added, or -1, if the mate hasn't been added yet
+	 * @return the number of this query
+	 */
+	public long addPairedQuery(byte[] queryText, int queryTextLength, int numberOfMatches, byte[] matchesText, int matchesTextLength, int[][] match2Classification2Id, long mateNumber) throws IOException {
+		final long queryNumber = totalNumberOfReads;
+		if (asyncQueryWriter != null)
+			asyncQueryWriter.add(queryText, queryTextLength, numberOfMatches, matchesText, matchesTextLength, match2Classification2Id, numberOfClassificationNames, mateNumber);
+		else {
+			readOffsetIndexBuilder.addRead(readerWriter.getPosition());
+			readerWriter.writeLong(mateLocations.apply(queryNumber, mateNumber, readerWriter.getPosition()));
+			writeQuery(queryText, queryTextLength, numberOfMatches, matchesText, matchesTextLength, match2Classification2Id);
+		}
+		this.totalNumberOfReads++;
+		this.totalNumberOfMatches += numberOfMatches;
+		return queryNumber;
+	}
 
+	private void writeQuery(byte[] queryText, int queryTextLength, int numberOfMatches, byte[] matchesText, int matchesTextLength, int[][] match2Classification2Id) throws IOException {
 		readerWriter.writeString(queryText, 0, queryTextLength);
 
 		readerWriter.writeInt(numberOfMatches);
@@ -107,10 +164,6 @@ public class RMA6FileCreator extends RMA6File {
 		}
 
 		readerWriter.writeString(matchesText, 0, matchesTextLength);
-
-		this.totalNumberOfReads++;
-		this.totalNumberOfMatches += numberOfMatches;
-
 	}
 
 
@@ -118,10 +171,18 @@ public class RMA6FileCreator extends RMA6File {
 	 * finish creating the file. Assumes that the footer section has been set appropriately
 	 */
 	public void endAddingQueries() throws IOException {
+		if (asyncQueryWriter != null) {
+			try {
+				asyncQueryWriter.finish();
+			} finally {
+				asyncQueryWriter = null;
+			}
+		}
 		getFooterSectionRMA6().setEndReadsSection(readerWriter.getPosition());
 
 		getFooterSectionRMA6().setNumberOfReads(totalNumberOfReads);
 		getFooterSectionRMA6().setNumberOfMatches(totalNumberOfMatches);
+		readOffsetIndexBuilder.buildAndCache(this, fileName);
 	}
 
 	/**
@@ -158,9 +219,60 @@ public class RMA6FileCreator extends RMA6File {
 		readerWriter = null;
 	}
 
+	/**
+	 * stop writing queries in the background after an error or cancellation, queries not yet written are lost
+	 */
+	public void abortAddingQueries() {
+		if (asyncQueryWriter != null) {
+			asyncQueryWriter.abort();
+			asyncQueryWriter = null;
+		}
+	}
+
+	/**
+	 * get the current position in the file. While queries are written in the background, this is not the location of the next query
+	 */
 	public long getPosition() throws IOException {
 		return readerWriter.getPosition();
 	}
 
+	/**
+	 * deflate level used when compressing queries in the background
+	 */
+	public static int getDefaultCompressionLevel() {
+		return defaultCompressionLevel;
+	}
+
+	public static void setDefaultCompressionLevel(int defaultCompressionLevel) {
+		RMA6FileCreator.defaultCompressionLevel = Math.max(Deflater.BEST_SPEED, Math.min(Deflater.BEST_COMPRESSION, defaultCompressionLevel));
+	}
+
+	/**
+	 * locations of paired reads whose mates have not been written yet
+	 */
+	static class MateLocations {
+		static final long NO_MATE = Long.MIN_VALUE;
+
+		private final Map<Long, Long> queryNumber2Location = new HashMap<>();
+
+		/**
+		 * determine the mate location to write for a query that is written at the given location
+		 *
+		 * @param mateNumber number of the mate, -1, if the mate hasn't been written yet, or NO_MATE
+		 * @return location of the mate, or 0
+		 */
+		long apply(long queryNumber, long mateNumber, long location) {
+			if (mateNumber == NO_MATE)
+				return 0;
+			else if (mateNumber < 0) {
+				queryNumber2Location.put(queryNumber, location);
+				return 0;
+			} else {
+				final Long mateLocation = queryNumber2Location.remove(mateNumber);
+				return mateLocation != null ? mateLocation : 0;
+			}
+		}
+	}
+
 
 }
@@ -21,11 +21,13 @@ package megan.rma6;
 
 import jloda.util.ListOfLongs;
 import jloda.util.StringUtils;
+import megan.data.ReadAssignmentColumn;
 import megan.io.InputOutputReaderWriter;
 
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -47,6 +49,14 @@ public class RMA6FileModifier extends RMA6File implements Closeable {
 	 * update the classifications
 	 */
 	public void updateClassifications(String[] cNames, Map<Integer, ListOfLongs>[] fName2ClassId2Location, Map<Integer, Float>[] fName2ClassId2Weight) throws IOException {
+		updateClassifications(cNames, fName2ClassId2Location, fName2ClassId2Weight, null);
+	}
+
+	/**
+	 * update the classifications and write the per-read assignments, if given. The location of the per-read assignments
+	 * is registered in the footer under a reserved label, readers that don't know about it ignore it
+	 */
+	public void updateClassifications(String[] cNames, Map<Integer, ListOfLongs>[] fName2ClassId2Location, Map<Integer, Float>[] fName2ClassId2Weight, List<byte[]> readAssignments) throws IOException {
 		io = new InputOutputReaderWriter(new File(fileName), READ_WRITE);
 
 		io.seek(footerSectionRMA6.getStartClassificationsSection());
@@ -69,6 +79,12 @@ public class RMA6FileModifier extends RMA6File implements Closeable {
 			System.err.printf("Numb. %4s classes: %,10d%n", StringUtils.abbreviate(cName, 4), id2locations.size());
 		}
 
+		if (readAssignments != null) {
+			footerSectionRMA6.getAvailableClassification2Position().put(ReadAssignmentColumn.LABEL, io.getPosition());
+			for (byte[] segment : readAssignments)
+				io.write(segment);
+		}
+
 		footerSectionRMA6.setEndClassificationsSection(io.getPosition());
 		footerSectionRMA6.setStartAuxDataSection(io.getPosition());
 		io.writeInt(0);
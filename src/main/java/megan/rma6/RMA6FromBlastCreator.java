@@ -36,11 +36,13 @@ import megan.io.InputOutputReaderWriter;
 import megan.parsers.blast.BlastFileFormat;
 import megan.parsers.blast.ISAMIterator;
 import megan.parsers.blast.IteratorManager;
+import megan.parsers.blast.MatchRecord;
 
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -121,14 +123,15 @@ public class RMA6FromBlastCreator {
 	public void parseFiles(final ProgressListener progress) throws IOException, CanceledException, SQLException {
 		progress.setTasks("Generating RMA6 file", "Parsing matches");
 
-		final HashMap<String, Long> read2PairedReadLocation;
+		final HashMap<String, Long> read2PairedReadNumber;
 		if (pairedReads)
-			read2PairedReadLocation = new HashMap<>(1000000);
+			read2PairedReadNumber = new HashMap<>(1000000);
 		else
-			read2PairedReadLocation = null;
+			read2PairedReadNumber = null;
 
 		final byte[] queryName = new byte[100000];
 		final Single<byte[]> fastAText = new Single<>(new byte[1000]);
+		final Single<byte[]> matchesTextBuffer = new Single<>(new byte[10000]);
 		MatchLineRMA6[] matchLineRMA6s = new MatchLineRMA6[maxMatchesPerRead];
 		for (int i = 0; i < matchLineRMA6s.length; i++) {
 			matchLineRMA6s[i] = new MatchLineRMA6(cNames.length, taxonMapperIndex);
@@ -154,6 +157,7 @@ public class RMA6FromBlastCreator {
 			mapClassificationId2DatabaseRank = null;
 		}
 
+		boolean allQueriesAdded = false;
 		try {
 			for (int fileNumber = 0; fileNumber < blastFiles.length; fileNumber++) {
 				int missingReadWarnings = 0;
@@ -162,6 +166,7 @@ public class RMA6FromBlastCreator {
 				System.err.println("Parsing file: " + blastFile);
 
 				final ISAMIterator iterator = IteratorManager.getIterator(blastFile, format, blastMode, maxMatchesPerRead, longReads);
+				iterator.setUseMatchRecords(true);
 
 				progress.setProgress(0);
 				progress.setMaximum(iterator.getMaximumProgress());
@@ -183,22 +188,28 @@ public class RMA6FromBlastCreator {
 					totalNumberOfReads++;
 					final int numberOfMatches = iterator.next();
 					totalNumberOfMatches += numberOfMatches;
-					final byte[] matchesText = iterator.getMatchesText(); // get matches as '\n' separated strings
-					final int matchesTextLength = iterator.getMatchesTextLength();
+					final List<MatchRecord> matchRecords = iterator.getMatchRecords();
+					final byte[] matchesText; // get matches as '\n' separated strings
+					final int matchesTextLength;
+					if (matchRecords != null && numberOfMatches > 0) { // the matches text is stored, so make it from the typed records
+						matchesTextLength = makeMatchesText(matchRecords, matchesTextBuffer);
+						matchesText = matchesTextBuffer.get();
+					} else {
+						matchesText = iterator.getMatchesText();
+						matchesTextLength = iterator.getMatchesTextLength();
+					}
 					final int queryNameLength = StringUtils.getFirstWord(matchesText, queryName);
 
 					//System.err.println("Got: "+Basic.toString(matchesText,Math.min(100,matchesTextLength)));
 
-					Long mateLocation = null;
+					String strippedName = null;
+					long mateNumber = -1;
 
 					if (pairedReads) {
-						final String strippedName = StringUtils.toString(queryName, 0, queryNameLength - pairedReadSuffixLength);
-						mateLocation = read2PairedReadLocation.get(strippedName);
-						if (mateLocation == null) {
-							read2PairedReadLocation.put(strippedName, rma6FileCreator.getPosition());
-						} else {
-							read2PairedReadLocation.remove(strippedName);
-						}
+						strippedName = StringUtils.toString(queryName, 0, queryNameLength - pairedReadSuffixLength);
+						final Long number = read2PairedReadNumber.remove(strippedName);
+						if (number != null)
+							mateNumber = number;
 					}
 
 					byte[] queryText = null;
@@ -246,11 +257,15 @@ public class RMA6FromBlastCreator {
 						}
 
 						for (int matchCount = 0; matchCount < numberOfMatches; matchCount++) {
-							queries[matchCount] = getFirstWord(Utilities.getToken(2, matchesText, offset));
-
 							final MatchLineRMA6 matchLineRMA6 = matchLineRMA6s[matchCount];
-							matchLineRMA6.parse(matchesText, offset);
-							offset = Utilities.nextNewLine(matchesText, offset) + 1;
+							if (matchRecords != null) {
+								queries[matchCount] = getFirstWord(matchRecords.get(matchCount).getRefName());
+								matchLineRMA6.set(matchRecords.get(matchCount));
+							} else {
+								queries[matchCount] = getFirstWord(Utilities.getToken(2, matchesText, offset));
+								matchLineRMA6.parse(matchesText, offset);
+								offset = Utilities.nextNewLine(matchesText, offset) + 1;
+							}
 						}
 
 						final Map<String, int[]> query2ids = accessAccessionMappingDatabase.getValues(queries, queries.length);
@@ -272,7 +287,7 @@ public class RMA6FromBlastCreator {
 					} else { // use mapping files
 						int offset = 0;
 						for (int matchCount = 0; matchCount < numberOfMatches; matchCount++) {
-							final String refName = Utilities.getToken(2, matchesText, offset);
+							final String refName = (matchRecords != null ? matchRecords.get(matchCount).getRefName() : Utilities.getToken(2, matchesText, offset));
 
 							if (matchCount == matchLineRMA6s.length) { // double the array...
 								MatchLineRMA6[] tmp = new MatchLineRMA6[2 * numberOfMatches];
@@ -288,7 +303,10 @@ public class RMA6FromBlastCreator {
 							}
 
 							final MatchLineRMA6 matchLineRMA6 = matchLineRMA6s[matchCount];
-							matchLineRMA6.parse(matchesText, offset);
+							if (matchRecords != null)
+								matchLineRMA6.set(matchRecords.get(matchCount));
+							else
+								matchLineRMA6.parse(matchesText, offset);
 							for (int i = 0; i < parsers.length; i++) {
 								final int id = parsers[i].getIdFromHeaderLine(refName);
 
@@ -299,13 +317,22 @@ public class RMA6FromBlastCreator {
 						}
 					}
 
-					rma6FileCreator.addQuery(queryText, queryTextLength, numberOfMatches, matchesText, matchesTextLength, match2classification2id, mateLocation != null ? mateLocation : 0);
+					if (pairedReads) {
+						final long queryNumber = rma6FileCreator.addPairedQuery(queryText, queryTextLength, numberOfMatches, matchesText, matchesTextLength, match2classification2id, mateNumber);
+						if (mateNumber == -1)
+							read2PairedReadNumber.put(strippedName, queryNumber);
+					} else
+						rma6FileCreator.addQuery(queryText, queryTextLength, numberOfMatches, matchesText, matchesTextLength, match2classification2id, 0);
 					progress.setProgress(iterator.getProgress());
 				} // end of iterator
+				iterator.close(); // deletes the copy grouped by query, if any
 			} // end of files
+			allQueriesAdded = true;
 		} finally {
 			if (accessAccessionMappingDatabase != null)
 				accessAccessionMappingDatabase.close();
+			if (!allQueriesAdded)
+				rma6FileCreator.abortAddingQueries();
 		}
 
 		rma6FileCreator.endAddingQueries();
@@ -365,6 +392,27 @@ public class RMA6FromBlastCreator {
 		doc.getDataTable().setContaminants(contaminantTaxonIdsString);
 	}
 
+	/**
+	 * makes the matches text from typed match records
+	 *
+	 * @return length of text
+	 */
+	private static int makeMatchesText(List<MatchRecord> matchRecords, Single<byte[]> buffer) {
+		byte[] matchesText = buffer.get();
+		int matchesTextLength = 0;
+		for (MatchRecord matchRecord : matchRecords) {
+			final byte[] bytes = matchRecord.toSAMLine().getBytes();
+			if (matchesTextLength + bytes.length + 1 >= matchesText.length) {
+				matchesText = Arrays.copyOf(matchesText, 2 * (matchesTextLength + bytes.length + 1));
+				buffer.set(matchesText);
+			}
+			System.arraycopy(bytes, 0, matchesText, matchesTextLength, bytes.length);
+			matchesTextLength += bytes.length;
+			matchesText[matchesTextLength++] = '\n';
+		}
+		return matchesTextLength;
+	}
+
 	private static String getFirstWord(String string) {
 		int a = 0;
 		while (a < string.length() && (string.charAt(a) == '>' || Character.isWhitespace(string.charAt(a)))) {
@@ -21,6 +21,7 @@ package megan.rma6;
 
 import jloda.util.Basic;
 import jloda.util.ListOfLongs;
+import jloda.util.Single;
 import megan.io.IInputReader;
 import megan.parsers.blast.ISAMIterator;
 
@@ -43,6 +44,7 @@ public class RMA6ToSAMIterator implements ISAMIterator {
 
 	private String readText;
 	private byte[] matchesText;
+	private final Single<byte[]> matchesTextBuffer = new Single<>(new byte[10000]);
 	private int matchesTextLength;
 
 	private boolean parseLongReads;
@@ -82,8 +84,8 @@ public class RMA6ToSAMIterator implements ISAMIterator {
 
 			final int numberOfMatches = reader.readInt(); // number of matches
 			reader.skipBytes(numberOfMatches * cNames.length * 4); // skip taxon and classification ids
-			matchesText = reader.readString().getBytes(); // todo: implement reading this directly into byte[]
-			matchesTextLength = matchesText.length;
+			matchesTextLength = reader.readString(matchesTextBuffer);
+			matchesText = matchesTextBuffer.get();
 			return numberOfMatches;
 		} catch (IOException ex) {
 			Basic.caught(ex);
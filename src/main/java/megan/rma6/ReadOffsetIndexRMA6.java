@@ -0,0 +1,172 @@
+/*
+ * ReadOffsetIndexRMA6.java Copyright (C) 2024 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package megan.rma6;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * sparse index of read start offsets in the reads section of an RMA6 file, roughly one offset per megabyte of reads.
+ * Consecutive offsets delimit partitions of the reads section that can be decoded independently.
+ * The index is recorded when a file is written, or else computed on first use by skipping through the reads section,
+ * and is kept in a small cache. A cached index is only used if the creation date and the bounds of the reads
+ * section of the file are unchanged
+ * Daniel Huson, 10.2026
+ */
+public class ReadOffsetIndexRMA6 {
+	private static final int SAMPLE_BYTES = 1 << 20;
+	private static final int MAX_CACHED_FILES = 16;
+
+	private static final Map<String, ReadOffsetIndexRMA6> fileName2index = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ReadOffsetIndexRMA6> eldest) {
+			return size() > MAX_CACHED_FILES;
+		}
+	};
+
+	private final long creationDate;
+	private final long startReadsSection;
+	private final long endReadsSection;
+	private final long[] offsets;
+
+	private ReadOffsetIndexRMA6(long creationDate, long startReadsSection, long endReadsSection, long[] offsets) {
+		this.creationDate = creationDate;
+		this.startReadsSection = startReadsSection;
+		this.endReadsSection = endReadsSection;
+		this.offsets = offsets;
+	}
+
+	/**
+	 * get the index for the given file, computing it, if it is not cached
+	 *
+	 * @return index
+	 */
+	public static ReadOffsetIndexRMA6 get(RMA6File rma6File, String fileName) throws IOException {
+		synchronized (fileName2index) {
+			final var index = fileName2index.get(fileName);
+			if (index != null && index.isValid(rma6File))
+				return index;
+		}
+		final var index = compute(rma6File);
+		synchronized (fileName2index) {
+			fileName2index.put(fileName, index);
+		}
+		return index;
+	}
+
+	/**
+	 * number of partitions
+	 */
+	public int size() {
+		return offsets.length;
+	}
+
+	/**
+	 * location of the first read in the given partition
+	 */
+	public long getStart(int partition) {
+		return offsets[partition];
+	}
+
+	/**
+	 * location after the last read in the given partition
+	 */
+	public long getEnd(int partition) {
+		return (partition + 1 < offsets.length ? offsets[partition + 1] : endReadsSection);
+	}
+
+	public long getStartReadsSection() {
+		return startReadsSection;
+	}
+
+	public long getEndReadsSection() {
+		return endReadsSection;
+	}
+
+	private boolean isValid(RMA6File rma6File) {
+		return creationDate == rma6File.getHeaderSectionRMA6().getCreationDate()
+			   && startReadsSection == rma6File.getFooterSectionRMA6().getStartReadsSection()
+			   && endReadsSection == rma6File.getFooterSectionRMA6().getEndReadsSection();
+	}
+
+	/**
+	 * skip through the reads section, reading only the lengths of the records
+	 */
+	private static ReadOffsetIndexRMA6 compute(RMA6File rma6File) throws IOException {
+		final var isPairedReads = rma6File.getHeaderSectionRMA6().isPairedReads();
+		final var numberOfClassifications = rma6File.getHeaderSectionRMA6().getMatchClassNames().length;
+		final var end = rma6File.getFooterSectionRMA6().getEndReadsSection();
+
+		final var builder = new Builder();
+		final var reader = rma6File.getReader();
+		reader.seek(rma6File.getFooterSectionRMA6().getStartReadsSection());
+		long location;
+		while ((location = reader.getPosition()) < end) {
+			builder.addRead(location);
+			if (isPairedReads)
+				reader.skipBytes(8);
+			reader.skipBytes(Math.abs(reader.readInt())); // read text
+			final var numberOfMatches = reader.readInt();
+			reader.skipBytes(4 * numberOfMatches * numberOfClassifications);
+			reader.skipBytes(Math.abs(reader.readInt())); // matches text
+		}
+		return builder.build(rma6File);
+	}
+
+	/**
+	 * records the index while a file is written
+	 */
+	public static class Builder {
+		private long[] offsets = new long[256];
+		private int size;
+
+		/**
+		 * report the location of the next read, reads must be reported in file order
+		 */
+		public void addRead(long location) {
+			if (size == 0 || location - offsets[size - 1] >= SAMPLE_BYTES) {
+				if (size == offsets.length)
+					offsets = Arrays.copyOf(offsets, 2 * size);
+				offsets[size++] = location;
+			}
+		}
+
+		/**
+		 * build the index, the header and footer of the file must be set
+		 */
+		ReadOffsetIndexRMA6 build(RMA6File rma6File) {
+			final var start = rma6File.getFooterSectionRMA6().getStartReadsSection();
+			final var end = rma6File.getFooterSectionRMA6().getEndReadsSection();
+			return new ReadOffsetIndexRMA6(rma6File.getHeaderSectionRMA6().getCreationDate(), start, end, (size > 0 ? Arrays.copyOf(offsets, size) : new long[]{start}));
+		}
+
+		/**
+		 * build the index and cache it for the given file
+		 */
+		void buildAndCache(RMA6File rma6File, String fileName) {
+			final var index = build(rma6File);
+			synchronized (fileName2index) {
+				fileName2index.put(fileName, index);
+			}
+		}
+	}
+}
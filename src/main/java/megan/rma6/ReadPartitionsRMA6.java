@@ -0,0 +1,138 @@
+/*
+ * ReadPartitionsRMA6.java Copyright (C) 2024 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package megan.rma6;
+
+import jloda.util.Basic;
+import megan.data.IReadBlock;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * decodes the partitions of the reads section of an RMA6 file, as given by the ReadOffsetIndexRMA6.
+ * Partitions can be decoded concurrently, each thread uses its own reader, taken from a pool of open files
+ * Daniel Huson, 10.2026
+ */
+public class ReadPartitionsRMA6 implements Closeable {
+	private final String fileName;
+	private final boolean wantReadSequence;
+	private final boolean wantMatches;
+	private final float minScore;
+	private final float maxExpected;
+
+	private final ReadOffsetIndexRMA6 index;
+	private final ConcurrentLinkedQueue<RMA6File> availableFiles = new ConcurrentLinkedQueue<>();
+	private final ConcurrentLinkedQueue<RMA6File> allFiles = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * constructor
+	 */
+	public ReadPartitionsRMA6(String fileName, boolean wantReadSequence, boolean wantMatches, float minScore, float maxExpected) throws IOException {
+		this.fileName = fileName;
+		this.wantReadSequence = wantReadSequence;
+		this.wantMatches = wantMatches;
+		this.minScore = minScore;
+		this.maxExpected = maxExpected;
+
+		final var rma6File = openFile();
+		index = ReadOffsetIndexRMA6.get(rma6File, fileName);
+		availableFiles.add(rma6File);
+	}
+
+	/**
+	 * number of partitions
+	 */
+	public int size() {
+		return index.size();
+	}
+
+	public ReadOffsetIndexRMA6 getIndex() {
+		return index;
+	}
+
+	/**
+	 * decode all reads of a partition. Thread safe
+	 *
+	 * @return reads, in file order
+	 */
+	public List<IReadBlock> decode(int partition) throws IOException {
+		var rma6File = availableFiles.poll();
+		if (rma6File == null)
+			rma6File = openFile();
+		try {
+			final var header = rma6File.getHeaderSectionRMA6();
+			final var reader = rma6File.getReader();
+			final var end = index.getEnd(partition);
+			final var list = new ArrayList<IReadBlock>();
+			reader.seek(index.getStart(partition));
+			while (reader.getPosition() < end) {
+				final var readBlock = new ReadBlockRMA6(header.getBlastMode(), header.isPairedReads(), header.getMatchClassNames());
+				readBlock.read(reader, wantReadSequence, wantMatches, minScore, maxExpected);
+				list.add(readBlock);
+			}
+			return list;
+		} finally {
+			availableFiles.add(rma6File);
+		}
+	}
+
+	/**
+	 * get a parallel stream over all reads. Reads are not delivered in file order. Closing the stream closes this object
+	 *
+	 * @return stream
+	 */
+	public Stream<IReadBlock> stream() {
+		return IntStream.range(0, size()).parallel().mapToObj(partition -> {
+			try {
+				return decode(partition);
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}).flatMap(List::stream).onClose(this::close);
+	}
+
+	/**
+	 * close all files
+	 */
+	@Override
+	public void close() {
+		availableFiles.clear();
+		RMA6File rma6File;
+		while ((rma6File = allFiles.poll()) != null) {
+			try {
+				rma6File.close();
+			} catch (IOException e) {
+				Basic.caught(e);
+			}
+		}
+	}
+
+	private RMA6File openFile() throws IOException {
+		final var rma6File = new RMA6File(fileName, RMA6File.READ_ONLY);
+		allFiles.add(rma6File);
+		return rma6File;
+	}
+}
@@ -25,6 +25,7 @@ import jloda.swing.util.ArgsOptions;
 import jloda.util.*;
 import jloda.util.progress.ProgressPercentage;
 import megan.algorithms.ActiveMatches;
+import megan.algorithms.AssignmentUsingIntervalUnionLCA;
 import megan.algorithms.TaxonPathAssignment;
 import megan.algorithms.TopAssignment;
 import megan.classification.Classification;
@@ -43,7 +44,14 @@ import megan.rma6.BlastFileReadBlockIterator;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Program that parses Blast input and computes a taxonomy classification and also a KEGG mapping, if desired
@@ -97,9 +105,8 @@ public class Blast2LCA {
 		final boolean showTaxonIds = options.getOption("-tid", "showTaxIds", "Report taxon ids rather than taxon names", false);
 
 		options.comment("Parameters");
-		// todo: implement long reads
-		final boolean longReads = false;
-		// final boolean longReads=options.getOption("-lg","longReads","Parse and analyse as long reads",Document.DEFAULT_LONG_READS);
+		final boolean longReads = options.getOption("-lg", "longReads", "Parse and analyse as long reads", Document.DEFAULT_LONG_READS);
+		final float lcaCoveragePercent = options.getOption("-lcp", "lcaCoveragePercent", "Set the percent for the LCA to cover (long reads only)", Document.DEFAULT_LCA_COVERAGE_PERCENT_LONG_READS);
 
 		final float minScore = options.getOption("-ms", "minScore", "Min score", Document.DEFAULT_MINSCORE);
 		final float maxExpected = options.getOption("-me", "maxExpected", "Max expected", 0.01f);
@@ -124,6 +131,7 @@ public class Blast2LCA {
 		ProgramProperties.put(IdParser.PROPERTIES_FIRST_WORD_IS_ACCESSION, options.getOption("-fwa", "firstWordIsAccession", "First word in reference header is accession number (set to 'true' for NCBI-nr downloaded Sep 2016 or later)", true));
 		ProgramProperties.put(IdParser.PROPERTIES_ACCESSION_TAGS, options.getOption("-atags", "accessionTags", "List of accession tags", ProgramProperties.get(IdParser.PROPERTIES_ACCESSION_TAGS, IdParser.ACCESSION_TAGS)));
 
+		ProgramExecutorService.setNumberOfCoresToUse(options.getOption("-t", "threads", "Number of threads", 8));
 		final var propertiesFile = options.getOption("-P", "propertiesFile", "Properties file", Megan7.getDefaultPropertiesFile());
 		options.done();
 
@@ -176,6 +184,20 @@ public class Blast2LCA {
 			System.err.println("Reading file: " + blastFile);
 			System.err.println("Writing file: " + outputFile);
 
+			final Document doc = new Document(); // parameters of the long-read LCA
+			doc.setTopPercent(topPercent);
+			doc.setLcaCoveragePercent(lcaCoveragePercent);
+			doc.setLongReads(longReads);
+
+			final Assigner parameters = new Assigner(minScore, topPercent, maxExpected, minPercentIdentity, minComplexity, doKegg, applyTopPercentFilterToKEGGAnalysis ? topPercent : 0,
+					keggRanksToReport, showTaxonIds, showRank, useOfficialRanksOnly, longReads ? doc : null);
+			final ThreadLocal<Assigner> assigners = ThreadLocal.withInitial(() -> new Assigner(parameters));
+
+			final int numberOfThreads = ProgramExecutorService.getNumberOfCoresToUse();
+			final ExecutorService service = Executors.newFixedThreadPool(numberOfThreads);
+			final ArrayDeque<Future<Batch>> pending = new ArrayDeque<>(); // batches in input order
+			final int maxPending = 2 * numberOfThreads;
+
 			try (var it = new BlastFileReadBlockIterator(blastFile, null, BlastFileFormat.valueOfIgnoreCase(blastFormat), BlastMode.valueOfIgnoreCase(blastMode), new String[]{"Taxonomy", "KEGG"}, 100, longReads)) {
 				final ProgressPercentage progressListener = new ProgressPercentage();
 				progressListener.setMaximum(it.getMaximumProgress());
@@ -188,30 +210,25 @@ public class Blast2LCA {
 					} else
 						keggW = null;
 					try {
+						// reads are parsed on this thread, assigned in batches by the worker threads, and written here, in input order
+						Batch batch = new Batch();
 						while (it.hasNext()) {
-							final IReadBlock readBlock = it.next();
+							batch.add(it.next());
 							totalIn++;
-
-							final BitSet activeMatchesForTaxa = new BitSet();
-							final BitSet activeMatchesForGenes = (keggW == null ? null : new BitSet());
-
-							boolean hasLowComplexity = readBlock.getComplexity() > 0 && readBlock.getComplexity() + 0.01 < minComplexity;
-
-							if (hasLowComplexity) {
-								w.write(readBlock.getReadName() + "; ; " + IdMapper.LOW_COMPLEXITY_ID + " " + readBlock.getComplexity() + "\n");
-							} else {
-								if (keggW != null) {
-									ActiveMatches.compute(minScore, applyTopPercentFilterToKEGGAnalysis ? topPercent : 0, maxExpected, minPercentIdentity, readBlock, "KEGG", activeMatchesForGenes);
-									keggW.write(readBlock.getReadName() + "; ;" + TopAssignment.compute("KEGG", activeMatchesForGenes, readBlock, keggRanksToReport) + "\n");
+							if (batch.isFull() || !it.hasNext()) {
+								final Batch toAssign = batch;
+								pending.add(service.submit(() -> assigners.get().apply(toAssign)));
+								batch = new Batch();
+								while (pending.size() > maxPending || (!it.hasNext() && pending.size() > 0)) {
+									totalOut += pending.poll().get().write(w, keggW);
 								}
-
-								ActiveMatches.compute(minScore, topPercent, maxExpected, minPercentIdentity, readBlock, Classification.Taxonomy, activeMatchesForTaxa);
-								w.write(readBlock.getReadName() + "; ;" + TaxonPathAssignment.getPathAndPercent(readBlock, activeMatchesForTaxa, showTaxonIds, showRank, useOfficialRanksOnly, true) + "\n");
-								totalOut++;
 								progressListener.setProgress(it.getProgress());
 							}
 						}
+					} catch (InterruptedException | ExecutionException ex) {
+						throw new IOException(ex.getCause() != null ? ex.getCause() : ex);
 					} finally {
+						service.shutdownNow();
 						if (keggW != null)
 							keggW.close();
 					}
@@ -222,4 +239,126 @@ public class Blast2LCA {
 			System.err.printf("Reads out:%,11d%n", totalOut);
 		}
 	}
+
+	/**
+	 * a batch of consecutive reads and their output
+	 */
+	private static class Batch {
+		private static final int MAX_READS = 1000;
+		private static final int MAX_MATCHES = 100000;
+
+		private ArrayList<IReadBlock> readBlocks = new ArrayList<>();
+		private int numberOfMatches;
+		private final StringBuilder taxonomyText = new StringBuilder();
+		private final StringBuilder keggText = new StringBuilder();
+		private int countOut;
+
+		void add(IReadBlock readBlock) {
+			readBlocks.add(readBlock);
+			numberOfMatches += readBlock.getNumberOfAvailableMatchBlocks();
+		}
+
+		boolean isFull() {
+			return readBlocks.size() >= MAX_READS || numberOfMatches >= MAX_MATCHES;
+		}
+
+		/**
+		 * write the output of the batch
+		 *
+		 * @return number of reads written
+		 */
+		int write(Writer w, Writer keggW) throws IOException {
+			w.append(taxonomyText);
+			if (keggW != null)
+				keggW.append(keggText);
+			return countOut;
+		}
+	}
+
+	/**
+	 * computes the assignments of reads. Each thread uses its own copy, so that buffers can be reused
+	 */
+	private static class Assigner {
+		private final float minScore;
+		private final float topPercent;
+		private final float maxExpected;
+		private final float minPercentIdentity;
+		private final double minComplexity;
+		private final boolean doKegg;
+		private final float keggTopPercent;
+		private final int keggRanksToReport;
+		private final boolean showTaxonIds;
+		private final boolean showRank;
+		private final boolean useOfficialRanksOnly;
+		private final Document longReadsDoc;
+
+		private final BitSet activeMatchesForTaxa = new BitSet();
+		private final BitSet activeMatchesForGenes = new BitSet();
+		private final AssignmentUsingIntervalUnionLCA longReadsAssignment;
+
+		/**
+		 * constructor
+		 *
+		 * @param longReadsDoc parameters of long-read LCA, or null, if not long reads
+		 */
+		Assigner(float minScore, float topPercent, float maxExpected, float minPercentIdentity, double minComplexity, boolean doKegg, float keggTopPercent, int keggRanksToReport,
+				 boolean showTaxonIds, boolean showRank, boolean useOfficialRanksOnly, Document longReadsDoc) {
+			this.minScore = minScore;
+			this.topPercent = topPercent;
+			this.maxExpected = maxExpected;
+			this.minPercentIdentity = minPercentIdentity;
+			this.minComplexity = minComplexity;
+			this.doKegg = doKegg;
+			this.keggTopPercent = keggTopPercent;
+			this.keggRanksToReport = keggRanksToReport;
+			this.showTaxonIds = showTaxonIds;
+			this.showRank = showRank;
+			this.useOfficialRanksOnly = useOfficialRanksOnly;
+			this.longReadsDoc = longReadsDoc;
+			this.longReadsAssignment = (longReadsDoc != null ? new AssignmentUsingIntervalUnionLCA(Classification.Taxonomy, longReadsDoc) : null);
+		}
+
+		/**
+		 * copy constructor, copies the parameters
+		 */
+		Assigner(Assigner that) {
+			this(that.minScore, that.topPercent, that.maxExpected, that.minPercentIdentity, that.minComplexity, that.doKegg, that.keggTopPercent, that.keggRanksToReport,
+					that.showTaxonIds, that.showRank, that.useOfficialRanksOnly, that.longReadsDoc);
+		}
+
+		/**
+		 * assign all reads in the batch and set its output
+		 *
+		 * @return the batch
+		 */
+		Batch apply(Batch batch) {
+			for (IReadBlock readBlock : batch.readBlocks) {
+				boolean hasLowComplexity = readBlock.getComplexity() > 0 && readBlock.getComplexity() + 0.01 < minComplexity;
+
+				if (hasLowComplexity) {
+					batch.taxonomyText.append(readBlock.getReadName()).append("; ; ").append(IdMapper.LOW_COMPLEXITY_ID).append(" ").append(readBlock.getComplexity()).append("\n");
+				} else {
+					if (doKegg) {
+						ActiveMatches.compute(minScore, keggTopPercent, maxExpected, minPercentIdentity, readBlock, "KEGG", activeMatchesForGenes);
+						batch.keggText.append(readBlock.getReadName()).append("; ;").append(TopAssignment.compute("KEGG", activeMatchesForGenes, readBlock, keggRanksToReport)).append("\n");
+					}
+
+					batch.taxonomyText.append(readBlock.getReadName()).append("; ;");
+					if (longReadsAssignment != null) {
+						// the long-read algorithm applies the top-percent filter along the read
+						ActiveMatches.compute(minScore, 0, maxExpected, minPercentIdentity, readBlock, Classification.Taxonomy, activeMatchesForTaxa);
+						final int taxonId = longReadsAssignment.computeId(activeMatchesForTaxa, readBlock);
+						batch.taxonomyText.append(TaxonPathAssignment.getPathAndPercent(taxonId, showTaxonIds, showRank, useOfficialRanksOnly, true));
+					} else {
+						ActiveMatches.compute(minScore, topPercent, maxExpected, minPercentIdentity, readBlock, Classification.Taxonomy, activeMatchesForTaxa);
+						batch.taxonomyText.append(TaxonPathAssignment.getPathAndPercent(readBlock, activeMatchesForTaxa, showTaxonIds, showRank, useOfficialRanksOnly, true));
+					}
+					batch.taxonomyText.append("\n");
+					batch.countOut++;
+				}
+			}
+			batch.readBlocks = null; // output is kept until written, reads are not needed anymore
+			return batch;
+		}
+	}
 }
@@ -41,6 +41,7 @@ import megan.main.Setup;
 import megan.parsers.blast.BlastFileFormat;
 import megan.parsers.blast.BlastModeUtils;
 import megan.rma6.RMA6Connector;
+import megan.rma6.RMA6FileCreator;
 import megan.rma6.RMA6FromBlastCreator;
 
 import java.io.File;
@@ -100,6 +101,7 @@ public class Blast2Rma {
 		options.comment("Output");
 		String[] outputFiles = options.getOptionMandatory("-o", "out", "Output file(s), one for each input file, or a directory", new String[0]);
 		boolean useCompression = options.getOption("-c", "useCompression", "Compress reads and matches in RMA file (smaller files, longer to generate", true);
+		RMA6FileCreator.setDefaultCompressionLevel(options.getOption("-cl", "compressionLevel", "Compression level, from 1 (fastest) to 9 (smallest files)", RMA6FileCreator.getDefaultCompressionLevel()));
 		options.comment("Reads");
 		final boolean pairedReads = options.getOption("-p", "paired", "Reads are paired", false);
 		final int pairedReadsSuffixLength = options.getOption("-ps", "pairedSuffixLength", "Length of name suffix used to distinguish between name of read and its mate", 0);
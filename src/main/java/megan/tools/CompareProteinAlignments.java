@@ -32,11 +32,17 @@ import megan.main.MeganProperties;
 import megan.main.Setup;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class CompareProteinAlignments {
+	private static final int MAX_FAN_IN = 128;
+	private static final int MAX_READS_PER_BATCH = 1000;
+	private static final long MEMORY_BUDGET = 512L * 1024L * 1024L;
+
 	/**
 	 * compares protein alignments
 	 */
@@ -82,74 +88,186 @@ public class CompareProteinAlignments {
 		if (onlyCompareDominatingMatches)
 			throw new UsageException("--dominatingOnly: not implemented");
 
+		final var numberOfThreads = ProgramExecutorService.getNumberOfCoresToUse();
+		final var service = Executors.newFixedThreadPool(numberOfThreads);
+		final var runs = new ArrayList<File>();
+		final var pairOutputs = new ArrayList<File>();
+
 		final Writer w = new BufferedWriter(outputFileName.equalsIgnoreCase("stdout") ? new OutputStreamWriter(System.out) : new FileWriter(outputFileName));
 		try {
 			w.write("# " + new ComparisonResult().getFormatString() + "\n");
 
-			for (int i = 0; i < inputFiles.length; i++) {
-				final MeganFile file1 = new MeganFile();
-				file1.setFileFromExistingFile(inputFiles[i], true);
-				final IConnector connector1 = file1.getConnector();
-
-				for (int j = i + 1; j < inputFiles.length; j++) {
-					final MeganFile file2 = new MeganFile();
-					file2.setFileFromExistingFile(inputFiles[j], true);
-					final IConnector connector2 = file2.getConnector();
-
-					final Map<String, Long> name2Uid = getName2Uid(connector2, normalizer);
-					final IReadBlockGetter getter2 = connector2.getReadBlockGetter(0, 10, true, true);
-					final ComparisonResult total = new ComparisonResult("total", 0, 0);
-
-					int count = 0;
-					try (IReadBlockIterator it = connector1.getAllReadsIterator(0, 10, true, true);
-						 ProgressPercentage progress = new ProgressPercentage("Comparing files " + inputFiles[i] + " and " + inputFiles[j], it.getMaximumProgress())) {
-						w.write("# Comparison " + FileUtils.getFileNameWithoutPath(inputFiles[i]) + " and " + FileUtils.getFileNameWithoutPath(inputFiles[j]) + ":\n");
-						while (it.hasNext()) {
-							final IReadBlock readBlock1 = it.next();
-
-							final String name1 = normalizer.apply(readBlock1.getReadName());
-							final Long uid2 = name2Uid.get(name1);
-							if (uid2 == null)
-								throw new IOException("Read '" + name1 + "' not found, uid=null");
-
-							final IReadBlock readBlock2 = getter2.getReadBlock(uid2);
-							final ComparisonResult comparison = computeComparison(normalizer.apply(name1), readBlock1, readBlock2);
-							total.add(comparison);
-							w.write(comparison + "\n");
-							progress.setProgress(it.getProgress());
-							count++;
+			// all files are read once, their reads are sorted by name and then merged, so reads with the same name can be compared:
+			writeSortedRuns(inputFiles, normalizer, service, numberOfThreads, runs);
+			final var pairs = new PairComparisons(inputFiles.length);
+			for (var p = 0; p < pairs.size(); p++)
+				pairOutputs.add(createTempFile());
+			final var pairWriters = new ArrayList<Writer>(pairs.size());
+			try {
+				for (var file : pairOutputs)
+					pairWriters.add(new BufferedWriter(new FileWriter(file), 1 << 16));
+
+				final var pending = new ArrayDeque<Future<ComparisonResult[][]>>(); // comparisons for batches of names, in name order
+				final var maxPending = 2 * numberOfThreads;
+				try (var merger = new RunMerger(runs); ProgressPercentage progress = new ProgressPercentage("Comparing files", merger.getMaximumProgress())) {
+					var batch = new ArrayList<ArrayList<String>>();
+					var batchSize = 0;
+					while (merger.hasNext()) {
+						final var group = merger.nextGroup();
+						batch.add(group);
+						batchSize += group.size();
+						if (batchSize >= MAX_READS_PER_BATCH || !merger.hasNext()) {
+							final var toCompare = batch;
+							pending.add(service.submit(() -> pairs.compare(toCompare, inputFiles, normalizer)));
+							batch = new ArrayList<>();
+							batchSize = 0;
+							while (pending.size() > maxPending || (!merger.hasNext() && pending.size() > 0)) {
+								pairs.write(pending.poll().get(), pairWriters);
+							}
+							progress.setProgress(merger.getProgress());
 						}
 					}
-					if (count > 1)
-						w.write(total + "\n");
+				}
+			} finally {
+				for (var pairWriter : pairWriters)
+					pairWriter.close();
+			}
+
+			for (var i = 0; i < inputFiles.length; i++) {
+				for (var j = i + 1; j < inputFiles.length; j++) {
+					final var pair = pairs.getPair(i, j);
+					w.write("# Comparison " + FileUtils.getFileNameWithoutPath(inputFiles[i]) + " and " + FileUtils.getFileNameWithoutPath(inputFiles[j]) + ":\n");
+					try (var r = new BufferedReader(new FileReader(pairOutputs.get(pair)), 1 << 16)) {
+						r.transferTo(w);
+					}
+					if (pairs.getCount(pair) > 1)
+						w.write(pairs.getTotal(pair) + "\n");
 				}
 			}
 			w.flush();
+		} catch (ExecutionException ex) {
+			throw (ex.getCause() instanceof Exception cause ? cause : ex);
 		} finally {
+			service.shutdownNow();
+			deleteAll(runs);
+			deleteAll(pairOutputs);
 			if (!outputFileName.equalsIgnoreCase("stdout"))
 				w.close();
 		}
 	}
 
-	private ComparisonResult computeComparison(final String name, IReadBlock readBlock1, IReadBlock readBlock2) {
-		final Map<String, ArrayList<IMatchBlock>> accession2Matches1 = computeAccession2Matches(readBlock1);
-		final Map<String, ArrayList<IMatchBlock>> accession2Matches2 = computeAccession2Matches(readBlock2);
+	/**
+	 * reads each file once and writes the reads, as alignment records, into temporary files of reads sorted by name.
+	 * Sorting is done in parallel, using a bounded amount of memory. The runs are added in file order
+	 */
+	private static void writeSortedRuns(String[] inputFiles, NameNormalizer normalizer, ExecutorService service, int numberOfThreads, ArrayList<File> runs) throws IOException, InterruptedException, ExecutionException {
+		final var maxChunkBytes = Math.max(1 << 20, MEMORY_BUDGET / (numberOfThreads + 1));
+		final var pending = new ArrayDeque<Future<File>>();
+
+		for (var f = 0; f < inputFiles.length; f++) {
+			final var file = new MeganFile();
+			file.setFileFromExistingFile(inputFiles[f], true);
+			final var connector = file.getConnector();
+
+			var chunk = new ArrayList<String>();
+			var chunkBytes = 0L;
+			try (IReadBlockIterator it = connector.getAllReadsIterator(0, 10, true, true);
+				 ProgressPercentage progress = new ProgressPercentage("Reading file " + inputFiles[f], it.getMaximumProgress())) {
+				while (it.hasNext()) {
+					final IReadBlock readBlock = it.next();
+					final var line = ReadRecord.toLine(normalizer.apply(readBlock.getReadName()), f, readBlock);
+					chunk.add(line);
+					chunkBytes += 2L * line.length() + 48;
+					if (chunkBytes >= maxChunkBytes || !it.hasNext()) {
+						if (pending.size() == numberOfThreads)
+							runs.add(pending.poll().get());
+						final var toSort = chunk;
+						pending.add(service.submit(() -> writeSortedRun(toSort)));
+						chunk = new ArrayList<>();
+						chunkBytes = 0;
+					}
+					progress.setProgress(it.getProgress());
+				}
+			}
+		}
+		while (pending.size() > 0)
+			runs.add(pending.poll().get());
+
+		// merge runs, in parallel, until few enough remain for the final merge:
+		while (runs.size() > MAX_FAN_IN) {
+			final var merges = new ArrayList<Future<File>>();
+			for (var start = 0; start < runs.size(); start += MAX_FAN_IN) {
+				final var group = new ArrayList<>(runs.subList(start, Math.min(runs.size(), start + MAX_FAN_IN)));
+				merges.add(service.submit(() -> {
+					final var merged = createTempFile();
+					try (var merger = new RunMerger(group); var w = new BufferedWriter(new FileWriter(merged), 1 << 20)) {
+						while (merger.hasNext()) {
+							w.write(merger.next());
+							w.write('\n');
+						}
+					}
+					return merged;
+				}));
+			}
+			final var merged = new ArrayList<File>();
+			for (var future : merges)
+				merged.add(future.get());
+			deleteAll(runs);
+			runs.addAll(merged);
+		}
+	}
+
+	/**
+	 * sorts lines by read name, keeping the order of lines with the same name, and writes them to a temporary file
+	 */
+	private static File writeSortedRun(ArrayList<String> lines) throws IOException {
+		lines.sort(ReadRecord::compareNames);
+		final var file = createTempFile();
+		try (var w = new BufferedWriter(new FileWriter(file), 1 << 20)) {
+			for (var line : lines) {
+				w.write(line);
+				w.write('\n');
+			}
+		}
+		return file;
+	}
 
-		final ComparisonResult comparison = new ComparisonResult(name, readBlock1.getReadLength(), readBlock2.getReadLength());
-		comparison.coveredInA = computeIntervalTreeOnQuery(getAllMatches(readBlock1)).getCovered();
-		comparison.coveredInB = computeIntervalTreeOnQuery(getAllMatches(readBlock2)).getCovered();
+	private static File createTempFile() throws IOException {
+		final var file = File.createTempFile("megan-compare-", ".tmp");
+		file.deleteOnExit();
+		return file;
+	}
+
+	private static void deleteAll(List<File> files) {
+		for (var file : files) {
+			if (!file.delete())
+				System.err.println("Failed to delete temporary file: " + file);
+		}
+		files.clear();
+	}
+
+	/**
+	 * compare two reads
+	 */
+	private static ComparisonResult computeComparison(final String name, ReadRecord read1, ReadRecord read2) {
+		final Map<String, ArrayList<Alignment>> accession2Matches1 = computeAccession2Matches(read1);
+		final Map<String, ArrayList<Alignment>> accession2Matches2 = computeAccession2Matches(read2);
+
+		final ComparisonResult comparison = new ComparisonResult(name, read1.readLength, read2.readLength);
+		comparison.coveredInA = computeIntervalTreeOnQuery(read1.alignments).getCovered();
+		comparison.coveredInB = computeIntervalTreeOnQuery(read2.alignments).getCovered();
 
 		for (String accession : accession2Matches1.keySet()) {
-			final ArrayList<IMatchBlock> matches1 = accession2Matches1.get(accession);
+			final ArrayList<Alignment> matches1 = accession2Matches1.get(accession);
 
 			if (!accession2Matches2.containsKey(accession)) {
 				comparison.matchesOnlyInA += matches1.size();
 				comparison.alignedAAOnlyInA += computeAlignedBases(matches1);
 			} else {
-				final IntervalTree<IMatchBlock> intervalTree1 = computeIntervalTreeOnReference(matches1);
+				final IntervalTree<Alignment> intervalTree1 = computeIntervalTreeOnReference(matches1);
 
-				final ArrayList<IMatchBlock> matches2 = accession2Matches2.get(accession);
-				final IntervalTree<IMatchBlock> intervalTree2 = computeIntervalTreeOnReference(matches2);
+				final ArrayList<Alignment> matches2 = accession2Matches2.get(accession);
+				final IntervalTree<Alignment> intervalTree2 = computeIntervalTreeOnReference(matches2);
 
 				{
 					int[] count = computeOnlyInFirst(matches1, intervalTree2);
@@ -178,7 +296,7 @@ public class CompareProteinAlignments {
 			}
 		}
 		for (String accession : accession2Matches2.keySet()) {
-			final ArrayList<IMatchBlock> matches2 = accession2Matches2.get(accession);
+			final ArrayList<Alignment> matches2 = accession2Matches2.get(accession);
 			if (!accession2Matches1.containsKey(accession)) {
 				comparison.matchesOnlyInB += matches2.size();
 				comparison.alignedAAOnlyInB += computeAlignedBases(matches2);
@@ -188,23 +306,16 @@ public class CompareProteinAlignments {
 		return comparison;
 	}
 
-	private ArrayList<IMatchBlock> getAllMatches(IReadBlock readBlock) {
-		final ArrayList<IMatchBlock> list = new ArrayList<>(readBlock.getNumberOfAvailableMatchBlocks());
-		for (int i = 0; i < readBlock.getNumberOfAvailableMatchBlocks(); i++)
-			list.add(readBlock.getMatchBlock(i));
-		return list;
-	}
-
 	/**
 	 * computes the number of matches not present in the tree
 	 *
 	 * @return number of alignments and bases
 	 */
-	private static int[] computeOnlyInFirst(ArrayList<IMatchBlock> matches, IntervalTree<IMatchBlock> tree) {
+	private static int[] computeOnlyInFirst(ArrayList<Alignment> matches, IntervalTree<Alignment> tree) {
 		int[] count = {0, 0};
-		for (IMatchBlock matchBlock : matches) {
-			int a = getSubjStart(matchBlock);
-			int b = getSubjEnd(matchBlock);
+		for (Alignment alignment : matches) {
+			int a = alignment.subjStart();
+			int b = alignment.subjEnd();
 			if (tree.getIntervals(a, b).size() == 0) {
 				count[0]++;
 				count[1] += Math.abs(a - b) + 1;
@@ -218,13 +329,13 @@ public class CompareProteinAlignments {
 	 *
 	 * @return number of alignments and bases
 	 */
-	private static int[] computeLongerInFirst(ArrayList<IMatchBlock> matches, IntervalTree<IMatchBlock> tree) {
+	private static int[] computeLongerInFirst(ArrayList<Alignment> matches, IntervalTree<Alignment> tree) {
 		int[] count = {0, 0, 0};
-		for (IMatchBlock matchBlock : matches) {
-			int a = getSubjStart(matchBlock);
-			int b = getSubjEnd(matchBlock);
+		for (Alignment alignment : matches) {
+			int a = alignment.subjStart();
+			int b = alignment.subjEnd();
 
-			final Interval<IMatchBlock>[] overlappers = tree.getIntervalsSortedByDecreasingIntersectionLength(a, b);
+			final Interval<Alignment>[] overlappers = tree.getIntervalsSortedByDecreasingIntersectionLength(a, b);
 			if (overlappers.length > 0) {
 				final int diff = Math.abs(a - b) + 1 - overlappers[0].length();
 				if (diff > 0) {
@@ -242,13 +353,13 @@ public class CompareProteinAlignments {
 	 *
 	 * @return number of alignments and bases
 	 */
-	private static int[] computeSameInBoth(ArrayList<IMatchBlock> matches, IntervalTree<IMatchBlock> tree) {
+	private static int[] computeSameInBoth(ArrayList<Alignment> matches, IntervalTree<Alignment> tree) {
 		int[] count = {0, 0};
-		for (IMatchBlock matchBlock : matches) {
-			int a = getSubjStart(matchBlock);
-			int b = getSubjEnd(matchBlock);
+		for (Alignment alignment : matches) {
+			int a = alignment.subjStart();
+			int b = alignment.subjEnd();
 
-			final Interval<IMatchBlock>[] overlappers = tree.getIntervalsSortedByDecreasingIntersectionLength(a, b);
+			final Interval<Alignment>[] overlappers = tree.getIntervalsSortedByDecreasingIntersectionLength(a, b);
 			if (overlappers.length > 0) {
 				final int diff = Math.abs(a - b) + 1 - overlappers[0].length();
 				if (diff == 0) {
@@ -265,10 +376,10 @@ public class CompareProteinAlignments {
 	 *
 	 * @return interval tree
 	 */
-	private static IntervalTree<IMatchBlock> computeIntervalTreeOnReference(ArrayList<IMatchBlock> matches) {
-		final IntervalTree<IMatchBlock> tree = new IntervalTree<>();
-		for (IMatchBlock matchBlock : matches) {
-			tree.add(getSubjStart(matchBlock), getSubjEnd(matchBlock), matchBlock);
+	private static IntervalTree<Alignment> computeIntervalTreeOnReference(ArrayList<Alignment> matches) {
+		final IntervalTree<Alignment> tree = new IntervalTree<>();
+		for (Alignment alignment : matches) {
+			tree.add(alignment.subjStart(), alignment.subjEnd(), alignment);
 		}
 		return tree;
 	}
@@ -278,10 +389,10 @@ public class CompareProteinAlignments {
 	 *
 	 * @return interval tree
 	 */
-	private static IntervalTree<IMatchBlock> computeIntervalTreeOnQuery(ArrayList<IMatchBlock> matches) {
-		final IntervalTree<IMatchBlock> tree = new IntervalTree<>();
-		for (IMatchBlock matchBlock : matches) {
-			tree.add(matchBlock.getAlignedQueryStart(), matchBlock.getAlignedQueryEnd(), matchBlock);
+	private static IntervalTree<Alignment> computeIntervalTreeOnQuery(ArrayList<Alignment> matches) {
+		final IntervalTree<Alignment> tree = new IntervalTree<>();
+		for (Alignment alignment : matches) {
+			tree.add(alignment.queryStart(), alignment.queryEnd(), alignment);
 		}
 		return tree;
 	}
@@ -289,10 +400,10 @@ public class CompareProteinAlignments {
 	/**
 	 * compute the number of aligned bases in this list of matches
 	 */
-	private static int computeAlignedBases(ArrayList<IMatchBlock> matches) {
+	private static int computeAlignedBases(ArrayList<Alignment> matches) {
 		int count = 0;
-		for (IMatchBlock matchBlock : matches) {
-			count += Math.abs(getSubjStart(matchBlock) - getSubjEnd(matchBlock)) + 1;
+		for (Alignment alignment : matches) {
+			count += Math.abs(alignment.subjStart() - alignment.subjEnd()) + 1;
 		}
 		return count;
 	}
@@ -335,29 +446,248 @@ public class CompareProteinAlignments {
 	 *
 	 * @return mapping
 	 */
-	private static Map<String, ArrayList<IMatchBlock>> computeAccession2Matches(IReadBlock readBlock) {
-		final Map<String, ArrayList<IMatchBlock>> map = new HashMap<>();
-		for (int m = 0; m < readBlock.getNumberOfAvailableMatchBlocks(); m++) {
-			final IMatchBlock matchBlock = readBlock.getMatchBlock(m);
-			final String accession = matchBlock.getTextFirstWord();
-			ArrayList<IMatchBlock> matches = map.computeIfAbsent(accession, k -> new ArrayList<>());
-			matches.add(matchBlock);
+	private static Map<String, ArrayList<Alignment>> computeAccession2Matches(ReadRecord read) {
+		final Map<String, ArrayList<Alignment>> map = new HashMap<>();
+		for (Alignment alignment : read.alignments) {
+			ArrayList<Alignment> matches = map.computeIfAbsent(alignment.accession(), k -> new ArrayList<>());
+			matches.add(alignment);
 		}
 		return map;
 	}
 
 	/**
-	 * computes a  name to Uid
-	 *
-	 * @return mapping
+	 * the values of an alignment used in the comparison
+	 */
+	private record Alignment(String accession, int queryStart, int queryEnd, int subjStart, int subjEnd) {
+	}
+
+	/**
+	 * a read and its alignments, stored as a line of text in the sorted runs: name, file, read length and then five fields per alignment
 	 */
-	private Map<String, Long> getName2Uid(IConnector connector, final NameNormalizer normalizer) throws IOException {
-		final Map<String, Long> name2uid = new HashMap<>();
-		for (IReadBlockIterator it = connector.getAllReadsIterator(0, 10, false, false); it.hasNext(); ) {
-			final IReadBlock readBlock = it.next();
-			name2uid.put(normalizer.apply(readBlock.getReadName()), readBlock.getUId());
+	private static class ReadRecord {
+		private final String name;
+		private final int file;
+		private final int readLength;
+		private final ArrayList<Alignment> alignments;
+
+		private ReadRecord(String line) {
+			final var tokens = line.split("\t", -1);
+			name = tokens[0];
+			file = Integer.parseInt(tokens[1]);
+			readLength = Integer.parseInt(tokens[2]);
+			alignments = new ArrayList<>((tokens.length - 3) / 5);
+			for (var t = 3; t + 4 < tokens.length; t += 5) {
+				alignments.add(new Alignment(tokens[t], Integer.parseInt(tokens[t + 1]), Integer.parseInt(tokens[t + 2]), Integer.parseInt(tokens[t + 3]), Integer.parseInt(tokens[t + 4])));
+			}
+		}
+
+		static String toLine(String name, int file, IReadBlock readBlock) {
+			final var buf = new StringBuilder();
+			buf.append(name).append('\t').append(file).append('\t').append(readBlock.getReadLength());
+			for (var m = 0; m < readBlock.getNumberOfAvailableMatchBlocks(); m++) {
+				final var matchBlock = readBlock.getMatchBlock(m);
+				buf.append('\t').append(matchBlock.getTextFirstWord());
+				buf.append('\t').append(matchBlock.getAlignedQueryStart()).append('\t').append(matchBlock.getAlignedQueryEnd());
+				buf.append('\t').append(getSubjStart(matchBlock)).append('\t').append(getSubjEnd(matchBlock));
+			}
+			return buf.toString();
+		}
+
+		/**
+		 * compares the read names of two lines, without creating any strings
+		 */
+		static int compareNames(String a, String b) {
+			for (var i = 0; ; i++) {
+				final var endA = (a.charAt(i) == '\t');
+				final var endB = (b.charAt(i) == '\t');
+				if (endA || endB)
+					return (endA && endB ? 0 : (endA ? -1 : 1));
+				if (a.charAt(i) != b.charAt(i))
+					return Character.compare(a.charAt(i), b.charAt(i));
+			}
+		}
+
+		static String getName(String line) {
+			return line.substring(0, line.indexOf('\t'));
+		}
+	}
+
+	/**
+	 * merges sorted runs. Lines with the same read name are returned in run order, and thus in file order
+	 */
+	private static class RunMerger implements Closeable {
+		private final ArrayList<BufferedReader> readers = new ArrayList<>();
+		private final PriorityQueue<RunHead> queue = new PriorityQueue<>((a, b) -> {
+			final var compare = ReadRecord.compareNames(a.line, b.line);
+			return (compare != 0 ? compare : Integer.compare(a.run, b.run));
+		});
+		private final long maximumProgress;
+		private long progress;
+
+		RunMerger(List<File> runs) throws IOException {
+			var size = 0L;
+			try {
+				for (var run : runs) {
+					size += run.length();
+					final var reader = new BufferedReader(new FileReader(run), 1 << 16);
+					readers.add(reader);
+					final var line = reader.readLine();
+					if (line != null)
+						queue.add(new RunHead(line, readers.size() - 1));
+				}
+			} catch (IOException ex) {
+				close();
+				throw ex;
+			}
+			maximumProgress = size;
+		}
+
+		boolean hasNext() {
+			return queue.size() > 0;
+		}
+
+		String next() throws IOException {
+			final var head = queue.poll();
+			final var line = head.line;
+			progress += line.length() + 1;
+			head.line = readers.get(head.run).readLine();
+			if (head.line != null)
+				queue.add(head);
+			return line;
+		}
+
+		/**
+		 * gets all lines for the next read name
+		 */
+		ArrayList<String> nextGroup() throws IOException {
+			final var group = new ArrayList<String>();
+			group.add(next());
+			while (hasNext() && ReadRecord.compareNames(queue.peek().line, group.get(0)) == 0)
+				group.add(next());
+			return group;
+		}
+
+		long getMaximumProgress() {
+			return maximumProgress;
+		}
+
+		long getProgress() {
+			return progress;
+		}
+
+		@Override
+		public void close() throws IOException {
+			for (var reader : readers)
+				reader.close();
+		}
+
+		private static class RunHead {
+			private String line;
+			private final int run;
+
+			RunHead(String line, int run) {
+				this.line = line;
+				this.run = run;
+			}
+		}
+	}
+
+	/**
+	 * the comparisons of all pairs of files, and their totals
+	 */
+	private static class PairComparisons {
+		private final int numberOfFiles;
+		private final ComparisonResult[] totals;
+		private final int[] counts;
+
+		PairComparisons(int numberOfFiles) {
+			this.numberOfFiles = numberOfFiles;
+			totals = new ComparisonResult[numberOfFiles * (numberOfFiles - 1) / 2];
+			counts = new int[totals.length];
+			for (var p = 0; p < totals.length; p++)
+				totals[p] = new ComparisonResult("total", 0, 0);
+		}
+
+		int size() {
+			return totals.length;
+		}
+
+		/**
+		 * index of the pair of files i<j
+		 */
+		int getPair(int i, int j) {
+			return i * numberOfFiles - i * (i + 1) / 2 + (j - i - 1);
+		}
+
+		ComparisonResult getTotal(int pair) {
+			return totals[pair];
+		}
+
+		int getCount(int pair) {
+			return counts[pair];
+		}
+
+		/**
+		 * compares all reads in a batch of groups of lines with the same read name, for all pairs of files.
+		 * As before, each read of the first file is compared to the last read of the same name in the second file
+		 *
+		 * @return for each pair, the comparisons, or null, if there are none
+		 */
+		ComparisonResult[][] compare(ArrayList<ArrayList<String>> groups, String[] inputFiles, NameNormalizer normalizer) throws IOException {
+			final var lists = new ArrayList<ArrayList<ComparisonResult>>(size());
+			for (var p = 0; p < size(); p++)
+				lists.add(null);
+			final var reads = new ArrayList<ArrayList<ReadRecord>>(numberOfFiles);
+			for (var group : groups) {
+				reads.clear();
+				for (var f = 0; f < numberOfFiles; f++)
+					reads.add(null);
+				for (var line : group) {
+					final var read = new ReadRecord(line);
+					if (reads.get(read.file) == null)
+						reads.set(read.file, new ArrayList<>());
+					reads.get(read.file).add(read);
+				}
+				for (var i = 0; i < numberOfFiles; i++) {
+					if (reads.get(i) != null) {
+						for (var j = i + 1; j < numberOfFiles; j++) {
+							final var reads2 = reads.get(j);
+							if (reads2 == null)
+								throw new IOException("Read '" + ReadRecord.getName(group.get(0)) + "' not found in file: " + inputFiles[j]);
+							final var read2 = reads2.get(reads2.size() - 1);
+							final var pair = getPair(i, j);
+							if (lists.get(pair) == null)
+								lists.set(pair, new ArrayList<>());
+							for (var read1 : reads.get(i)) {
+								lists.get(pair).add(computeComparison(normalizer.apply(read1.name), read1, read2));
+							}
+						}
+					}
+				}
+			}
+			final var result = new ComparisonResult[size()][];
+			for (var pair = 0; pair < size(); pair++) {
+				if (lists.get(pair) != null)
+					result[pair] = lists.get(pair).toArray(new ComparisonResult[0]);
+			}
+			return result;
+		}
+
+		/**
+		 * writes the comparisons of a batch and adds them to the totals
+		 */
+		void write(ComparisonResult[][] comparisons, ArrayList<Writer> writers) throws IOException {
+			for (var pair = 0; pair < size(); pair++) {
+				if (comparisons[pair] != null) {
+					final var w = writers.get(pair);
+					for (var comparison : comparisons[pair]) {
+						totals[pair].add(comparison);
+						w.write(comparison + "\n");
+						counts[pair]++;
+					}
+				}
+			}
 		}
-		return name2uid;
 	}
 
 	/**
@@ -25,6 +25,7 @@ import jloda.util.*;
 import megan.core.ClassificationType;
 import megan.core.Document;
 import megan.dialogs.compare.Comparer;
+import megan.dialogs.compare.SparseCounts;
 import megan.main.Megan7;
 import megan.main.MeganProperties;
 import megan.main.Setup;
@@ -34,6 +35,8 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -85,6 +88,8 @@ public class ComputeComparison {
 
 		final var keepOne = options.getOption("-k1", "keepOne", "In a normalized comparison, non-zero counts are mapped to 1 or more", false);
 
+		ProgramExecutorService.setNumberOfCoresToUse(options.getOption("-t", "threads", "Number of threads used to open input files", 8));
+
 		final var propertiesFile = options.getOption("-P", "propertiesFile", "Properties file", Megan7.getDefaultPropertiesFile());
 		options.done();
 
@@ -105,16 +110,8 @@ public class ComputeComparison {
 			throw new UsageException("No input file");
 
 		var samples = new ArrayList<SampleData>();
-
-		for (var fileName : inputFiles) {
-			System.err.println("Processing file: " + fileName);
-			final var doc = new Document();
-			doc.getMeganFile().setFileFromExistingFile(fileName, true);
-			doc.loadMeganFile();
-
-			final var docSamples = doc.getSampleNamesAsArray();
-			for (var s = 0; s < docSamples.length; s++) {
-				final var sample = new SampleData(doc, s);
+		for (var fileSamples : loadSamples(inputFiles, ignoreUnassignedReads)) {
+			for (var sample : fileSamples) {
 				samples.add(sample);
 				System.err.println(sample);
 			}
@@ -189,46 +186,31 @@ public class ComputeComparison {
 		{
 			var sample2source = new HashMap<String, Object>();
 			for (var sample : samples) {
-				sample2source.put(sample.getName(), sample.getDoc().getMeganFile().getFileName());
+				sample2source.put(sample.getName(), sample.getFileName());
 			}
 			doc.getSampleAttributeTable().addAttribute("@Source", sample2source, false, true);
 		}
 
 		doc.setNumberReads(Math.round(CollectionUtils.getSum(sizes)));
 
-		for (var classification : getClassifications(samples)) {
-			final Map<Integer, float[]> class2counts = new HashMap<>();
-
-			for (var sample : samples) {
-				final double factor;
-				if (normalize) {
-					if (ignoreUnassignedReads)
-						factor = (sample.getAssigned() > 0 ? min.getAsDouble() / sample.getAssigned() : 1);
-					else
-						factor = (sample.getCount() > 0 ? min.getAsDouble() / sample.getCount() : 1);
-				} else
-					factor = 1;
-				sample.setFactor(factor);
-			}
+		final var factors = new double[numberOfSamples];
+		for (var s = 0; s < numberOfSamples; s++) {
+			final var sample = samples.get(s);
+			final double factor;
+			if (normalize) {
+				if (ignoreUnassignedReads)
+					factor = (sample.getAssigned() > 0 ? min.getAsDouble() / sample.getAssigned() : 1);
+				else
+					factor = (sample.getCount() > 0 ? min.getAsDouble() / sample.getCount() : 1);
+			} else
+				factor = 1;
+			sample.setFactor(factor);
+			factors[s] = factor;
+		}
 
-			for (var c : getClassIds(classification, samples, ignoreUnassignedReads)) {
-				var newValues = class2counts.computeIfAbsent(c, z -> new float[numberOfSamples]);
-				for (var s = 0; s < numberOfSamples; s++) {
-					final SampleData sample = samples.get(s);
-					final int which = sample.getWhich();
-					var counts = sample.getDoc().getDataTable().getClass2Counts(classification);
-					if (counts != null) {
-						var values = counts.get(c);
-						if (values != null && which < values.length) {
-							var value = values[which];
-							newValues[s] = (float) sample.getFactor() * value;
-							if (keepOne && value > 0 && newValues[s] == 0)
-								newValues[s] = 1;
-						}
-					}
-				}
-			}
-			doc.getDataTable().setClass2Counts(classification, class2counts);
+		for (var classification : getClassifications(samples)) {
+			final var columns = samples.stream().map(sample -> sample.getCounts(classification)).collect(Collectors.toList());
+			doc.getDataTable().setClass2Counts(classification, SparseCounts.merge(columns, factors, keepOne));
 		}
 
 		doc.setReadAssignmentMode(readAssignmentMode);
@@ -259,6 +241,63 @@ public class ComputeComparison {
 		}
 	}
 
+	/**
+	 * opens all input files in parallel and summarizes their samples. Documents are not kept, only the sparse counts
+	 *
+	 * @return for each input file, the list of its samples
+	 */
+	private static List<List<SampleData>> loadSamples(List<String> inputFiles, boolean assignedOnly) throws IOException {
+		final var file2samples = new ArrayList<List<SampleData>>(Collections.nCopies(inputFiles.size(), null));
+
+		final var numberOfThreads = Math.max(1, Math.min(ProgramExecutorService.getNumberOfCoresToUse(), inputFiles.size()));
+		final var service = Executors.newFixedThreadPool(numberOfThreads);
+		final var exception = new Single<Exception>();
+
+		try {
+			for (var i = 0; i < inputFiles.size(); i++) {
+				final var index = i;
+				service.execute(() -> {
+					if (exception.isNull()) {
+						try {
+							final var fileName = inputFiles.get(index);
+							synchronized (System.err) {
+								System.err.println("Processing file: " + fileName);
+							}
+							final var doc = new Document();
+							doc.getMeganFile().setFileFromExistingFile(fileName, true);
+							doc.loadMeganFile();
+
+							final var fileSamples = new ArrayList<SampleData>();
+							for (var s = 0; s < doc.getSampleNamesAsArray().length; s++) {
+								fileSamples.add(new SampleData(doc, s, assignedOnly));
+							}
+							synchronized (file2samples) {
+								file2samples.set(index, fileSamples);
+							}
+						} catch (Exception ex) {
+							exception.setIfCurrentValueIsNull(ex);
+						}
+					}
+				});
+			}
+		} finally {
+			service.shutdown();
+		}
+		try {
+			if (!service.awaitTermination(1000, TimeUnit.DAYS))
+				exception.setIfCurrentValueIsNull(new IOException("timed out"));
+		} catch (InterruptedException ex) {
+			exception.setIfCurrentValueIsNull(ex);
+		} finally {
+			service.shutdownNow();
+		}
+		if (exception.isNotNull())
+			throw new IOException("Loading input files failed: " + exception.get().getMessage(), exception.get());
+		synchronized (file2samples) {
+			return file2samples;
+		}
+	}
+
 	public static double getTotalCount(Collection<SampleData> samples) {
 		return samples.stream().mapToDouble(SampleData::getCount).sum();
 	}
@@ -285,11 +324,6 @@ public class ComputeComparison {
 		return samples.stream().map(SampleData::getClassifications).flatMap(Collection::stream).distinct().collect(Collectors.toList());
 	}
 
-	public static Set<Integer> getClassIds(String classification, Collection<SampleData> samples, boolean assignedOnly) {
-		return samples.parallelStream().map(s -> s.getDoc().getDataTable().getClass2Counts(classification)).filter(Objects::nonNull).map(Map::keySet).flatMap(Set::stream).
-				filter(id -> !assignedOnly || id > 0).collect(Collectors.toSet());
-	}
-
 	public static String[] getSampleNames(Collection<SampleData> samples) {
 		return samples.stream().map(SampleData::getName).toArray(String[]::new);
 	}
@@ -307,7 +341,7 @@ public class ComputeComparison {
 	}
 
 	public static class SampleData {
-		private final Document doc;
+		private final String fileName;
 		private String name;
 		private final long uid;
 		private final int which;
@@ -316,11 +350,12 @@ public class ComputeComparison {
 		private final BlastMode blastMode;
 		private final Document.ReadAssignmentMode readAssignmentMode;
 		private final ArrayList<String> classifications;
+		private final Map<String, SparseCounts> classification2counts = new HashMap<>();
 
 		private double factor = 1;
 
-		public SampleData(Document doc, int which) {
-			this.doc = doc;
+		public SampleData(Document doc, int which, boolean assignedOnly) {
+			this.fileName = doc.getMeganFile().getFileName();
 			this.which = which;
 			this.name = doc.getSampleNames().get(which);
 			this.uid = doc.getDataTable().getSampleUIds()[which];
@@ -344,10 +379,24 @@ public class ComputeComparison {
 			blastMode = doc.getBlastMode();
 			readAssignmentMode = doc.getReadAssignmentMode();
 			classifications = new ArrayList<>(doc.getClassificationNames());
+			for (var classification : classifications) {
+				final var counts = doc.getDataTable().getClass2Counts(classification);
+				if (counts != null)
+					classification2counts.put(classification, SparseCounts.extract(counts, which, assignedOnly));
+			}
+		}
+
+		public String getFileName() {
+			return fileName;
 		}
 
-		public Document getDoc() {
-			return doc;
+		/**
+		 * get the counts of this sample for the given classification
+		 *
+		 * @return counts or null
+		 */
+		public SparseCounts getCounts(String classification) {
+			return classification2counts.get(classification);
 		}
 
 		public String getName() {
@@ -397,7 +446,7 @@ public class ComputeComparison {
 		@Override
 		public String toString() {
 			return String.format("Sample %s [%d in %s]: count=%,d assigned=%,d mode=%s classifications=%s",
-					name, which, FileUtils.getFileNameWithoutPath(doc.getMeganFile().getFileName()), (int) count, (int) assigned, readAssignmentMode.toString(), StringUtils.toString(classifications, " "));
+					name, which, FileUtils.getFileNameWithoutPath(fileName), (int) count, (int) assigned, readAssignmentMode.toString(), StringUtils.toString(classifications, " "));
 		}
 
 		@Override
@@ -408,7 +457,7 @@ public class ComputeComparison {
 			return which == that.which &&
 				   Float.compare(that.count, count) == 0 &&
 				   Float.compare(that.assigned, assigned) == 0 &&
-				   doc.getMeganFile().getFileName().equals(that.doc.getMeganFile().getFileName()) &&
+				   fileName.equals(that.fileName) &&
 				   name.equals(that.name) &&
 				   readAssignmentMode == that.readAssignmentMode &&
 				   classifications.equals(that.classifications);
@@ -416,7 +465,7 @@ public class ComputeComparison {
 
 		@Override
 		public int hashCode() {
-			return Objects.hash(doc.getMeganFile().getFileName(), name, which, count, assigned, readAssignmentMode, classifications);
+			return Objects.hash(fileName, name, which, count, assigned, readAssignmentMode, classifications);
 		}
 	}
 }
@@ -40,6 +40,7 @@ import megan.main.MeganProperties;
 import megan.main.Setup;
 import megan.parsers.blast.BlastFileFormat;
 import megan.rma6.RMA6Connector;
+import megan.rma6.RMA6FileCreator;
 import megan.rma6.RMA6FromBlastCreator;
 import megan.util.DAAFileFilter;
 
@@ -97,6 +98,7 @@ public class Daa2Rma {
 		options.comment("Output");
 		String[] outputFiles = options.getOptionMandatory("-o", "out", "Output file(s), one for each input file, or a directory", new String[0]);
 		boolean useCompression = options.getOption("-c", "useCompression", "Compress reads and matches in RMA file (smaller files, longer to generate", true);
+		RMA6FileCreator.setDefaultCompressionLevel(options.getOption("-cl", "compressionLevel", "Compression level, from 1 (fastest) to 9 (smallest files)", RMA6FileCreator.getDefaultCompressionLevel()));
 
 		options.comment("Reads");
 		final boolean pairedReads = options.getOption("-p", "paired", "Reads are paired", false);
@@ -392,6 +392,24 @@ public class Rma2Info {
 					taxonomyTree = ClassificationManager.get(Classification.Taxonomy, true).getFullTree();
 				}
 
+				// if the file contains per-read assignments, then a single linear scan suffices:
+				try (var reader = connector.getReadAssignmentsReader()) {
+					final var index = (reader != null ? reader.getClassificationIndex(classificationName) : -1);
+					if (index != -1) {
+						while (reader.next()) {
+							final var classId = reader.getClassId(index);
+							if (classId == 0 || (isTaxonomy && !(taxonomyRoot == 0 || isDescendant(Objects.requireNonNull(taxonomyTree), classId, taxonomyRoot))))
+								continue;
+							if (classId > 0 || !ignoreUnassigned) {
+								totalCount += writeRead2Class(w, reader.getReadName(), classId, isTaxonomy, majorRanksOnly, reportPaths, prefixRank, name2IdMap, classification);
+								if (!Stats.count.apply(totalCount))
+									return;
+							}
+						}
+						continue;
+					}
+				}
+
 				final var ids = new TreeSet<>(connector.getClassificationBlock(classificationName).getKeySet());
 
 				for (var classId : ids) {
@@ -402,49 +420,7 @@ public class Rma2Info {
 						try (IReadBlockIterator it = connector.getReadsIterator(classificationName, classId, 0, 10, true, false)) {
 							while (it.hasNext()) {
 								final IReadBlock readBlock = it.next();
-								final String className;
-
-								if (isTaxonomy) {
-									if (majorRanksOnly)
-										classId = TaxonomyData.getLowestAncestorWithMajorRank(classId);
-
-									if (reportPaths) {
-										className = TaxonomyData.getPathOrId(classId, majorRanksOnly);
-									} else if (name2IdMap == null || name2IdMap.get(classId) == null)
-										className = "" + classId;
-
-									else
-										className = name2IdMap.get(classId);
-									if (prefixRank) {
-										var rank = TaxonomyData.getTaxonomicRank(classId);
-										var rankLabel = TaxonomicLevels.getName(rank);
-										if (rankLabel == null || rankLabel.isBlank())
-											rankLabel = "?";
-										w.write(readBlock.getReadName() + "\t" + rankLabel.charAt(0) + "\t" + className + "\n");
-										totalCount++;
-									} else {
-										w.write(readBlock.getReadName() + "\t" + className + "\n");
-										totalCount++;
-									}
-								} else {
-									if (reportPaths) {
-										var nodes = classification.getFullTree().getNodes(classId);
-										if (nodes != null) {
-											for (Node v : nodes) {
-												var label = CSVExportCViewer.getPath(classification, v);
-												w.write(readBlock.getReadName() + "\t" + label + "\n");
-												totalCount++;
-											}
-										}
-									} else {
-										if (name2IdMap == null || name2IdMap.get(classId) == null)
-											className = "" + classId;
-										else
-											className = name2IdMap.get(classId);
-										w.write(readBlock.getReadName() + "\t" + className + "\n");
-										totalCount++;
-									}
-								}
+								totalCount += writeRead2Class(w, readBlock.getReadName(), classId, isTaxonomy, majorRanksOnly, reportPaths, prefixRank, name2IdMap, classification);
 								if (!Stats.count.apply(totalCount))
 									return;
 							}
@@ -455,6 +431,60 @@ public class Rma2Info {
 		}
 	}
 
+	/**
+	 * write the assignment of one read
+	 *
+	 * @return number of lines written
+	 */
+	private static int writeRead2Class(Writer w, String readName, int classId, boolean isTaxonomy, boolean majorRanksOnly, boolean reportPaths, boolean prefixRank,
+									   Name2IdMap name2IdMap, Classification classification) throws IOException {
+		var count = 0;
+		final String className;
+
+		if (isTaxonomy) {
+			if (majorRanksOnly)
+				classId = TaxonomyData.getLowestAncestorWithMajorRank(classId);
+
+			if (reportPaths) {
+				className = TaxonomyData.getPathOrId(classId, majorRanksOnly);
+			} else if (name2IdMap == null || name2IdMap.get(classId) == null)
+				className = "" + classId;
+
+			else
+				className = name2IdMap.get(classId);
+			if (prefixRank) {
+				var rank = TaxonomyData.getTaxonomicRank(classId);
+				var rankLabel = TaxonomicLevels.getName(rank);
+				if (rankLabel == null || rankLabel.isBlank())
+					rankLabel = "?";
+				w.write(readName + "\t" + rankLabel.charAt(0) + "\t" + className + "\n");
+				count++;
+			} else {
+				w.write(readName + "\t" + className + "\n");
+				count++;
+			}
+		} else {
+			if (reportPaths) {
+				var nodes = classification.getFullTree().getNodes(classId);
+				if (nodes != null) {
+					for (Node v : nodes) {
+						var label = CSVExportCViewer.getPath(classification, v);
+						w.write(readName + "\t" + label + "\n");
+						count++;
+					}
+				}
+			} else {
+				if (name2IdMap == null || name2IdMap.get(classId) == null)
+					className = "" + classId;
+				else
+					className = name2IdMap.get(classId);
+				w.write(readName + "\t" + className + "\n");
+				count++;
+			}
+		}
+		return count;
+	}
+
 	/**
 	 * determine whether given taxon is ancestor of one of the named taxa
 	 *
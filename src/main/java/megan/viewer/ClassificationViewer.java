@@ -44,6 +44,7 @@ import megan.dialogs.input.InputDialog;
 import megan.main.MeganProperties;
 import megan.util.DrawScaleBox;
 import megan.viewer.gui.NodeDrawer;
+import megan.viewer.gui.RectangleGrid;
 import megan.viewer.gui.ViewerJTable;
 import megan.viewer.gui.ViewerJTree;
 
@@ -71,6 +72,7 @@ public class ClassificationViewer extends ViewerBase implements IDirectableViewe
 	private final StatusBar statusBar;
 
 	private final Map<Integer, NodeData> id2NodeData = new HashMap<>();
+	private NodeSet inducedNodes; // nodes of the full tree that lie on or above a node with data, reset when the data changes
 	private final Map<Integer, Set<Node>> id2Nodes = new HashMap<>();
 	private final Map<Integer, Integer> id2rank;
 	private final Map<Integer, String> id2toolTip;
@@ -95,6 +97,7 @@ public class ClassificationViewer extends ViewerBase implements IDirectableViewe
 	private boolean doScrollToRight = false;
 
 	private boolean drawOnScreen = true;
+	private Rectangle visibleRect = new Rectangle(); // visible part of the panel, determined once per paint
 	private boolean mustDrawTwice = false;
 
 	private final MenuBar menuBar;
@@ -478,6 +481,7 @@ public class ClassificationViewer extends ViewerBase implements IDirectableViewe
 		totalAssignedReads = 0;
 
 		classification.getFullTree().computeId2Data(doc.getNumberOfSamples(), doc.getDataTable().getClass2Counts(getClassName()), id2NodeData);
+		inducedNodes = null;
 		for (Integer fId : id2NodeData.keySet()) {
 			if (fId > 0) {
 				totalAssignedReads += id2NodeData.get(fId).getCountAssigned();
@@ -501,7 +505,7 @@ public class ClassificationViewer extends ViewerBase implements IDirectableViewe
 		if (hasSyncedFormatFromSummaryToViewer)
 			SyncDataTableAndClassificationViewer.syncFormattingFromViewer2Summary(this, doc.getDataTable());
 
-		classification.getFullTree().extractInducedTree(id2NodeData, getCollapsedIds(), tree, id2Nodes);
+		classification.getFullTree().extractInducedTree(id2NodeData, getInducedNodes(), getCollapsedIds(), tree, id2Nodes);
 		nodeDrawer.setCounts(determineMaxCount());
 
 		if (tree.getRoot() != null) {
@@ -1000,8 +1004,10 @@ public class ClassificationViewer extends ViewerBase implements IDirectableViewe
 		if (drawOnScreen && trans.getMagnifier().isActive())
 			trans.getMagnifier().draw(gc);
 
+		visibleRect = getVisibleRect();
+
 		try {
-			final List<Node> drawableNodeLabels = new LinkedList<>();
+			final List<Node> drawableNodeLabels = new ArrayList<>();
 			final Node root = getTree().getRoot();
 			if (root != null)
 				paintRec(gc, root, drawableNodeLabels, true);
@@ -1096,7 +1102,7 @@ public class ClassificationViewer extends ViewerBase implements IDirectableViewe
         }
         */
 
-		if (drawOnScreen && !getVisibleRect().intersects(bboxDeviceCoordinates)) // && getTree().getDegree(v) > 1)
+		if (drawOnScreen && !visibleRect.intersects(bboxDeviceCoordinates)) // && getTree().getDegree(v) > 1)
 			return; // nothing visible, return
 
 		final NodeView nv = getNV(v);
@@ -1131,6 +1137,8 @@ public class ClassificationViewer extends ViewerBase implements IDirectableViewe
 				Point2D nextToW = getNV(v).getLocation();
 				if (nextToV == null || nextToW == null)
 					continue;
+				if (drawOnScreen && !isEdgeAndSubTreeVisible(f, w))
+					continue; // neither the edge nor anything below it is visible
 				if (getInternalPoints(f) != null) {
 					if (getInternalPoints(f).size() != 0) {
 						nextToV = getInternalPoints(f).get(0);
@@ -1176,6 +1184,28 @@ public class ClassificationViewer extends ViewerBase implements IDirectableViewe
 			drawableNodeLabels.add(v);
 	}
 
+	/**
+	 * does the given edge or the subtree below it intersect the visible rectangle? Uses the bounding box of the subtree,
+	 * extended to the source node and any internal points of the edge, plus room for node glyphs
+	 */
+	private boolean isEdgeAndSubTreeVisible(Edge f, Node w) {
+		final Rectangle bbox = node2BoundingBox.get(w);
+		if (bbox == null)
+			return true;
+		final Rectangle area = (Rectangle) bbox.clone();
+		final Point2D location = getNV(f.getSource()).getLocation();
+		area.add(location);
+		if (getInternalPoints(f) != null) {
+			for (Point2D point : getInternalPoints(f))
+				area.add(point);
+		}
+		final Rectangle areaDeviceCoordinates = new Rectangle();
+		trans.w2d(area, areaDeviceCoordinates);
+		final int margin = nodeDrawer.getMaxNodeHeight() + 10;
+		areaDeviceCoordinates.grow(margin, margin);
+		return visibleRect.intersects(areaDeviceCoordinates);
+	}
+
 	private double oldXScale = 0;
 	private double oldYScale = 0;
 
@@ -1208,30 +1238,22 @@ public class ClassificationViewer extends ViewerBase implements IDirectableViewe
 				}
 			}
 			List<Pair<Node, Node>> pairs = new LinkedList<>();
-			for (Node v : drawableNodeLabels) {
-				if (getNV(v) == null || !getNV(v).isLabelVisible())
-					continue;
-				final Rectangle box = getNV(v).getLabelRect(trans);
-				if (box != null) {
-                    /*
-                    {
-                        gc.setColor(Color.GREEN);
-                        gc.draw(box);
-                    }
-                    */
-					// find pairs of adjacent labels:
-					for (Node w : drawableNodeLabels) {
-						if (w == v)
-							break;
-						try {
-							if (getGraph().getOutDegree(v) > 0 || getGraph().getOutDegree(w) > 0) {
-								final Rectangle rect = getNV(w).getLabelRect(trans);
-								if (rect != null && box.intersects(rect))
-									pairs.add(new Pair<>(v, w));
-							}
-						} catch (Exception ex) {
-							// silently ignore...
+			{
+				// find pairs of adjacent labels, using a grid so that we don't need to compare all pairs:
+				final RectangleGrid grid = new RectangleGrid(64);
+				final List<Node> gridNodes = new ArrayList<>();
+				for (Node v : drawableNodeLabels) {
+					if (getNV(v) == null || !getNV(v).isLabelVisible())
+						continue;
+					final Rectangle box = getNV(v).getLabelRect(trans);
+					if (box != null) {
+						for (int id : grid.getIntersecting(box)) {
+							final Node w = gridNodes.get(id);
+							if (getGraph().getOutDegree(v) > 0 || getGraph().getOutDegree(w) > 0)
+								pairs.add(new Pair<>(v, w));
 						}
+						grid.add(box);
+						gridNodes.add(v);
 					}
 				}
 			}
@@ -1283,9 +1305,19 @@ public class ClassificationViewer extends ViewerBase implements IDirectableViewe
 			}
 		}
 
-		// draw all labels
+		// draw all labels. On screen, we skip labels that are not visible or would overlap a label that has already been drawn
+		final RectangleGrid drawnLabels = new RectangleGrid(64);
 		for (Node v : drawableNodeLabels) {
-			nodeDrawer.drawLabel(v, getSelected(v));
+			final boolean selected = getSelected(v);
+			if (drawOnScreen && !selected && getNV(v) != null && getNV(v).isLabelVisible()) {
+				final Rectangle box = getNV(v).getLabelRect(trans);
+				if (box != null) {
+					if (!visibleRect.intersects(box) || drawnLabels.intersectsAny(box))
+						continue;
+					drawnLabels.add(box);
+				}
+			}
+			nodeDrawer.drawLabel(v, selected);
 		}
 	}
 
@@ -1681,7 +1713,17 @@ public class ClassificationViewer extends ViewerBase implements IDirectableViewe
 
 	public void computeInduceTreeWithNoCollapsedNodes(PhyloTree tree, Map<Integer, Set<Node>> id2nodes) {
 		tree.clear();
-		classification.getFullTree().extractInducedTree(id2NodeData, new HashSet<>(), tree, id2nodes);
+		classification.getFullTree().extractInducedTree(id2NodeData, getInducedNodes(), new HashSet<>(), tree, id2nodes);
+	}
+
+	/**
+	 * get the nodes of the full tree that are needed to display the current data. These only change when the data changes,
+	 * so collapsing or uncollapsing nodes only requires a walk of the induced tree, not of the full classification
+	 */
+	private NodeSet getInducedNodes() {
+		if (inducedNodes == null)
+			inducedNodes = classification.getFullTree().computeInducedNodes(id2NodeData.keySet());
+		return inducedNodes;
 	}
 
 	public int getTotalAssignedReads() {
@@ -87,7 +87,16 @@ public class TaxonomyData {
 	 * @return true, if disabled
 	 */
 	public static boolean isTaxonDisabled(String cName, Integer taxonId) {
-		return cName.equals(Classification.Taxonomy) && (taxonId == null || (taxonId > 0 && taxonomyClassification.getIdMapper().getDisabledIds().contains(taxonId)));
+		return cName.equals(Classification.Taxonomy) && (taxonId == null || (taxonId > 0 && taxonomyClassification.getIdMapper().isDisabled(taxonId)));
+	}
+
+	/**
+	 * is this taxon, or one of its ancestors, disabled? Taxa that are disabled are ignored by LCA algorithm
+	 *
+	 * @return true, if disabled
+	 */
+	public static boolean isTaxonDisabled(String cName, int taxonId) {
+		return taxonId > 0 && cName.equals(Classification.Taxonomy) && taxonomyClassification.getIdMapper().isDisabled(taxonId);
 	}
 
 	/**
@@ -96,7 +105,16 @@ public class TaxonomyData {
 	 * @return true, if disabled
 	 */
 	public static boolean isTaxonDisabled(Integer taxonId) {
-		return taxonId == null || (taxonId > 0 && taxonomyClassification.getIdMapper().getDisabledIds().contains(taxonId));
+		return taxonId == null || (taxonId > 0 && taxonomyClassification.getIdMapper().isDisabled(taxonId));
+	}
+
+	/**
+	 * is this taxon, or one of its ancestors, disabled? Taxa that are disabled are ignored by LCA algorithm
+	 *
+	 * @return true, if disabled
+	 */
+	public static boolean isTaxonDisabled(int taxonId) {
+		return taxonId > 0 && taxonomyClassification.getIdMapper().isDisabled(taxonId);
 	}
 
 
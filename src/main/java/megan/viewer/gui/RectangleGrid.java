@@ -0,0 +1,120 @@
+/*
+ * RectangleGrid.java Copyright (C) 2024 Daniel H. Huson
+ *
+ *  (Some files contain contributions from other authors, who are then mentioned separately.)
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package megan.viewer.gui;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * uniform grid over rectangles in device coordinates, used to find overlapping node labels without comparing all pairs
+ * Daniel Huson, 10.2026
+ */
+public class RectangleGrid {
+	private final int cellSize;
+	private final Map<Long, int[]> cell2ids = new HashMap<>();
+	private final ArrayList<Rectangle> rectangles = new ArrayList<>();
+
+	/**
+	 * constructor
+	 *
+	 * @param cellSize width and height of a grid cell, should be a bit larger than a typical rectangle
+	 */
+	public RectangleGrid(int cellSize) {
+		this.cellSize = Math.max(1, cellSize);
+	}
+
+	/**
+	 * add a rectangle
+	 *
+	 * @return the id of the rectangle, ids are assigned consecutively starting at 0
+	 */
+	public int add(Rectangle rect) {
+		final var id = rectangles.size();
+		rectangles.add(rect);
+		for (var x = Math.floorDiv(rect.x, cellSize); x <= Math.floorDiv(rect.x + rect.width, cellSize); x++) {
+			for (var y = Math.floorDiv(rect.y, cellSize); y <= Math.floorDiv(rect.y + rect.height, cellSize); y++) {
+				final var key = ((long) x << 32) | (y & 0xffffffffL);
+				final var ids = cell2ids.get(key);
+				if (ids == null)
+					cell2ids.put(key, new int[]{1, id});
+				else {
+					final var grown = (ids[0] + 1 < ids.length ? ids : Arrays.copyOf(ids, 2 * ids.length));
+					grown[++grown[0]] = id;
+					if (grown != ids)
+						cell2ids.put(key, grown);
+				}
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * get the ids of all added rectangles that intersect the given one
+	 *
+	 * @return ids in increasing order
+	 */
+	public int[] getIntersecting(Rectangle rect) {
+		var result = new int[8];
+		var size = 0;
+		for (var x = Math.floorDiv(rect.x, cellSize); x <= Math.floorDiv(rect.x + rect.width, cellSize); x++) {
+			for (var y = Math.floorDiv(rect.y, cellSize); y <= Math.floorDiv(rect.y + rect.height, cellSize); y++) {
+				final var ids = cell2ids.get(((long) x << 32) | (y & 0xffffffffL));
+				if (ids != null) {
+					for (var i = 1; i <= ids[0]; i++) {
+						if (rectangles.get(ids[i]).intersects(rect)) {
+							if (size == result.length)
+								result = Arrays.copyOf(result, 2 * size);
+							result[size++] = ids[i];
+						}
+					}
+				}
+			}
+		}
+		// a rectangle that spans several cells is found more than once
+		Arrays.sort(result, 0, size);
+		var count = 0;
+		for (var i = 0; i < size; i++) {
+			if (count == 0 || result[count - 1] != result[i])
+				result[count++] = result[i];
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * does the given rectangle intersect any of the added ones?
+	 */
+	public boolean intersectsAny(Rectangle rect) {
+		for (var x = Math.floorDiv(rect.x, cellSize); x <= Math.floorDiv(rect.x + rect.width, cellSize); x++) {
+			for (var y = Math.floorDiv(rect.y, cellSize); y <= Math.floorDiv(rect.y + rect.height, cellSize); y++) {
+				final var ids = cell2ids.get(((long) x << 32) | (y & 0xffffffffL));
+				if (ids != null) {
+					for (var i = 1; i <= ids[0]; i++) {
+						if (rectangles.get(ids[i]).intersects(rect))
+							return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+}